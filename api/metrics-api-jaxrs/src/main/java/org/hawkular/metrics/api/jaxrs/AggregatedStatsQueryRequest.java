@@ -45,6 +45,10 @@ public class AggregatedStatsQueryRequest {
 
     private boolean stacked;
 
+    private String timeout;
+
+    private Boolean partial;
+
     public List<String> getMetrics() {
         return metrics;
     }
@@ -117,6 +121,22 @@ public class AggregatedStatsQueryRequest {
         this.stacked = stacked;
     }
 
+    public String getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(String timeout) {
+        this.timeout = timeout;
+    }
+
+    public Boolean getPartial() {
+        return partial;
+    }
+
+    public void setPartial(Boolean partial) {
+        this.partial = partial;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -130,12 +150,15 @@ public class AggregatedStatsQueryRequest {
                 Objects.equals(buckets, that.buckets) &&
                 Objects.equals(bucketDuration, that.bucketDuration) &&
                 Objects.equals(percentiles, that.percentiles) &&
-                Objects.equals(stacked, that.stacked);
+                Objects.equals(stacked, that.stacked) &&
+                Objects.equals(timeout, that.timeout) &&
+                Objects.equals(partial, that.partial);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(metrics, tags, start, end, fromEarliest, buckets, bucketDuration, percentiles, stacked);
+        return Objects.hash(metrics, tags, start, end, fromEarliest, buckets, bucketDuration, percentiles, stacked,
+                timeout, partial);
     }
 
     @Override public String toString() {
@@ -149,6 +172,8 @@ public class AggregatedStatsQueryRequest {
                 .add("bucketDuration", bucketDuration)
                 .add("percentiles", percentiles)
                 .add("stacked", stacked)
+                .add("timeout", timeout)
+                .add("partial", partial)
                 .toString();
     }
 }
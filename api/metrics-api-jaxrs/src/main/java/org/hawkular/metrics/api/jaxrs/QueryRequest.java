@@ -37,6 +37,8 @@ public class QueryRequest {
 
     private String tags;
 
+    private String timeout;
+
     public List<String> getIds() {
         return ids;
     }
@@ -93,6 +95,14 @@ public class QueryRequest {
         this.tags = tags;
     }
 
+    public String getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(String timeout) {
+        this.timeout = timeout;
+    }
+
     @Override public String toString() {
         return "QueryRequest{" +
                 "ids=" + ids +
@@ -102,6 +112,7 @@ public class QueryRequest {
                 ", limit=" + limit +
                 ", order=" + order +
                 ", tags=" + tags +
+                ", timeout=" + timeout +
                 '}';
     }
 }
@@ -18,12 +18,14 @@ package org.hawkular.metrics.api.jaxrs.handler;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
+import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.BINARY_DATA;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.badRequest;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.noContent;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.serverError;
 import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.PatternSyntaxException;
@@ -55,6 +57,8 @@ import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.QueryContext;
+import org.hawkular.metrics.core.service.ingest.BinaryDataReader;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
 import org.hawkular.metrics.model.ApiError;
 import org.hawkular.metrics.model.AvailabilityBucketPoint;
@@ -300,7 +304,9 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
 
     @POST
     @Path("/raw")
-    @ApiOperation(value = "Add metric data for multiple availability metrics in a single call.")
+    @ApiOperation(value = "Add metric data for multiple availability metrics in a single call.",
+            notes = "Also accepts the compact binary format with the " + BINARY_DATA + " content type. " +
+                    "The /metrics/raw endpoint only accepts JSON.")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Adding data succeeded."),
             @ApiResponse(code = 400, message = "Missing or invalid payload", response = ApiError.class),
@@ -319,6 +325,17 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
         observable.subscribe(new ResultSetObserver(asyncResponse));
     }
 
+    @POST
+    @Path("/raw")
+    @Consumes(BINARY_DATA)
+    @ApiOperation(value = "Add data for multiple availability metrics in the compact binary format.", hidden = true)
+    public void addBinaryData(@Suspended final AsyncResponse asyncResponse, byte[] data) {
+        BinaryDataReader reader = new BinaryDataReader(ByteBuffer.wrap(data), AVAILABILITY);
+        Observable<Metric<AvailabilityType>> metrics = Observable.defer(() ->
+                Observable.from(reader.<AvailabilityType>readMetrics(getTenant())));
+        metricsService.addDataPoints(AVAILABILITY, metrics).subscribe(new ResultSetObserver(asyncResponse));
+    }
+
     @POST
     @Path("/raw/query")
     @ApiOperation(value = "Fetch raw data points for multiple metrics. This endpoint is experimental and may " +
@@ -336,7 +353,9 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
-        findMetricsByNameOrTag(query.getIds(), query.getTags(), AVAILABILITY)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), AVAILABILITY, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<AvailabilityType>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -344,7 +363,32 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
+                .subscribe(createNamedDataPointObserver(asyncResponse, AVAILABILITY));
+    }
+
+    @POST
+    @Path("/latest/query")
+    @ApiOperation(value = "Fetch the most recent data point of multiple metrics. This endpoint is experimental and " +
+            "may undergo non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. Other query parameters are ignored.")
+                    QueryRequest query) {
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), AVAILABILITY)
+                .toList()
+                .flatMap(metricIds -> metricsService.findLatestDataPoints(metricIds)
+                        .observeOn(Schedulers.io()))
                 .subscribe(createNamedDataPointObserver(asyncResponse, AVAILABILITY));
     }
 
@@ -446,9 +490,7 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                 .toObservable()
                 .flatMap(p -> metricsService.findAvailabilityData(metricId, p.getTimeRange().getStart(), p
                         .getTimeRange().getEnd(), distinct, p.getLimit(), p.getOrder()))
-                .toList()
-                .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createDataPointObserver(asyncResponse));
     }
 
     @GET
@@ -508,9 +550,12 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout
     ) {
-        metricsService.findMetricIdentifiersWithFilters(getTenant(), AVAILABILITY, tags)
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        metricsService.findMetricIdentifiersWithFilters(getTenant(), AVAILABILITY, tags, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<AvailabilityType>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -518,7 +563,9 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
                 .subscribe(createNamedDataPointObserver(asyncResponse, AVAILABILITY));
     }
 }
@@ -18,6 +18,7 @@ package org.hawkular.metrics.api.jaxrs.handler;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
+import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.BINARY_DATA;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.badRequest;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.noContent;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.serverError;
@@ -25,6 +26,7 @@ import static org.hawkular.metrics.model.MetricType.COUNTER;
 import static org.hawkular.metrics.model.MetricType.COUNTER_RATE;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +60,8 @@ import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.QueryContext;
+import org.hawkular.metrics.core.service.ingest.BinaryDataReader;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
 import org.hawkular.metrics.model.ApiError;
 import org.hawkular.metrics.model.Buckets;
@@ -274,7 +278,9 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
 
     @POST
     @Path("/raw")
-    @ApiOperation(value = "Add data points for multiple counters.")
+    @ApiOperation(value = "Add data points for multiple counters.",
+            notes = "Also accepts the compact binary format with the " + BINARY_DATA + " content type. " +
+                    "The /metrics/raw endpoint only accepts JSON.")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Adding data points succeeded."),
             @ApiResponse(code = 400, message = "Missing or invalid payload", response = ApiError.class),
@@ -290,6 +296,17 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
         observable.subscribe(new ResultSetObserver(asyncResponse));
     }
 
+    @POST
+    @Path("/raw")
+    @Consumes(BINARY_DATA)
+    @ApiOperation(value = "Add data for multiple counter metrics in the compact binary format.", hidden = true)
+    public void addBinaryData(@Suspended final AsyncResponse asyncResponse, byte[] data) {
+        BinaryDataReader reader = new BinaryDataReader(ByteBuffer.wrap(data), COUNTER);
+        Observable<Metric<Long>> metrics = Observable.defer(() ->
+                Observable.from(reader.<Long>readMetrics(getTenant())));
+        metricsService.addDataPoints(COUNTER, metrics).subscribe(new ResultSetObserver(asyncResponse));
+    }
+
     @POST
     @Path("/raw/query")
     @ApiOperation(value = "Fetch raw data points for multiple metrics. This endpoint is experimental and may " +
@@ -307,7 +324,9 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
-        findMetricsByNameOrTag(query.getIds(), query.getTags(), COUNTER)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), COUNTER, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Long>deferredBuilder(query.getStart(), query.getEnd())
                             .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -315,7 +334,32 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                             .toObservable()
                             .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                     p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
+                .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER));
+    }
+
+    @POST
+    @Path("/latest/query")
+    @ApiOperation(value = "Fetch the most recent data point of multiple metrics. This endpoint is experimental and " +
+            "may undergo non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. Other query parameters are ignored.")
+                    QueryRequest query) {
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), COUNTER)
+                .toList()
+                .flatMap(metricIds -> metricsService.findLatestDataPoints(metricIds)
+                        .observeOn(Schedulers.io()))
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER));
     }
 
@@ -335,7 +379,9 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
-        findMetricsByNameOrTag(query.getIds(), query.getTags(), COUNTER)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), COUNTER, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Long>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -343,7 +389,9 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         .toObservable()
                         .flatMap(p -> metricsService.findRateData(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                            .compose(context.bounded())
                             .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER_RATE));
     }
 
@@ -522,9 +570,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                 .toObservable()
                 .flatMap(p -> metricsService.findDataPoints(metricId, p.getTimeRange().getStart(), p.getTimeRange()
                         .getEnd(), p.getLimit(), p.getOrder()))
-                .toList()
-                .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createDataPointObserver(asyncResponse));
     }
 
     @GET
@@ -624,9 +670,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             }
 
             metricsService.findRateData(metricId, timeRange.getStart(), timeRange.getEnd(), limit, order)
-                    .toList()
-                    .map(ApiUtils::collectionToResponse)
-                    .subscribe(asyncResponse::resume, t -> asyncResponse.resume(serverError(t)));
+                    .subscribe(createDataPointObserver(asyncResponse));
         } else {
             if(percentiles == null) {
                 percentiles = new Percentiles(Collections.emptyList());
@@ -705,9 +749,14 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "List of tags filters", required = false) @QueryParam("tags") String tags,
             @ApiParam(value = "List of metric names", required = false) @QueryParam("metrics") List<String> metricNames,
             @ApiParam(value = "Downsample method (if true then sum of stacked individual stats; defaults to false)",
-                required = false) @DefaultValue("false") @QueryParam("stacked") Boolean stacked) {
-
-        findMetricsByNameOrTag(metricNames, tags, MetricType.COUNTER)
+                required = false) @DefaultValue("false") @QueryParam("stacked") Boolean stacked,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout,
+            @ApiParam(value = "Return the stats computed before the timeout instead of failing, defaults to false")
+            @QueryParam("partial") Boolean partial) {
+
+        QueryContext context = createQueryContext(asyncResponse, timeout, partial);
+        findMetricsByNameOrTag(metricNames, tags, MetricType.COUNTER, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndBucketParams.<Long>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -716,11 +765,12 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         .toObservable()
                         .flatMap(p -> metricsService.findNumericStats(metricIds, p.getTimeRange().getStart(),
                                     p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(), p.getPercentiles(),
-                                    stacked, false)))
+                                    stacked, false, context)))
                 .flatMap(Observable::from)
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
-                .map(ApiUtils::collectionToResponse)
+                .map(buckets -> ApiUtils.collectionToResponse(buckets, context.isPartial()))
+                .doAfterTerminate(context::close)
                 .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
     }
 
@@ -741,7 +791,9 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids. " +
                     "The standard start, end, order, and limit query parameters are supported as well.")
                     AggregatedStatsQueryRequest query) {
-        findMetricsByNameOrTag(query.getMetrics(), query.getTags(), MetricType.COUNTER)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, query.getPartial());
+        findMetricsByNameOrTag(query.getMetrics(), query.getTags(), MetricType.COUNTER, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndBucketParams.<Long>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -750,11 +802,12 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         .toObservable()
                         .flatMap(p -> metricsService.findNumericStats(metricIds, p.getTimeRange().getStart(),
                                     p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(), p.getPercentiles(),
-                                    query.isStacked(), false)))
+                                    query.isStacked(), false, context)))
                 .flatMap(Observable::from)
                 .skipWhile(bucket -> Boolean.TRUE.equals(query.getFromEarliest()) && bucket.isEmpty())
                 .toList()
-                .map(ApiUtils::collectionToResponse)
+                .map(buckets -> ApiUtils.collectionToResponse(buckets, context.isPartial()))
+                .doAfterTerminate(context::close)
                 .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
     }
 
@@ -775,7 +828,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "Downsample method (if true then sum of stacked individual stats; defaults to false)",
                 required = false) @DefaultValue("false") @QueryParam("stacked") Boolean stacked) {
         getStats(asyncResponse, start, end, null, bucketsCount, bucketDuration, percentiles, tags, metricNames,
-                stacked);
+                stacked, null, null);
     }
 
     @GET
@@ -804,9 +857,14 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "List of tags filters", required = false) @QueryParam("tags") String tags,
             @ApiParam(value = "List of metric names", required = false) @QueryParam("metrics") List<String> metricNames,
             @ApiParam(value = "Downsample method (if true then sum of stacked individual stats; defaults to false)",
-                required = false) @DefaultValue("false") @QueryParam("stacked") Boolean stacked) {
-
-        findMetricsByNameOrTag(metricNames, tags, MetricType.COUNTER)
+                required = false) @DefaultValue("false") @QueryParam("stacked") Boolean stacked,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout,
+            @ApiParam(value = "Return the stats computed before the timeout instead of failing, defaults to false")
+            @QueryParam("partial") Boolean partial) {
+
+        QueryContext context = createQueryContext(asyncResponse, timeout, partial);
+        findMetricsByNameOrTag(metricNames, tags, MetricType.COUNTER, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndBucketParams.<Long>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -815,11 +873,12 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         .toObservable()
                         .flatMap(p -> metricsService.findNumericStats(metricIds, p.getTimeRange().getStart(),
                                     p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(), p.getPercentiles(),
-                                    stacked, true)))
+                                    stacked, true, context)))
                 .flatMap(Observable::from)
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
-                .map(ApiUtils::collectionToResponse)
+                .map(buckets -> ApiUtils.collectionToResponse(buckets, context.isPartial()))
+                .doAfterTerminate(context::close)
                 .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
     }
 
@@ -840,7 +899,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "Downsample method (if true then sum of stacked individual stats; defaults to false)",
                     required = false) @DefaultValue("false") @QueryParam("stacked") Boolean stacked) {
         getStats(asyncResponse, start, end, null, bucketsCount, bucketDuration, percentiles, tags, metricNames,
-                stacked);
+                stacked, null, null);
     }
 
     @GET
@@ -897,9 +956,12 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout
     ) {
-        metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, tags)
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, tags, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Long>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -907,7 +969,9 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER));
     }
 }
@@ -18,13 +18,17 @@ package org.hawkular.metrics.api.jaxrs.handler;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
+import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.BINARY_DATA;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.badRequest;
 import static org.hawkular.metrics.api.jaxrs.util.ApiUtils.serverError;
 import static org.hawkular.metrics.model.MetricType.GAUGE;
 import static org.hawkular.metrics.model.MetricType.GAUGE_RATE;
 import static org.hawkular.metrics.model.MetricType.UNDEFINED;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -56,9 +60,13 @@ import org.hawkular.metrics.api.jaxrs.handler.template.IMetricsHandler;
 import org.hawkular.metrics.api.jaxrs.param.TimeAndBucketParams;
 import org.hawkular.metrics.api.jaxrs.param.TimeAndSortParams;
 import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
+import org.hawkular.metrics.api.jaxrs.util.JsonGaugeDataReader;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.QueryContext;
+import org.hawkular.metrics.core.service.ThresholdPredicate;
+import org.hawkular.metrics.core.service.ingest.BinaryDataReader;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
 import org.hawkular.metrics.model.ApiError;
 import org.hawkular.metrics.model.DataPoint;
@@ -305,7 +313,9 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
 
     @POST
     @Path("/raw")
-    @ApiOperation(value = "Add data for multiple gauge metrics in a single call.")
+    @ApiOperation(value = "Add data for multiple gauge metrics in a single call.",
+            notes = "Also accepts the compact binary format with the " + BINARY_DATA + " content type. " +
+                    "The /metrics/raw endpoint only accepts JSON.")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Adding data succeeded."),
             @ApiResponse(code = 400, message = "Missing or invalid payload", response = ApiError.class),
@@ -320,6 +330,47 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
         observable.subscribe(new ResultSetObserver(asyncResponse));
     }
 
+    @POST
+    @Path("/raw")
+    @Consumes(BINARY_DATA)
+    @ApiOperation(value = "Add data for multiple gauge metrics in the compact binary format.", hidden = true)
+    public void addBinaryData(@Suspended final AsyncResponse asyncResponse, byte[] data) {
+        BinaryDataReader reader = new BinaryDataReader(ByteBuffer.wrap(data), GAUGE);
+        try {
+            // The data points are stored while they are read, reject an invalid payload before storing any
+            reader.validate();
+        } catch (IllegalArgumentException e) {
+            asyncResponse.resume(badRequest(e));
+            return;
+        }
+        metricsService.addGaugeData(getTenant(), reader).subscribe(new ResultSetObserver(asyncResponse));
+    }
+
+    @POST
+    @Path("/raw/bulk")
+    @ApiOperation(value = "Add data for multiple gauge metrics in a single call, writing the data points while the " +
+            "payload is read. The payload is validated as it is read, the data points preceding an invalid one may " +
+            "have been stored.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Adding data succeeded."),
+            @ApiResponse(code = 400, message = "Missing or invalid payload", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data",
+                response = ApiError.class)
+    })
+    public void addBulkData(
+            @Suspended final AsyncResponse asyncResponse,
+            @ApiParam(value = "List of metrics", required = true) InputStream gauges) {
+        JsonGaugeDataReader reader;
+        try {
+            reader = new JsonGaugeDataReader(mapper.getFactory().createParser(gauges));
+        } catch (IOException e) {
+            asyncResponse.resume(serverError(e));
+            return;
+        }
+        // Subscribing on the request thread, the payload is read from the request's input stream
+        metricsService.addGaugeData(getTenant(), reader).subscribe(new ResultSetObserver(asyncResponse));
+    }
+
     @POST
     @Path("/raw/query")
     @ApiOperation(value = "Fetch raw data points for multiple metrics. This endpoint is experimental and may " +
@@ -337,7 +388,9 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
-        findMetricsByNameOrTag(query.getIds(), query.getTags(), GAUGE)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), GAUGE, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Double>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -345,7 +398,32 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
+                .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE));
+    }
+
+    @POST
+    @Path("/latest/query")
+    @ApiOperation(value = "Fetch the most recent data point of multiple metrics. This endpoint is experimental and " +
+            "may undergo non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched the latest data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
+                    "tags. Other query parameters are ignored.")
+                    QueryRequest query) {
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), GAUGE)
+                .toList()
+                .flatMap(metricIds -> metricsService.findLatestDataPoints(metricIds)
+                        .observeOn(Schedulers.io()))
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE));
     }
 
@@ -365,7 +443,9 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
-        findMetricsByNameOrTag(query.getIds(), query.getTags(), GAUGE)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), GAUGE, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Double>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -373,7 +453,9 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .toObservable()
                         .flatMap(p -> metricsService.findRateData(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE_RATE));
     }
 
@@ -525,9 +607,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .toObservable()
                 .flatMap(p -> metricsService.findDataPoints(metricId, p.getTimeRange().getStart(), p.getTimeRange()
                         .getEnd(), p.getLimit(), p.getOrder()))
-                .toList()
-                .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createDataPointObserver(asyncResponse));
     }
 
     @GET
@@ -596,9 +676,14 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(value = "List of tags filters") @QueryParam("tags") String tags,
             @ApiParam(value = "List of metric names") @QueryParam("metrics") List<String> metricNames,
             @ApiParam(value = "Downsample method (if true then sum of stacked individual stats; defaults to false)")
-            @DefaultValue("false") @QueryParam("stacked") Boolean stacked) {
-
-        findMetricsByNameOrTag(metricNames, tags, MetricType.GAUGE)
+            @DefaultValue("false") @QueryParam("stacked") Boolean stacked,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout,
+            @ApiParam(value = "Return the stats computed before the timeout instead of failing, defaults to false")
+            @QueryParam("partial") Boolean partial) {
+
+        QueryContext context = createQueryContext(asyncResponse, timeout, partial);
+        findMetricsByNameOrTag(metricNames, tags, MetricType.GAUGE, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndBucketParams.<Double>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -607,11 +692,12 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .toObservable()
                         .flatMap(p -> metricsService.findNumericStats(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(), p.getPercentiles(),
-                                stacked, false)))
+                                stacked, false, context)))
                 .flatMap(Observable::from)
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
-                .map(ApiUtils::collectionToResponse)
+                .map(buckets -> ApiUtils.collectionToResponse(buckets, context.isPartial()))
+                .doAfterTerminate(context::close)
                 .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
     }
 
@@ -632,7 +718,9 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids. " +
                     "The standard start, end, order, and limit query parameters are supported as well.")
                     AggregatedStatsQueryRequest query) {
-        findMetricsByNameOrTag(query.getMetrics(), query.getTags(), MetricType.GAUGE)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, query.getPartial());
+        findMetricsByNameOrTag(query.getMetrics(), query.getTags(), MetricType.GAUGE, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndBucketParams.<Double>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -641,11 +729,12 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .toObservable()
                         .flatMap(p -> metricsService.findNumericStats(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(), p.getPercentiles(),
-                                query.isStacked(), false)))
+                                query.isStacked(), false, context)))
                 .flatMap(Observable::from)
                 .skipWhile(bucket -> Boolean.TRUE.equals(query.getFromEarliest()) && bucket.isEmpty())
                 .toList()
-                .map(ApiUtils::collectionToResponse)
+                .map(buckets -> ApiUtils.collectionToResponse(buckets, context.isPartial()))
+                .doAfterTerminate(context::close)
                 .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
     }
 
@@ -703,7 +792,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @DefaultValue("false") @QueryParam("stacked") Boolean stacked) {
 
         getStats(asyncResponse, start, end, null, bucketsCount, bucketDuration, percentiles, tags, metricNames,
-                stacked);
+                stacked, null, null);
     }
 
     @GET
@@ -735,22 +824,22 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
         Predicate<Double> predicate;
         switch (operator) { // Why not enum?
             case "lt":
-                predicate = d -> d < threshold;
+                predicate = new ThresholdPredicate(ThresholdPredicate.Operator.LT, threshold);
                 break;
             case "lte":
-                predicate = d -> d <= threshold;
+                predicate = new ThresholdPredicate(ThresholdPredicate.Operator.LTE, threshold);
                 break;
             case "eq":
-                predicate = d -> d == threshold;
+                predicate = new ThresholdPredicate(ThresholdPredicate.Operator.EQ, threshold);
                 break;
             case "neq":
-                predicate = d -> d != threshold;
+                predicate = new ThresholdPredicate(ThresholdPredicate.Operator.NEQ, threshold);
                 break;
             case "gt":
-                predicate = d -> d > threshold;
+                predicate = new ThresholdPredicate(ThresholdPredicate.Operator.GT, threshold);
                 break;
             case "gte":
-                predicate = d -> d >= threshold;
+                predicate = new ThresholdPredicate(ThresholdPredicate.Operator.GTE, threshold);
                 break;
             default:
                 predicate = null;
@@ -798,9 +887,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                 .toObservable()
                 .flatMap(p -> metricsService.findRateData(metricId, p.getTimeRange().getStart(), p.getTimeRange()
                         .getEnd(), p.getLimit(), p.getOrder()))
-                .toList()
-                .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createDataPointObserver(asyncResponse));
     }
 
     @GET
@@ -868,9 +955,14 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(value = "List of tags filters") @QueryParam("tags") String tags,
             @ApiParam(value = "List of metric names") @QueryParam("metrics") List<String> metricNames,
             @ApiParam(value = "Downsample method (if true then sum of stacked individual stats; defaults to false)")
-            @DefaultValue("false") @QueryParam("stacked") Boolean stacked) {
-
-        findMetricsByNameOrTag(metricNames, tags, MetricType.GAUGE)
+            @DefaultValue("false") @QueryParam("stacked") Boolean stacked,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout,
+            @ApiParam(value = "Return the stats computed before the timeout instead of failing, defaults to false")
+            @QueryParam("partial") Boolean partial) {
+
+        QueryContext context = createQueryContext(asyncResponse, timeout, partial);
+        findMetricsByNameOrTag(metricNames, tags, MetricType.GAUGE, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndBucketParams.<Double>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -879,11 +971,12 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .toObservable()
                         .flatMap(p -> metricsService.findNumericStats(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getBucketConfig().getBuckets(), p.getPercentiles(),
-                                stacked, true)))
+                                stacked, true, context)))
                 .flatMap(Observable::from)
                 .skipWhile(bucket -> Boolean.TRUE.equals(fromEarliest) && bucket.isEmpty())
                 .toList()
-                .map(ApiUtils::collectionToResponse)
+                .map(buckets -> ApiUtils.collectionToResponse(buckets, context.isPartial()))
+                .doAfterTerminate(context::close)
                 .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
     }
 
@@ -906,9 +999,12 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout
     ) {
-        metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, tags)
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, tags, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<Double>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -916,7 +1012,9 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE));
     }
 }
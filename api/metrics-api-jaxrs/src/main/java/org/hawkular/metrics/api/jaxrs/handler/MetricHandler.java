@@ -264,7 +264,9 @@ public class MetricHandler {
 
     @POST
     @Path("/raw")
-    @ApiOperation(value = "Add data points for multiple metrics in a single call.")
+    @ApiOperation(value = "Add data points for multiple metrics in a single call.",
+            notes = "Only accepts JSON. The compact binary format is accepted by the /raw endpoints of the gauges, " +
+                    "counters and availability metrics.")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Adding data points succeeded."),
             @ApiResponse(code = 400, message = "Missing or invalid payload.", response = ApiError.class),
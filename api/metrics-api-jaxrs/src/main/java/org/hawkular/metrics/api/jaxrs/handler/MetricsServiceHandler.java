@@ -16,23 +16,33 @@
  */
 package org.hawkular.metrics.api.jaxrs.handler;
 
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.QUERY_TIMEOUT;
 import static org.hawkular.metrics.api.jaxrs.filter.TenantFilter.TENANT_HEADER_NAME;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 
+import org.hawkular.metrics.api.jaxrs.config.Configurable;
+import org.hawkular.metrics.api.jaxrs.config.ConfigurationProperty;
+import org.hawkular.metrics.api.jaxrs.handler.observer.DataPointObserver;
 import org.hawkular.metrics.api.jaxrs.handler.observer.NamedDataPointObserver;
+import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.core.service.QueryContext;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.exception.QueryTimeoutException;
 import org.hawkular.metrics.model.exception.RuntimeApiError;
+import org.hawkular.metrics.model.param.Duration;
 import org.hawkular.metrics.model.param.TimeRange;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -44,6 +54,11 @@ import rx.Observable;
  */
 abstract class MetricsServiceHandler {
 
+    /**
+     * How long the suspended response of a query with a deadline outlives the deadline, in milliseconds
+     */
+    private static final long RESPONSE_TIMEOUT_GRACE = 5_000;
+
     @Inject
     protected MetricsService metricsService;
 
@@ -53,6 +68,11 @@ abstract class MetricsServiceHandler {
     @Context
     protected HttpHeaders httpHeaders;
 
+    @Inject
+    @Configurable
+    @ConfigurationProperty(QUERY_TIMEOUT)
+    String defaultQueryTimeout;
+
     protected String getTenant() {
         return httpHeaders.getRequestHeaders().getFirst(TENANT_HEADER_NAME);
     }
@@ -61,7 +81,44 @@ abstract class MetricsServiceHandler {
         return new NamedDataPointObserver<>(response, mapper, type);
     }
 
+    <T> DataPointObserver<T> createDataPointObserver(AsyncResponse response) {
+        return new DataPointObserver<>(response, mapper);
+    }
+
+    /**
+     * Creates the context of a query that is bounded by the requested timeout, or by the configured default timeout
+     * if the request did not set one. The query is cancelled when the client disconnects, on containers that report
+     * it, and in any case when the suspended response times out shortly after the deadline of the query.
+     */
+    QueryContext createQueryContext(AsyncResponse response, Duration timeout, Boolean partial) {
+        long timeoutMillis;
+        if (timeout != null) {
+            timeoutMillis = timeout.toMillis();
+        } else if (defaultQueryTimeout != null) {
+            timeoutMillis = Long.parseLong(defaultQueryTimeout);
+        } else {
+            timeoutMillis = 0;
+        }
+        QueryContext context = QueryContext.withTimeout(timeoutMillis, Boolean.TRUE.equals(partial));
+        response.register((ConnectionCallback) disconnected -> context.cancel());
+        if (timeoutMillis > 0) {
+            // A backstop for the parts of the query that do not observe the context. The context itself expires
+            // first, so that partial results still win over this response.
+            response.setTimeoutHandler(timedOut -> {
+                context.cancel();
+                timedOut.resume(ApiUtils.error(new QueryTimeoutException(timeoutMillis)));
+            });
+            response.setTimeout(timeoutMillis + RESPONSE_TIMEOUT_GRACE, TimeUnit.MILLISECONDS);
+        }
+        return context;
+    }
+
     <T> Observable<MetricId<T>> findMetricsByNameOrTag(List<String> metricNames, String tags, MetricType<T> type) {
+        return findMetricsByNameOrTag(metricNames, tags, type, QueryContext.unbounded());
+    }
+
+    <T> Observable<MetricId<T>> findMetricsByNameOrTag(List<String> metricNames, String tags, MetricType<T> type,
+            QueryContext context) {
         if ((metricNames == null || metricNames.isEmpty()) && tags == null) {
             return Observable.error(new RuntimeApiError("Either metrics or tags query parameters must be used"));
         }
@@ -73,7 +130,7 @@ abstract class MetricsServiceHandler {
                     .map(id -> new MetricId<>(getTenant(), type, id));
         }
 
-        return metricsService.findMetricIdentifiersWithFilters(getTenant(), type, tags);
+        return metricsService.findMetricIdentifiersWithFilters(getTenant(), type, tags, context);
     }
 
     <T> Observable<TimeRange> findTimeRange(String start, String end, Boolean fromEarliest,
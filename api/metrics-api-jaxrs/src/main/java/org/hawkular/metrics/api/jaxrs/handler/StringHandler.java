@@ -54,11 +54,13 @@ import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.QueryContext;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
 import org.hawkular.metrics.model.ApiError;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.param.Duration;
 import org.hawkular.metrics.model.param.TagNames;
 import org.hawkular.metrics.model.param.Tags;
 import org.jboss.resteasy.annotations.GZIP;
@@ -304,7 +306,9 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
             @ApiParam(required = true, value = "Query parameters that minimally must include a list of metric ids or " +
                     "tags. The standard start, end, order, and limit query parameters are supported as well.")
                     QueryRequest query) {
-        findMetricsByNameOrTag(query.getIds(), query.getTags(), STRING)
+        Duration timeout = query.getTimeout() == null ? null : new Duration(query.getTimeout());
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), STRING, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<String>deferredBuilder(query.getStart(), query.getEnd())
                         .fromEarliest(query.getFromEarliest(), metricIds, this::findTimeRange)
@@ -313,7 +317,9 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
                 .subscribe(createNamedDataPointObserver(asyncResponse, STRING));
     }
 
@@ -346,9 +352,7 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                 .toObservable()
                 .flatMap(p -> metricsService.findStringData(metricId, p.getTimeRange().getStart(), p
                         .getTimeRange().getEnd(), distinct, p.getLimit(), p.getOrder()))
-                .toList()
-                .map(ApiUtils::collectionToResponse)
-                .subscribe(asyncResponse::resume, t -> asyncResponse.resume(ApiUtils.error(t)));
+                .subscribe(createDataPointObserver(asyncResponse));
     }
 
     @GET
@@ -370,9 +374,12 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Time budget of the query, defaults to the configured query timeout")
+            @QueryParam("timeout") Duration timeout
     ) {
-        metricsService.findMetricIdentifiersWithFilters(getTenant(), STRING, tags)
+        QueryContext context = createQueryContext(asyncResponse, timeout, false);
+        metricsService.findMetricIdentifiersWithFilters(getTenant(), STRING, tags, context)
                 .toList()
                 .flatMap(metricIds -> TimeAndSortParams.<String>deferredBuilder(start, end)
                         .fromEarliest(fromEarliest, metricIds, this::findTimeRange)
@@ -381,7 +388,9 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
                                 p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                .compose(context.bounded())
                                 .observeOn(Schedulers.io())))
+                .doAfterTerminate(context::close)
                 .subscribe(createNamedDataPointObserver(asyncResponse, STRING));
     }
 }
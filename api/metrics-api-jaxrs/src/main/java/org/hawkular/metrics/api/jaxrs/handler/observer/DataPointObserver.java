@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.handler.observer;
+
+import java.io.IOException;
+
+import javax.ws.rs.container.AsyncResponse;
+
+import org.hawkular.metrics.model.DataPoint;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams the data points of a single metric to the client as they arrive, as a plain JSON array of data points.
+ * Each data point is serialized with the object mapper, so the output is the same as when the whole list is
+ * returned as the response entity.
+ *
+ * @author agent
+ */
+public class DataPointObserver<T> extends StreamingObserver<DataPoint<T>> {
+
+    public DataPointObserver(AsyncResponse response, ObjectMapper mapper) {
+        super(response, mapper);
+    }
+
+    @Override
+    protected void writeStart(JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+    }
+
+    @Override
+    protected void writeItem(JsonGenerator generator, DataPoint<T> dataPoint) throws IOException {
+        generator.writeObject(dataPoint);
+    }
+
+    @Override
+    protected void writeEnd(JsonGenerator generator) throws IOException {
+        generator.writeEndArray();
+    }
+}
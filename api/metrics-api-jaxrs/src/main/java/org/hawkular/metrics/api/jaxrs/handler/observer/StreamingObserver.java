@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.handler.observer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.exceptions.MissingBackpressureException;
+import rx.schedulers.Schedulers;
+
+/**
+ * Streams the emitted items to the client as they arrive. The response is resumed with a {@link StreamingOutput}
+ * once the first item is seen (or with 204 if there is none) and the JSON tokens are written directly to the
+ * response output stream, so the full result never has to be materialized in memory.
+ * <p>
+ * At most {@link #PREFETCH} items are requested ahead of the writer. Further items are requested only as the writer
+ * consumes them, which propagates the backpressure of a slow client to the data fetching. The queue between the two
+ * is bounded accordingly; a source that does not honor backpressure fails the response instead of growing it.
+ *
+ * @author agent
+ */
+public abstract class StreamingObserver<E> extends Subscriber<E> {
+    private static final Logger log = Logger.getLogger(StreamingObserver.class);
+
+    static final int PREFETCH = 512;
+
+    private static final Object COMPLETED = new Object();
+
+    private static class Failure {
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final AsyncResponse response;
+    private final ObjectMapper mapper;
+    // One extra slot for the terminal event
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(PREFETCH + 1);
+
+    private volatile boolean started;
+
+    protected StreamingObserver(AsyncResponse response, ObjectMapper mapper) {
+        this.response = response;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Called once before the first item is written.
+     */
+    protected abstract void writeStart(JsonGenerator generator) throws IOException;
+
+    protected abstract void writeItem(JsonGenerator generator, E item) throws IOException;
+
+    /**
+     * Called once after the last item was written, to close what {@link #writeStart(JsonGenerator)} and
+     * {@link #writeItem(JsonGenerator, Object)} left open.
+     */
+    protected abstract void writeEnd(JsonGenerator generator) throws IOException;
+
+    @Override
+    public void onStart() {
+        request(PREFETCH);
+    }
+
+    @Override
+    public void onNext(E item) {
+        if (!queue.offer(item)) {
+            unsubscribe();
+            fail(new MissingBackpressureException("More than " + PREFETCH + " items were emitted ahead of the " +
+                    "writer"));
+            return;
+        }
+        if (!started) {
+            started = true;
+            // The container writes the entity on the thread that resumes the response. The writer blocks while
+            // waiting for more items, so it must not run on the thread that is delivering them.
+            Scheduler.Worker worker = Schedulers.io().createWorker();
+            worker.schedule(() -> {
+                try {
+                    response.resume(Response.ok((StreamingOutput) this::write, MediaType.APPLICATION_JSON_TYPE)
+                            .build());
+                } finally {
+                    worker.unsubscribe();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        log.trace("Fetching data failed", e);
+        if (started) {
+            queue.offer(new Failure(e));
+        } else {
+            response.resume(ApiUtils.error(e));
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        if (started) {
+            queue.offer(COMPLETED);
+        } else {
+            response.resume(Response.ok().status(HttpServletResponse.SC_NO_CONTENT).build());
+        }
+    }
+
+    private void fail(Throwable e) {
+        // The response is failed anyway, make room for the failure so that the writer sees it next
+        queue.clear();
+        onError(e);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write(OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            writeStart(generator);
+            while (true) {
+                Object next = queue.take();
+                if (next == COMPLETED) {
+                    break;
+                }
+                if (next instanceof Failure) {
+                    // The status has already been sent, all we can do is cut the response short
+                    throw new IOException("Streaming data to client failed", ((Failure) next).cause);
+                }
+                request(1);
+                writeItem(generator, (E) next);
+            }
+            writeEnd(generator);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unsubscribe();
+            throw new IOException("Streaming data to client was interrupted", e);
+        } catch (IOException | RuntimeException e) {
+            // Most likely the client went away, stop fetching more data
+            unsubscribe();
+            log.trace("Error while streaming data", e);
+            throw e;
+        }
+    }
+}
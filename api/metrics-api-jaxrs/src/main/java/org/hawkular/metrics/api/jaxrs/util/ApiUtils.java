@@ -25,6 +25,7 @@ import javax.ws.rs.core.Response;
 import org.hawkular.metrics.api.jaxrs.log.RestLogger;
 import org.hawkular.metrics.api.jaxrs.log.RestLogging;
 import org.hawkular.metrics.model.ApiError;
+import org.hawkular.metrics.model.exception.QueryTimeoutException;
 import org.hawkular.metrics.model.exception.RuntimeApiError;
 
 import com.google.common.base.Throwables;
@@ -35,10 +36,30 @@ import com.google.common.base.Throwables;
 public class ApiUtils {
     private static final RestLogger log = RestLogging.getRestLogger(ApiUtils.class);
 
+    /**
+     * Set on the responses of queries that ran out of time and returned partial results
+     */
+    public static final String PARTIAL_RESULTS_HEADER = "Hawkular-Partial-Results";
+
+    /**
+     * Content type of the compact binary ingestion format read by
+     * {@link org.hawkular.metrics.core.service.ingest.BinaryDataReader}
+     */
+    public static final String BINARY_DATA = "application/vnd.hawkular.metrics.data";
+
     public static Response collectionToResponse(Collection<?> collection) {
         return collection.isEmpty() ? noContent() : Response.ok(collection).type(MediaType.APPLICATION_JSON).build();
     }
 
+    public static Response collectionToResponse(Collection<?> collection, boolean partial) {
+        if (!partial) {
+            return collectionToResponse(collection);
+        }
+        Response.ResponseBuilder builder = collection.isEmpty() ? Response.noContent() :
+                Response.ok(collection).type(MediaType.APPLICATION_JSON);
+        return builder.header(PARTIAL_RESULTS_HEADER, Boolean.TRUE.toString()).build();
+    }
+
     public static Response mapToResponse(Map<?, ?> map) {
         return map.isEmpty() ? noContent() : Response.ok(map).type(MediaType.APPLICATION_JSON).build();
     }
@@ -46,6 +67,9 @@ public class ApiUtils {
     public static Response error(Throwable t) {
         if(t instanceof RuntimeApiError) {
             return badRequest(t);
+        } else if (t instanceof QueryTimeoutException) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.APPLICATION_JSON)
+                    .entity(new ApiError(t.getMessage())).build();
         } else {
             return serverError(t);
         }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.util;
+
+import static java.util.Collections.emptyMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.GaugeDataReader;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the gauge data points of a JSON array of metrics, in the same format as the one accepted by
+ * {@code POST /gauges/raw}, one token at a time. Only the metric id and its data points are read, the other properties
+ * of the metrics are skipped.
+ *
+ * Data points that come before the id of their metric are kept until the id is read.
+ *
+ * @author agent
+ */
+public class JsonGaugeDataReader implements GaugeDataReader {
+
+    private static final int INITIAL_PENDING_CAPACITY = 16;
+
+    private final JsonParser parser;
+
+    private boolean started;
+    private boolean finished;
+    private boolean empty = true;
+    private boolean inMetric;
+    private boolean inData;
+
+    private String metricName;
+    private long timestamp;
+    private double value;
+    private Map<String, String> tags;
+
+    private long[] pendingTimestamps;
+    private double[] pendingValues;
+    private Map<String, String>[] pendingTags;
+    private int pendingSize;
+    private int pendingIndex;
+
+    public JsonGaugeDataReader(JsonParser parser) {
+        this.parser = parser;
+    }
+
+    @Override
+    public boolean next() {
+        if (finished) {
+            return false;
+        }
+        try {
+            boolean hasNext = advance();
+            finished = !hasNext;
+            return hasNext;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e.getOriginalMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean advance() throws IOException {
+        if (!started) {
+            started = true;
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new IllegalArgumentException("Payload is empty");
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Expected an array of metrics");
+            }
+        }
+        while (true) {
+            if (metricName != null && pendingIndex < pendingSize) {
+                timestamp = pendingTimestamps[pendingIndex];
+                value = pendingValues[pendingIndex];
+                tags = pendingTags[pendingIndex];
+                pendingTags[pendingIndex++] = null;
+                return true;
+            }
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new IllegalArgumentException("Unexpected end of payload");
+            }
+            if (inData) {
+                if (token == JsonToken.START_OBJECT) {
+                    readDataPoint();
+                    if (metricName != null) {
+                        return true;
+                    }
+                    addPending();
+                } else if (token == JsonToken.END_ARRAY) {
+                    inData = false;
+                } else {
+                    throw new IllegalArgumentException("Expected a data point");
+                }
+            } else if (inMetric) {
+                if (token == JsonToken.END_OBJECT) {
+                    if (metricName == null) {
+                        throw new IllegalArgumentException("Metric id is null");
+                    }
+                    inMetric = false;
+                } else {
+                    readMetricProperty();
+                }
+            } else if (token == JsonToken.START_OBJECT) {
+                inMetric = true;
+                empty = false;
+                metricName = null;
+                pendingSize = 0;
+                pendingIndex = 0;
+            } else if (token == JsonToken.END_ARRAY) {
+                if (empty) {
+                    throw new IllegalArgumentException("Payload is empty");
+                }
+                return false;
+            } else {
+                throw new IllegalArgumentException("Expected a metric");
+            }
+        }
+    }
+
+    private void readMetricProperty() throws IOException {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if ("id".equals(field)) {
+            if (token == JsonToken.VALUE_NULL) {
+                throw new IllegalArgumentException("Metric id is null");
+            }
+            if (token != JsonToken.VALUE_STRING) {
+                throw new IllegalArgumentException("Expected a string metric id");
+            }
+            metricName = parser.getText();
+        } else if ("data".equals(field)) {
+            if (token == JsonToken.START_ARRAY) {
+                inData = true;
+            } else if (token != JsonToken.VALUE_NULL) {
+                throw new IllegalArgumentException("Expected an array of data points");
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private void readDataPoint() throws IOException {
+        boolean hasTimestamp = false;
+        boolean hasValue = false;
+        tags = emptyMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "timestamp":
+                    timestamp = token.isNumeric() ? parser.getLongValue() : Long.parseLong(parser.getText());
+                    hasTimestamp = true;
+                    break;
+                case "value":
+                    value = token.isNumeric() ? parser.getDoubleValue() : Double.parseDouble(parser.getText());
+                    hasValue = true;
+                    break;
+                case "tags":
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new IllegalArgumentException("Expected an object of data point tags");
+                    }
+                    readTags();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (!hasTimestamp) {
+            throw new IllegalArgumentException("Data point timestamp is null");
+        }
+        if (!hasValue) {
+            throw new IllegalArgumentException("Data point value is null");
+        }
+    }
+
+    private void readTags() throws IOException {
+        Map<String, String> map = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            map.put(name, parser.getValueAsString());
+        }
+        if (!map.isEmpty()) {
+            tags = map;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addPending() {
+        if (pendingTimestamps == null) {
+            pendingTimestamps = new long[INITIAL_PENDING_CAPACITY];
+            pendingValues = new double[INITIAL_PENDING_CAPACITY];
+            pendingTags = new Map[INITIAL_PENDING_CAPACITY];
+        } else if (pendingSize == pendingTimestamps.length) {
+            pendingTimestamps = Arrays.copyOf(pendingTimestamps, pendingSize * 2);
+            pendingValues = Arrays.copyOf(pendingValues, pendingSize * 2);
+            pendingTags = Arrays.copyOf(pendingTags, pendingSize * 2);
+        }
+        pendingTimestamps[pendingSize] = timestamp;
+        pendingValues[pendingSize] = value;
+        pendingTags[pendingSize++] = tags;
+    }
+
+    @Override
+    public String getMetricName() {
+        return metricName;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return tags;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.handler.observer;
+
+import static java.util.Collections.emptyMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.hawkular.metrics.api.jaxrs.util.ObjectMapperProducer;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.NamedDataPoint;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import rx.Observable;
+import rx.exceptions.MissingBackpressureException;
+
+/**
+ * @author agent
+ */
+public class StreamingObserverTest {
+
+    private ObjectMapper mapper;
+
+    private AsyncResponse response;
+
+    @Before
+    public void setUp() {
+        ObjectMapperProducer producer = new ObjectMapperProducer();
+        producer.initMapper();
+        mapper = producer.getMapper();
+        response = mock(AsyncResponse.class);
+    }
+
+    @Test
+    public void streamsDataPointsInOrder() throws Exception {
+        // More than the prefetch, so that the writer has to request the rest
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < StreamingObserver.PREFETCH * 3; ++i) {
+            dataPoints.add(new DataPoint<>((long) i, (double) i));
+        }
+        Observable.from(dataPoints).subscribe(new DataPointObserver<>(response, mapper));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamingOutput().write(out);
+
+        JsonNode json = mapper.readTree(out.toByteArray());
+        assertEquals(dataPoints.size(), json.size());
+        for (int i = 0; i < dataPoints.size(); ++i) {
+            assertEquals(i, json.get(i).get("timestamp").asLong());
+            assertEquals(i, json.get(i).get("value").asDouble(), 0.0);
+            assertFalse(json.get(i).has("tags"));
+        }
+    }
+
+    @Test
+    public void groupsNamedDataPointsByMetric() throws Exception {
+        Observable.just(
+                new NamedDataPoint<>("a", 1L, 1L, emptyMap()),
+                new NamedDataPoint<>("a", 2L, 2L, emptyMap()),
+                new NamedDataPoint<>("b", 1L, 3L, emptyMap()))
+                .subscribe(new NamedDataPointObserver<>(response, mapper, MetricType.COUNTER));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamingOutput().write(out);
+
+        assertEquals("[{\"id\":\"a\",\"data\":[{\"timestamp\":1,\"value\":1},{\"timestamp\":2,\"value\":2}]}," +
+                "{\"id\":\"b\",\"data\":[{\"timestamp\":1,\"value\":3}]}]", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void emptyResultIsNoContent() {
+        Observable.<DataPoint<Double>>empty().subscribe(new DataPointObserver<>(response, mapper));
+
+        ArgumentCaptor<Response> captor = ArgumentCaptor.forClass(Response.class);
+        verify(response).resume(captor.capture());
+        assertEquals(Response.Status.NO_CONTENT.getStatusCode(), captor.getValue().getStatus());
+    }
+
+    @Test
+    public void errorBeforeFirstDataPointIsServerError() {
+        Observable.<DataPoint<Double>>error(new RuntimeException("Test"))
+                .subscribe(new DataPointObserver<>(response, mapper));
+
+        ArgumentCaptor<Response> captor = ArgumentCaptor.forClass(Response.class);
+        verify(response).resume(captor.capture());
+        assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), captor.getValue().getStatus());
+    }
+
+    @Test
+    public void errorMidStreamFailsTheWriteAfterTheWrittenDataPoints() throws Exception {
+        RuntimeException error = new RuntimeException("Test");
+        Observable.just(new DataPoint<>(1L, 1.0), new DataPoint<>(2L, 2.0))
+                .concatWith(Observable.error(error))
+                .subscribe(new DataPointObserver<>(response, mapper));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            streamingOutput().write(out);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals(error, e.getCause());
+        }
+        assertTrue(out.toString("UTF-8").startsWith("[{\"timestamp\":1,\"value\":1.0},{\"timestamp\":2,"));
+    }
+
+    @Test
+    public void clientDisconnectStopsFetching() throws Exception {
+        AtomicInteger emitted = new AtomicInteger();
+        DataPointObserver<Double> observer = new DataPointObserver<>(response, mapper);
+        Observable.range(0, Integer.MAX_VALUE)
+                .map(i -> new DataPoint<>((long) i, (double) i))
+                .doOnNext(dataPoint -> emitted.incrementAndGet())
+                .subscribe(observer);
+
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        try {
+            streamingOutput().write(disconnected);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("Broken pipe", e.getMessage());
+        }
+        assertTrue(observer.isUnsubscribed());
+        // Only what was requested ahead of the writer was fetched
+        assertTrue(emitted.get() < StreamingObserver.PREFETCH * 2);
+    }
+
+    @Test
+    public void sourceIgnoringBackpressureFailsTheStream() throws Exception {
+        DataPointObserver<Double> observer = new DataPointObserver<>(response, mapper);
+        observer.onStart();
+        for (int i = 0; i <= StreamingObserver.PREFETCH + 1; ++i) {
+            observer.onNext(new DataPoint<>((long) i, (double) i));
+        }
+
+        try {
+            streamingOutput().write(new ByteArrayOutputStream());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals(MissingBackpressureException.class, e.getCause().getClass());
+        }
+        assertTrue(observer.isUnsubscribed());
+    }
+
+    private StreamingOutput streamingOutput() {
+        ArgumentCaptor<Response> captor = ArgumentCaptor.forClass(Response.class);
+        verify(response, timeout(5000)).resume(captor.capture());
+        Response resumed = captor.getValue();
+        assertEquals(Response.Status.OK.getStatusCode(), resumed.getStatus());
+        return (StreamingOutput) resumed.getEntity();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.util;
+
+import static java.util.Collections.emptyMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * @author agent
+ */
+public class JsonGaugeDataReaderTest {
+
+    private final JsonFactory factory = new JsonFactory().enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES);
+
+    @Test
+    public void readsDataPointsOfEachMetric() throws Exception {
+        String json = "[{'id': 'a', 'tags': {'x': 'y'}, 'data': [{'timestamp': 10, 'value': 1.5}," +
+                "{'timestamp': 20, 'value': 2, 'tags': {'t': 'v'}}]}," +
+                "{'data': [{'value': '3.5', 'timestamp': '30'}], 'dataRetention': 7, 'id': 'b'}," +
+                "{'id': 'c', 'data': []}]";
+
+        List<String> read = readAll(json);
+
+        assertEquals(3, read.size());
+        assertEquals("a 10 1.5 " + emptyMap(), read.get(0));
+        assertEquals("a 20 2.0 " + ImmutableMap.of("t", "v"), read.get(1));
+        assertEquals("b 30 3.5 " + emptyMap(), read.get(2));
+    }
+
+    @Test
+    public void failsOnInvalidPayload() throws Exception {
+        assertInvalid("", "Payload is empty");
+        assertInvalid("[]", "Payload is empty");
+        assertInvalid("{}", "Expected an array of metrics");
+        assertInvalid("[{'data': [{'timestamp': 10, 'value': 1}]}]", "Metric id is null");
+        assertInvalid("[{'id': 'a', 'data': [{'timestamp': 10}]}]", "Data point value is null");
+        assertInvalid("[{'id': 'a', 'data': [{'value': 1, 'timestamp': null}]}]", "Data point timestamp is null");
+    }
+
+    private List<String> readAll(String json) throws Exception {
+        JsonGaugeDataReader reader = new JsonGaugeDataReader(factory.createParser(json));
+        List<String> read = new ArrayList<>();
+        while (reader.next()) {
+            read.add(reader.getMetricName() + " " + reader.getTimestamp() + " " + reader.getValue() + " " +
+                    reader.getTags());
+        }
+        assertFalse(reader.next());
+        return read;
+    }
+
+    private void assertInvalid(String json, String message) throws Exception {
+        try {
+            readAll(json);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+            return;
+        }
+        fail("Expected " + json + " to be rejected");
+    }
+}
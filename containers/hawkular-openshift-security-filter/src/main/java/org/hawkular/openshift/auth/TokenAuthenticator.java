@@ -51,6 +51,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -59,6 +60,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.hawkular.metrics.api.jaxrs.util.MetricRegistryProvider;
 import org.jboss.logging.Logger;
 import org.xnio.BufferAllocator;
@@ -75,6 +77,8 @@ import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 
 import io.undertow.Undertow;
@@ -146,6 +150,11 @@ class TokenAuthenticator implements Authenticator {
     private static final int MAX_PENDING = 32 * 1024;
     private static final String TOO_MANY_PENDING_REQUESTS = "Too many pending requests";
     private static final String CLIENT_REQUEST_FAILURE = "Kubernetes client request failure";
+    private static final String REVIEW_CACHE_TTL_SYSPROP = "TOKEN_REVIEW_CACHE_TTL";
+    private static final String REVIEW_CACHE_SIZE_SYSPROP = "TOKEN_REVIEW_CACHE_SIZE";
+    // In seconds, zero disables the cache
+    private static final long REVIEW_CACHE_TTL = Long.getLong(REVIEW_CACHE_TTL_SYSPROP, 30);
+    private static final long REVIEW_CACHE_SIZE = Long.getLong(REVIEW_CACHE_SIZE_SYSPROP, 10_000);
 
     private static final String METRICS_SCOPE = "OpenShift";
     private static final String METRICS_TYPE = "Security";
@@ -158,6 +167,8 @@ class TokenAuthenticator implements Authenticator {
     private final ConnectionFactory connectionFactory;
     private final Timer authLatency;
     private final Timer apiLatency;
+    private final Cache<ReviewKey, Boolean> reviews;
+    private final ConcurrentMap<ReviewKey, PendingReview> pendingReviews;
 
     private final Pattern postQuery;
     private final String resourceName;
@@ -182,6 +193,15 @@ class TokenAuthenticator implements Authenticator {
         // fully initialized. Calling registerMetaData will result in an NPE.
         authLatency = metrics.timer("openshift-oauth-latency");
         apiLatency = metrics.timer("openshift-oauth-kubernetes-response-time");
+        if (REVIEW_CACHE_TTL > 0) {
+            reviews = CacheBuilder.newBuilder()
+                    .maximumSize(REVIEW_CACHE_SIZE)
+                    .expireAfterWrite(REVIEW_CACHE_TTL, SECONDS)
+                    .build();
+        } else {
+            reviews = null;
+        }
+        pendingReviews = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -191,6 +211,8 @@ class TokenAuthenticator implements Authenticator {
         // Make sure the exchange attachment is removed in the end
         serverExchange.addExchangeCompleteListener((exchange, nextListener) -> {
             exchange.removeAttachment(AUTH_CONTEXT_KEY);
+            // The review failed, let the requests waiting for it send their own
+            completeReview(context, null);
             nextListener.proceed();
         });
         if (context.isMissingTenantHeader()) {
@@ -198,9 +220,41 @@ class TokenAuthenticator implements Authenticator {
             return;
         }
 
+        context.verb = getVerb(serverExchange);
+        context.resource = getResource(serverExchange);
+        if (reviews != null) {
+            ReviewKey key = new ReviewKey(context.authorizationHeader, context.tenant, context.verb,
+                    context.resource);
+            Boolean allowed = reviews.getIfPresent(key);
+            if (allowed != null) {
+                serverExchange.removeAttachment(AUTH_CONTEXT_KEY);
+                if (allowed) {
+                    containerHandler.handleRequest(serverExchange);
+                } else {
+                    endExchange(serverExchange, FORBIDDEN);
+                }
+                return;
+            }
+            context.reviewKey = key;
+        }
+
         // Marks the request as dispatched. If we don't do this, the exchange will be terminated by the container when
         // this method returns, but we need to wait for Kubernetes' master response.
         serverExchange.dispatch();
+        if (context.reviewKey != null) {
+            PendingReview pendingReview = new PendingReview();
+            PendingReview ongoing = pendingReviews.putIfAbsent(context.reviewKey, pendingReview);
+            if (ongoing == null) {
+                context.pendingReview = pendingReview;
+            } else if (ongoing.join(serverExchange)) {
+                // Another request is already asking the same question, wait for its answer
+                return;
+            }
+        }
+        requestAccessReview(serverExchange);
+    }
+
+    private void requestAccessReview(HttpServerExchange serverExchange) {
         XnioIoThread ioThread = serverExchange.getIoThread();
         ConnectionPool connectionPool = connectionPools.computeIfAbsent(ioThread, t -> new ConnectionPool(connectionFactory, componentName));
         PooledConnectionWaiter waiter = createWaiter(serverExchange);
@@ -237,23 +291,7 @@ class TokenAuthenticator implements Authenticator {
      */
     private void sendAuthenticationRequest(HttpServerExchange serverExchange, PooledConnection connection) {
         AuthContext context = serverExchange.getAttachment(AUTH_CONTEXT_KEY);
-        String verb = getVerb(serverExchange);
-
-        String resource;
-        // if we are not dealing with a query
-        if (!isQuery(serverExchange)) {
-            // is USER_WRITE_ACCESS is disabled, then use the legacy check.
-            // Otherwise check using the actual resource (eg 'hawkular-metrics', 'hawkular-alerts', etc)
-            if (USER_WRITE_ACCESS.equalsIgnoreCase("true")) {
-                resource = RESOURCE;
-            } else {
-                resource= resourceName;
-            }
-        } else {
-            resource = RESOURCE;
-        }
-
-        context.subjectAccessReview = generateSubjectAccessReview(context.tenant, verb, resource);
+        context.subjectAccessReview = generateSubjectAccessReview(context.tenant, context.verb, context.resource);
         ClientRequest request = buildClientRequest(context);
         context.clientRequestStarting();
         connection.sendRequest(request, new RequestReadyCallback(serverExchange, connection));
@@ -266,6 +304,26 @@ class TokenAuthenticator implements Authenticator {
         endExchange(serverExchange, INTERNAL_SERVER_ERROR, TIMEDOUT_WAITING_CONNECTION);
     }
 
+    /**
+     * Determine the resource to check the access to.
+     *
+     * @return the resource to use
+     */
+    private String getResource(HttpServerExchange serverExchange) {
+        // if we are not dealing with a query
+        if (!isQuery(serverExchange)) {
+            // is USER_WRITE_ACCESS is disabled, then use the legacy check.
+            // Otherwise check using the actual resource (eg 'hawkular-metrics', 'hawkular-alerts', etc)
+            if (USER_WRITE_ACCESS.equalsIgnoreCase("true")) {
+                return RESOURCE;
+            } else {
+                return resourceName;
+            }
+        } else {
+            return RESOURCE;
+        }
+    }
+
     /**
      * Determine the verb we should apply based on the HTTP method being requested.
      *
@@ -326,6 +384,10 @@ class TokenAuthenticator implements Authenticator {
         AuthContext context = serverExchange.removeAttachment(AUTH_CONTEXT_KEY);
         apiLatency.update(context.getClientResponseTime(), NANOSECONDS);
         authLatency.update(context.getLatency(), NANOSECONDS);
+        if (context.reviewKey != null) {
+            reviews.put(context.reviewKey, allowed);
+            completeReview(context, allowed);
+        }
         if (allowed) {
             serverExchange.dispatch(containerHandler);
         } else {
@@ -333,6 +395,36 @@ class TokenAuthenticator implements Authenticator {
         }
     }
 
+    /**
+     * Hands the result of a review over to the requests which were waiting for it. Without a result, they send their
+     * own review request.
+     */
+    private void completeReview(AuthContext context, Boolean allowed) {
+        PendingReview pendingReview = context.pendingReview;
+        if (pendingReview == null) {
+            return;
+        }
+        context.pendingReview = null;
+        pendingReviews.remove(context.reviewKey, pendingReview);
+        for (HttpServerExchange follower : pendingReview.complete()) {
+            // Each exchange must be handled by its own io thread, as well as its connection pool
+            follower.getIoThread().execute(() -> {
+                if (allowed == null) {
+                    requestAccessReview(follower);
+                    return;
+                }
+                AuthContext followerContext = follower.removeAttachment(AUTH_CONTEXT_KEY);
+                followerContext.clientResponseReceived();
+                authLatency.update(followerContext.getLatency(), NANOSECONDS);
+                if (allowed) {
+                    follower.dispatch(containerHandler);
+                } else {
+                    endExchange(follower, FORBIDDEN);
+                }
+            });
+        }
+    }
+
     /**
      * Called if an exception occurs at any stage in the process.
      */
@@ -375,7 +467,12 @@ class TokenAuthenticator implements Authenticator {
         private long creation;
         private String authorizationHeader;
         private String tenant;
+        private String verb;
+        private String resource;
         private String subjectAccessReview;
+        private ReviewKey reviewKey;
+        // Only set on the request which sends the review when others are waiting for the same review
+        private PendingReview pendingReview;
         private int retries;
         private long requestStart;
         private long requestStop;
@@ -409,6 +506,62 @@ class TokenAuthenticator implements Authenticator {
         }
     }
 
+    /**
+     * Identifies a subject access review. The token is only kept as a hash.
+     */
+    private static final class ReviewKey {
+        private final String tokenHash;
+        private final String namespace;
+        private final String verb;
+        private final String resource;
+
+        private ReviewKey(String authorizationHeader, String namespace, String verb, String resource) {
+            this.tokenHash = DigestUtils.sha256Hex(authorizationHeader);
+            this.namespace = namespace;
+            this.verb = verb;
+            this.resource = resource;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ReviewKey reviewKey = (ReviewKey) o;
+            return tokenHash.equals(reviewKey.tokenHash) && namespace.equals(reviewKey.namespace)
+                    && verb.equals(reviewKey.verb) && resource.equals(reviewKey.resource);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tokenHash, namespace, verb, resource);
+        }
+    }
+
+    /**
+     * The requests waiting for the result of a review which is already being sent to the Kubernetes master. Requests
+     * come from any io thread.
+     */
+    private static final class PendingReview {
+        private final List<HttpServerExchange> followers = new ArrayList<>();
+        private boolean completed;
+
+        /**
+         * @return false if the review has already completed or too many requests are waiting, true otherwise
+         */
+        private synchronized boolean join(HttpServerExchange serverExchange) {
+            if (completed || followers.size() >= MAX_PENDING) {
+                return false;
+            }
+            followers.add(serverExchange);
+            return true;
+        }
+
+        private synchronized List<HttpServerExchange> complete() {
+            completed = true;
+            return followers;
+        }
+    }
+
     /**
      * Callback invoked when the client exchange is ready for sending data.
      */
@@ -17,8 +17,10 @@
 package org.hawkular.metrics.core.jobs;
 
 import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.scheduler.api.JobDetails;
+import org.hawkular.metrics.scheduler.api.JobParameters;
 import org.hawkular.rx.cassandra.driver.RxSession;
 import org.jboss.logging.Logger;
 
@@ -29,6 +31,15 @@ import rx.Observable;
 import rx.functions.Func1;
 
 /**
+ * Deletes a tenant and all of its metrics. The metrics are listed from the tenant's partitions of the metrics index
+ * and of the metric id registry, so no table is scanned for them. A metric that is in neither of them has never been
+ * created explicitly nor registered, and its data is left to expire with its TTL. The metrics are deleted in batches
+ * of {@link #BATCH_SIZE} with at most {@link #DELETE_CONCURRENCY} concurrent deletes. The tag index partitions of the
+ * tenant are read from the tag index itself, which also removes the partitions no metric refers to anymore.
+ *
+ * The progress is saved to the job parameters after every batch. A deleted metric is no longer listed, so a job that
+ * is restarted after a failure continues with the metrics that are left and skips the phases it already finished.
+ *
  * @author jsanda
  */
 public class DeleteTenant implements Func1<JobDetails, Completable> {
@@ -37,11 +48,28 @@ public class DeleteTenant implements Func1<JobDetails, Completable> {
 
     public static final String JOB_NAME = "DELETE_TENANT";
 
+    /**
+     * Job parameter with the number of metrics deleted so far
+     */
+    public static final String DELETED_METRICS = "deletedMetrics";
+
+    /**
+     * Job parameter set once the metrics have all been deleted
+     */
+    public static final String METRICS_DELETED = "metricsDeleted";
+
+    static final int BATCH_SIZE = 100;
+
+    static final int DELETE_CONCURRENCY = 8;
+
     private RxSession session;
 
     private PreparedStatement deleteTenant;
+    private PreparedStatement findMetricsInMetricsIndex;
+    private PreparedStatement findMetricIds;
     private PreparedStatement deleteFromMetricsIndex;
-    private PreparedStatement findTags;
+    private PreparedStatement deleteMetricIds;
+    private PreparedStatement findTagNames;
     private PreparedStatement deleteTag;
     private PreparedStatement deleteRetentions;
 
@@ -51,56 +79,101 @@ public class DeleteTenant implements Func1<JobDetails, Completable> {
         this.session = session;
         this.metricsService = metricsService;
         deleteTenant = session.getSession().prepare("DELETE FROM tenants WHERE id = ?");
+        findMetricsInMetricsIndex = session.getSession().prepare(
+                "SELECT metric FROM metrics_idx WHERE tenant_id = ? AND type = ?");
+        findMetricIds = session.getSession().prepare("SELECT metric FROM metric_ids WHERE tenant_id = ? AND type = ?");
         deleteFromMetricsIndex = session.getSession().prepare(
                 "DELETE FROM metrics_idx WHERE tenant_id = ? AND type = ?");
-        findTags = session.getSession().prepare("SELECT DISTINCT tenant_id, tname FROM metrics_tags_idx");
+        deleteMetricIds = session.getSession().prepare("DELETE FROM metric_ids WHERE tenant_id = ? AND type = ?");
+        // Only reads the partition keys. Cassandra 3.10 will allow restricting it to the tenant_id.
+        findTagNames = session.getSession().prepare("SELECT DISTINCT tenant_id, tname FROM metrics_tags_idx");
         deleteTag = session.getSession().prepare("DELETE FROM metrics_tags_idx WHERE tenant_id = ? AND tname = ?");
         deleteRetentions = session.getSession().prepare("DELETE FROM retentions_idx WHERE tenant_id = ? AND type = ?");
     }
 
     @Override
     public Completable call(JobDetails details) {
-        String tenantId = details.getParameters().get("tenantId");
-
-        // The concat operator is used instead of merge to ensure things execute in order. The deleteMetricData
-        // method queries the metrics index, so we want to update the index only after we have finished deleting
-        // data.
-        return deleteMetricData(tenantId)
-                .concatWith(deleteTenant(tenantId))
-                .concatWith(deleteRetentions(tenantId))
-                .concatWith(deleteMetricsIndex(tenantId))
-                .concatWith(deleteTags(tenantId))
+        JobParameters parameters = details.getParameters();
+        String tenantId = parameters.get("tenantId");
+
+        // The phases run in order. The metrics are listed from the metrics index and the registry, so those are
+        // updated only after we have finished deleting data. The session executes statements as soon as they are
+        // passed to it, hence the deferred phases.
+        return deleteMetricData(tenantId, parameters)
+                .andThen(Completable.defer(() -> deleteTenant(tenantId)))
+                .andThen(deleteRetentions(tenantId))
+                .andThen(Completable.defer(() -> deleteTags(tenantId)))
+                .andThen(deleteMetricsIndex(tenantId))
+                .doOnCompleted(() -> logger.infof("Finished deleting %s", tenantId));
+    }
+
+    private Completable deleteMetricData(String tenantId, JobParameters parameters) {
+        if (Boolean.parseBoolean(parameters.get(METRICS_DELETED))) {
+            logger.debugf("Metrics of %s already deleted, resuming with the indexes", tenantId);
+            return Completable.complete();
+        }
+        if (getDeletedMetrics(parameters) > 0) {
+            logger.infof("Resuming the deletion of %s after %d deleted metrics", tenantId,
+                    getDeletedMetrics(parameters));
+        }
+
+        return findMetricIds(tenantId)
+                .buffer(BATCH_SIZE)
+                .concatMap(batch -> Observable.from(batch)
+                        .flatMap(metricsService::deleteMetric, DELETE_CONCURRENCY)
+                        .toCompletable()
+                        .andThen(Completable.defer(() -> {
+                            long deleted = getDeletedMetrics(parameters) + batch.size();
+                            parameters.put(DELETED_METRICS, Long.toString(deleted));
+                            return parameters.save();
+                        }))
+                        .toObservable())
                 .toCompletable()
-                .doOnCompleted(() -> logger.infof("Finished deleting " + tenantId));
+                .andThen(Completable.defer(() -> {
+                    parameters.put(METRICS_DELETED, Boolean.TRUE.toString());
+                    return parameters.save();
+                }));
     }
 
-    private Observable<Void> deleteMetricData(String tenantId) {
-        return Observable.from(MetricType.all())
-                .flatMap(type -> metricsService.findMetrics(tenantId, type))
-                .flatMap(metric -> metricsService.deleteMetric(metric.getMetricId()));
+    /**
+     * Lists the metrics of every type from the tenant's partitions of the metrics index and of the registry. The two
+     * are read one type at a time and a metric found in both is deleted once.
+     */
+    private Observable<MetricId<?>> findMetricIds(String tenantId) {
+        return Observable.from(MetricType.userTypes())
+                .concatMap(type -> session.executeAndFetch(findMetricsInMetricsIndex.bind(tenantId, type.getCode()))
+                        .concatWith(session.executeAndFetch(findMetricIds.bind(tenantId, type.getCode())))
+                        .map(row -> row.getString(0))
+                        .distinct()
+                        .map(metric -> new MetricId<>(tenantId, type, metric)));
+    }
+
+    private static long getDeletedMetrics(JobParameters parameters) {
+        String deleted = parameters.get(DELETED_METRICS);
+        return deleted == null ? 0 : Long.parseLong(deleted);
     }
 
-    private Observable<Void> deleteMetricsIndex(String tenantId) {
+    private Completable deleteMetricsIndex(String tenantId) {
         return Observable.from(MetricType.all())
-                .flatMap(type -> session.execute(deleteFromMetricsIndex.bind(tenantId, type.getCode())))
-                .map(r -> null);
+                .flatMap(type -> session.execute(deleteFromMetricsIndex.bind(tenantId, type.getCode()))
+                        .mergeWith(session.execute(deleteMetricIds.bind(tenantId, type.getCode()))))
+                .toCompletable();
     }
 
-    private Observable<Void> deleteTags(String tenantId) {
-        return session.execute(findTags.bind())
-                .flatMap(Observable::from)
-                .filter(row -> row.getString(0).equals(tenantId))
-                .flatMap(row -> session.execute(deleteTag.bind(row.getString(0), row.getString(1))))
-                .map(r -> null);
+    private Completable deleteTags(String tenantId) {
+        return session.executeAndFetch(findTagNames.bind())
+                .filter(row -> tenantId.equals(row.getString(0)))
+                .flatMap(row -> session.execute(deleteTag.bind(tenantId, row.getString(1))), DELETE_CONCURRENCY)
+                .toCompletable();
     }
 
-    private Observable<Void> deleteRetentions(String tenantId) {
+    private Completable deleteRetentions(String tenantId) {
         return Observable.from(MetricType.all())
                 .flatMap(type -> session.execute(deleteRetentions.bind(tenantId, type.getCode())))
-                .map(r -> null);
+                .toCompletable();
     }
 
-    private Observable<Void> deleteTenant(String tenantId) {
-        return session.execute(deleteTenant.bind(tenantId)).map(r -> null);
+    private Completable deleteTenant(String tenantId) {
+        return session.execute(deleteTenant.bind(tenantId)).toCompletable();
     }
 }
@@ -23,6 +23,7 @@ import org.hawkular.metrics.core.service.MetricsService;
 import org.hawkular.metrics.scheduler.api.JobDetails;
 import org.hawkular.metrics.scheduler.api.Scheduler;
 import org.hawkular.metrics.scheduler.api.SingleExecutionTrigger;
+import org.hawkular.metrics.scheduler.impl.LockManager;
 import org.hawkular.metrics.sysconfig.ConfigurationService;
 import org.hawkular.rx.cassandra.driver.RxSession;
 import org.jboss.logging.Logger;
@@ -50,6 +51,8 @@ public class JobsServiceImpl implements JobsService, JobsServiceImplMBean {
 
     private ConfigurationService configurationService;
 
+    private LockManager lockManager;
+
     public void setMetricsService(MetricsService metricsService) {
         this.metricsService = metricsService;
     }
@@ -79,7 +82,8 @@ public class JobsServiceImpl implements JobsService, JobsServiceImplMBean {
         TempTableCreator tempCreator = new TempTableCreator(metricsService, configurationService);
         scheduler.register(TempTableCreator.JOB_NAME, tempCreator);
 
-        TempDataCompressor tempJob = new TempDataCompressor(metricsService, configurationService);
+        lockManager = new LockManager(session);
+        TempDataCompressor tempJob = new TempDataCompressor(metricsService, configurationService, lockManager);
         scheduler.register(TempDataCompressor.JOB_NAME, tempJob);
 
         scheduler.start();
@@ -88,6 +92,9 @@ public class JobsServiceImpl implements JobsService, JobsServiceImplMBean {
     @Override
     public void shutdown() {
         scheduler.shutdown();
+        if (lockManager != null) {
+            lockManager.shutdown();
+        }
     }
 
     @Override
@@ -16,12 +16,16 @@
  */
 package org.hawkular.metrics.core.jobs;
 
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.core.service.compress.CompressionCoordinator;
 import org.hawkular.metrics.datetime.DateTimeService;
 import org.hawkular.metrics.scheduler.api.JobDetails;
 import org.hawkular.metrics.scheduler.api.Trigger;
+import org.hawkular.metrics.scheduler.impl.Lock;
+import org.hawkular.metrics.scheduler.impl.LockManager;
 import org.hawkular.metrics.sysconfig.Configuration;
 import org.hawkular.metrics.sysconfig.ConfigurationService;
 import org.jboss.logging.Logger;
@@ -32,6 +36,7 @@ import org.joda.time.Duration;
 import com.google.common.base.Stopwatch;
 
 import rx.Completable;
+import rx.Observable;
 import rx.functions.Func1;
 
 /**
@@ -46,16 +51,27 @@ public class TempDataCompressor implements Func1<JobDetails, Completable> {
     public static final String CONFIG_PAGE_SIZE = "page-size";
     public static final String CONFIG_MAX_READ_CONCURRENCY = "concurrency.read.max";
 
+    public static final String CONFIG_RANGE_LOCK_TIMEOUT = "range-lock.timeout";
+
     private static final int DEFAULT_PAGE_SIZE = 1000;
-    private static final int DEFAULT_READ_CONCURRENCY = 2;
+    private static final int DEFAULT_READ_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_RANGE_LOCK_TIMEOUT = 600;
 
     private MetricsService metricsService;
 
     private int pageSize;
     private boolean enabled;
     private int maxReadConcurrency = DEFAULT_READ_CONCURRENCY;
+    private int rangeLockTimeout = DEFAULT_RANGE_LOCK_TIMEOUT;
+
+    private CompressionCoordinator coordinator;
 
     public TempDataCompressor(MetricsService service, ConfigurationService configurationService) {
+        this(service, configurationService, null);
+    }
+
+    public TempDataCompressor(MetricsService service, ConfigurationService configurationService,
+                              LockManager lockManager) {
         metricsService = service;
         Configuration configuration = configurationService.load(CONFIG_ID).toSingle().toBlocking().value();
         if (configuration.get(CONFIG_PAGE_SIZE) == null) {
@@ -68,6 +84,16 @@ public class TempDataCompressor implements Func1<JobDetails, Completable> {
             maxReadConcurrency = Integer.parseInt(configuration.get(CONFIG_MAX_READ_CONCURRENCY));
         }
 
+        if (configuration.get(CONFIG_RANGE_LOCK_TIMEOUT) != null) {
+            rangeLockTimeout = Integer.parseInt(configuration.get(CONFIG_RANGE_LOCK_TIMEOUT));
+        }
+
+        if (lockManager == null) {
+            coordinator = CompressionCoordinator.LOCAL;
+        } else {
+            coordinator = new LockingCoordinator(lockManager, UUID.randomUUID().toString());
+        }
+
         String enabledConfig = configuration.get("enabled", "true");
         enabled = Boolean.parseBoolean(enabledConfig);
         logger.debugf("Job enabled? %b", enabled);
@@ -87,8 +113,7 @@ public class TempDataCompressor implements Func1<JobDetails, Completable> {
         Stopwatch stopwatch = Stopwatch.createStarted();
         logger.infof("Starting to process temp table for starting time of %s", timeSliceStart.toString());
 
-        // TODO Optimization - new worker per token - use parallelism in Cassandra (with configured parallelism)
-        return metricsService.compressBlock(startOfSlice, pageSize, maxReadConcurrency)
+        return metricsService.compressBlock(startOfSlice, pageSize, maxReadConcurrency, coordinator)
                 .doOnError(t -> logger.errorf("Compression job failed: %s", t.getMessage()))
                 .doOnCompleted(() -> {
                     stopwatch.stop();
@@ -96,4 +121,34 @@ public class TempDataCompressor implements Func1<JobDetails, Completable> {
                             " ms");
                 });
     }
+
+    /**
+     * Claims the token ranges with the distributed locks, the locks are renewed until the range is compressed.
+     */
+    private class LockingCoordinator implements CompressionCoordinator {
+
+        private final LockManager lockManager;
+        private final String owner;
+
+        LockingCoordinator(LockManager lockManager, String owner) {
+            this.lockManager = lockManager;
+            this.owner = owner;
+        }
+
+        @Override
+        public Observable<Boolean> acquire(String rangeName) {
+            return lockManager.acquireLock(rangeName, owner, rangeLockTimeout, true)
+                    .map(Lock::isLocked)
+                    .doOnNext(locked -> {
+                        if (!locked) {
+                            logger.debugf("Token range %s is compressed by another node", rangeName);
+                        }
+                    });
+        }
+
+        @Override
+        public Observable<Boolean> release(String rangeName) {
+            return lockManager.releaseLock(rangeName, owner);
+        }
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.model.AvailabilityBucketPoint;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+
+/**
+ * Collects time ascending availability data points to buckets with a single subscriber, using an array of
+ * {@link AvailabilityDataPointCollector} indexed by bucket.
+ *
+ * @author agent
+ */
+final class AvailabilityBucketPointTransformer
+        implements Transformer<DataPoint<AvailabilityType>, List<AvailabilityBucketPoint>> {
+
+    private final Buckets buckets;
+
+    AvailabilityBucketPointTransformer(Buckets buckets) {
+        this.buckets = buckets;
+    }
+
+    @Override
+    public Observable<List<AvailabilityBucketPoint>> call(Observable<DataPoint<AvailabilityType>> dataPoints) {
+        return dataPoints
+                .collect(() -> new AvailabilityDataPointCollector[buckets.getCount()], this::increment)
+                .map(this::toBucketPoints);
+    }
+
+    private void increment(AvailabilityDataPointCollector[] collectors, DataPoint<AvailabilityType> dataPoint) {
+        int index = buckets.getIndex(dataPoint.getTimestamp());
+        AvailabilityDataPointCollector collector = collectors[index];
+        if (collector == null) {
+            collector = new AvailabilityDataPointCollector(buckets, index);
+            collectors[index] = collector;
+        }
+        collector.increment(dataPoint);
+    }
+
+    private List<AvailabilityBucketPoint> toBucketPoints(AvailabilityDataPointCollector[] collectors) {
+        List<AvailabilityBucketPoint> result = new ArrayList<>(collectors.length);
+        for (int i = 0; i < collectors.length; i++) {
+            if (collectors[i] != null) {
+                result.add(collectors[i].toBucketPoint());
+            } else {
+                long from = buckets.getBucketStart(i);
+                result.add(new AvailabilityBucketPoint.Builder(from, from + buckets.getStep()).build());
+            }
+        }
+        return result;
+    }
+}
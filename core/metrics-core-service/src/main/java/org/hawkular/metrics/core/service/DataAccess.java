@@ -16,11 +16,16 @@
  */
 package org.hawkular.metrics.core.service;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
 
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.rollup.RollupCollector;
+import org.hawkular.metrics.core.service.rollup.RollupResolution;
+import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
@@ -29,6 +34,7 @@ import org.hawkular.metrics.model.Tenant;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TokenRange;
 
 import rx.Observable;
 
@@ -78,14 +84,24 @@ public interface DataAccess {
 
     Observable<Observable<Row>> findAllDataFromBucket(long timestamp, int pageSize, int maxConcurrency);
 
+    Observable<Row> findDataFromBucket(long timestamp, TokenRange tokenRange, int pageSize);
+
+    List<TokenRange> findTokenRanges();
+
     Observable<ResultSet> dropTempTable(long timestamp);
 
     Observable<Row> findAllMetricIdentifiersInData();
 
     <T> Observable<Integer> insertData(Observable<Metric<T>> metrics);
 
+    /**
+     * Inserts the gauge data points of the reader, binding the statements straight from its values. The reader is
+     * consumed on the subscribing thread while the batches already bound are written.
+     */
+    Observable<Integer> insertGaugeData(String tenantId, GaugeDataReader reader);
+
     Observable<Integer> insertStringDatas(Observable<Metric<String>> strings,
-            Function<MetricId<String>, Integer> ttlFetcher, int maxSize);
+            ToIntFunction<MetricId<String>> ttlFetcher, int maxSize);
 
     Observable<Integer> insertStringData(Metric<String> metric, int maxSize);
 
@@ -106,8 +122,30 @@ public interface DataAccess {
 
     <T> Observable<ResultSet> deleteMetricFromMetricsIndex(MetricId<T> id);
 
+    <T> Observable<ResultSet> insertMetricId(MetricId<T> id, int ttl);
+
+    <T> Observable<Row> findMetricIds(String tenantId, MetricType<T> type);
+
+    <T> Observable<ResultSet> deleteMetricId(MetricId<T> id);
+
+    Observable<ResultSet> insertMetadataChange(long bucket, UUID version, String kind, MetricId<?> id);
+
+    Observable<Row> findMetadataChanges(long bucket, UUID after);
+
+    /**
+     * Stores the data point as the last value of a gauge, counter or availability metric unless a more recent data
+     * point has already been stored.
+     */
+    <T> Observable<ResultSet> updateLastValue(MetricId<T> id, DataPoint<T> dataPoint, int ttl);
+
+    <T> Observable<Row> findLastValue(MetricId<T> id);
+
+    <T> Observable<ResultSet> deleteLastValue(MetricId<T> id);
+
     <T> ResultSetFuture findDataRetentions(String tenantId, MetricType<T> type);
 
+    <T> ResultSetFuture findDataRetention(MetricId<T> id);
+
     <T> Observable<ResultSet> updateRetentionsIndex(String tenantId, MetricType<T> type,
             Map<String, Integer> retentions);
 
@@ -130,5 +168,22 @@ public interface DataAccess {
                                                              CompressedPointContainer cpc,
                                                              long sliceStart, long sliceEnd, int ttl);
 
+    <T> Observable<ResultSet> insertWalData(MetricId<T> id, long blockStart, CompressedPointContainer cpc, int count);
+
+    <T> Observable<Row> findWalData(MetricId<T> id, long blockStart);
+
+    <T> Observable<ResultSet> insertWalIndex(String node, MetricId<T> id, long blockStart);
+
+    Observable<Row> findWalIndex(String node, long blockStart);
+
+    <T> Observable<ResultSet> deleteWalIndex(String node, MetricId<T> id, long blockStart);
+
+    <T> Observable<ResultSet> deleteWalData(MetricId<T> id, long blockStart);
+
+    <T> Observable<ResultSet> insertRollup(MetricId<T> id, RollupResolution resolution, long time,
+                                           RollupCollector rollup, int ttl);
+
+    <T> Observable<Row> findRollups(MetricId<T> id, RollupResolution resolution, long start, long end);
+
     void shutdown();
 }
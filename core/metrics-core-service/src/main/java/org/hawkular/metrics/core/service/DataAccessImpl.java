@@ -30,27 +30,34 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
 import org.hawkular.metrics.core.service.log.CoreLogger;
 import org.hawkular.metrics.core.service.log.CoreLogging;
+import org.hawkular.metrics.core.service.rollup.RollupCollector;
+import org.hawkular.metrics.core.service.rollup.RollupResolution;
 import org.hawkular.metrics.core.service.transformers.BatchStatementTransformer;
 import org.hawkular.metrics.core.service.transformers.BoundBatchStatementTransformer;
+import org.hawkular.metrics.core.service.transformers.SortedMerge;
+import org.hawkular.metrics.core.util.TokenRingIndex;
 import org.hawkular.metrics.datetime.DateTimeService;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
@@ -81,12 +88,17 @@ import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.core.Token;
 import com.datastax.driver.core.TokenRange;
+import com.datastax.driver.core.TypeCodec;
 import com.datastax.driver.core.UserType;
 import com.datastax.driver.core.exceptions.DriverException;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
 
 import rx.Observable;
 import rx.exceptions.Exceptions;
+import rx.observables.SyncOnSubscribe;
 import rx.schedulers.Schedulers;
 
 /**
@@ -102,6 +114,12 @@ public class DataAccessImpl implements DataAccess {
     public static final String TEMP_TABLE_NAME_FORMAT_STRING = TEMP_TABLE_NAME_PROTOTYPE + "%s";
 
     public static final long DPART = 0;
+
+    /**
+     * Number of temp table metric ids that {@link #findAllMetricIdentifiersInData()} sorts in memory at a time
+     */
+    static final int MAX_SORTED_TEMP_METRICS = 100_000;
+
     private Session session;
 
     private RxSession rxSession;
@@ -112,8 +130,8 @@ public class DataAccessImpl implements DataAccess {
     // See getMapKey(byte, int)
     private NavigableMap<Long, Map<Integer, PreparedStatement>> prepMap;
 
-    // TODO Move all of these to a new class (Cassandra specific temp table) to allow multiple implementations (such
-    // as in-memory + WAL in Cassandra)
+    // TODO Move all of these to a new class (Cassandra specific temp table) to allow multiple implementations. The
+    // in-memory + WAL alternative lives in buffer.IngestionBuffer and journals to the data_wal table.
 
     private TemporaryTableStatementCreator tableCreator = null;
 
@@ -133,7 +151,6 @@ public class DataAccessImpl implements DataAccess {
         INSERT_DATA(data, StatementType.WRITE),
         INSERT_DATA_WITH_TAGS(dataWithTags, StatementType.WRITE),
         CREATE_TABLE(TEMP_TABLE_BASE_CREATE, StatementType.CREATE),
-//        CREATE_WAL(TEMP_TABLE_WAL_CREATE, StatementType.CREATE);
         DELETE_DATA(DELETE_FROM_DATA_BASE, StatementType.DELETE);
 
         private final String statement;
@@ -195,21 +212,6 @@ public class DataAccessImpl implements DataAccess {
             "PRIMARY KEY ((tenant_id, type, metric), time)" +
             ") WITH CLUSTERING ORDER BY (time DESC)";
 
-    // For in-memory buffering
-    /*
-    private static String TEMP_TABLE_WAL_CREATE = "CREATE TABLE %s (" +
-            "tenant_id text, " +
-            "type tinyint, " +
-            "metric text, " +
-            "dpart bigint, " +
-            "time timestamp, " +
-            "count int, " +
-            "value blob, " +
-            "tags blob, " +
-            "PRIMARY KEY ((tenant_id, type, metric), time) " +
-            ") WITH CLUSTERING ORDER BY (time DESC)";
-    */
-
     // Insert statement prototypes
 
     private static String data = "UPDATE %s " +
@@ -258,6 +260,30 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findAllMetricsInDataCompressed;
 
+    private PreparedStatement scanMetricsInData;
+
+    private PreparedStatement scanMetricsInDataCompressed;
+
+    private PreparedStatement insertMetricId;
+
+    private PreparedStatement findMetricIds;
+
+    private PreparedStatement deleteMetricId;
+
+    private PreparedStatement insertMetadataChange;
+
+    private PreparedStatement findMetadataChanges;
+
+    private PreparedStatement insertLastGauge;
+
+    private PreparedStatement insertLastCounter;
+
+    private PreparedStatement insertLastAvailability;
+
+    private PreparedStatement findLastValue;
+
+    private PreparedStatement deleteLastValue;
+
     private PreparedStatement findMetricInMetricsIndex;
 
     private PreparedStatement findAllMetricsFromTagsIndex;
@@ -316,6 +342,8 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findDataRetentions;
 
+    private PreparedStatement findDataRetention;
+
     private PreparedStatement insertMetricsTagsIndex;
 
     private PreparedStatement deleteMetricsTagsIndex;
@@ -326,6 +354,24 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findSchemaVersions;
 
+    private PreparedStatement insertWalData;
+
+    private PreparedStatement insertWalDataWithTags;
+
+    private PreparedStatement findWalData;
+
+    private PreparedStatement insertWalIndex;
+
+    private PreparedStatement findWalIndex;
+
+    private PreparedStatement deleteWalIndex;
+
+    private PreparedStatement deleteWalData;
+
+    private PreparedStatement insertRollup;
+
+    private PreparedStatement findRollups;
+
     private static DateTimeFormatter TEMP_TABLE_DATEFORMATTER = (new DateTimeFormatterBuilder())
             .appendValue(ChronoField.YEAR, 4)
             .appendValue(ChronoField.MONTH_OF_YEAR, 2)
@@ -334,6 +380,7 @@ public class DataAccessImpl implements DataAccess {
 
     private CodecRegistry codecRegistry;
     private Metadata metadata;
+    private TokenRingIndex tokenRingIndex;
 
     public DataAccessImpl(Session session) {
         this.session = session;
@@ -341,6 +388,12 @@ public class DataAccessImpl implements DataAccess {
         loadBalancingPolicy = session.getCluster().getConfiguration().getPolicies().getLoadBalancingPolicy();
         codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
         metadata = session.getCluster().getMetadata();
+        tokenRingIndex = new TokenRingIndex(session.getCluster());
+
+        if (!(loadBalancingPolicy instanceof TokenAwarePolicy)) {
+            log.debugf("Load balancing policy %s is not token aware, micro-batches are not routed to replicas",
+                    loadBalancingPolicy.getClass().getSimpleName());
+        }
 
         initPreparedStatements();
         initializeTemporaryTableStatements();
@@ -583,6 +636,51 @@ public class DataAccessImpl implements DataAccess {
                 "SELECT DISTINCT tenant_id, type, metric, dpart " +
                         "FROM data_compressed");
 
+        scanMetricsInData = session.prepare(
+            "SELECT DISTINCT tenant_id, type, metric, dpart " +
+            "FROM data " +
+            "WHERE token(tenant_id, type, metric, dpart) > ? AND token(tenant_id, type, metric, dpart) <= ?");
+
+        scanMetricsInDataCompressed = session.prepare(
+            "SELECT DISTINCT tenant_id, type, metric, dpart " +
+            "FROM data_compressed " +
+            "WHERE token(tenant_id, type, metric, dpart) > ? AND token(tenant_id, type, metric, dpart) <= ?");
+
+        insertMetricId = session.prepare(
+            "INSERT INTO metric_ids (tenant_id, type, metric) VALUES (?, ?, ?) USING TTL ?");
+
+        findMetricIds = session.prepare(
+            "SELECT metric FROM metric_ids WHERE tenant_id = ? AND type = ?");
+
+        deleteMetricId = session.prepare(
+            "DELETE FROM metric_ids WHERE tenant_id = ? AND type = ? AND metric = ?");
+
+        insertMetadataChange = session.prepare(
+            "INSERT INTO metadata_changes (bucket, version, kind, tenant_id, type, metric) VALUES (?, ?, ?, ?, ?, ?)");
+
+        findMetadataChanges = session.prepare(
+            "SELECT version, kind, tenant_id, type, metric FROM metadata_changes WHERE bucket = ? AND version > ?");
+
+        // The write timestamp is the time of the data point, so that an older data point never replaces a newer one
+        insertLastGauge = session.prepare(
+            "INSERT INTO last_values (n_value, tenant_id, type, metric, time) VALUES (?, ?, ?, ?, ?) " +
+            "USING TTL ? AND TIMESTAMP ?");
+
+        insertLastCounter = session.prepare(
+            "INSERT INTO last_values (l_value, tenant_id, type, metric, time) VALUES (?, ?, ?, ?, ?) " +
+            "USING TTL ? AND TIMESTAMP ?");
+
+        insertLastAvailability = session.prepare(
+            "INSERT INTO last_values (availability, tenant_id, type, metric, time) VALUES (?, ?, ?, ?, ?) " +
+            "USING TTL ? AND TIMESTAMP ?");
+
+        findLastValue = session.prepare(
+            "SELECT time, n_value, l_value, availability FROM last_values " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+
+        deleteLastValue = session.prepare(
+            "DELETE FROM last_values WHERE tenant_id = ? AND type = ? AND metric = ?");
+
         findAllMetricsFromTagsIndex = session.prepare(
                 "SELECT tenant_id, type, metric " +
                         "FROM metrics_tags_idx");
@@ -685,6 +783,11 @@ public class DataAccessImpl implements DataAccess {
             "FROM retentions_idx " +
             "WHERE tenant_id = ? AND type = ?");
 
+        findDataRetention = session.prepare(
+            "SELECT tenant_id, type, metric, retention " +
+            "FROM retentions_idx " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+
         insertMetricsTagsIndex = session.prepare(
             "INSERT INTO metrics_tags_idx (tenant_id, tname, tvalue, type, metric) VALUES (?, ?, ?, ?, ?)");
 
@@ -701,6 +804,43 @@ public class DataAccessImpl implements DataAccess {
                 "SELECT tenant_id, type, metric, tvalue " +
                 "FROM metrics_tags_idx " +
                 "WHERE tenant_id = ? AND tname = ? AND tvalue IN ?");
+
+        insertWalData = session.prepare(
+            "INSERT INTO data_wal (tenant_id, type, metric, dpart, time, count, value) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)");
+
+        insertWalDataWithTags = session.prepare(
+            "INSERT INTO data_wal (tenant_id, type, metric, dpart, time, count, value, tags) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+
+        findWalData = session.prepare(
+            "SELECT value, tags FROM data_wal " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ?");
+
+        insertWalIndex = session.prepare(
+            "INSERT INTO data_wal_idx (node, dpart, tenant_id, type, metric) " +
+            "VALUES (?, ?, ?, ?, ?)");
+
+        findWalIndex = session.prepare(
+            "SELECT tenant_id, type, metric FROM data_wal_idx " +
+            "WHERE node = ? AND dpart = ?");
+
+        deleteWalIndex = session.prepare(
+            "DELETE FROM data_wal_idx " +
+            "WHERE node = ? AND dpart = ? AND tenant_id = ? AND type = ? AND metric = ?");
+
+        deleteWalData = session.prepare(
+            "DELETE FROM data_wal " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ?");
+
+        insertRollup = session.prepare(
+            "INSERT INTO rollups (tenant_id, type, metric, resolution, time, min, max, sum, samples, sketch) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "USING TTL ?");
+
+        findRollups = session.prepare(
+            "SELECT time, min, max, sum, samples, sketch FROM rollups " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ? AND resolution = ? AND time >= ? AND time < ?");
     }
 
     @Override
@@ -756,7 +896,7 @@ public class DataAccessImpl implements DataAccess {
     @Override
     public <T> Observable<Observable<Row>> scanMetricsInMetricsIndex() {
         // TODO MetricsServiceImpl can do tags filtering
-        return Observable.from(getTokenRanges())
+        return Observable.from(findTokenRanges())
                 .map(tr -> rxSession.executeAndFetch(
                         scanMetricInMetricsIndex.bind()
                                 .setToken(0, tr.getStart())
@@ -841,6 +981,12 @@ public class DataAccessImpl implements DataAccess {
      */
     @Override
     public Observable<Observable<Row>> findAllDataFromBucket(long timestamp, int pageSize, int maxConcurrency) {
+        return Observable.from(findTokenRanges())
+                .map(tr -> findDataFromBucket(timestamp, tr, pageSize));
+    }
+
+    @Override
+    public Observable<Row> findDataFromBucket(long timestamp, TokenRange tokenRange, int pageSize) {
         PreparedStatement ts =
                 getTempStatement(MetricType.UNDEFINED, TempStatement.SCAN_WITH_TOKEN_RANGES, timestamp);
 
@@ -850,20 +996,22 @@ public class DataAccessImpl implements DataAccess {
             return Observable.empty();
         }
 
-        return Observable.from(getTokenRanges())
-                .map(tr -> rxSession.executeAndFetch(
-                        ts
-                                .bind()
-                                .setToken(0, tr.getStart())
-                                .setToken(1, tr.getEnd())
-                                .setFetchSize(pageSize)));
+        return rxSession.executeAndFetch(
+                ts
+                        .bind()
+                        .setToken(0, tokenRange.getStart())
+                        .setToken(1, tokenRange.getEnd())
+                        .setFetchSize(pageSize));
     }
 
-    private Set<TokenRange> getTokenRanges() {
-        Set<TokenRange> tokenRanges = new HashSet<>();
+    @Override
+    public List<TokenRange> findTokenRanges() {
+        List<TokenRange> tokenRanges = new ArrayList<>();
         for (TokenRange tokenRange : metadata.getTokenRanges()) {
             tokenRanges.addAll(tokenRange.unwrap());
         }
+        // Sorted so that the ranges (and their checkpoints) are the same on every node
+        Collections.sort(tokenRanges);
         return tokenRanges;
     }
 
@@ -880,31 +1028,137 @@ public class DataAccessImpl implements DataAccess {
                 .map(pMap -> pMap.get(getMapKey(MetricType.UNDEFINED, ts)));
     }
 
+    /**
+     * A partition returned by a full table scan together with its token. Scans return the partitions in token order,
+     * which allows merging several scans of tables sharing the same partition key without remembering what has
+     * already been seen.
+     */
+    private static final class PartitionRow {
+        private final Token token;
+        private final MetricId<?> metricId;
+        private final Row row;
+
+        PartitionRow(Token token, Row row) {
+            this.token = token;
+            this.metricId = new MetricId<>(row.getString(0), MetricType.fromCode(row.getByte(1)), row.getString(2));
+            this.row = row;
+        }
+    }
+
+    private Observable<PartitionRow> scanPartitions(BoundStatement statement, int partitionKeyColumns) {
+        return rxSession.executeAndFetch(statement)
+                .map(row -> {
+                    ByteBuffer[] components = new ByteBuffer[partitionKeyColumns];
+                    for (int i = 0; i < partitionKeyColumns; i++) {
+                        components[i] = row.getBytesUnsafe(i);
+                    }
+                    return new PartitionRow(metadata.newToken(components), row);
+                });
+    }
+
+    /**
+     * Merges token ordered scans of tables that share the same partition key. A partition present in several tables
+     * has the same token in each of them and the copies end up next to each other, so only the previous id is
+     * needed to drop the duplicates. A token collision between two metrics can at worst let a duplicate through.
+     */
+    private Observable<Row> mergeDistinctPartitions(List<Observable<? extends PartitionRow>> scans) {
+        return SortedMerge.create(scans, (p1, p2) -> p1.token.compareTo(p2.token), false)
+                .distinctUntilChanged(p -> p.metricId)
+                .map(p -> p.row);
+    }
+
     @Override
     public Observable<Row> findAllMetricIdentifiersInData() {
+        // The temp tables are partitioned by (tenant_id, type, metric) and data / data_compressed by
+        // (tenant_id, type, metric, dpart), so the temp table scans are not in the token order of the other two. The
+        // metrics found in the temp tables are re-keyed with the token of their data partition and sorted, which
+        // lets all of them go through a single token ordered merge without any partition lookups. When there are
+        // too many of them to sort at once, the token ring is split into slices that are merged one after the
+        // other, each slice scanning the temp tables again but only sorting its own share of their metrics.
+        return findTempTableMetrics()
+                .take(MAX_SORTED_TEMP_METRICS + 1)
+                .toList()
+                .concatMap(partitions -> {
+                    if (partitions.size() <= MAX_SORTED_TEMP_METRICS) {
+                        List<Observable<? extends PartitionRow>> scans = new ArrayList<>(3);
+                        scans.add(scanPartitions(findAllMetricsInData.bind(), 4));
+                        scans.add(scanPartitions(findAllMetricsInDataCompressed.bind(), 4));
+                        scans.add(sortByToken(Observable.from(partitions)));
+                        return mergeDistinctPartitions(scans);
+                    }
+                    return findTempTableMetrics()
+                            .count()
+                            .concatMap(count -> Observable.from(sliceTokenRing(
+                                    (count + MAX_SORTED_TEMP_METRICS - 1) / MAX_SORTED_TEMP_METRICS)))
+                            .concatMap(slice -> {
+                                TokenRange range = metadata.newTokenRange(slice.get(0).getStart(),
+                                        slice.get(slice.size() - 1).getEnd());
+                                return mergeSlice(slice, findTempTableMetrics().filter(p -> range.contains(p.token)));
+                            });
+                });
+    }
+
+    /**
+     * @return the distinct metrics of the temp tables, keyed with the token of their data partition
+     */
+    private Observable<PartitionRow> findTempTableMetrics() {
+        ByteBuffer dpart = TypeCodec.bigint().serialize(DPART, ProtocolVersion.NEWEST_SUPPORTED);
         return getPrepForAllTempTables(TempStatement.LIST_ALL_METRICS_FROM_TABLE)
-                .flatMap(b -> rxSession.executeAndFetch(b.bind()))
-                .mergeWith(rxSession.executeAndFetch(findAllMetricsInData.bind()))
-                .mergeWith(rxSession.executeAndFetch(findAllMetricsInDataCompressed.bind()));
+                .<Observable<? extends PartitionRow>>map(p -> scanPartitions(p.bind(), 3))
+                .toList()
+                .flatMap(this::mergeDistinctPartitions)
+                .map(row -> new PartitionRow(metadata.newToken(row.getBytesUnsafe(0), row.getBytesUnsafe(1),
+                        row.getBytesUnsafe(2), dpart.duplicate()), row));
+    }
+
+    /**
+     * Merges the metrics of data and data_compressed within the consecutive token ranges with the given temp table
+     * metrics, which must all be within those ranges.
+     */
+    private Observable<Row> mergeSlice(List<TokenRange> ranges, Observable<PartitionRow> tempTableMetrics) {
+        List<Observable<? extends PartitionRow>> scans = new ArrayList<>(3);
+        scans.add(Observable.from(ranges).concatMap(range -> scanPartitions(scanMetricsInData.bind()
+                .setToken(0, range.getStart())
+                .setToken(1, range.getEnd()), 4)));
+        scans.add(Observable.from(ranges).concatMap(range -> scanPartitions(scanMetricsInDataCompressed.bind()
+                .setToken(0, range.getStart())
+                .setToken(1, range.getEnd()), 4)));
+        scans.add(sortByToken(tempTableMetrics));
+        return mergeDistinctPartitions(scans);
+    }
+
+    private static Observable<PartitionRow> sortByToken(Observable<PartitionRow> partitions) {
+        return partitions
+                .toSortedList((p1, p2) -> p1.token.compareTo(p2.token))
+                .flatMapIterable(sorted -> sorted);
+    }
+
+    /**
+     * Splits the token ring into at least the given number of slices of consecutive token ranges, in token order.
+     */
+    private List<List<TokenRange>> sliceTokenRing(int slices) {
+        List<TokenRange> ranges = findTokenRanges();
+        if (ranges.size() < slices) {
+            int splits = (slices + ranges.size() - 1) / ranges.size();
+            List<TokenRange> split = new ArrayList<>(ranges.size() * splits);
+            for (TokenRange range : ranges) {
+                // The range of a single token cluster covers the whole ring but counts as empty
+                split.addAll(range.isEmpty() ? Collections.singletonList(range) : range.splitEvenly(splits));
+            }
+            ranges = split;
+        }
+        return Lists.partition(ranges, ranges.size() / slices);
     }
 
     /*
      * Applies micro-batching capabilities by taking advantage of token ranges in the Cassandra
      */
     private Observable.Transformer<BoundStatement, Integer> applyMicroBatching() {
+        // All the statements of a batch belong to the same token range and so share its replicas. A batch's routing
+        // key is the one of its first statement, which lets the TokenAwarePolicy send it directly to a replica.
         return tObservable -> tObservable
-                .groupBy(b -> {
-                    ByteBuffer routingKey = b.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
-                            codecRegistry);
-                    Token token = metadata.newToken(routingKey);
-                    for (TokenRange tokenRange : session.getCluster().getMetadata().getTokenRanges()) {
-                        if (tokenRange.contains(token)) {
-                            return tokenRange;
-                        }
-                    }
-                    log.warn("Unable to find any Cassandra node to insert token " + token.toString());
-                    return session.getCluster().getMetadata().getTokenRanges().iterator().next();
-                })
+                .groupBy(b -> tokenRingIndex.indexOf(b.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
+                        codecRegistry)))
                 .flatMap(g -> g.compose(new BoundBatchStatementTransformer()))
                 .flatMap(batch -> rxSession
                         .execute(batch)
@@ -968,6 +1222,48 @@ public class DataAccessImpl implements DataAccess {
                 .compose(applyMicroBatching());
     }
 
+    @Override
+    public Observable<Integer> insertGaugeData(String tenantId, GaugeDataReader reader) {
+        // Reads only as many data points as have been requested. The batching downstream requests more as soon
+        // as the statements are sent, so the input is consumed on the subscribing thread, throttled by the
+        // session's limit of in-flight requests, and never held in memory beyond the open batches.
+        Observable<BoundStatement> statements = Observable.create(SyncOnSubscribe.createStateless(observer -> {
+            while (reader.next()) {
+                BoundStatement bs = bindGaugeInsert(tenantId, reader);
+                if (bs != null) {
+                    observer.onNext(bs);
+                    return;
+                }
+            }
+            observer.onCompleted();
+        }));
+        return statements
+                .compose(applyMicroBatching());
+    }
+
+    /**
+     * @return the temp table insert of the reader's current data point, null if the temp table does not exist
+     */
+    private BoundStatement bindGaugeInsert(String tenantId, GaugeDataReader reader) {
+        long timestamp = reader.getTimestamp();
+        Map<String, String> tags = reader.getTags();
+        TempStatement ts = tags.isEmpty() ? TempStatement.INSERT_DATA : TempStatement.INSERT_DATA_WITH_TAGS;
+        PreparedStatement st = getTempStatement(MetricType.GAUGE, ts, timestamp);
+        if (st == null) {
+            return null;
+        }
+        BoundStatement bs = st.bind().setDouble(0, reader.getValue());
+        int i = 1;
+        if (!tags.isEmpty()) {
+            bs.setMap(i++, tags);
+        }
+        return bs
+                .setString(i, tenantId)
+                .setByte(++i, MetricType.GAUGE.getCode())
+                .setString(++i, reader.getMetricName())
+                .setTimestamp(++i, new Date(timestamp));
+    }
+
     @SuppressWarnings("unchecked")
     private <T> Observable.Transformer<DataPoint<T>, BoundStatement> mapTempInsertStatement(Metric<T> metric) {
         MetricType<T> type = metric.getMetricId().getType();
@@ -1062,11 +1358,11 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public Observable<Integer> insertStringDatas(Observable<Metric<String>> strings,
-            Function<MetricId<String>, Integer> ttlFetcher, int maxSize) {
+            ToIntFunction<MetricId<String>> ttlFetcher, int maxSize) {
 
         return strings
                 .flatMap(string -> {
-                            int ttl = ttlFetcher.apply(string.getMetricId());
+                            int ttl = ttlFetcher.applyAsInt(string.getMetricId());
                             return Observable.from(string.getDataPoints())
                                     .compose(mapStringDatapoint(string, ttl, maxSize));
                         }
@@ -1257,6 +1553,70 @@ public class DataAccessImpl implements DataAccess {
                 .execute(deleteMetricFromMetricsIndex.bind(id.getTenantId(), id.getType().getCode(), id.getName()));
     }
 
+    @Override
+    public <T> Observable<ResultSet> insertMetricId(MetricId<T> id, int ttl) {
+        return rxSession.execute(insertMetricId.bind(id.getTenantId(), id.getType().getCode(), id.getName(), ttl));
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricIds(String tenantId, MetricType<T> type) {
+        return rxSession.executeAndFetch(findMetricIds.bind(tenantId, type.getCode()));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteMetricId(MetricId<T> id) {
+        return rxSession.execute(deleteMetricId.bind(id.getTenantId(), id.getType().getCode(), id.getName()));
+    }
+
+    @Override
+    public Observable<ResultSet> insertMetadataChange(long bucket, UUID version, String kind, MetricId<?> id) {
+        return rxSession.execute(insertMetadataChange.bind(bucket, version, kind, id.getTenantId(),
+                id.getType().getCode(), id.getName()));
+    }
+
+    @Override
+    public Observable<Row> findMetadataChanges(long bucket, UUID after) {
+        return rxSession.executeAndFetch(findMetadataChanges.bind(bucket, after));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> updateLastValue(MetricId<T> id, DataPoint<T> dataPoint, int ttl) {
+        PreparedStatement st;
+        switch (id.getType().getCode()) {
+            case 0:
+                st = insertLastGauge;
+                break;
+            case 1:
+                st = insertLastAvailability;
+                break;
+            case 2:
+                st = insertLastCounter;
+                break;
+            default:
+                return Observable.error(new IllegalArgumentException("Last values of " + id.getType().getText() +
+                        " metrics are not stored"));
+        }
+        BoundStatement bs = st.bind();
+        bindValue(bs, id.getType(), dataPoint);
+        bs.setString(1, id.getTenantId())
+                .setByte(2, id.getType().getCode())
+                .setString(3, id.getName())
+                .setTimestamp(4, new Date(dataPoint.getTimestamp()))
+                .setInt(5, ttl)
+                .setLong(6, TimeUnit.MILLISECONDS.toMicros(dataPoint.getTimestamp()));
+        return rxSession.execute(bs);
+    }
+
+    @Override
+    public <T> Observable<Row> findLastValue(MetricId<T> id) {
+        return rxSession.executeAndFetch(findLastValue.bind(id.getTenantId(), id.getType().getCode(), id.getName()));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteLastValue(MetricId<T> id) {
+        return rxSession.execute(deleteLastValue.bind(id.getTenantId(), id.getType().getCode(), id.getName()));
+    }
+
     private ByteBuffer getBytes(DataPoint<AvailabilityType> dataPoint) {
         return ByteBuffer.wrap(new byte[]{dataPoint.getValue().getCode()});
     }
@@ -1266,6 +1626,11 @@ public class DataAccessImpl implements DataAccess {
         return session.executeAsync(findDataRetentions.bind(tenantId, type.getCode()));
     }
 
+    @Override
+    public <T> ResultSetFuture findDataRetention(MetricId<T> id) {
+        return session.executeAsync(findDataRetention.bind(id.getTenantId(), id.getType().getCode(), id.getName()));
+    }
+
     @Override
     public <T> Observable<ResultSet> updateRetentionsIndex(String tenantId, MetricType<T> type,
                                                        Map<String, Integer> retentions) {
@@ -1368,6 +1733,67 @@ public class DataAccessImpl implements DataAccess {
         return rxSession.executeAndFetch(findAllMetricsFromTagsIndex.bind());
     }
 
+    @Override
+    public <T> Observable<ResultSet> insertWalData(MetricId<T> id, long blockStart, CompressedPointContainer cpc,
+                                                   int count) {
+        Object[] values = { id.getTenantId(), id.getType().getCode(), id.getName(), blockStart, UUIDs.timeBased(),
+                count, cpc.getValueBuffer() };
+
+        BoundStatement b;
+        if(cpc.getTagsBuffer() != null) {
+            b = insertWalDataWithTags.bind(values).setBytes(7, cpc.getTagsBuffer());
+        } else {
+            b = insertWalData.bind(values);
+        }
+
+        return rxSession.execute(b).compose(applyInsertRetryPolicy());
+    }
+
+    @Override
+    public <T> Observable<Row> findWalData(MetricId<T> id, long blockStart) {
+        return rxSession.executeAndFetch(findWalData.bind(id.getTenantId(), id.getType().getCode(), id.getName(),
+                blockStart));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> insertWalIndex(String node, MetricId<T> id, long blockStart) {
+        return rxSession.execute(insertWalIndex.bind(node, blockStart, id.getTenantId(), id.getType().getCode(),
+                id.getName()))
+                .compose(applyInsertRetryPolicy());
+    }
+
+    @Override
+    public Observable<Row> findWalIndex(String node, long blockStart) {
+        return rxSession.executeAndFetch(findWalIndex.bind(node, blockStart));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteWalIndex(String node, MetricId<T> id, long blockStart) {
+        return rxSession.execute(deleteWalIndex.bind(node, blockStart, id.getTenantId(), id.getType().getCode(),
+                id.getName()));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteWalData(MetricId<T> id, long blockStart) {
+        return rxSession.execute(deleteWalData.bind(id.getTenantId(), id.getType().getCode(), id.getName(),
+                blockStart));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> insertRollup(MetricId<T> id, RollupResolution resolution, long time,
+                                                  RollupCollector rollup, int ttl) {
+        return rxSession.execute(insertRollup.bind(id.getTenantId(), id.getType().getCode(), id.getName(),
+                resolution.getSeconds(), new Date(time), rollup.getMin(), rollup.getMax(), rollup.getSum(),
+                rollup.getSamples(), rollup.getSketch(), ttl))
+                .compose(applyInsertRetryPolicy());
+    }
+
+    @Override
+    public <T> Observable<Row> findRollups(MetricId<T> id, RollupResolution resolution, long start, long end) {
+        return rxSession.executeAndFetch(findRollups.bind(id.getTenantId(), id.getType().getCode(), id.getName(),
+                resolution.getSeconds(), new Date(start), new Date(end)));
+    }
+
     private class TemporaryTableStatementCreator implements SchemaChangeListener {
 
         private final CoreLogger log = CoreLogging.getCoreLogger(TemporaryTableStatementCreator.class);
@@ -1440,6 +1866,7 @@ public class DataAccessImpl implements DataAccess {
     @Override public void shutdown() {
         session.getCluster().unregister(tableCreator);
         tableCreator = null;
+        tokenRingIndex.shutdown();
     }
 
     public void setTempTableCreator(TemporaryTableStatementCreator creator) {
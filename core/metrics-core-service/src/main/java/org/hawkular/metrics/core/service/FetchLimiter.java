@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * Bounds the number of per metric fetches that run at the same time. A single request fetches at most
+ * {@code requestConcurrency} metrics in parallel, and all the requests served by this node share
+ * {@code nodeConcurrency} permits. Fetches that cannot get a permit are queued and started when a running fetch
+ * terminates or is unsubscribed, no thread is ever blocked waiting.
+ *
+ * The results of the fetches are concatenated in the order of the metric ids, so the points of a metric are emitted
+ * together and in the order of the underlying query, exactly like they would be with a serial fetch.
+ *
+ * @author agent
+ */
+public class FetchLimiter {
+
+    /**
+     * Number of points buffered per metric that is fetched ahead of the one currently emitted
+     */
+    private static final int PREFETCH = 128;
+
+    private final int requestConcurrency;
+    private final int nodeConcurrency;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    public FetchLimiter(int requestConcurrency, int nodeConcurrency) {
+        checkArgument(requestConcurrency > 0, "requestConcurrency is not positive");
+        checkArgument(nodeConcurrency > 0, "nodeConcurrency is not positive");
+        this.requestConcurrency = requestConcurrency;
+        this.nodeConcurrency = nodeConcurrency;
+    }
+
+    /**
+     * Fetches every id with the given fetcher, running up to the request concurrency of them in parallel.
+     *
+     * @param ids The metrics to fetch, in the order their results are emitted
+     * @param fetcher Creates the (cold) fetch of a single metric
+     * @return The results of all the fetches, concatenated in the order of the ids
+     */
+    public <T, R> Observable<R> fetch(Observable<T> ids, Func1<? super T, Observable<R>> fetcher) {
+        return ids.concatMapEager(id -> limit(fetcher.call(id)), PREFETCH, requestConcurrency);
+    }
+
+    /**
+     * Delays the subscription to the source until one of the node wide permits is available. The permit is
+     * released when the source terminates or the subscriber unsubscribes.
+     */
+    public <T> Observable<T> limit(Observable<T> source) {
+        return Observable.unsafeCreate(subscriber -> {
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    active.decrementAndGet();
+                    drain();
+                }
+            };
+            pending.offer(() -> start(source, subscriber, release));
+            drain();
+        });
+    }
+
+    private <T> void start(Observable<T> source, Subscriber<? super T> subscriber, Runnable release) {
+        if (subscriber.isUnsubscribed()) {
+            release.run();
+            return;
+        }
+        source.doOnTerminate(release::run)
+                .doOnUnsubscribe(release::run)
+                .unsafeSubscribe(subscriber);
+    }
+
+    private void drain() {
+        for (;;) {
+            int current = active.get();
+            if (current >= nodeConcurrency || pending.isEmpty()) {
+                return;
+            }
+            if (!active.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Runnable task = pending.poll();
+            if (task == null) {
+                // Another thread took the last pending fetch
+                active.decrementAndGet();
+                continue;
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * @return The number of fetches currently holding a node wide permit
+     */
+    public int getActive() {
+        return active.get();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.Map;
+
+/**
+ * Pull based source of gauge data points that exposes the current data point as primitive values, so that bulk
+ * ingestion can bind the insert statements without creating {@link org.hawkular.metrics.model.Metric} and
+ * {@link org.hawkular.metrics.model.DataPoint} objects.
+ *
+ * @author agent
+ */
+public interface GaugeDataReader {
+
+    /**
+     * Moves to the next data point.
+     *
+     * @return false if there are no more data points
+     * @throws IllegalArgumentException if the input is invalid
+     */
+    boolean next();
+
+    /**
+     * @return the name of the metric of the current data point
+     */
+    String getMetricName();
+
+    long getTimestamp();
+
+    double getValue();
+
+    /**
+     * @return the tags of the current data point, an empty map if there are none. The map is not reused for the
+     * following data points.
+     */
+    Map<String, String> getTags();
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Collections.singletonList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+
+import rx.Observable;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Passes the data points of a {@link GaugeDataReader} through while keeping the latest data point of each metric, so
+ * that the metrics of a bulk insert can be registered and their last values stored once the data has been read.
+ *
+ * @author agent
+ */
+class GaugeDataTracker implements GaugeDataReader {
+
+    /**
+     * Maximum number of data points of the metrics emitted by {@link #readMetrics(String, GaugeDataReader)}
+     */
+    static final int MAX_METRIC_DATA_POINTS = 1000;
+
+    private final GaugeDataReader reader;
+    private final Map<String, Latest> latest = new HashMap<>();
+
+    private String metricName;
+    private Latest metricLatest;
+
+    GaugeDataTracker(GaugeDataReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public boolean next() {
+        if (!reader.next()) {
+            return false;
+        }
+        String name = reader.getMetricName();
+        if (!name.equals(metricName)) {
+            metricName = name;
+            metricLatest = latest.computeIfAbsent(name, k -> new Latest());
+        }
+        long timestamp = reader.getTimestamp();
+        if (timestamp >= metricLatest.timestamp) {
+            metricLatest.timestamp = timestamp;
+            metricLatest.value = reader.getValue();
+            metricLatest.tags = reader.getTags();
+        }
+        return true;
+    }
+
+    @Override
+    public String getMetricName() {
+        return reader.getMetricName();
+    }
+
+    @Override
+    public long getTimestamp() {
+        return reader.getTimestamp();
+    }
+
+    @Override
+    public double getValue() {
+        return reader.getValue();
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return reader.getTags();
+    }
+
+    /**
+     * @return each metric read so far with its latest data point
+     */
+    Observable<Metric<Double>> getLatest(String tenantId) {
+        return Observable.from(latest.entrySet())
+                .map(e -> {
+                    Latest point = e.getValue();
+                    return new Metric<>(new MetricId<>(tenantId, GAUGE, e.getKey()),
+                            singletonList(new DataPoint<>(point.timestamp, point.value, point.tags)));
+                });
+    }
+
+    /**
+     * Reads the data points of the reader into metrics as they are requested. Consecutive data points of the same
+     * metric are grouped into one metric of at most {@link #MAX_METRIC_DATA_POINTS} data points, so a metric whose
+     * data points are not contiguous in the input is emitted more than once.
+     */
+    static Observable<Metric<Double>> readMetrics(String tenantId, GaugeDataReader reader) {
+        return Observable.create(SyncOnSubscribe.createSingleState(Carry::new, (carry, observer) -> {
+            String name = carry.name;
+            List<DataPoint<Double>> dataPoints = new ArrayList<>();
+            if (carry.dataPoint != null) {
+                dataPoints.add(carry.dataPoint);
+                carry.dataPoint = null;
+            }
+            while (dataPoints.size() < MAX_METRIC_DATA_POINTS && reader.next()) {
+                DataPoint<Double> dataPoint = new DataPoint<>(reader.getTimestamp(), reader.getValue(),
+                        reader.getTags());
+                if (dataPoints.isEmpty()) {
+                    name = reader.getMetricName();
+                } else if (!name.equals(reader.getMetricName())) {
+                    carry.name = reader.getMetricName();
+                    carry.dataPoint = dataPoint;
+                    break;
+                }
+                dataPoints.add(dataPoint);
+            }
+            if (dataPoints.isEmpty()) {
+                observer.onCompleted();
+            } else {
+                observer.onNext(new Metric<>(new MetricId<>(tenantId, GAUGE, name), dataPoints));
+            }
+        }));
+    }
+
+    /**
+     * The data point read ahead of the metric being emitted, it belongs to the next one
+     */
+    private static class Carry {
+        String name;
+        DataPoint<Double> dataPoint;
+    }
+
+    private static class Latest {
+        long timestamp = Long.MIN_VALUE;
+        double value;
+        Map<String, String> tags;
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 
+import org.hawkular.metrics.core.service.compress.CompressionCoordinator;
 import org.hawkular.metrics.model.AvailabilityBucketPoint;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.Buckets;
@@ -130,6 +131,13 @@ public interface MetricsService {
      */
     <T> Observable<MetricId<T>> findMetricIdentifiersWithFilters(String tenantId, MetricType<T> type, String tags);
 
+    /**
+     * Same as {@link #findMetricIdentifiersWithFilters(String, MetricType, String)}, but the lookup is bounded by
+     * the deadline of the given query context.
+     */
+    <T> Observable<MetricId<T>> findMetricIdentifiersWithFilters(String tenantId, MetricType<T> type, String tags,
+            QueryContext context);
+
     /**
      * Returns distinct tag values for a given tag query (using the same query format as {@link
      * #findMetricsWithFilters(String, MetricType, Map)}).
@@ -161,6 +169,21 @@ public interface MetricsService {
      */
     <T> Observable<Void> addDataPoints(MetricType<T> metricType, Observable<Metric<T>> metrics);
 
+    /**
+     * Insert gauge data points straight from the reader, which is consumed on the subscribing thread. Unlike
+     * {@link #addDataPoints(MetricType, Observable)} the input is validated as it is read, the data points preceding
+     * an invalid one may have been stored.
+     * <p>
+     * The data points are streamed to storage without being held in memory. When the ingestion buffer is enabled
+     * they are stored as with {@link #addDataPoints(MetricType, Observable)}, grouped into metrics as they are read.
+     *
+     * @param tenantId tenant of all the metrics of the reader
+     * @param reader the source of data points
+     *
+     * @return an {@link Observable} emitting just one item on complete
+     */
+    Observable<Void> addGaugeData(String tenantId, GaugeDataReader reader);
+
     /**
      * Fetch data points for a single metric.
      *
@@ -188,6 +211,19 @@ public interface MetricsService {
      */
     @SuppressWarnings("unchecked") Completable compressBlock(long startTimeSlice, int pageSize, int maxConcurrency);
 
+    /**
+     * Compresses the expired temp tables. Token ranges of the tables are claimed from the coordinator and compressed
+     * in parallel, the progress of each table is checkpointed so that an interrupted job continues where it stopped.
+     *
+     * @param startTimeSlice Tables older than this are compressed
+     * @param pageSize Cassandra query parameter
+     * @param maxConcurrency How many token ranges are concurrently compressed
+     * @param coordinator Claims the token ranges before they're compressed
+     * @return onComplete when job is done
+     */
+    Completable compressBlock(long startTimeSlice, int pageSize, int maxConcurrency,
+                              CompressionCoordinator coordinator);
+
     /**
      * Compresses the given range between timestamps to a single block.
      *
@@ -200,6 +236,11 @@ public interface MetricsService {
     Completable compressBlock(Observable<? extends MetricId<?>> metrics, long startTimeSlice, long endTimeSlice,
             int pageSize);
 
+    /**
+     * Fetches the most recent data point of each metric. Metrics without any data are left out of the result.
+     */
+    <T> Observable<NamedDataPoint<T>> findLatestDataPoints(List<MetricId<T>> ids);
+
     <T> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> ids, long start, long end, int limit,
                                                      Order order);
 
@@ -271,6 +312,15 @@ public interface MetricsService {
             List<MetricId<T>> metrics, long start, long end, Buckets buckets, List<Percentile>
             percentiles, boolean stacked, boolean isRate);
 
+    /**
+     * Same as {@link #findNumericStats(List, long, long, Buckets, List, boolean, boolean)}, but the fetch of each
+     * metric is bounded by the deadline of the given query context. With partial results enabled in the context,
+     * the buckets are computed from the data points read before the deadline.
+     */
+    <T extends Number> Observable<List<NumericBucketPoint>> findNumericStats(
+            List<MetricId<T>> metrics, long start, long end, Buckets buckets, List<Percentile>
+            percentiles, boolean stacked, boolean isRate, QueryContext context);
+
     Observable<DataPoint<AvailabilityType>> findAvailabilityData(MetricId<AvailabilityType> id, long start, long end,
                                                                  boolean distinct, int limit, Order order);
 
@@ -29,36 +29,55 @@ import static org.hawkular.metrics.model.Utils.isValidTimeRange;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import org.hawkular.metrics.core.service.buffer.IngestionBuffer;
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.CompressedBlockCache;
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.compress.CompressionCoordinator;
+import org.hawkular.metrics.core.service.compress.NumericBlockDecoder;
+import org.hawkular.metrics.core.service.compress.NumericPointSink;
 import org.hawkular.metrics.core.service.log.CoreLogger;
 import org.hawkular.metrics.core.service.log.CoreLogging;
+import org.hawkular.metrics.core.service.registry.LastValueStore;
+import org.hawkular.metrics.core.service.registry.MetadataChangeFeed;
+import org.hawkular.metrics.core.service.registry.MetadataChangeFeed.Kind;
+import org.hawkular.metrics.core.service.registry.MetricIdRegistry;
+import org.hawkular.metrics.core.service.registry.RetentionRegistry;
+import org.hawkular.metrics.core.service.rollup.RollupCollector;
+import org.hawkular.metrics.core.service.rollup.RollupResolution;
 import org.hawkular.metrics.core.service.tags.ExpressionTagQueryParser;
 import org.hawkular.metrics.core.service.tags.SimpleTagQueryParser;
+import org.hawkular.metrics.core.service.tags.TagIndex;
 import org.hawkular.metrics.core.service.tags.TagsConverter;
 import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
 import org.hawkular.metrics.core.service.transformers.DataPointDecompressTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricFromDataRowTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricIdentifierFromFullDataRowTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricsIndexRowTransformer;
+import org.hawkular.metrics.core.service.transformers.NumericBucketCollector;
 import org.hawkular.metrics.core.service.transformers.NumericBucketPointTransformer;
+import org.hawkular.metrics.core.service.transformers.PeriodDetector;
 import org.hawkular.metrics.core.service.transformers.SortedMerge;
 import org.hawkular.metrics.core.service.transformers.TaggedBucketPointTransformer;
 import org.hawkular.metrics.core.service.transformers.TempTableCompressTransformer;
@@ -74,7 +93,6 @@ import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.NamedDataPoint;
 import org.hawkular.metrics.model.NumericBucketPoint;
 import org.hawkular.metrics.model.Percentile;
-import org.hawkular.metrics.model.Retention;
 import org.hawkular.metrics.model.TaggedBucketPoint;
 import org.hawkular.metrics.model.Tenant;
 import org.hawkular.metrics.model.exception.MetricAlreadyExistsException;
@@ -83,8 +101,10 @@ import org.hawkular.metrics.model.exception.TenantAlreadyExistsException;
 import org.hawkular.metrics.model.param.BucketConfig;
 import org.hawkular.metrics.model.param.Tags;
 import org.hawkular.metrics.model.param.TimeRange;
+import org.hawkular.metrics.scheduler.impl.LockManager;
 import org.hawkular.metrics.sysconfig.Configuration;
 import org.hawkular.metrics.sysconfig.ConfigurationService;
+import org.hawkular.rx.cassandra.driver.RxSessionImpl;
 import org.joda.time.Duration;
 
 import com.codahale.metrics.Meter;
@@ -94,19 +114,20 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TokenRange;
 import com.datastax.driver.core.exceptions.DriverException;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import rx.Completable;
 import rx.Observable;
+import rx.Subscription;
 import rx.functions.Func1;
 import rx.functions.Func6;
 import rx.observable.ListenableFutureObservable;
@@ -121,41 +142,47 @@ public class MetricsServiceImpl implements MetricsService {
     private static final long DAY_TO_MILLIS = 24 * 3600 * 1000;
     public static final String SYSTEM_TENANT_ID = makeSafe("sysconfig");
 
-    private static class DataRetentionKey {
-        private final MetricId<?> metricId;
+    /**
+     * Prefix of the configurations holding the compressed token ranges of each temp table
+     */
+    public static final String COMPRESSION_CHECKPOINTS_PREFIX = "org.hawkular.metrics.compression.";
 
-        public DataRetentionKey(String tenantId, MetricType<?> type) {
-            metricId = new MetricId<>(tenantId, type, makeSafe(type.getText()));
-        }
+    /**
+     * Configuration marking that the metric id registry has been backfilled with the metrics written before it
+     */
+    public static final String METRIC_IDS_CONFIG_ID = "org.hawkular.metrics.metric-ids";
+    public static final String METRIC_IDS_BACKFILLED = "backfilled";
 
-        public DataRetentionKey(MetricId<?> metricId) {
-            this.metricId = metricId;
-        }
+    /**
+     * TTLs of the metric data, loaded from retentions_idx
+     */
+    private RetentionRegistry retentionRegistry;
 
-        public DataRetentionKey(Metric<?> metric) {
-            this.metricId = metric.getMetricId();
-        }
+    private long retentionsRefreshInterval;
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+    private Subscription retentionsRefresh;
 
-            DataRetentionKey that = (DataRetentionKey) o;
+    /**
+     * Propagates the retention, tags and deletion changes between the nodes, off by default
+     */
+    private MetadataChangeFeed metadataChangeFeed;
 
-            return metricId.equals(that.metricId);
-        }
+    private boolean metadataFeedEnabled;
 
-        @Override
-        public int hashCode() {
-            return metricId.hashCode();
-        }
-    }
+    private long metadataFeedPollInterval;
+
+    private Subscription metadataFeedPoll;
 
     /**
-     * Note that while user specifies the durations in hours, we store them in seconds.
+     * Last data point of each gauge, counter and availability metric, off by default
      */
-    private final Map<DataRetentionKey, Integer> dataRetentions = new ConcurrentHashMap<>();
+    private LastValueStore lastValueStore;
+
+    private boolean lastValuesEnabled;
+
+    private long lastValuesCacheSize;
+
+    private long lastValuesCacheExpiry;
 
     private ListeningExecutorService metricsTasks;
 
@@ -188,6 +215,14 @@ public class MetricsServiceImpl implements MetricsService {
      */
     private boolean disableACostOptimization;
     private SimpleTagQueryParser tagQueryParser;
+
+    /**
+     * In-memory index of the metric tags, null if disabled
+     */
+    private TagIndex tagIndex;
+    private boolean tagIndexEnabled;
+    private long tagIndexRefreshInterval;
+    private Subscription tagIndexRefresh;
     private ExpressionTagQueryParser expresssionTagQueryParser;
 
     private int defaultTTL = Duration.standardDays(7).toStandardSeconds().getSeconds();
@@ -201,6 +236,54 @@ public class MetricsServiceImpl implements MetricsService {
 
     private int defaultPageSize;
 
+    /**
+     * Write-behind buffer for the currently open compression blocks, null if disabled
+     */
+    private IngestionBuffer ingestionBuffer;
+
+    private boolean ingestionBufferEnabled;
+
+    private long ingestionBufferFlushDelay;
+
+    /**
+     * Identifies the journal index partitions of this node, defaults to the host name
+     */
+    private String ingestionBufferNodeId;
+
+    /**
+     * Locks the compression blocks merged by the ingestion buffer, null if the buffer is disabled
+     */
+    private LockManager ingestionBufferLocks;
+
+    /**
+     * Cache of the compressed blocks, null if disabled
+     */
+    private CompressedBlockCache compressedBlockCache;
+
+    private long compressedBlockCacheSize;
+
+    private long compressedBlockCacheExpiration;
+
+    /**
+     * Registry of the metrics that have data, null if disabled
+     */
+    private MetricIdRegistry metricIdRegistry;
+
+    private boolean metricIdRegistryEnabled;
+
+    private long metricIdRegistryCacheSize;
+
+    private Subscription metricIdRegistryBackfill;
+
+    /**
+     * Bounds the parallel fetches of multi metric queries
+     */
+    private FetchLimiter fetchLimiter;
+
+    private int fetchRequestConcurrency;
+
+    private int fetchNodeConcurrency;
+
     public void startUp(Session session, String keyspace, boolean resetDb, MetricRegistry metricRegistry) {
         startUp(session, keyspace, resetDb, true, metricRegistry);
     }
@@ -210,6 +293,7 @@ public class MetricsServiceImpl implements MetricsService {
         session.execute("USE " + keyspace);
         log.infoKeyspaceUsed(keyspace);
         metricsTasks = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4, new MetricsThreadFactory()));
+        retentionRegistry = new RetentionRegistry(dataAccess, defaultTTL);
         loadDataRetentions();
 
         this.metricRegistry = metricRegistry;
@@ -219,17 +303,17 @@ public class MetricsServiceImpl implements MetricsService {
                 .put(GAUGE, metric -> {
                     @SuppressWarnings("unchecked")
                     Observable<Metric<Double>> gauge = (Observable<Metric<Double>>) metric;
-                    return dataAccess.insertData(gauge);
+                    return insertData(gauge);
                 })
                 .put(COUNTER, metric -> {
                     @SuppressWarnings("unchecked")
                     Observable<Metric<Long>> counter = (Observable<Metric<Long>>) metric;
-                    return dataAccess.insertData(counter);
+                    return insertData(counter);
                 })
                 .put(AVAILABILITY, metric -> {
                     @SuppressWarnings("unchecked")
                     Observable<Metric<AvailabilityType>> avail = (Observable<Metric<AvailabilityType>>) metric;
-                    return dataAccess.insertData(avail);
+                    return insertData(avail);
                 })
                 .put(STRING, metric -> {
                     @SuppressWarnings("unchecked")
@@ -266,39 +350,138 @@ public class MetricsServiceImpl implements MetricsService {
 
         verifyAndCreateTempTables();
 
+        fetchLimiter = new FetchLimiter(fetchRequestConcurrency, fetchNodeConcurrency);
+
+        // Picks up the retentions changed by other nodes, or those the metadata feed missed when it is enabled
+        retentionsRefresh = Observable.interval(retentionsRefreshInterval, retentionsRefreshInterval,
+                TimeUnit.MILLISECONDS, Schedulers.io())
+                .onBackpressureDrop()
+                .concatMap(i -> retentionRegistry.load(dataAccess.findAllTenantIds().map(row -> row.getString(0)))
+                        .doOnError(t -> log.warn("Failed to refresh the data retentions", t))
+                        .onErrorComplete()
+                        .toObservable())
+                .subscribe();
+
+        if (compressedBlockCacheSize > 0) {
+            compressedBlockCache = new CompressedBlockCache(dataAccess, compressedBlockCacheSize,
+                    compressedBlockCacheExpiration);
+        }
+
+        if (ingestionBufferEnabled) {
+            ingestionBufferLocks = new LockManager(new RxSessionImpl(session));
+            ingestionBuffer = new IngestionBuffer(dataAccess, ingestionBufferLocks, getIngestionBufferNodeId(),
+                    this::getTTL, ingestionBufferFlushDelay);
+            ingestionBuffer.setBlockCache(compressedBlockCache);
+            ingestionBuffer.setBlockListener(this::rollupBlock);
+            ingestionBuffer.start(Duration.standardMinutes(1).getMillis());
+        }
+
         int defaultPageSize = session.getCluster().getConfiguration().getQueryOptions().getFetchSize();
         int pageThreshold = Integer.getInteger("hawkular.metrics.page-threshold", 10);
         tagQueryParser = new SimpleTagQueryParser(this.dataAccess, this, disableACostOptimization, defaultPageSize,
                 pageThreshold);
+        if (tagIndexEnabled) {
+            tagIndex = new TagIndex();
+            tagQueryParser.setTagIndex(tagIndex);
+            tagIndexRefresh = Observable.interval(0, tagIndexRefreshInterval, TimeUnit.MILLISECONDS, Schedulers.io())
+                    .onBackpressureDrop()
+                    .concatMap(i -> tagIndex.load(scanAllMetricIndexes())
+                            .doOnError(t -> log.warn("Failed to load the tag index", t))
+                            .onErrorComplete()
+                            .toObservable())
+                    .subscribe();
+        }
         expresssionTagQueryParser = new ExpressionTagQueryParser(this.dataAccess, this);
+
+        if (metricIdRegistryEnabled) {
+            metricIdRegistry = new MetricIdRegistry(dataAccess, this::getTTL, metricIdRegistryCacheSize);
+            metricIdRegistryBackfill = configurationService.load(METRIC_IDS_CONFIG_ID, METRIC_IDS_BACKFILLED)
+                    .map(Boolean::parseBoolean)
+                    .defaultIfEmpty(false)
+                    .flatMap(backfilled -> {
+                        if (backfilled) {
+                            metricIdRegistry.setReady();
+                            return Observable.<Void>empty();
+                        }
+                        // Until the backfill has finished, the metrics are still discovered from the data tables
+                        return metricIdRegistry.backfill(findAllMetricIdentifiers())
+                                .andThen(configurationService.save(METRIC_IDS_CONFIG_ID, METRIC_IDS_BACKFILLED,
+                                        Boolean.TRUE.toString()));
+                    })
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(v -> {}, t -> log.warn("Failed to backfill the metric id registry", t));
+        }
+
+        if (lastValuesEnabled) {
+            lastValueStore = new LastValueStore(dataAccess, this::getTTL, lastValuesCacheSize, lastValuesCacheExpiry);
+        }
+
+        if (metadataFeedEnabled) {
+            metadataChangeFeed = new MetadataChangeFeed(dataAccess);
+            metadataFeedPoll = Observable.interval(metadataFeedPollInterval, metadataFeedPollInterval,
+                    TimeUnit.MILLISECONDS, Schedulers.io())
+                    .onBackpressureDrop()
+                    .concatMap(i -> metadataChangeFeed.poll()
+                            .concatMap(this::applyMetadataChange)
+                            .doOnError(t -> log.warn("Failed to poll the metadata changes", t))
+                            .onErrorResumeNext(Observable.empty()))
+                    .subscribe();
+        }
     }
 
-    void loadDataRetentions() {
-        List<String> tenantIds = loadTenantIds();
-        CountDownLatch latch = new CountDownLatch(tenantIds.size() * 2);
-        for (String tenantId : tenantIds) {
-            DataRetentionsMapper gaugeMapper = new DataRetentionsMapper(tenantId, GAUGE);
-            DataRetentionsMapper availMapper = new DataRetentionsMapper(tenantId, AVAILABILITY);
-            ResultSetFuture gaugeFuture = dataAccess.findDataRetentions(tenantId, GAUGE);
-            ResultSetFuture availabilityFuture = dataAccess.findDataRetentions(tenantId, AVAILABILITY);
-            ListenableFuture<Set<Retention>> gaugeRetentions = Futures.transform(gaugeFuture, gaugeMapper,
-                    metricsTasks);
-            ListenableFuture<Set<Retention>> availabilityRetentions = Futures.transform(availabilityFuture, availMapper,
-                    metricsTasks);
-            Futures.addCallback(gaugeRetentions,
-                    new DataRetentionsLoadedCallback(tenantId, GAUGE, latch));
-            Futures.addCallback(availabilityRetentions, new DataRetentionsLoadedCallback(tenantId, AVAILABILITY,
-                    latch));
+    private Observable<Void> applyMetadataChange(MetadataChangeFeed.Change change) {
+        MetricId<?> id = change.getMetricId();
+        switch (change.getKind()) {
+            case RETENTION:
+                return retentionRegistry.refresh(id).toObservable();
+            case TAGS:
+                if (tagIndex == null) {
+                    return Observable.empty();
+                }
+                return getMetricTags(id)
+                        .doOnNext(tags -> tagIndex.put(id, tags))
+                        .map(tags -> null);
+            case DELETED:
+                retentionRegistry.removeMetric(id);
+                if (compressedBlockCache != null) {
+                    compressedBlockCache.invalidate(id);
+                }
+                if (tagIndex != null) {
+                    tagIndex.remove(id);
+                }
+                if (metricIdRegistry != null) {
+                    metricIdRegistry.invalidate(id);
+                }
+                if (lastValueStore != null) {
+                    lastValueStore.invalidate(id);
+                }
+                return Observable.empty();
+            default:
+                return Observable.empty();
         }
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+    }
+
+    /**
+     * Lets the other nodes know about a metadata change which has already been applied locally. Failing to publish
+     * does not fail the change, the periodic reloads pick it up eventually.
+     */
+    private <T> Observable<T> publishMetadataChange(Kind kind, MetricId<?> id) {
+        if (metadataChangeFeed == null) {
+            return Observable.empty();
         }
+        return metadataChangeFeed.publish(kind, id)
+                .doOnError(t -> log.warn("Failed to publish the metadata change of " + id, t))
+                .onErrorResumeNext(Observable.empty())
+                .ignoreElements()
+                .map(v -> null);
+    }
+
+    void loadDataRetentions() {
+        retentionRegistry.load(dataAccess.findAllTenantIds().map(row -> row.getString(0))).await();
     }
 
     void unloadDataRetentions() {
-        dataRetentions.clear();
+        retentionRegistry.clear();
     }
 
     /**
@@ -339,6 +522,35 @@ public class MetricsServiceImpl implements MetricsService {
 
         defaultPageSize = Integer.parseInt(configuration.get("page-size", "5000"));
         disableACostOptimization = Boolean.parseBoolean(configuration.get("disable.parser.optimization", "false"));
+
+        ingestionBufferEnabled = Boolean.parseBoolean(configuration.get("ingestion.buffer.enabled", "false"));
+        ingestionBufferFlushDelay = Long.parseLong(configuration.get("ingestion.buffer.flush-delay", "300000"));
+        ingestionBufferNodeId = configuration.get("ingestion.buffer.node-id");
+        compressedBlockCacheSize = Long.parseLong(configuration.get("compressed-block-cache.max-size", "0"));
+        compressedBlockCacheExpiration = Long.parseLong(
+                configuration.get("compressed-block-cache.expire-after-write", "600000"));
+        tagIndexEnabled = Boolean.parseBoolean(configuration.get("tags.index.enabled", "false"));
+        tagIndexRefreshInterval = Long.parseLong(configuration.get("tags.index.refresh-interval", "600000"));
+        metricIdRegistryEnabled = Boolean.parseBoolean(configuration.get("metric-ids.registry.enabled", "false"));
+        metricIdRegistryCacheSize = Long.parseLong(configuration.get("metric-ids.registry.cache-size", "1000000"));
+        fetchRequestConcurrency = Integer.parseInt(configuration.get("query.fetch.request-concurrency", "8"));
+        fetchNodeConcurrency = Integer.parseInt(configuration.get("query.fetch.node-concurrency", "64"));
+        metadataFeedEnabled = Boolean.parseBoolean(configuration.get("metadata.feed.enabled", "false"));
+        // With the metadata feed the retentions changed by other nodes are applied as they come and the full reload
+        // is only a safety net for missed changes
+        retentionsRefreshInterval = Long.parseLong(configuration.get("retentions.refresh-interval",
+                metadataFeedEnabled ? "21600000" : "600000"));
+        metadataFeedPollInterval = Long.parseLong(configuration.get("metadata.feed.poll-interval", "5000"));
+        lastValuesEnabled = Boolean.parseBoolean(configuration.get("last-values.enabled", "false"));
+        lastValuesCacheSize = Long.parseLong(configuration.get("last-values.cache-size", "100000"));
+        lastValuesCacheExpiry = Long.parseLong(configuration.get("last-values.cache-expiry", "10000"));
+    }
+
+    private <T> Observable<Integer> insertData(Observable<Metric<T>> metrics) {
+        if (ingestionBuffer != null) {
+            return ingestionBuffer.insertData(metrics);
+        }
+        return dataAccess.insertData(metrics);
     }
 
     private void setDefaultTTL(Session session, String keyspace) {
@@ -356,36 +568,6 @@ public class MetricsServiceImpl implements MetricsService {
         log.infoDefaultDataRetention(this.defaultTTL);
     }
 
-    private class DataRetentionsLoadedCallback implements FutureCallback<Set<Retention>> {
-
-        private final String tenantId;
-
-        private final MetricType<?> type;
-
-        private final CountDownLatch latch;
-
-        public DataRetentionsLoadedCallback(String tenantId, MetricType<?> type, CountDownLatch latch) {
-            this.tenantId = tenantId;
-            this.type = type;
-            this.latch = latch;
-        }
-
-        @Override
-        public void onSuccess(Set<Retention> dataRetentionsSet) {
-            for (Retention r : dataRetentionsSet) {
-                dataRetentions.put(new DataRetentionKey(r.getId()), r.getValue());
-            }
-            latch.countDown();
-        }
-
-        @Override
-        public void onFailure(Throwable t) {
-            log.warnDataRetentionLoadingFailure(tenantId, type, t);
-            latch.countDown();
-            // TODO We probably should not let initialization proceed on this error (then change log level to FATAL)
-        }
-    }
-
     /**
      * This is a test hook.
      */
@@ -406,6 +588,9 @@ public class MetricsServiceImpl implements MetricsService {
 
     public void setDefaultTTL(int defaultTTL) {
         this.defaultTTL = Duration.standardDays(defaultTTL).toStandardSeconds().getSeconds();
+        if (retentionRegistry != null) {
+            retentionRegistry.setDefaultTTL(this.defaultTTL);
+        }
     }
 
     @Override
@@ -418,7 +603,11 @@ public class MetricsServiceImpl implements MetricsService {
 
                 Observable<Void> retentionUpdates = Observable.from(tenant.getRetentionSettings().entrySet())
                         .flatMap(entry -> dataAccess.updateRetentionsIndex(tenant.getId(), entry.getKey(),
-                                ImmutableMap.of(makeSafe(entry.getKey().getText()), entry.getValue())))
+                                ImmutableMap.of(makeSafe(entry.getKey().getText()), entry.getValue()))
+                                .doOnCompleted(() -> retentionRegistry.putTenant(tenant.getId(), entry.getKey(),
+                                        entry.getValue()))
+                                .concatWith(publishMetadataChange(Kind.RETENTION, new MetricId<>(tenant.getId(),
+                                        entry.getKey(), makeSafe(entry.getKey().getText())))))
                         .map(rs -> null);
 
                 return retentionUpdates;
@@ -480,22 +669,33 @@ public class MetricsServiceImpl implements MetricsService {
                     updates.add(updateRetentionsIndex(metric));
                 }
 
-                Observable.merge(updates).subscribe(new VoidSubscriber<>(subscriber));
+                Observable.merge(updates)
+                        .doOnCompleted(() -> {
+                            if (tagIndex != null) {
+                                tagIndex.put(metric.getMetricId(), metric.getTags());
+                            }
+                        })
+                        .concatWith(metric.getTags().isEmpty() ? Observable.empty() :
+                                publishMetadataChange(Kind.TAGS, metric.getMetricId()))
+                        .subscribe(new VoidSubscriber<>(subscriber));
             }
         }));
     }
 
     private Observable<ResultSet> updateRetentionsIndex(Metric<?> metric) {
         return ListenableFutureObservable.from(dataAccess.updateRetentionsIndex(metric), metricsTasks)
-                .doOnCompleted(() ->
-                        dataRetentions.put(new DataRetentionKey(metric), metric.getDataRetention()));
+                .doOnCompleted(() -> {
+                    if (metric.getDataRetention() != null) {
+                        retentionRegistry.putMetric(metric.getMetricId(), metric.getDataRetention());
+                    }
+                })
+                .concatWith(publishMetadataChange(Kind.RETENTION, metric.getMetricId()));
     }
 
     @Override
     public Observable<MetricId<?>> findAllMetricIdentifiers() {
         return dataAccess.findAllMetricIdentifiersInData()
-                .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
-                .distinct();
+                .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL));
     }
 
     public <T> Observable.Transformer<MetricId<T>, Metric<T>> enrichToMetric() {
@@ -516,12 +716,25 @@ public class MetricsServiceImpl implements MetricsService {
     @Override
     public <T> Observable<Metric<T>> findMetrics(String tenantId, MetricType<T> metricType) {
         Observable<Metric<T>> setFromMetricsIndex = null;
-        Observable<Metric<T>> setFromData = dataAccess.findAllMetricIdentifiersInData()
-                .doOnError(Throwable::printStackTrace)
-                .filter(row -> tenantId.equals(row.getString(0)))
-                .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
-                .distinct()
-                .map(m -> new Metric(m, DEFAULT_RETENTION));
+        Observable<Metric<T>> setFromData = null;
+
+        if (metricIdRegistry != null && metricIdRegistry.isReady()) {
+            Observable<MetricType<T>> types = metricType == null ?
+                    Observable.from(MetricType.userTypes()).map(type -> (MetricType<T>) type) :
+                    Observable.just(metricType);
+            setFromData = types
+                    .concatMap(type -> metricIdRegistry.findMetricIdentifiers(tenantId, type))
+                    .map(id -> new Metric<>(id, DEFAULT_RETENTION));
+        } else {
+            setFromData = dataAccess.findAllMetricIdentifiersInData()
+                    .doOnError(Throwable::printStackTrace)
+                    .filter(row -> tenantId.equals(row.getString(0)))
+                    .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
+                    .map(m -> new Metric(m, DEFAULT_RETENTION));
+            if (metricType != null) {
+                setFromData = setFromData.filter(m -> metricType.equals(m.getType()));
+            }
+        }
 
         if (metricType == null) {
             setFromMetricsIndex = Observable.from(MetricType.userTypes())
@@ -531,8 +744,6 @@ public class MetricsServiceImpl implements MetricsService {
         } else {
             setFromMetricsIndex = dataAccess.findMetricsInMetricsIndex(tenantId, metricType)
                     .compose(new MetricsIndexRowTransformer<>(tenantId, metricType, defaultTTL));
-
-            setFromData = setFromData.filter(m -> metricType.equals(m.getType()));
         }
 
         return setFromMetricsIndex.concatWith(setFromData).distinct(Metric::getMetricId);
@@ -555,6 +766,12 @@ public class MetricsServiceImpl implements MetricsService {
     @Override
     public <T> Observable<MetricId<T>> findMetricIdentifiersWithFilters(String tenantId, MetricType<T> metricType,
                                                                        String tags) {
+        return findMetricIdentifiersWithFilters(tenantId, metricType, tags, QueryContext.unbounded());
+    }
+
+    @Override
+    public <T> Observable<MetricId<T>> findMetricIdentifiersWithFilters(String tenantId, MetricType<T> metricType,
+                                                                       String tags, QueryContext queryContext) {
         Timer.Context context = getMetricsTagsQueryLatency().time();
         Observable<MetricId<T>> results;
         try {
@@ -570,7 +787,7 @@ public class MetricsServiceImpl implements MetricsService {
                 results = Observable.error(new RuntimeApiError("Unparseable tag query expression.", e2));
             }
         }
-        return results.doOnCompleted(context::stop);
+        return results.compose(queryContext.bounded()).doOnCompleted(context::stop);
     }
 
     public <T> Func1<MetricId<T>, Boolean> idFilter(String regexp) {
@@ -614,7 +831,14 @@ public class MetricsServiceImpl implements MetricsService {
         }
 
         return dataAccess.insertIntoMetricsTagsIndex(metric, tags).concatWith(dataAccess.addTags(metric, tags))
-                .toList().map(l -> null);
+                .toList()
+                .doOnCompleted(() -> {
+                    if (tagIndex != null) {
+                        tagIndex.addTags(metric.getMetricId(), tags);
+                    }
+                })
+                .<Void> map(l -> null)
+                .concatWith(publishMetadataChange(Kind.TAGS, metric.getMetricId()));
     }
 
     @Override
@@ -627,7 +851,13 @@ public class MetricsServiceImpl implements MetricsService {
                 .flatMap(tagsToDelete -> {
                     return dataAccess.deleteTags(metric, tagsToDelete.keySet()).mergeWith(
                             dataAccess.deleteFromMetricsTagsIndex(metric.getMetricId(), tagsToDelete)).toList()
-                            .map(r -> null);
+                            .doOnCompleted(() -> {
+                                if (tagIndex != null) {
+                                    tagIndex.deleteTags(metric.getMetricId(), tagsToDelete.keySet());
+                                }
+                            })
+                            .<Void> map(r -> null)
+                            .concatWith(publishMetadataChange(Kind.TAGS, metric.getMetricId()));
                 });
     }
 
@@ -635,14 +865,50 @@ public class MetricsServiceImpl implements MetricsService {
     public <T> Observable<Void> addDataPoints(MetricType<T> metricType, Observable<Metric<T>> metrics) {
         checkArgument(metricType != null, "metricType is null");
 
+        Observable<Metric<T>> nonEmpty = metrics.filter(metric -> !metric.getDataPoints().isEmpty());
+        if (metricIdRegistry != null) {
+            nonEmpty = nonEmpty.compose(metricIdRegistry.register());
+        }
+        if (lastValueStore != null && LastValueStore.isSupported(metricType)) {
+            nonEmpty = nonEmpty.compose(lastValueStore.update());
+        }
+
         return pointsInserter
                 .get(metricType)
-                .call(metrics
-                        .filter(metric -> !metric.getDataPoints().isEmpty()))
+                .call(nonEmpty)
                 .doOnNext(getDataPointsInserted()::mark)
                 .map(i -> null);
     }
 
+    @Override
+    public Observable<Void> addGaugeData(String tenantId, GaugeDataReader reader) {
+        if (ingestionBuffer != null) {
+            // The buffer journals the data points of the current block to data_wal and writes the others to the
+            // data tables, it takes metrics so the reader's data points are grouped into metrics as they are read.
+            return addDataPoints(GAUGE, Observable.defer(() -> GaugeDataTracker.readMetrics(tenantId, reader)));
+        }
+        if (metricIdRegistry == null && lastValueStore == null) {
+            return dataAccess.insertGaugeData(tenantId, reader)
+                    .doOnNext(getDataPointsInserted()::mark)
+                    .map(i -> null);
+        }
+
+        GaugeDataTracker tracker = new GaugeDataTracker(reader);
+        Observable<Integer> inserted = dataAccess.insertGaugeData(tenantId, tracker)
+                .doOnNext(getDataPointsInserted()::mark);
+        Observable<Metric<Double>> latest = Observable.defer(() -> tracker.getLatest(tenantId));
+        if (metricIdRegistry != null) {
+            latest = latest.compose(metricIdRegistry.register());
+        }
+        if (lastValueStore != null) {
+            latest = latest.compose(lastValueStore.update());
+        }
+        // The metrics are known once the whole input has been read
+        return inserted
+                .map(i -> (Void) null)
+                .concatWith(latest.ignoreElements().map(m -> null));
+    }
+
     @Override
     public <T> Observable<DataPoint<T>> findDataPoints(MetricId<T> metricId, long start, long end, int limit,
             Order order) {
@@ -652,6 +918,15 @@ public class MetricsServiceImpl implements MetricsService {
     @Override
     public <T> Observable<DataPoint<T>> findDataPoints(MetricId<T> metricId, long start, long end, int limit,
                                                        Order order, int pageSize) {
+        return findDataPoints(metricId, start, end, limit, order, pageSize, true);
+    }
+
+    /**
+     * @param withTags false if the tags of the data points are not used, the tags of compressed data points are then
+     *                 not read
+     */
+    private <T> Observable<DataPoint<T>> findDataPoints(MetricId<T> metricId, long start, long end, int limit,
+                                                        Order order, int pageSize, boolean withTags) {
 
         Timer.Context context = getRawDataReadLatency().time();
         checkArgument(isValidTimeRange(start, end), "Invalid time range");
@@ -669,8 +944,9 @@ public class MetricsServiceImpl implements MetricsService {
 //                    pageSize).map(mapper).doOnError(Throwable::printStackTrace);
 
             Observable<DataPoint<T>> compressedPoints =
-                    dataAccess.findCompressedData(metricId, sliceStart, end, limit, safeOrder)
-                            .compose(new DataPointDecompressTransformer(metricType, safeOrder, limit, start, end));
+                    findCompressedData(metricId, sliceStart, end, limit, safeOrder)
+                            .compose(new DataPointDecompressTransformer(metricType, safeOrder, limit, start, end,
+                                    withTags));
 
             Observable<DataPoint<T>> tempStoragePoints = dataAccess.findTempData(metricId, start, end, limit,
                     safeOrder, pageSize)
@@ -681,6 +957,9 @@ public class MetricsServiceImpl implements MetricsService {
 //            sources.add(uncompressedPoints);
             sources.add(compressedPoints);
             sources.add(tempStoragePoints);
+            if (ingestionBuffer != null) {
+                sources.add(ingestionBuffer.findDataPoints(metricId, start, end, safeOrder));
+            }
 
             Observable<DataPoint<T>> dataPoints = SortedMerge.create(sources, comparator, false)
                     .distinctUntilChanged(
@@ -717,6 +996,20 @@ public class MetricsServiceImpl implements MetricsService {
         return comparator;
     }
 
+    private Observable<Row> findCompressedData(MetricId<?> metricId, long sliceStart, long end, int limit,
+                                               Order order) {
+        if (compressedBlockCache != null) {
+            return compressedBlockCache.findCompressedData(metricId, sliceStart, end, limit, order);
+        }
+        return dataAccess.findCompressedData(metricId, sliceStart, end, limit, order);
+    }
+
+    private void invalidateCompressedBlock(MetricId<?> metricId, long blockStart) {
+        if (compressedBlockCache != null) {
+            compressedBlockCache.invalidate(metricId, blockStart);
+        }
+    }
+
     private <T> Observable.Transformer<T, T> applyRetryPolicy() {
         return tObservable -> tObservable
                 .retryWhen(observable -> {
@@ -762,43 +1055,107 @@ public class MetricsServiceImpl implements MetricsService {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Completable compressBlock(long jobStartTimeSlice, int pageSize, int maxConcurrency) {
+        return compressBlock(jobStartTimeSlice, pageSize, maxConcurrency, CompressionCoordinator.LOCAL);
+    }
+
+    @Override
+    public Completable compressBlock(long jobStartTimeSlice, int pageSize, int maxConcurrency,
+                                     CompressionCoordinator coordinator) {
         return Completable.fromObservable(
                 Observable.from(dataAccess.findExpiredTables(jobStartTimeSlice))
-                        .concatMap(startTimeSlice ->
-                                dataAccess.findAllDataFromBucket(startTimeSlice, pageSize, maxConcurrency)
-                                        .switchIfEmpty(Observable.empty())
-                                        .flatMap(rows -> rows
-                                                // Each time the tokenrange changes inside the query, create new window, publish allows
-                                                // reuse of the observable in two distinct processing phases
-                                                .publish(p -> p.window(
-                                                        p.map(Row::getPartitionKeyToken)
-                                                                .distinctUntilChanged()))
-                                                // ConcatMap so we don't mess the order as that's important in the compression job
-                                                .concatMap(o -> {
-                                                    // Cache the first key from the observable so we can use it to create a key later
-                                                    Observable<Row> sharedRows = o.share();
-                                                    Observable<CompressedPointContainer> compressed =
-                                                            sharedRows.compose(new TempTableCompressTransformer(startTimeSlice));
-                                                    Observable<Row> keyTake = sharedRows.take(1);
-
-                                                    // Merge the first row with the compressed package to be able to write to Cassandra
-                                                    return compressed.zipWith(keyTake, (cpc, r) -> {
-                                                        MetricId<?> metricId =
-                                                                new MetricId(r.getString(0), MetricType.fromCode(r.getByte(1)),
-                                                                        r.getString(2));
-                                                        return dataAccess.insertCompressedData(metricId, startTimeSlice, cpc,
-                                                                getTTL(metricId));
-                                                    });
-                                                }), maxConcurrency)
-                                        .flatMap(rs -> rs)
-                                        .doOnCompleted(() -> dataAccess.dropTempTable(startTimeSlice)
-                                                .compose(applyRetryPolicy())
-                                                .subscribeOn(Schedulers.io())
-                                                .subscribe())
-                        )
-        );
+                        .concatMap(startTimeSlice -> compressTempTable(startTimeSlice, pageSize, maxConcurrency,
+                                coordinator)));
+    }
+
+    /**
+     * Compresses the token ranges of a single temp table with at most maxConcurrency ranges in progress. Every
+     * compressed range is checkpointed to the sys_config, a failed or interrupted job will continue from the ranges
+     * that are missing. The table is dropped only once all of its ranges have been checkpointed.
+     */
+    private Observable<Void> compressTempTable(long startTimeSlice, int pageSize, int maxConcurrency,
+                                               CompressionCoordinator coordinator) {
+        String checkpointId = COMPRESSION_CHECKPOINTS_PREFIX + startTimeSlice;
+        List<TokenRange> tokenRanges = dataAccess.findTokenRanges();
+
+        return configurationService.load(checkpointId)
+                .map(checkpoints -> checkpoints.getProperties().keySet())
+                .flatMap(completed -> Observable.from(tokenRanges)
+                        .filter(tokenRange -> !completed.contains(tokenRange.getStart().toString()))
+                        .flatMap(tokenRange -> compressTokenRange(startTimeSlice, tokenRange, pageSize, checkpointId,
+                                coordinator), maxConcurrency)
+                        .toList())
+                .flatMap(compressed -> configurationService.load(checkpointId))
+                .flatMap(checkpoints -> {
+                    long missing = tokenRanges.stream()
+                            .filter(tokenRange -> checkpoints.get(tokenRange.getStart().toString()) == null)
+                            .count();
+                    if (missing > 0) {
+                        log.debugf("%d token ranges of temp table %d are not compressed yet", missing,
+                                startTimeSlice);
+                        return Observable.empty();
+                    }
+                    return dataAccess.dropTempTable(startTimeSlice)
+                            .compose(applyRetryPolicy())
+                            .flatMap(rs -> configurationService.delete(checkpointId).toObservable());
+                });
+    }
+
+    private Observable<Void> compressTokenRange(long startTimeSlice, TokenRange tokenRange, int pageSize,
+                                                String checkpointId, CompressionCoordinator coordinator) {
+        String rangeName = checkpointId + "." + tokenRange.getStart();
+        return coordinator.acquire(rangeName)
+                .filter(acquired -> acquired)
+                .flatMap(acquired -> Completable.fromObservable(
+                        dataAccess.findDataFromBucket(startTimeSlice, tokenRange, pageSize)
+                                // Spread the compression of the ranges over the available cores
+                                .observeOn(Schedulers.computation())
+                                .compose(compressPartitions(startTimeSlice)))
+                        .andThen(configurationService.save(checkpointId, tokenRange.getStart().toString(),
+                                tokenRange.getEnd().toString()))
+                        .doAfterTerminate(() -> coordinator.release(rangeName).subscribe(
+                                released -> {},
+                                t -> log.debugf("Failed to release %s: %s", rangeName, t.getMessage()))))
+                .doOnError(t -> log.errorf(t, "Failed to compress token range %s of temp table %d", tokenRange,
+                        startTimeSlice))
+                .onErrorResumeNext(Observable.empty());
+    }
+
+    /**
+     * Compresses the rows of a temp table scan, the rows must be ordered by the partition key.
+     */
+    @SuppressWarnings("unchecked")
+    private Observable.Transformer<Row, ResultSet> compressPartitions(long startTimeSlice) {
+        return rows -> rows
+                // Each time the tokenrange changes inside the query, create new window, publish allows
+                // reuse of the observable in two distinct processing phases
+                .publish(p -> p.window(
+                        p.map(Row::getPartitionKeyToken)
+                                .distinctUntilChanged()))
+                // ConcatMap so we don't mess the order as that's important in the compression job
+                .concatMap(o -> {
+                    // Cache the first key from the observable so we can use it to create a key later
+                    Observable<Row> sharedRows = o.share();
+                    Observable<CompressedPointContainer> compressed =
+                            sharedRows.compose(new TempTableCompressTransformer(startTimeSlice));
+                    Observable<Row> keyTake = sharedRows.take(1);
+
+                    // Merge the first row with the compressed package to be able to write to Cassandra
+                    return compressed.zipWith(keyTake, (cpc, r) -> {
+                        MetricId<?> metricId =
+                                new MetricId(r.getString(0), MetricType.fromCode(r.getByte(1)),
+                                        r.getString(2));
+                        if (ingestionBuffer != null) {
+                            // Merge with the blocks already flushed by the buffer
+                            return ingestionBuffer.insertCompressedData(metricId, startTimeSlice, cpc);
+                        }
+                        return dataAccess.insertCompressedData(metricId, startTimeSlice, cpc,
+                                getTTL(metricId))
+                                .doOnCompleted(() -> invalidateCompressedBlock(metricId, startTimeSlice))
+                                .concatWith(Observable.defer(() -> rollupBlock(metricId, startTimeSlice)));
+                    });
+                })
+                .flatMap(rs -> rs);
     }
 
     @Override
@@ -814,22 +1171,229 @@ public class MetricsServiceImpl implements MetricsService {
                         .compose(new DataPointCompressTransformer(metricId.getType(), startTimeSlice))
                         .concatMap(cpc -> dataAccess.deleteAndInsertCompressedGauge(metricId, startTimeSlice,
                                 (CompressedPointContainer) cpc, startTimeSlice, endTimeSlice, getTTL(metricId))
-                                .compose(applyRetryPolicy()))));
+                                .doOnCompleted(() -> invalidateCompressedBlock(metricId, startTimeSlice))
+                                .compose(applyRetryPolicy())
+                                .concatWith(Observable.defer(() -> rollupBlock(metricId, startTimeSlice))))));
+    }
+
+    /**
+     * Computes the 5 minute and hourly rollups of a gauge or a counter after its compressed block has been written.
+     * Rewriting a block with late data computes its rollups again. Once the day of the block has ended, the daily
+     * rollup is merged from the hourly ones. Failures are only logged, buckets without rollups are answered from the
+     * raw data.
+     */
+    @SuppressWarnings("unchecked")
+    private Observable<ResultSet> rollupBlock(MetricId<?> metricId, long blockStart) {
+        if (metricId.getType() != GAUGE && metricId.getType() != COUNTER) {
+            return Observable.empty();
+        }
+        return computeRollups((MetricId<? extends Number>) metricId, blockStart)
+                .doOnError(t -> log.warnf(t, "Failed to compute the rollups of block %d of %s", blockStart,
+                        metricId))
+                .onErrorResumeNext(Observable.empty());
+    }
+
+    private <T extends Number> Observable<ResultSet> computeRollups(MetricId<T> metricId, long blockStart) {
+        long blockEnd = blockStart + Duration.standardHours(2).getMillis();
+        long dayStart = DateTimeService.getTimeSlice(blockStart, Duration.standardDays(1));
+        long dayEnd = dayStart + Duration.standardDays(1).getMillis();
+
+        Observable<ResultSet> rollups = findCompressedData(metricId, blockStart, blockStart + 1, 0, ASC)
+                .compose(new DataPointDecompressTransformer<>(metricId.getType(), ASC, 0, blockStart, blockEnd,
+                        false))
+                .toList()
+                .filter(dataPoints -> !dataPoints.isEmpty())
+                .flatMap(dataPoints -> Observable.just(RollupResolution.FIVE_MINUTES, RollupResolution.ONE_HOUR)
+                        .flatMap(resolution -> {
+                            Map<Long, RollupCollector> collectors = new TreeMap<>();
+                            for (DataPoint<T> dataPoint : dataPoints) {
+                                long time = DateTimeService.getTimeSlice(dataPoint.getTimestamp(),
+                                        resolution.getDuration());
+                                collectors.computeIfAbsent(time, t -> new RollupCollector()).increment(dataPoint);
+                            }
+                            return Observable.from(collectors.entrySet())
+                                    .flatMap(e -> dataAccess.insertRollup(metricId, resolution, e.getKey(),
+                                            e.getValue(), getRollupTTL(metricId, resolution)));
+                        }));
+
+        if (DateTimeService.now.get().getMillis() < dayEnd) {
+            return rollups;
+        }
+
+        return rollups.concatWith(Observable.defer(() ->
+                dataAccess.findRollups(metricId, RollupResolution.ONE_HOUR, dayStart, dayEnd)
+                        .map(RollupCollector::fromRow)
+                        .reduce(RollupCollector::merge)
+                        .flatMap(rollup -> dataAccess.insertRollup(metricId, RollupResolution.ONE_DAY, dayStart,
+                                rollup, getRollupTTL(metricId, RollupResolution.ONE_DAY)))));
+    }
+
+    private int getRollupTTL(MetricId<?> metricId, RollupResolution resolution) {
+        return Math.max(getTTL(metricId), resolution.getDefaultTTL());
+    }
+
+    /**
+     * Answers the bucketed stats from the rollups when the buckets are aligned with one of the rollup resolutions.
+     * A bucket is only answered from the rollups when every rollup slot it spans has one. Buckets that end after the
+     * oldest block that may not be compressed yet, and buckets missing a slot (empty, or whose rollup failed, which
+     * cannot be told apart) are computed from the raw data.
+     */
+    private <T extends Number> Observable<List<NumericBucketPoint>> findNumericStats(MetricId<T> metricId,
+            Buckets buckets, long start, long end, List<Percentile> percentiles) {
+        RollupResolution resolution = RollupResolution.forBuckets(buckets);
+        if (resolution == null) {
+            return findNumericBucketPoints(metricId, start, end, buckets, percentiles);
+        }
+
+        // The compression job compresses the previous block during the current one
+        Duration blockSize = Duration.standardHours(2);
+        long compressed = DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis(), blockSize)
+                - blockSize.getMillis();
+        long rolledUp = Math.min(end, compressed);
+        if (rolledUp <= start) {
+            return findNumericBucketPoints(metricId, start, end, buckets, percentiles);
+        }
+        // Only complete buckets are read from the rollups
+        long rollupEnd = buckets.getStart() + (rolledUp - buckets.getStart()) / buckets.getStep() * buckets.getStep();
+        long slotsPerBucket = buckets.getStep() / resolution.getDuration().getMillis();
+
+        return Observable.defer(() -> {
+            int[] slots = new int[buckets.getCount()];
+            return dataAccess.findRollups(metricId, resolution, start, rollupEnd)
+                    .collect(() -> new RollupCollector[buckets.getCount()], (rollups, row) -> {
+                        int index = buckets.getIndex(row.getTimestamp("time").getTime());
+                        RollupCollector rollup = RollupCollector.fromRow(row);
+                        rollups[index] = rollups[index] == null ? rollup : rollups[index].merge(rollup);
+                        slots[index]++;
+                    })
+                    .flatMap(rollups -> {
+                        for (int j = 0; j < rollups.length; j++) {
+                            if (slots[j] < slotsPerBucket) {
+                                // Partial rollups would silently give wrong stats
+                                rollups[j] = null;
+                            }
+                        }
+                        NumericBucketPoint[] bucketPoints = new NumericBucketPoint[rollups.length];
+                        // Consecutive buckets without rollups are read from the raw data with a single query
+                        List<int[]> gaps = new ArrayList<>();
+                        int i = 0;
+                        while (i < rollups.length) {
+                            if (rollups[i] != null) {
+                                long from = buckets.getBucketStart(i);
+                                bucketPoints[i] = rollups[i].toBucketPoint(from, from + buckets.getStep(), percentiles);
+                                i++;
+                                continue;
+                            }
+                            int gapStart = i;
+                            while (i < rollups.length && rollups[i] == null) {
+                                i++;
+                            }
+                            gaps.add(new int[]{gapStart, i});
+                        }
+
+                        return Observable.from(gaps)
+                                .concatMap(gap -> findNumericBucketPoints(metricId,
+                                        Math.max(start, buckets.getBucketStart(gap[0])),
+                                        Math.min(end, buckets.getStart() + gap[1] * buckets.getStep()), buckets,
+                                        percentiles)
+                                        .doOnNext(fromRaw -> {
+                                            for (int j = gap[0]; j < gap[1]; j++) {
+                                                bucketPoints[j] = fromRaw.get(j);
+                                            }
+                                        }))
+                                .toList()
+                                .map(fromRaw -> new ArrayList<>(Arrays.asList(bucketPoints)));
+                    });
+        });
+    }
+
+    /**
+     * Computes the bucketed stats of a gauge or a counter without creating data points for the compressed values.
+     * Uncompressed points (temp tables and the ingestion buffer) are read first, the compressed blocks are then
+     * decoded straight into the bucket collectors, skipping any timestamp that was already seen uncompressed.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Number> Observable<List<NumericBucketPoint>> findNumericBucketPoints(MetricId<T> metricId,
+            long start, long end, Buckets buckets, List<Percentile> percentiles) {
+        MetricType<T> metricType = metricId.getType();
+        if (metricType != GAUGE && metricType != COUNTER) {
+            return findDataPoints(metricId, start, end, 0, ASC)
+                    .compose(new NumericBucketPointTransformer(buckets, percentiles));
+        }
+
+        Func1<Row, DataPoint<T>> tempMapper = (Func1<Row, DataPoint<T>>) tempDataPointMappers.get(metricType);
+        Observable<DataPoint<T>> uncompressedPoints = dataAccess.findTempData(metricId, start, end, 0, ASC,
+                defaultPageSize)
+                .map(tempMapper);
+        if (ingestionBuffer != null) {
+            uncompressedPoints = uncompressedPoints.mergeWith(ingestionBuffer.findDataPoints(metricId, start, end,
+                    ASC));
+        }
+
+        return uncompressedPoints
+                .collect(TreeMap<Long, Double>::new,
+                        (points, dataPoint) -> points.putIfAbsent(dataPoint.getTimestamp(),
+                                dataPoint.getValue().doubleValue()))
+                .flatMap(points -> {
+                    NumericBucketCollector collector = new NumericBucketCollector(buckets, percentiles);
+                    long[] timestamps = new long[points.size()];
+                    int i = 0;
+                    for (Map.Entry<Long, Double> point : points.entrySet()) {
+                        collector.accept(point.getKey(), point.getValue());
+                        timestamps[i++] = point.getKey();
+                    }
+
+                    // Counters are stored as doubles but exposed as longs
+                    NumericPointSink sink = (metricType == COUNTER) ?
+                            (timestamp, value) -> collector.accept(timestamp, (long) value) : collector;
+                    NumericPointSink deduplicated = (timestamp, value) -> {
+                        if (Arrays.binarySearch(timestamps, timestamp) < 0) {
+                            sink.accept(timestamp, value);
+                        }
+                    };
+
+                    long sliceStart = DateTimeService.getTimeSlice(start, Duration.standardHours(2));
+                    return findCompressedData(metricId, sliceStart, end, 0, ASC)
+                            .doOnNext(row -> NumericBlockDecoder.decode(row.getBytes("c_value"), start, end,
+                                    deduplicated))
+                            .count()
+                            .map(blocks -> collector.toBucketPoints());
+                });
     }
 
     @Override
     public <T> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> metricIds, long start,
             long end, int limit, Order order) {
-        return Observable.from(metricIds)
-                .concatMap(id -> findDataPoints(id, start, end, limit, order)
-                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+        return fetchLimiter.fetch(Observable.from(metricIds), id -> findDataPoints(id, start, end, limit, order)
+                .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+    }
+
+    @Override
+    public <T> Observable<NamedDataPoint<T>> findLatestDataPoints(List<MetricId<T>> metricIds) {
+        return fetchLimiter.fetch(Observable.from(metricIds), id -> findLatestDataPoint(id)
+                .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+    }
+
+    private <T> Observable<DataPoint<T>> findLatestDataPoint(MetricId<T> id) {
+        long now = DateTimeService.now.get().getMillis();
+        long start = Math.max(1, now - getTTL(id) * 1000L);
+        Observable<DataPoint<T>> latest = findDataPoints(id, start, now, 1, Order.DESC);
+        if (lastValueStore == null || !LastValueStore.isSupported(id.getType())) {
+            return latest;
+        }
+        // Metrics which have not received data since the store was enabled are looked up from the data once
+        return lastValueStore.find(id)
+                .switchIfEmpty(latest.concatMap(dataPoint -> lastValueStore.put(id, dataPoint)
+                        .toCompletable()
+                        .onErrorComplete()
+                        .andThen(Observable.just(dataPoint))));
     }
 
     @Override
     public <T> Observable<NamedDataPoint<T>> findDataPoints(String tenantId, MetricType<T> metricType,
             String tagFilters, long start, long end, int limit, Order order) {
-        return findMetricIdentifiersWithFilters(tenantId, metricType, tagFilters)
-                .concatMap(id -> findDataPoints(id, start, end, limit, order)
+        return fetchLimiter.fetch(findMetricIdentifiersWithFilters(tenantId, metricType, tagFilters),
+                id -> findDataPoints(id, start, end, limit, order)
                         .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
     }
 
@@ -861,7 +1425,8 @@ public class MetricsServiceImpl implements MetricsService {
         checkArgument(id.getType() == COUNTER || id.getType() == GAUGE, "Unsupported metric type: %s", id.getType());
         // We can't set the limit here, because some pairs can be discarded (counter resets)
         // But since the loading is reactive, we're not going to fetch more pages than needed (see #take at the end)
-        Observable<DataPoint<Double>> dataPoints = this.findDataPoints(id, start, end, 0, order)
+        Observable<DataPoint<Double>> dataPoints = this.findDataPoints(id, start, end, 0, order, defaultPageSize,
+                false)
                 .buffer(2, 1) // emit previous/next pairs
                 // adapt pair to the order of traversal
                 .map(l -> order == ASC ? l : Lists.reverse(l))
@@ -885,7 +1450,7 @@ public class MetricsServiceImpl implements MetricsService {
     @Override
     public <T extends Number> Observable<NamedDataPoint<Double>> findRateData(List<MetricId<T>> ids, long start,
                                                                      long end, int limit, Order order) {
-        return Observable.from(ids).concatMap(id -> findRateData(id, start, end, limit, order)
+        return fetchLimiter.fetch(Observable.from(ids), id -> findRateData(id, start, end, limit, order)
                 .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
     }
 
@@ -911,8 +1476,8 @@ public class MetricsServiceImpl implements MetricsService {
                 List<Percentile> percentiles) {
         TimeRange timeRange = bucketConfig.getTimeRange();
         checkArgument(isValidTimeRange(timeRange.getStart(), timeRange.getEnd()), "Invalid time range");
-        return findDataPoints(metricId, timeRange.getStart(), timeRange.getEnd(), 0, Order.DESC)
-                .compose(new NumericBucketPointTransformer(bucketConfig.getBuckets(), percentiles));
+        return findNumericStats(metricId, bucketConfig.getBuckets(), timeRange.getStart(), timeRange.getEnd(),
+                percentiles);
     }
 
     @Override
@@ -926,17 +1491,26 @@ public class MetricsServiceImpl implements MetricsService {
     public <T extends Number> Observable<List<NumericBucketPoint>> findNumericStats(
             List<MetricId<T>> metrics, long start, long end, Buckets buckets, List<Percentile>
             percentiles, boolean stacked, boolean isRate) {
+        return findNumericStats(metrics, start, end, buckets, percentiles, stacked, isRate, QueryContext.unbounded());
+    }
+
+    @Override
+    public <T extends Number> Observable<List<NumericBucketPoint>> findNumericStats(
+            List<MetricId<T>> metrics, long start, long end, Buckets buckets, List<Percentile>
+            percentiles, boolean stacked, boolean isRate, QueryContext context) {
 
         // TODO Stats needs fixing to understand compressed values also..
         checkArgument(isValidTimeRange(start, end), "Invalid time range");
         if (!stacked) {
             if (!isRate) {
                 return Observable.from(metrics)
-                        .flatMap(metricId -> findDataPoints(metricId, start, end, 0, Order.DESC))
+                        .flatMap(metricId -> findDataPoints(metricId, start, end, 0, Order.DESC)
+                                .compose(context.bounded()))
                         .compose(new NumericBucketPointTransformer(buckets, percentiles));
             } else {
                 return Observable.from(metrics)
-                        .flatMap(metricId -> findRateData(metricId, start, end, 0, ASC))
+                        .flatMap(metricId -> findRateData(metricId, start, end, 0, ASC)
+                                .compose(context.bounded()))
                         .compose(new NumericBucketPointTransformer(buckets, percentiles));
             }
         } else {
@@ -944,12 +1518,14 @@ public class MetricsServiceImpl implements MetricsService {
             if (!isRate) {
                 individualStats = Observable.from(metrics).map(metricId -> {
                     return findDataPoints(metricId, start, end, 0, Order.DESC)
+                            .compose(context.bounded())
                             .compose(new NumericBucketPointTransformer(buckets, percentiles))
                             .flatMap(Observable::from);
                 });
             } else {
                 individualStats = Observable.from(metrics).map(metricId -> {
                     return findRateData(metricId, start, end, 0, ASC)
+                            .compose(context.bounded())
                             .compose(new NumericBucketPointTransformer(buckets, percentiles))
                             .flatMap(Observable::from);
                 });
@@ -986,13 +1562,8 @@ public class MetricsServiceImpl implements MetricsService {
     public Observable<List<AvailabilityBucketPoint>> findAvailabilityStats(MetricId<AvailabilityType> metricId,
             long start, long end, Buckets buckets) {
         checkArgument(isValidTimeRange(start, end), "Invalid time range");
-        return this.findDataPoints(metricId, start, end, 0, ASC)
-                .groupBy(dataPoint -> buckets.getIndex(dataPoint.getTimestamp()))
-                .flatMap(group -> group.collect(() -> new AvailabilityDataPointCollector(buckets, group.getKey()),
-                        AvailabilityDataPointCollector::increment))
-                .map(AvailabilityDataPointCollector::toBucketPoint)
-                .toMap(AvailabilityBucketPoint::getStart)
-                .map(pointMap -> AvailabilityBucketPoint.toList(pointMap, buckets));
+        return this.findDataPoints(metricId, start, end, 0, ASC, defaultPageSize, false)
+                .compose(new AvailabilityBucketPointTransformer(buckets));
     }
 
     @Override
@@ -1011,9 +1582,9 @@ public class MetricsServiceImpl implements MetricsService {
             percentiles) {
         TimeRange timeRange = bucketConfig.getTimeRange();
         checkArgument(isValidTimeRange(timeRange.getStart(), timeRange.getEnd()), "Invalid time range");
-        return findDataPoints(id, timeRange.getStart(), timeRange.getEnd(), 0, ASC)
-                .doOnError(Throwable::printStackTrace)
-                .compose(new NumericBucketPointTransformer(bucketConfig.getBuckets(), percentiles));
+        return findNumericStats(id, bucketConfig.getBuckets(), timeRange.getStart(), timeRange.getEnd(),
+                percentiles)
+                .doOnError(Throwable::printStackTrace);
     }
 
     @Override
@@ -1027,46 +1598,126 @@ public class MetricsServiceImpl implements MetricsService {
     public Observable<List<long[]>> getPeriods(MetricId<Double> id, Predicate<Double> predicate, long start,
             long end) {
         checkArgument(isValidTimeRange(start, end), "Invalid time range");
-        return findDataPoints(id, start, end, 0, ASC)
-//                .map(Functions::getGaugeDataPoint)
-                .toList().map(data -> {
-                    List<long[]> periods = new ArrayList<>(data.size());
-                    long[] period = null;
-                    DataPoint<Double> previous = null;
-                    for (DataPoint<Double> d : data) {
-                        if (predicate.test(d.getValue())) {
-                            if (period == null) {
-                                period = new long[2];
-                                period[0] = d.getTimestamp();
-                            }
-                            previous = d;
-                        } else if (period != null) {
-                            period[1] = previous.getTimestamp();
-                            periods.add(period);
-                            period = null;
-                            previous = null;
-                        }
-                    }
-                    if (period != null) {
-                        period[1] = previous.getTimestamp();
-                        periods.add(period);
-                    }
-                    return periods;
+        return findPeriods(id, predicate, start, end).toList();
+    }
+
+    /**
+     * Streams the periods as they close. Uncompressed points (temp tables and the ingestion buffer) are read first,
+     * the compressed blocks are then decoded in time order and interleaved with them. As with the stats, an
+     * uncompressed point takes precedence over a compressed one with the same timestamp.
+     *
+     * For a {@link ThresholdPredicate}, a block whose summary shows that all or none of its values match is accepted
+     * or skipped without decompressing it, unless uncompressed points fall within it.
+     */
+    private Observable<long[]> findPeriods(MetricId<Double> id, Predicate<Double> predicate, long start, long end) {
+        ThresholdPredicate threshold = (predicate instanceof ThresholdPredicate) ? (ThresholdPredicate) predicate :
+                null;
+        Observable<DataPoint<Double>> uncompressedPoints = dataAccess.findTempData(id, start, end, 0, ASC,
+                defaultPageSize)
+                .map(Functions::getTempGaugeDataPoint);
+        if (ingestionBuffer != null) {
+            uncompressedPoints = uncompressedPoints.mergeWith(ingestionBuffer.findDataPoints(id, start, end, ASC));
+        }
+
+        return uncompressedPoints
+                .collect(TreeMap<Long, Double>::new,
+                        (points, dataPoint) -> points.putIfAbsent(dataPoint.getTimestamp(), dataPoint.getValue()))
+                .concatMap(points -> {
+                    PeriodDetector detector = new PeriodDetector(predicate);
+                    PeekingIterator<Map.Entry<Long, Double>> uncompressed =
+                            Iterators.peekingIterator(points.entrySet().iterator());
+
+                    long sliceStart = DateTimeService.getTimeSlice(start, Duration.standardHours(2));
+                    return findCompressedData(id, sliceStart, end, 0, ASC)
+                            .concatMapIterable(row -> acceptBlock(row.getBytes("c_value"), threshold, start, end,
+                                    uncompressed, detector))
+                            .concatWith(Observable.defer(() -> {
+                                uncompressed.forEachRemaining(point ->
+                                        detector.accept(point.getKey(), point.getValue()));
+                                return Observable.from(detector.finish());
+                            }));
                 });
     }
 
-    private int getTTL(MetricId<?> metricId) {
-        Integer ttl = dataRetentions.get(new DataRetentionKey(metricId));
-        if (ttl == null) {
-            ttl = dataRetentions.getOrDefault(new DataRetentionKey(metricId.getTenantId(), metricId.getType()),
-                    defaultTTL);
-        } else {
-            ttl = Duration.standardDays(ttl).toStandardSeconds().getSeconds();
+    /**
+     * Feeds the values of a compressed block within [start, end) and the uncompressed points preceding them to the
+     * detector. The block is accepted or skipped from its summary when possible.
+     *
+     * @return the periods closed by the block
+     */
+    static List<long[]> acceptBlock(ByteBuffer compressedValue, ThresholdPredicate threshold, long start, long end,
+            PeekingIterator<Map.Entry<Long, Double>> uncompressed, PeriodDetector detector) {
+        BlockSummary summary = (threshold != null) ? BlockSummary.fromBlock(compressedValue) : null;
+        if (summary != null && summary.getCount() > 0
+                && summary.getMinTimestamp() >= start && summary.getMaxTimestamp() < end) {
+            acceptUncompressed(uncompressed, summary.getMinTimestamp(), detector);
+            boolean overlaps = uncompressed.hasNext() && uncompressed.peek().getKey() <= summary.getMaxTimestamp();
+            if (!overlaps && threshold.testAll(summary.getMin(), summary.getMax())) {
+                detector.acceptRun(summary.getMinTimestamp(), summary.getMaxTimestamp(), true);
+                return detector.drain();
+            }
+            if (!overlaps && threshold.testNone(summary.getMin(), summary.getMax())) {
+                detector.acceptRun(summary.getMinTimestamp(), summary.getMaxTimestamp(), false);
+                return detector.drain();
+            }
+        }
+        NumericBlockDecoder.decode(compressedValue, start, end, (timestamp, value) -> {
+            acceptUncompressed(uncompressed, timestamp, detector);
+            if (uncompressed.hasNext() && uncompressed.peek().getKey() == timestamp) {
+                Map.Entry<Long, Double> point = uncompressed.next();
+                detector.accept(point.getKey(), point.getValue());
+            } else {
+                detector.accept(timestamp, value);
+            }
+        });
+        return detector.drain();
+    }
+
+    /**
+     * Feeds the uncompressed points before the given timestamp to the detector.
+     */
+    private static void acceptUncompressed(PeekingIterator<Map.Entry<Long, Double>> uncompressed, long before,
+            PeriodDetector detector) {
+        while (uncompressed.hasNext() && uncompressed.peek().getKey() < before) {
+            Map.Entry<Long, Double> point = uncompressed.next();
+            detector.accept(point.getKey(), point.getValue());
+        }
+    }
+
+    private String getIngestionBufferNodeId() {
+        if (ingestionBufferNodeId == null) {
+            try {
+                ingestionBufferNodeId = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                throw new RuntimeException(e);
+            }
         }
-        return ttl;
+        return ingestionBufferNodeId;
+    }
+
+    private int getTTL(MetricId<?> metricId) {
+        return retentionRegistry.getTTL(metricId);
     }
 
     public void shutdown() {
+        if (ingestionBuffer != null) {
+            ingestionBuffer.shutdown();
+        }
+        if (ingestionBufferLocks != null) {
+            ingestionBufferLocks.shutdown();
+        }
+        if (tagIndexRefresh != null) {
+            tagIndexRefresh.unsubscribe();
+        }
+        if (metricIdRegistryBackfill != null) {
+            metricIdRegistryBackfill.unsubscribe();
+        }
+        if (retentionsRefresh != null) {
+            retentionsRefresh.unsubscribe();
+        }
+        if (metadataFeedPoll != null) {
+            metadataFeedPoll.unsubscribe();
+        }
         metricsTasks.shutdown();
         unloadDataRetentions();
 //        dataAccess.shutdown();
@@ -1097,7 +1748,27 @@ public class MetricsServiceImpl implements MetricsService {
                 dataAccess.deleteMetricFromRetentionIndex(id))
                 .map(r -> null);
 
-        return result.concatWith(indexes);
+        if (ingestionBuffer != null) {
+            indexes = indexes.mergeWith(ingestionBuffer.deleteMetric(id).map(r -> null));
+        }
+        if (metricIdRegistry != null) {
+            indexes = indexes.mergeWith(metricIdRegistry.remove(id));
+        }
+        if (lastValueStore != null) {
+            indexes = indexes.mergeWith(lastValueStore.remove(id));
+        }
+
+        return result.concatWith(indexes)
+                .doOnCompleted(() -> {
+                    retentionRegistry.removeMetric(id);
+                    if (compressedBlockCache != null) {
+                        compressedBlockCache.invalidate(id);
+                    }
+                    if (tagIndex != null) {
+                        tagIndex.remove(id);
+                    }
+                })
+                .concatWith(publishMetadataChange(Kind.DELETED, id));
     }
 
 }
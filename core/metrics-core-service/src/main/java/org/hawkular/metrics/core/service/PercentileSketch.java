@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A mergeable percentile sketch with a bounded relative error. Values are counted in logarithmically sized bins, so
+ * that any returned percentile is within the relative accuracy of the true value. Unlike PSquarePercentile the
+ * result does not depend on the order of the values and two sketches can be merged, which allows storing sketches
+ * with the pre-computed rollups and combining them at query time.
+ *
+ * The sketch is not thread-safe, it is meant to be owned by a single bucket and updated by a single writer.
+ *
+ * @author agent
+ */
+public final class PercentileSketch {
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private static final byte VERSION_1 = 0x01;
+
+    /**
+     * Values closer to zero than this are counted as zero.
+     */
+    private static final double MIN_INDEXABLE_VALUE = 1e-12;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    private final Bins positive = new Bins();
+    private final Bins negative = new Bins();
+    private long zeroCount = 0;
+    private long count = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public PercentileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    public PercentileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Relative accuracy must be between 0 and 1");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void addValue(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value > MIN_INDEXABLE_VALUE) {
+            positive.add(index(value), 1);
+        } else if (value < -MIN_INDEXABLE_VALUE) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        count++;
+    }
+
+    /**
+     * Adds the content of the other sketch to this one. Both sketches need to have the same relative accuracy.
+     */
+    public void merge(PercentileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Can't merge sketches with different relative accuracy");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+    }
+
+    /**
+     * @param percentile Requested percentile, between 0 and 100
+     * @return Estimated value of the percentile or NaN if the sketch is empty
+     */
+    public double getResult(double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double rank = percentile / 100 * (count - 1);
+        long seen = 0;
+
+        // Largest negative bins hold the smallest values
+        for (int i = negative.counts.length - 1; i >= 0; i--) {
+            seen += negative.counts[i];
+            if (seen > rank) {
+                return clamp(-value(i + negative.offset));
+            }
+        }
+        seen += zeroCount;
+        if (seen > rank) {
+            return clamp(0);
+        }
+        for (int i = 0; i < positive.counts.length; i++) {
+            seen += positive.counts[i];
+            if (seen > rank) {
+                return clamp(value(i + positive.offset));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Serializes the sketch, only the non-empty bins are stored.
+     */
+    public ByteBuffer toByteBuffer() {
+        // version + accuracy + min + max + zero count + two bin headers + bins
+        int maxSize = 1 + 3 * 8 + 10 + 2 * 5 +
+                (positive.nonEmpty() + negative.nonEmpty()) * (5 + 10);
+        ByteBuffer buffer = ByteBuffer.allocate(maxSize);
+        buffer.put(VERSION_1);
+        buffer.putDouble(relativeAccuracy);
+        buffer.putDouble(min);
+        buffer.putDouble(max);
+        putVarLong(buffer, zeroCount);
+        negative.write(buffer);
+        positive.write(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static PercentileSketch fromByteBuffer(ByteBuffer byteBuffer) {
+        ByteBuffer buffer = byteBuffer.duplicate();
+        byte version = buffer.get();
+        if (version != VERSION_1) {
+            throw new IllegalArgumentException("Unknown percentile sketch version " + version);
+        }
+        PercentileSketch sketch = new PercentileSketch(buffer.getDouble());
+        sketch.min = buffer.getDouble();
+        sketch.max = buffer.getDouble();
+        sketch.zeroCount = getVarLong(buffer);
+        sketch.count = sketch.zeroCount + sketch.negative.read(buffer) + sketch.positive.read(buffer);
+        return sketch;
+    }
+
+    /**
+     * Dense counts of consecutive bin indexes starting from offset.
+     */
+    private static final class Bins {
+        private long[] counts = new long[0];
+        private int offset = 0;
+
+        void add(int index, long amount) {
+            if (counts.length == 0) {
+                counts = new long[16];
+                offset = index - 8;
+            } else if (index < offset || index >= offset + counts.length) {
+                int newOffset = Math.min(offset, index);
+                int newEnd = Math.max(offset + counts.length, index + 1);
+                // Leave some room to grow in the direction we're extending to
+                int slack = Math.max(8, (newEnd - newOffset) / 2);
+                if (index < offset) {
+                    newOffset -= slack;
+                } else {
+                    newEnd += slack;
+                }
+                long[] newCounts = new long[newEnd - newOffset];
+                System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+                counts = newCounts;
+                offset = newOffset;
+            }
+            counts[index - offset] += amount;
+        }
+
+        void merge(Bins other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] > 0) {
+                    add(i + other.offset, other.counts[i]);
+                }
+            }
+        }
+
+        int nonEmpty() {
+            return (int) Arrays.stream(counts).filter(c -> c > 0).count();
+        }
+
+        void write(ByteBuffer buffer) {
+            putVarLong(buffer, nonEmpty());
+            int previous = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    int index = i + offset;
+                    putVarLong(buffer, zigZag(index - previous));
+                    putVarLong(buffer, counts[i]);
+                    previous = index;
+                }
+            }
+        }
+
+        long read(ByteBuffer buffer) {
+            int bins = (int) getVarLong(buffer);
+            long total = 0;
+            int index = 0;
+            for (int i = 0; i < bins; i++) {
+                index += unZigZag(getVarLong(buffer));
+                long amount = getVarLong(buffer);
+                add(index, amount);
+                total += amount;
+            }
+            return total;
+        }
+    }
+
+    private static long zigZag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unZigZag(long value) {
+        int v = (int) value;
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -17,12 +17,10 @@
 package org.hawkular.metrics.core.service;
 
 /**
- * We use the org.apache.commons.math3.stat.descriptive.rank.PSquarePercentile class for computing percentiles. The
- * order in which values are added to PSquarePercentile can effect the results. This can make automated testing
- * difficult in scenarios in which values are added from different threads concurrently. For those scenarios
- * org.apache.commons.math3.stat.descriptive.rank.Percentile works better as it stores all values in memory and the
- * order in which it consumes values does not effect the result. Unfortunately, these two classes do not share a common
- * interface that we can use, so interface is used to facilitate testing.
+ * We use {@link PercentileSketch} for computing percentiles. The sketch is an approximation with a bounded relative
+ * error, which can make automated testing difficult when exact results are expected. For those scenarios
+ * org.apache.commons.math3.stat.descriptive.rank.Percentile works better as it stores all values in memory. These two
+ * classes do not share a common interface that we can use, so this interface is used to facilitate testing.
  *
  * @author jsanda
  */
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.metrics.model.exception.QueryTimeoutException;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+import rx.subjects.AsyncSubject;
+import rx.subscriptions.CompositeSubscription;
+
+/**
+ * Carries the time budget of a single query. Every stream of the query that is {@link #bounded() bounded} by the
+ * context is unsubscribed once the deadline passes or the query is {@link #cancel() cancelled}, which also stops
+ * the paging of the Cassandra result sets it reads from.
+ *
+ * When partial results are allowed, the bounded streams complete with what they have emitted so far and
+ * {@link #isPartial()} reports that the results are incomplete. Otherwise they fail with a
+ * {@link QueryTimeoutException}.
+ *
+ * @author agent
+ */
+public class QueryContext {
+
+    private static final int RUNNING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final long timeout;
+    private final long deadline;
+    private final boolean partialResults;
+
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private final AtomicBoolean timerStarted = new AtomicBoolean();
+    private final AsyncSubject<Integer> done = AsyncSubject.create();
+    private final CompositeSubscription resources = new CompositeSubscription();
+
+    private volatile boolean truncated;
+
+    private QueryContext(long timeout, boolean partialResults) {
+        this.timeout = timeout;
+        this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        this.partialResults = partialResults;
+    }
+
+    /**
+     * @return A context without a deadline, which only ends when {@link #cancel() cancelled}
+     */
+    public static QueryContext unbounded() {
+        return new QueryContext(0, false);
+    }
+
+    /**
+     * @param timeout The time budget of the query in milliseconds, starting now. Zero or less means no deadline.
+     * @param partialResults Whether to complete with partial results rather than fail once the deadline passes
+     */
+    public static QueryContext withTimeout(long timeout, boolean partialResults) {
+        return new QueryContext(timeout, partialResults);
+    }
+
+    /**
+     * Stops the bounded streams of the query, for example when the client is gone. The streams complete without
+     * an error, since nobody is waiting for the results anymore.
+     */
+    public void cancel() {
+        end(CANCELLED);
+    }
+
+    /**
+     * Releases the deadline timer, to be called once the query has finished.
+     */
+    public void close() {
+        resources.unsubscribe();
+    }
+
+    /**
+     * @return true if some bounded stream was cut short and completed with partial results
+     */
+    public boolean isPartial() {
+        return truncated && state.get() == EXPIRED;
+    }
+
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Bounds a stream of the query by the deadline of this context.
+     */
+    public <T> Transformer<T, T> bounded() {
+        return source -> Observable.defer(() -> {
+            AtomicBoolean cut = new AtomicBoolean();
+            return source
+                    .takeUntil(end().doOnNext(s -> cut.set(true)))
+                    .concatWith(Observable.defer(() -> {
+                        if (!cut.get() || state.get() == CANCELLED) {
+                            return Observable.empty();
+                        }
+                        if (partialResults) {
+                            truncated = true;
+                            return Observable.empty();
+                        }
+                        return Observable.error(new QueryTimeoutException(timeout));
+                    }));
+        });
+    }
+
+    private Observable<Integer> end() {
+        if (deadline != Long.MAX_VALUE && timerStarted.compareAndSet(false, true)) {
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            resources.add(Observable.timer(remaining, TimeUnit.MILLISECONDS).subscribe(t -> end(EXPIRED)));
+        }
+        return done;
+    }
+
+    private void end(int reason) {
+        if (state.compareAndSet(RUNNING, reason)) {
+            done.onNext(reason);
+            done.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.function.Predicate;
+
+/**
+ * A predicate comparing values to a threshold. Unlike an arbitrary predicate, it can tell from the min and max of a
+ * set of values whether all or none of them match, which allows skipping whole compressed blocks.
+ *
+ * @author agent
+ */
+public final class ThresholdPredicate implements Predicate<Double> {
+
+    public enum Operator {
+        LT, LTE, EQ, NEQ, GT, GTE
+    }
+
+    private final Operator operator;
+    private final double threshold;
+
+    public ThresholdPredicate(Operator operator, double threshold) {
+        this.operator = operator;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public boolean test(Double value) {
+        double d = value;
+        switch (operator) {
+            case LT:
+                return d < threshold;
+            case LTE:
+                return d <= threshold;
+            case EQ:
+                return d == threshold;
+            case NEQ:
+                return d != threshold;
+            case GT:
+                return d > threshold;
+            default:
+                return d >= threshold;
+        }
+    }
+
+    /**
+     * @return true if every value within [min, max] matches, false if unknown (NaN)
+     */
+    public boolean testAll(double min, double max) {
+        if (Double.isNaN(min) || Double.isNaN(max)) {
+            return false;
+        }
+        switch (operator) {
+            case LT:
+                return max < threshold;
+            case LTE:
+                return max <= threshold;
+            case EQ:
+                return min == threshold && max == threshold;
+            case NEQ:
+                return threshold < min || threshold > max;
+            case GT:
+                return min > threshold;
+            default:
+                return min >= threshold;
+        }
+    }
+
+    /**
+     * @return true if no value within [min, max] matches, false if unknown (NaN)
+     */
+    public boolean testNone(double min, double max) {
+        if (Double.isNaN(min) || Double.isNaN(max)) {
+            return false;
+        }
+        switch (operator) {
+            case LT:
+                return min >= threshold;
+            case LTE:
+                return min > threshold;
+            case EQ:
+                return threshold < min || threshold > max;
+            case NEQ:
+                return min == threshold && max == threshold;
+            case GT:
+                return max <= threshold;
+            default:
+                return max < threshold;
+        }
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.CompressedBlockCache;
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.compress.TagsDeserializer;
+import org.hawkular.metrics.core.service.compress.TagsView;
+import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
+import org.hawkular.metrics.core.service.transformers.DataPointDecompressTransformer;
+import org.hawkular.metrics.datetime.DateTimeService;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.scheduler.impl.LockManager;
+import org.jboss.logging.Logger;
+import org.joda.time.Duration;
+
+import com.datastax.driver.core.ResultSet;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitInput;
+import fi.iki.yak.ts.compression.gorilla.Decompressor;
+import fi.iki.yak.ts.compression.gorilla.Pair;
+import rx.Completable;
+import rx.Observable;
+import rx.Subscription;
+import rx.exceptions.Exceptions;
+import rx.schedulers.Schedulers;
+
+/**
+ * Write-behind buffer in front of the temporary tables. Data points that belong to the currently open compression
+ * block are journaled to the data_wal table as small Gorilla compressed batches. When a block closes, its content
+ * is compressed straight to data_compressed and the journal partition is removed, skipping the temporary table write,
+ * scan and drop for every buffered point.
+ *
+ * Points that are not in the current block bypass the buffer and are written to the temporary tables as before. The
+ * journal is shared by all the nodes and is the only copy of the buffered points, so reads see the points buffered by
+ * every node. Each node keeps track of the blocks it has journaled in data_wal_idx and flushes them once they have
+ * closed. The flush merges the whole journal partition with the block already stored in data_compressed while
+ * holding a lock on the block, so that concurrent flushes of the same block by several nodes do not overwrite each
+ * other.
+ *
+ * Because another node may have buffered points of any metric, every raw data read of a metric queries the journal
+ * partitions of all the blocks that may not have been flushed yet, plus any older block this node still has pending.
+ * With the default flush delay that is two or three extra single partition queries per read within the range, also
+ * for metrics that have nothing buffered, as the blocks pending on this node cannot rule out the other nodes.
+ *
+ * @author agent
+ */
+public class IngestionBuffer {
+
+    private static final Logger logger = Logger.getLogger(IngestionBuffer.class);
+
+    public static final Duration BLOCK_SIZE = Duration.standardHours(2);
+
+    /**
+     * Matches the default TTL of the data_wal and data_wal_idx tables
+     */
+    static final Duration JOURNAL_TTL = Duration.standardDays(7);
+
+    static final String LOCK_PREFIX = "org.hawkular.metrics.ingestion-buffer.";
+
+    private static final int LOCK_TIMEOUT = 60;
+
+    private static final int LOCK_ATTEMPTS = 5;
+
+    private static final long LOCK_RETRY_DELAY = 1000;
+
+    private static final int FLUSH_CONCURRENCY = 8;
+
+    private static final int INSERT_CONCURRENCY = 32;
+
+    private final DataAccess dataAccess;
+    private final LockManager lockManager;
+    private final String nodeId;
+    private final String lockOwner;
+    private final ToIntFunction<MetricId<?>> ttlFetcher;
+    private final long flushDelay;
+
+    /**
+     * The blocks journaled by this node that have not been flushed yet
+     */
+    private final ConcurrentMap<MetricId<?>, NavigableSet<Long>> pending = new ConcurrentHashMap<>();
+
+    private Subscription flushTask;
+
+    private CompressedBlockCache blockCache;
+
+    private BiFunction<MetricId<?>, Long, Observable<ResultSet>> blockListener = (metricId, blockStart) ->
+            Observable.empty();
+
+    /**
+     * @param dataAccess Storage for the journal and the compressed blocks
+     * @param lockManager Used to lock the blocks while they are merged to data_compressed
+     * @param nodeId Stable identifier of this node, used to find the blocks it has journaled after a restart
+     * @param ttlFetcher Used to fetch the TTL (in seconds) of the compressed blocks
+     * @param flushDelay How long (in ms) after the end of a block its flush is delayed to allow late arrivals
+     */
+    public IngestionBuffer(DataAccess dataAccess, LockManager lockManager, String nodeId,
+                           ToIntFunction<MetricId<?>> ttlFetcher, long flushDelay) {
+        this.dataAccess = dataAccess;
+        this.lockManager = lockManager;
+        this.nodeId = nodeId;
+        this.lockOwner = UUID.randomUUID().toString();
+        this.ttlFetcher = ttlFetcher;
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * @param blockCache Cache of the compressed blocks, invalidated when this buffer rewrites a block
+     */
+    public void setBlockCache(CompressedBlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * @param blockListener Run after this buffer has written a compressed block, for example to update its rollups
+     */
+    public void setBlockListener(BiFunction<MetricId<?>, Long, Observable<ResultSet>> blockListener) {
+        this.blockListener = blockListener;
+    }
+
+    /**
+     * Thrown when the block is locked by another writer
+     */
+    private static class BlockLockedException extends RuntimeException {
+        BlockLockedException(String lockName) {
+            super("Failed to acquire " + lockName);
+        }
+    }
+
+    /**
+     * Rebuilds the list of blocks journaled by this node from its partitions of data_wal_idx and starts the periodic
+     * flushing of closed blocks.
+     *
+     * @param flushInterval How often (in ms) closed blocks are searched for
+     */
+    public void start(long flushInterval) {
+        long now = DateTimeService.now.get().getMillis();
+        List<Long> blocks = blockStarts(DateTimeService.getTimeSlice(now - JOURNAL_TTL.getMillis(), BLOCK_SIZE),
+                DateTimeService.getTimeSlice(now, BLOCK_SIZE));
+
+        Observable.from(blocks)
+                .flatMap(blockStart -> dataAccess.findWalIndex(nodeId, blockStart)
+                        .doOnNext(r -> addPending(new MetricId<>(r.getString(0), MetricType.fromCode(r.getByte(1)),
+                                r.getString(2)), blockStart)), FLUSH_CONCURRENCY)
+                .toCompletable()
+                .await();
+
+        logger.debugf("Restored %d buffered metrics from the journal index", pending.size());
+
+        flushTask = Observable.interval(flushInterval, flushInterval, TimeUnit.MILLISECONDS, Schedulers.io())
+                .onBackpressureDrop()
+                .concatMap(tick -> flush()
+                        .doOnError(t -> logger.warn("Failed to flush the ingestion buffer", t))
+                        .onErrorComplete()
+                        .toObservable())
+                .subscribe();
+    }
+
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.unsubscribe();
+            flushTask = null;
+        }
+    }
+
+    /**
+     * Journals the data points of the open block, other data points are written to the temporary tables. At most
+     * {@value #INSERT_CONCURRENCY} metrics are written at a time, so a lazy source is only read as fast as it is
+     * stored.
+     *
+     * @return Observable emitting the amount of written data points per write
+     */
+    public <T> Observable<Integer> insertData(Observable<Metric<T>> metrics) {
+        return metrics.flatMap(metric -> {
+            long currentBlock = DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis(), BLOCK_SIZE);
+
+            List<DataPoint<T>> buffered = new ArrayList<>();
+            List<DataPoint<T>> other = new ArrayList<>();
+
+            for (DataPoint<T> dataPoint : metric.getDataPoints()) {
+                long blockStart = DateTimeService.getTimeSlice(dataPoint.getTimestamp(), BLOCK_SIZE);
+                if (blockStart == currentBlock) {
+                    buffered.add(dataPoint);
+                } else {
+                    other.add(dataPoint);
+                }
+            }
+
+            if (other.isEmpty()) {
+                return journal(metric.getMetricId(), currentBlock, buffered);
+            }
+            Observable<Integer> written = dataAccess.insertData(
+                    Observable.just(new Metric<>(metric.getMetricId(), other)));
+            if (buffered.isEmpty()) {
+                return written;
+            }
+            return journal(metric.getMetricId(), currentBlock, buffered).mergeWith(written);
+        }, INSERT_CONCURRENCY);
+    }
+
+    private <T> Observable<Integer> journal(MetricId<T> metricId, long blockStart, List<DataPoint<T>> dataPoints) {
+        // Gorilla requires the timestamps in ascending order
+        dataPoints.sort(Comparator.comparingLong(DataPoint::getTimestamp));
+
+        // The index is written first so that a restart finds every journaled block
+        Observable<ResultSet> index = isPending(metricId, blockStart) ? Observable.empty()
+                : dataAccess.insertWalIndex(nodeId, metricId, blockStart);
+
+        Observable<ResultSet> journaled = Observable.from(dataPoints)
+                .compose(new DataPointCompressTransformer<>(metricId.getType(), blockStart))
+                .flatMap(cpc -> dataAccess.insertWalData(metricId, blockStart, cpc, dataPoints.size()));
+
+        return index.ignoreElements()
+                .concatWith(journaled)
+                .doOnNext(rs -> addPending(metricId, blockStart))
+                .map(rs -> dataPoints.size());
+    }
+
+    private boolean isPending(MetricId<?> metricId, long blockStart) {
+        NavigableSet<Long> blocks = pending.get(metricId);
+        return blocks != null && blocks.contains(blockStart);
+    }
+
+    private void addPending(MetricId<?> metricId, long blockStart) {
+        // Adding happens inside compute to avoid racing with the removal of flushed blocks
+        pending.compute(metricId, (id, blocks) -> {
+            if (blocks == null) {
+                blocks = new ConcurrentSkipListSet<>();
+            }
+            blocks.add(blockStart);
+            return blocks;
+        });
+    }
+
+    private void removePending(MetricId<?> metricId, long blockStart) {
+        pending.computeIfPresent(metricId, (id, blocks) -> {
+            blocks.remove(blockStart);
+            return blocks.isEmpty() ? null : blocks;
+        });
+    }
+
+    /**
+     * The blocks that may not have been flushed yet: the open block, the blocks still inside the flush delay and the
+     * block whose flush may be in progress. Blocks whose flush failed are found only through the local index, other
+     * nodes' points in those blocks become visible once the node that journaled them has flushed the block.
+     */
+    private long oldestUnflushedBlock() {
+        return DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis() - flushDelay, BLOCK_SIZE)
+                - BLOCK_SIZE.getMillis();
+    }
+
+    private static List<Long> blockStarts(long first, long last) {
+        List<Long> blocks = new ArrayList<>();
+        for (long blockStart = first; blockStart <= last; blockStart += BLOCK_SIZE.getMillis()) {
+            blocks.add(blockStart);
+        }
+        return blocks;
+    }
+
+    /**
+     * Fetches the journaled data points of the metric in the given order. The journal partitions of all the blocks
+     * that may not have been flushed are read, so the points buffered by other nodes are included.
+     */
+    public <T> Observable<DataPoint<T>> findDataPoints(MetricId<T> metricId, long start, long end, Order order) {
+        return Observable.defer(() -> {
+            long firstBlock = DateTimeService.getTimeSlice(start, BLOCK_SIZE);
+            long currentBlock = DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis(), BLOCK_SIZE);
+
+            NavigableSet<Long> blocks = new TreeSet<>();
+            NavigableSet<Long> local = pending.get(metricId);
+            if (local != null) {
+                blocks.addAll(local.subSet(firstBlock, true, end, false));
+            }
+            blockStarts(Math.max(firstBlock, oldestUnflushedBlock()), currentBlock).stream()
+                    .filter(blockStart -> blockStart < end)
+                    .forEach(blocks::add);
+
+            return Observable.from(order == Order.DESC ? blocks.descendingSet() : blocks)
+                    .concatMap(blockStart -> findJournaledBlock(metricId, blockStart))
+                    .concatMap(dataPoints -> {
+                        NavigableMap<Long, DataPoint<T>> matching = dataPoints.subMap(start, true, end, false);
+                        return Observable.from(order == Order.DESC ? matching.descendingMap().values()
+                                : matching.values());
+                    });
+        });
+    }
+
+    /**
+     * Reads the journal partition of the block. Later writes replace the earlier ones with the same timestamp.
+     */
+    private <T> Observable<NavigableMap<Long, DataPoint<T>>> findJournaledBlock(MetricId<T> metricId,
+                                                                                long blockStart) {
+        return Observable.defer(() -> dataAccess.findWalData(metricId, blockStart))
+                .collect(TreeMap<Long, DataPoint<T>>::new, (map, r) -> {
+                    for (DataPoint<T> dataPoint : decode(metricId.getType(), blockStart, r.getBytes(0),
+                            r.getBytes(1))) {
+                        map.put(dataPoint.getTimestamp(), dataPoint);
+                    }
+                });
+    }
+
+    /**
+     * Drops the journal of the metric.
+     */
+    public <T> Observable<ResultSet> deleteMetric(MetricId<T> metricId) {
+        return Observable.defer(() -> {
+            long currentBlock = DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis(), BLOCK_SIZE);
+            NavigableSet<Long> blocks = new TreeSet<>(blockStarts(oldestUnflushedBlock(), currentBlock));
+
+            Observable<ResultSet> index = Observable.empty();
+            NavigableSet<Long> local = pending.remove(metricId);
+            if (local != null) {
+                blocks.addAll(local);
+                index = Observable.from(local)
+                        .flatMap(blockStart -> dataAccess.deleteWalIndex(nodeId, metricId, blockStart));
+            }
+            return Observable.from(blocks)
+                    .flatMap(blockStart -> dataAccess.deleteWalData(metricId, blockStart))
+                    .mergeWith(index);
+        });
+    }
+
+    /**
+     * Compresses all the blocks journaled by this node that have closed (and whose flush delay has passed) to
+     * data_compressed. Blocks locked by another node are retried on the next flush.
+     */
+    public Completable flush() {
+        return Completable.defer(() -> {
+            long closedBefore = DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis() - flushDelay,
+                    BLOCK_SIZE);
+
+            List<Observable<ResultSet>> closed = new ArrayList<>();
+            pending.forEach((metricId, blocks) -> blocks.headSet(closedBefore, false)
+                    .forEach(blockStart -> closed.add(flushBlock(metricId, blockStart))));
+
+            if (!closed.isEmpty()) {
+                logger.debugf("Flushing %d closed blocks", closed.size());
+            }
+
+            return Completable.fromObservable(Observable.from(closed).flatMap(f -> f, FLUSH_CONCURRENCY));
+        });
+    }
+
+    private <T> Observable<ResultSet> flushBlock(MetricId<T> metricId, long blockStart) {
+        // The journal includes the points buffered by other nodes. The first node to flush the block merges them
+        // all, the others find an empty journal and only drop their index entry.
+        Observable<ResultSet> flushed = findJournaledBlock(metricId, blockStart)
+                .concatMap(journaled -> {
+                    if (journaled.isEmpty()) {
+                        return Observable.<ResultSet>empty();
+                    }
+                    return mergeAndInsertCompressedData(metricId, blockStart, Observable.from(journaled.values()))
+                            .concatWith(Observable.defer(() -> dataAccess.deleteWalData(metricId, blockStart)));
+                })
+                .concatWith(Observable.defer(() -> dataAccess.deleteWalIndex(nodeId, metricId, blockStart)))
+                .doOnCompleted(() -> removePending(metricId, blockStart));
+
+        return lockBlock(metricId, blockStart, flushed)
+                .onErrorResumeNext(t -> {
+                    if (t instanceof BlockLockedException) {
+                        logger.debugf("Block %d of %s is being written by another node", blockStart, metricId);
+                        return Observable.empty();
+                    }
+                    return Observable.error(t);
+                });
+    }
+
+    /**
+     * Runs the read-merge-write of the block while holding its lock, fails with {@link BlockLockedException} if the
+     * lock is held by another writer.
+     */
+    private <T> Observable<ResultSet> lockBlock(MetricId<T> metricId, long blockStart, Observable<ResultSet> work) {
+        String lockName = LOCK_PREFIX + metricId.getTenantId() + "." + metricId.getType().getCode() + "." +
+                metricId.getName() + "." + blockStart;
+        Observable<ResultSet> release = Observable.defer(() -> lockManager.releaseLock(lockName, lockOwner))
+                .flatMap(released -> Observable.<ResultSet>empty());
+
+        return Observable.defer(() -> lockManager.acquireLock(lockName, lockOwner, LOCK_TIMEOUT, true))
+                .concatMap(lock -> {
+                    if (!lock.isLocked()) {
+                        return Observable.error(new BlockLockedException(lockName));
+                    }
+                    return work
+                            .onErrorResumeNext(t -> release.concatWith(Observable.error(t)))
+                            .concatWith(release);
+                });
+    }
+
+    /**
+     * Writes the compressed block to data_compressed. If the block has already been written (for example by another
+     * node or by the flush of this buffer), the existing content is merged with the new one. The block is locked
+     * while merging, if a flush holds the lock the write is retried a few times before failing.
+     */
+    public <T> Observable<ResultSet> insertCompressedData(MetricId<T> metricId, long blockStart,
+                                                          CompressedPointContainer cpc) {
+        Observable<ResultSet> merged = findCompressedBlock(metricId, blockStart)
+                .toList()
+                .flatMap(existing -> {
+                    if (existing.isEmpty()) {
+                        return insertBlock(metricId, blockStart, cpc);
+                    }
+                    Observable<DataPoint<T>> dataPoints = Observable.from(decode(metricId.getType(), blockStart,
+                            cpc.getValueBuffer(), cpc.getTagsBuffer()));
+                    return compressAndInsert(metricId, blockStart, Observable.from(existing).concatWith(dataPoints));
+                });
+
+        return lockBlock(metricId, blockStart, merged)
+                .retryWhen(errors -> errors
+                        .zipWith(Observable.range(1, LOCK_ATTEMPTS), (t, attempt) -> {
+                            if (t instanceof BlockLockedException && attempt < LOCK_ATTEMPTS) {
+                                return attempt;
+                            }
+                            throw Exceptions.propagate(t);
+                        })
+                        .flatMap(attempt -> Observable.timer(LOCK_RETRY_DELAY, TimeUnit.MILLISECONDS)));
+    }
+
+    private <T> Observable<ResultSet> mergeAndInsertCompressedData(MetricId<T> metricId, long blockStart,
+                                                                   Observable<DataPoint<T>> dataPoints) {
+        return compressAndInsert(metricId, blockStart, findCompressedBlock(metricId, blockStart)
+                .concatWith(dataPoints));
+    }
+
+    private <T> Observable<DataPoint<T>> findCompressedBlock(MetricId<T> metricId, long blockStart) {
+        long blockEnd = blockStart + BLOCK_SIZE.getMillis();
+        return Observable.defer(() -> dataAccess.findCompressedData(metricId, blockStart, blockStart + 1, 0, Order.ASC)
+                .compose(new DataPointDecompressTransformer<>(metricId.getType(), Order.ASC, 0, blockStart,
+                        blockEnd)));
+    }
+
+    /**
+     * Later data points replace the earlier ones with the same timestamp.
+     */
+    private <T> Observable<ResultSet> compressAndInsert(MetricId<T> metricId, long blockStart,
+                                                        Observable<DataPoint<T>> dataPoints) {
+        return dataPoints
+                .collect(TreeMap<Long, DataPoint<T>>::new, (map, dataPoint) -> map.put(dataPoint.getTimestamp(),
+                        dataPoint))
+                .filter(map -> !map.isEmpty())
+                .flatMap(map -> Observable.from(map.values())
+                        .compose(new DataPointCompressTransformer<>(metricId.getType(), blockStart)))
+                .flatMap(cpc -> insertBlock(metricId, blockStart, cpc));
+    }
+
+    private <T> Observable<ResultSet> insertBlock(MetricId<T> metricId, long blockStart, CompressedPointContainer cpc) {
+        return Observable.defer(() -> dataAccess.insertCompressedData(metricId, blockStart, cpc,
+                ttlFetcher.applyAsInt(metricId)))
+                .doOnCompleted(() -> {
+                    if (blockCache != null) {
+                        blockCache.invalidate(metricId, blockStart);
+                    }
+                })
+                .concatWith(Observable.defer(() -> blockListener.apply(metricId, blockStart)));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> List<DataPoint<T>> decode(MetricType<T> metricType, long blockStart, ByteBuffer value,
+                                         ByteBuffer tags) {
+        List<DataPoint<T>> dataPoints = new ArrayList<>();
+        if (value == null) {
+            return dataPoints;
+        }
+
+        ByteBuffer valueBuffer = value.duplicate();
+        valueBuffer.rewind();
+        // Skip the compressor header, the journal is always written in the default Gorilla format
+        BlockSummary.readHeader(valueBuffer);
+
+        TagsView tagsView = TagsView.EMPTY;
+        if (tags != null) {
+            ByteBuffer tagsBuffer = tags.duplicate();
+            tagsBuffer.rewind();
+            tagsView = new TagsDeserializer(blockStart).view(tagsBuffer);
+        }
+
+        Decompressor decompressor = new Decompressor(new ByteBufferBitInput(valueBuffer));
+        Pair pair;
+        while ((pair = decompressor.readPair()) != null) {
+            Object pointValue;
+            switch(metricType.getCode()) {
+                case 0: // GAUGE
+                    pointValue = pair.getDoubleValue();
+                    break;
+                case 1: // AVAILABILITY
+                    pointValue = AvailabilityType.fromByte((byte) pair.getDoubleValue());
+                    break;
+                case 2: // COUNTER
+                    pointValue = (long) pair.getDoubleValue();
+                    break;
+                default:
+                    throw new RuntimeException("Metric of type " + metricType.getText() + " is not supported " +
+                            "in the ingestion buffer");
+            }
+
+            Map<String, String> pointTags = tagsView.get(pair.getTimestamp());
+            if (pointTags != null) {
+                dataPoints.add(new DataPoint<>(pair.getTimestamp(), (T) pointValue, pointTags));
+            } else {
+                dataPoints.add(new DataPoint<>(pair.getTimestamp(), (T) pointValue));
+            }
+        }
+
+        return dataPoints;
+    }
+}
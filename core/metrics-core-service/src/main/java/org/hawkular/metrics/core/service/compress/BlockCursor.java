@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitInput;
+import fi.iki.yak.ts.compression.gorilla.Decompressor;
+import fi.iki.yak.ts.compression.gorilla.Pair;
+
+/**
+ * Lazily decodes the values of a compressed block within [start, end), one value per {@link #next()} call. Blocks
+ * whose {@link BlockSummary} shows no values in the range are not decompressed at all.
+ *
+ * The compressed stream can only be read from its first value, each value being encoded against the previous one.
+ * For blocks stored in time ascending order ({@link CompressorHeader.GorillaSettings#TIME_ASCENDING}), an ascending
+ * cursor decodes a value per call and stops at the first timestamp after the range. A descending cursor decodes the
+ * range up front but only keeps the latest {@code limit} values in a ring, so a query for the latest value neither
+ * buffers the whole block nor sorts it. Other blocks, such as the newest first ones compressed from the temp tables by
+ * earlier versions, are decoded and sorted as a whole.
+ *
+ * @author agent
+ */
+public abstract class BlockCursor {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    long timestamp;
+    double value;
+
+    BlockCursor() {
+    }
+
+    /**
+     * Moves to the next value.
+     *
+     * @return false if there are no more values in the range
+     */
+    public abstract boolean next();
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @param compressedValue c_value of the data_compressed table, position is not modified
+     */
+    public static BlockCursor ascending(ByteBuffer compressedValue, long start, long end) {
+        ByteBuffer buffer = compressedValue.duplicate();
+        boolean timeAscending = isTimeAscending(buffer);
+        BlockSummary summary = BlockSummary.readHeader(buffer);
+        if (!overlaps(summary, start, end)) {
+            return new Ascending(null, start, end);
+        }
+        Decompressor decompressor = new Decompressor(new ByteBufferBitInput(buffer));
+        if (!timeAscending) {
+            return sorted(decompressor, summary, start, end, true);
+        }
+        return new Ascending(decompressor, start, end);
+    }
+
+    /**
+     * @param compressedValue c_value of the data_compressed table, position is not modified
+     * @param limit the maximum number of values returned, zero or less for all of them
+     */
+    public static BlockCursor descending(ByteBuffer compressedValue, long start, long end, int limit) {
+        ByteBuffer buffer = compressedValue.duplicate();
+        boolean timeAscending = isTimeAscending(buffer);
+        BlockSummary summary = BlockSummary.readHeader(buffer);
+        if (!overlaps(summary, start, end)) {
+            return new Descending(1, 1);
+        }
+        Decompressor decompressor = new Decompressor(new ByteBufferBitInput(buffer));
+        if (!timeAscending) {
+            return sorted(decompressor, summary, start, end, false);
+        }
+        // The limit comes from the request, only the values actually found are buffered
+        int maxCapacity = limit > 0 ? limit : Integer.MAX_VALUE;
+        Descending cursor = new Descending(Math.min(initialCapacity(summary), maxCapacity), maxCapacity);
+        Pair pair;
+        while ((pair = decompressor.readPair()) != null) {
+            long timestamp = pair.getTimestamp();
+            if (timestamp >= end) {
+                break;
+            }
+            if (timestamp >= start) {
+                cursor.add(timestamp, pair.getDoubleValue());
+            }
+        }
+        return cursor;
+    }
+
+    private static boolean isTimeAscending(ByteBuffer buffer) {
+        byte header = buffer.get(buffer.position());
+        byte flag = CompressorHeader.GorillaSettings.TIME_ASCENDING.getByteValue();
+        return CompressorHeader.getCompressor(header) == CompressorHeader.Compressor.GORILLA
+                && (header & flag) == flag;
+    }
+
+    private static boolean overlaps(BlockSummary summary, long start, long end) {
+        return summary == null
+                || (summary.getCount() > 0 && summary.getMaxTimestamp() >= start && summary.getMinTimestamp() < end);
+    }
+
+    private static int initialCapacity(BlockSummary summary) {
+        return summary != null ? Math.max(1, summary.getCount()) : INITIAL_CAPACITY;
+    }
+
+    /**
+     * Decodes the values of the range of a block stored in any order and sorts them.
+     */
+    private static BlockCursor sorted(Decompressor decompressor, BlockSummary summary, long start, long end,
+                                      boolean ascending) {
+        List<Pair> pairs = new ArrayList<>(initialCapacity(summary));
+        Pair pair;
+        while ((pair = decompressor.readPair()) != null) {
+            if (pair.getTimestamp() >= start && pair.getTimestamp() < end) {
+                pairs.add(pair);
+            }
+        }
+        Comparator<Pair> comparator = Comparator.comparingLong(Pair::getTimestamp);
+        pairs.sort(ascending ? comparator : comparator.reversed());
+        return new Sorted(pairs.iterator());
+    }
+
+    private static final class Ascending extends BlockCursor {
+        private Decompressor decompressor;
+        private final long start;
+        private final long end;
+
+        private Ascending(Decompressor decompressor, long start, long end) {
+            this.decompressor = decompressor;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean next() {
+            if (decompressor == null) {
+                return false;
+            }
+            Pair pair;
+            while ((pair = decompressor.readPair()) != null) {
+                if (pair.getTimestamp() >= end) {
+                    break;
+                }
+                if (pair.getTimestamp() >= start) {
+                    timestamp = pair.getTimestamp();
+                    value = pair.getDoubleValue();
+                    return true;
+                }
+            }
+            decompressor = null;
+            return false;
+        }
+    }
+
+    private static final class Descending extends BlockCursor {
+        private long[] timestamps;
+        private double[] values;
+        private final int maxCapacity;
+        // Index of the next write, the oldest kept value once the ring is full at its max capacity
+        private int head;
+        private int size;
+
+        private Descending(int capacity, int maxCapacity) {
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+            this.maxCapacity = maxCapacity;
+        }
+
+        private void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                if (size == maxCapacity) {
+                    // Overwrite the oldest value
+                    size--;
+                } else {
+                    // The ring only wraps at its max capacity, the values are in order at the start of the arrays
+                    int capacity = (int) Math.min((long) size * 2, maxCapacity);
+                    timestamps = Arrays.copyOf(timestamps, capacity);
+                    values = Arrays.copyOf(values, capacity);
+                    head = size;
+                }
+            }
+            timestamps[head] = timestamp;
+            values[head] = value;
+            head = (head + 1) % timestamps.length;
+            size++;
+        }
+
+        @Override
+        public boolean next() {
+            if (size == 0) {
+                return false;
+            }
+            head = (head - 1 + timestamps.length) % timestamps.length;
+            timestamp = timestamps[head];
+            value = values[head];
+            size--;
+            return true;
+        }
+    }
+
+    private static final class Sorted extends BlockCursor {
+        private final Iterator<Pair> pairs;
+
+        private Sorted(Iterator<Pair> pairs) {
+            this.pairs = pairs;
+        }
+
+        @Override
+        public boolean next() {
+            if (!pairs.hasNext()) {
+                return false;
+            }
+            Pair pair = pairs.next();
+            timestamp = pair.getTimestamp();
+            value = pair.getDoubleValue();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summary of the values of a compressed block: count, min, max, sum and the earliest and latest timestamp. Blocks
+ * written with the {@link CompressorHeader.GorillaSettings#BLOCK_SUMMARY} setting store it right after the header
+ * byte, which allows answering some queries without decompressing the block.
+ *
+ * Layout (big endian): count (int), min, max, sum (double), earliest timestamp, latest timestamp (long).
+ *
+ * @author agent
+ */
+public final class BlockSummary {
+
+    public static final int SIZE = 4 + 3 * 8 + 2 * 8;
+
+    private int count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum;
+    private long minTimestamp;
+    private long maxTimestamp;
+    private boolean ascending = true;
+
+    public BlockSummary() {
+    }
+
+    private BlockSummary(int count, double min, double max, double sum, long minTimestamp, long maxTimestamp) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+    }
+
+    /**
+     * Values can be added in any order. A NaN value makes both min and max NaN.
+     */
+    public void add(long timestamp, double value) {
+        if (count == 0) {
+            minTimestamp = timestamp;
+            maxTimestamp = timestamp;
+        } else {
+            ascending &= timestamp >= maxTimestamp;
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * @return true if the values were added in time ascending order. This is not stored with the summary, see
+     * {@link CompressorHeader.GorillaSettings#TIME_ASCENDING}.
+     */
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * Writes the summary at the given absolute index, the position of the buffer is not modified.
+     */
+    public void writeTo(ByteBuffer buffer, int index) {
+        buffer.putInt(index, count);
+        buffer.putDouble(index + 4, min);
+        buffer.putDouble(index + 12, max);
+        buffer.putDouble(index + 20, sum);
+        buffer.putLong(index + 28, minTimestamp);
+        buffer.putLong(index + 36, maxTimestamp);
+    }
+
+    /**
+     * Reads the header byte and the summary if the block has one, leaving the buffer positioned at the start of the
+     * compressed stream.
+     *
+     * @return The summary of the block or null if it was written without one
+     */
+    public static BlockSummary readHeader(ByteBuffer compressedValue) {
+        byte header = compressedValue.get();
+        if (CompressorHeader.getCompressor(header) != CompressorHeader.Compressor.GORILLA
+                || (header & CompressorHeader.GorillaSettings.BLOCK_SUMMARY.getByteValue()) == 0) {
+            return null;
+        }
+        int count = compressedValue.getInt();
+        double min = compressedValue.getDouble();
+        double max = compressedValue.getDouble();
+        double sum = compressedValue.getDouble();
+        long first = compressedValue.getLong();
+        long last = compressedValue.getLong();
+        // Blocks compressed from the newest first temp table rows used to store the latest timestamp first
+        return new BlockSummary(count, min, max, sum, Math.min(first, last), Math.max(first, last));
+    }
+
+    /**
+     * @param compressedValue c_value of the data_compressed table, position is not modified
+     * @return The summary of the block or null if it was written without one
+     */
+    public static BlockSummary fromBlock(ByteBuffer compressedValue) {
+        if (compressedValue == null) {
+            return null;
+        }
+        return readHeader(compressedValue.duplicate());
+    }
+}
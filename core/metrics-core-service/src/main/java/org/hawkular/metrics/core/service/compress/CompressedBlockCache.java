@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.model.MetricId;
+import org.joda.time.Duration;
+
+import com.datastax.driver.core.Row;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Observable;
+
+/**
+ * Size bounded cache of the rows of data_compressed. A compressed block does not change unless it is rewritten by
+ * the compression jobs or the ingestion buffer, in which case the block must be invalidated. Invalidation is local
+ * to this node, blocks rewritten by other nodes are refreshed when their entries expire.
+ *
+ * Only the blocks missing from the cache are fetched from Cassandra, the cached rows are combined with them in the
+ * requested order.
+ *
+ * @author agent
+ */
+public class CompressedBlockCache {
+
+    private static final long BLOCK_SIZE = Duration.standardHours(2).getMillis();
+
+    /**
+     * Queries spanning more blocks than this are not cached
+     */
+    private static final int MAX_BLOCKS = 4096;
+
+    /**
+     * Estimated size of the key, the row and the entry, in addition to the buffers
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final DataAccess dataAccess;
+
+    private final Cache<BlockKey, Row> blocks;
+
+    /**
+     * Incremented on every invalidation, rows read before an invalidation are not cached
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxSize Maximum size of the cached blocks in bytes
+     * @param expireAfterWrite How long (in ms) a block is cached at most
+     */
+    public CompressedBlockCache(DataAccess dataAccess, long maxSize, long expireAfterWrite) {
+        this(dataAccess, maxSize, expireAfterWrite, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker Time source of the expiration
+     */
+    public CompressedBlockCache(DataAccess dataAccess, long maxSize, long expireAfterWrite, Ticker ticker) {
+        this.dataAccess = dataAccess;
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((BlockKey key, Row row) -> weigh(row))
+                .expireAfterWrite(expireAfterWrite, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Same as {@link DataAccess#findCompressedData(MetricId, long, long, int, Order)}, startTime must be the start of
+     * a block.
+     */
+    public Observable<Row> findCompressedData(MetricId<?> id, long startTime, long endTime, int limit, Order order) {
+        long blockCount = (endTime - startTime + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (limit > 0 || blockCount > MAX_BLOCKS || startTime % BLOCK_SIZE != 0) {
+            return dataAccess.findCompressedData(id, startTime, endTime, limit, order);
+        }
+
+        long readGeneration = generation.get();
+        List<Row> before = new ArrayList<>();
+        List<Row> after = new ArrayList<>();
+        long firstMissing = -1;
+        long lastMissing = -1;
+        for (long blockStart = startTime; blockStart < endTime; blockStart += BLOCK_SIZE) {
+            Row row = blocks.getIfPresent(new BlockKey(id, blockStart));
+            if (row == null) {
+                if (firstMissing < 0) {
+                    firstMissing = blockStart;
+                }
+                lastMissing = blockStart;
+                // Cached rows between missing blocks are fetched again
+                after.clear();
+            } else if (firstMissing < 0) {
+                before.add(row);
+            } else {
+                after.add(row);
+            }
+        }
+
+        if (firstMissing < 0) {
+            return ordered(Observable.from(before), Observable.empty(), Observable.empty(), order);
+        }
+
+        Observable<Row> fetched = dataAccess.findCompressedData(id, firstMissing,
+                Math.min(endTime, lastMissing + BLOCK_SIZE), 0, order)
+                .doOnNext(row -> {
+                    if (generation.get() == readGeneration) {
+                        blocks.put(new BlockKey(id, row.getTimestamp("time").getTime()), row);
+                    }
+                });
+
+        return ordered(Observable.from(before), fetched, Observable.from(after), order);
+    }
+
+    private static Observable<Row> ordered(Observable<Row> before, Observable<Row> fetched, Observable<Row> after,
+                                           Order order) {
+        if (order == Order.ASC) {
+            return Observable.concat(before, fetched, after);
+        }
+        return Observable.concat(reversed(after), fetched, reversed(before));
+    }
+
+    private static Observable<Row> reversed(Observable<Row> rows) {
+        return rows.toList().flatMap(list -> {
+            List<Row> reversed = new ArrayList<>(list);
+            Collections.reverse(reversed);
+            return Observable.from(reversed);
+        });
+    }
+
+    public void invalidate(MetricId<?> id, long blockStart) {
+        generation.incrementAndGet();
+        blocks.invalidate(new BlockKey(id, blockStart));
+    }
+
+    public void invalidate(MetricId<?> id) {
+        generation.incrementAndGet();
+        blocks.asMap().keySet().removeIf(key -> key.metricId.equals(id));
+    }
+
+    public long size() {
+        return blocks.size();
+    }
+
+    private static int weigh(Row row) {
+        ByteBuffer value = row.getBytes("c_value");
+        ByteBuffer tags = row.getBytes("tags");
+        return ENTRY_OVERHEAD + (value == null ? 0 : value.remaining()) + (tags == null ? 0 : tags.remaining());
+    }
+
+    private static final class BlockKey {
+        private final MetricId<?> metricId;
+        private final long blockStart;
+
+        BlockKey(MetricId<?> metricId, long blockStart) {
+            this.metricId = metricId;
+            this.blockStart = blockStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BlockKey blockKey = (BlockKey) o;
+            return blockStart == blockKey.blockStart && Objects.equals(metricId, blockKey.metricId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metricId, blockStart);
+        }
+    }
+}
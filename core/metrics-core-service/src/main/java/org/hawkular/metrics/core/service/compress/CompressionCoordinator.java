@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import rx.Observable;
+
+/**
+ * Claims the token ranges of a temp table for compression, so that the ranges are not compressed concurrently by
+ * multiple workers or nodes.
+ *
+ * @author agent
+ */
+public interface CompressionCoordinator {
+
+    /**
+     * Coordinator for a single node, every range can be claimed.
+     */
+    CompressionCoordinator LOCAL = new CompressionCoordinator() {
+        @Override
+        public Observable<Boolean> acquire(String rangeName) {
+            return Observable.just(true);
+        }
+
+        @Override
+        public Observable<Boolean> release(String rangeName) {
+            return Observable.just(true);
+        }
+    };
+
+    /**
+     * @return true if the caller is allowed to compress the range
+     */
+    Observable<Boolean> acquire(String rangeName);
+
+    Observable<Boolean> release(String rangeName);
+}
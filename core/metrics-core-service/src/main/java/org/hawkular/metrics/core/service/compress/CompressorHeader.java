@@ -60,7 +60,16 @@ public class CompressorHeader {
     }
 
     public enum GorillaSettings implements CompressorSetting {
-        SECOND_PRECISION((byte) 0x01), LONG_VALUES((byte) 0x02);
+        SECOND_PRECISION((byte) 0x01), LONG_VALUES((byte) 0x02),
+        /**
+         * A {@link BlockSummary} follows the header byte, before the compressed stream
+         */
+        BLOCK_SUMMARY((byte) 0x04),
+        /**
+         * The values are stored in time ascending order. Blocks without it may be in any order, such as the newest
+         * first blocks compressed from the temp tables, and have to be sorted when read.
+         */
+        TIME_ASCENDING((byte) 0x08);
 
         private byte value;
 
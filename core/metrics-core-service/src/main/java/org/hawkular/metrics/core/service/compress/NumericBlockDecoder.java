@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the values of a compressed gauge or counter block straight to a {@link NumericPointSink}.
+ *
+ * @author agent
+ */
+public final class NumericBlockDecoder {
+
+    private NumericBlockDecoder() {
+    }
+
+    /**
+     * Feeds the values of the block within [start, end) to the sink in time ascending order. Decoding stops at the
+     * first timestamp after the range for blocks stored in time order, other blocks are sorted first, see
+     * {@link BlockCursor}.
+     *
+     * @param compressedValue c_value of the data_compressed table, position is not modified
+     */
+    public static void decode(ByteBuffer compressedValue, long start, long end, NumericPointSink sink) {
+        if (compressedValue == null) {
+            return;
+        }
+        BlockCursor cursor = BlockCursor.ascending(compressedValue, start, end);
+        while (cursor.next()) {
+            sink.accept(cursor.getTimestamp(), cursor.getValue());
+        }
+    }
+}
@@ -33,6 +33,22 @@ public class TagsDeserializer {
         this.blockStart = blockStart;
     }
 
+    /**
+     * Returns a lazy view over the serialized tags instead of deserializing all of them.
+     *
+     * @param bb The serialized tags, its position is not modified
+     */
+    public TagsView view(ByteBuffer bb) {
+        if (bb == null || !bb.hasRemaining()) {
+            return TagsView.EMPTY;
+        }
+        ByteBuffer buffer = bb.duplicate();
+        if (TagsSerializer.SIMPLE_SERIALIZER != buffer.get()) {
+            return TagsView.EMPTY;
+        }
+        return new TagsView(buffer, blockStart);
+    }
+
     public Map<Long, Map<String, String>> deserialize(ByteBuffer bb) {
         Map<Long, Map<String, String>> tagsMap = new HashMap<>();
 
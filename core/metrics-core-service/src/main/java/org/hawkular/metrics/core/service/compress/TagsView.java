@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read only view over a serialized data_compressed table tags map. Only the timestamps and positions of the entries
+ * are read, on the first lookup, and the tags of a data point are decoded when that data point is looked up. Most
+ * data points of a block are usually without tags, so a reader that only emits some of the data points of a block
+ * never decodes most of the tags.
+ *
+ * @author agent
+ */
+public final class TagsView {
+
+    public static final TagsView EMPTY = new TagsView(null, 0);
+
+    private final ByteBuffer buffer;
+    private final long blockStart;
+
+    private int[] deltas;
+    private int[] offsets;
+    private int size;
+    private boolean sorted;
+
+    /**
+     * @param buffer positioned after the serializer byte, it is not modified
+     */
+    TagsView(ByteBuffer buffer, long blockStart) {
+        this.buffer = buffer;
+        this.blockStart = blockStart;
+    }
+
+    /**
+     * @return the tags of the data point or null if it has none
+     */
+    public Map<String, String> get(long timestamp) {
+        if (buffer == null) {
+            return null;
+        }
+        if (deltas == null) {
+            index();
+        }
+        int index = find(timestamp - blockStart);
+        return index < 0 ? null : decode(offsets[index]);
+    }
+
+    private void index() {
+        int[] deltas = new int[16];
+        int[] offsets = new int[16];
+        int size = 0;
+        boolean sorted = true;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        while (position < limit) {
+            if (size == deltas.length) {
+                deltas = Arrays.copyOf(deltas, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            int delta = buffer.getInt(position);
+            if (size > 0 && delta <= deltas[size - 1]) {
+                sorted = false;
+            }
+            deltas[size] = delta;
+            offsets[size] = position + 4;
+            size++;
+            position += 4;
+
+            // Skip the key/value pairs
+            int tagsSize = buffer.get(position++) & 0xFF;
+            for (int i = 0; i < tagsSize; i++) {
+                int keyLength = buffer.get(position) & 0xFF;
+                int valueLength = buffer.get(position + 1) & 0xFF;
+                position += 2 + keyLength + valueLength;
+            }
+        }
+        this.offsets = offsets;
+        this.size = size;
+        this.sorted = sorted;
+        this.deltas = deltas;
+    }
+
+    private int find(long delta) {
+        if (delta < Integer.MIN_VALUE || delta > Integer.MAX_VALUE) {
+            return -1;
+        }
+        if (sorted) {
+            int index = Arrays.binarySearch(deltas, 0, size, (int) delta);
+            return index < 0 ? -1 : index;
+        }
+        // The latest entry of a timestamp wins, same as when the map is deserialized
+        for (int i = size - 1; i >= 0; i--) {
+            if (deltas[i] == delta) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Map<String, String> decode(int offset) {
+        int position = offset;
+        int tagsSize = buffer.get(position++) & 0xFF;
+        Map<String, String> tags = new HashMap<>();
+        for (int i = 0; i < tagsSize; i++) {
+            int keyLength = buffer.get(position) & 0xFF;
+            int valueLength = buffer.get(position + 1) & 0xFF;
+            position += 2;
+            String key = decodeString(position, keyLength);
+            position += keyLength;
+            String value = decodeString(position, valueLength);
+            position += valueLength;
+            tags.put(key, value);
+        }
+        return tags;
+    }
+
+    private String decodeString(int position, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.ingest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.GaugeDataReader;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Decodes the compact binary ingestion format straight from a {@link ByteBuffer}. The metric ids are the only objects
+ * created while reading, the data points are exposed as primitive values.
+ *
+ * <pre>
+ * payload := metric*
+ * metric  := idLength:varint id:UTF-8 count:varint point{count}
+ * point   := timestamp value
+ * </pre>
+ *
+ * The timestamp of the first data point of a metric is a big-endian int64, the following ones are zigzag encoded
+ * varint deltas from the previous timestamp. The values are big-endian float64 for gauges, int64 for counters and the
+ * {@link AvailabilityType} code byte for availabilities. Data point tags are not supported. {@link BinaryDataWriter}
+ * encodes this format.
+ *
+ * @author agent
+ */
+public class BinaryDataReader implements GaugeDataReader {
+
+    private final ByteBuffer buffer;
+    private final MetricType<?> type;
+
+    private boolean started;
+    private boolean skipNames;
+    private String metricName;
+    private int count;
+    private int index;
+
+    private long timestamp;
+    private double value;
+    private long longValue;
+    private AvailabilityType availability;
+
+    /**
+     * @param buffer the payload, its position is not modified
+     * @param type type of all the metrics of the payload
+     */
+    public BinaryDataReader(ByteBuffer buffer, MetricType<?> type) {
+        checkArgument(type == GAUGE || type == COUNTER || type == AVAILABILITY, "%s is not supported", type);
+        this.buffer = buffer.duplicate();
+        this.type = type;
+    }
+
+    /**
+     * Reads through the whole payload without decoding the metric ids, so that an invalid payload can be rejected
+     * before any of its data points are stored. The position of this reader is not modified.
+     *
+     * @throws IllegalArgumentException if the payload is empty, truncated or malformed
+     */
+    public void validate() {
+        checkState(!started, "The payload is already being read");
+        BinaryDataReader validator = new BinaryDataReader(buffer, type);
+        validator.skipNames = true;
+        while (validator.next()) {
+            // Only the structure of the payload is checked
+        }
+    }
+
+    @Override
+    public boolean next() {
+        if (!started) {
+            started = true;
+            if (!buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Payload is empty");
+            }
+        }
+        try {
+            while (++index >= count) {
+                if (!buffer.hasRemaining()) {
+                    return false;
+                }
+                readMetric();
+            }
+            if (index == 0) {
+                timestamp = buffer.getLong();
+            } else {
+                long delta = readVarLong();
+                timestamp += (delta >>> 1) ^ -(delta & 1);
+            }
+            readValue();
+            return true;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated payload", e);
+        }
+    }
+
+    private void readMetric() {
+        int length = readVarInt();
+        if (length == 0) {
+            throw new IllegalArgumentException("Metric id is empty");
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (skipNames) {
+            buffer.position(buffer.position() + length);
+        } else if (buffer.hasArray()) {
+            metricName = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            metricName = new String(bytes, UTF_8);
+        }
+        count = readVarInt();
+        index = -1;
+    }
+
+    private void readValue() {
+        if (type == GAUGE) {
+            value = buffer.getDouble();
+        } else if (type == COUNTER) {
+            longValue = buffer.getLong();
+        } else {
+            availability = AvailabilityType.fromByte(buffer.get());
+        }
+    }
+
+    private int readVarInt() {
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid length " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads the rest of the payload into metrics, for the metric types that are not inserted through
+     * {@link GaugeDataReader}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<Metric<T>> readMetrics(String tenantId) {
+        List<Metric<T>> metrics = new ArrayList<>();
+        List<DataPoint<T>> dataPoints = null;
+        String name = null;
+        while (next()) {
+            if (index == 0) {
+                if (dataPoints != null) {
+                    metrics.add(new Metric<>(new MetricId<>(tenantId, (MetricType<T>) type, name), dataPoints));
+                }
+                name = metricName;
+                // The count is not trusted before the data points have been read
+                dataPoints = new ArrayList<>(Math.min(count, buffer.remaining()));
+            }
+            dataPoints.add(new DataPoint<>(timestamp, (T) getCurrentValue()));
+        }
+        if (dataPoints != null) {
+            metrics.add(new Metric<>(new MetricId<>(tenantId, (MetricType<T>) type, name), dataPoints));
+        }
+        return metrics;
+    }
+
+    private Object getCurrentValue() {
+        if (type == GAUGE) {
+            return value;
+        }
+        if (type == COUNTER) {
+            return longValue;
+        }
+        return availability;
+    }
+
+    @Override
+    public String getMetricName() {
+        return metricName;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public double getValue() {
+        return value;
+    }
+
+    public long getLongValue() {
+        return longValue;
+    }
+
+    public AvailabilityType getAvailability() {
+        return availability;
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return Collections.emptyMap();
+    }
+}
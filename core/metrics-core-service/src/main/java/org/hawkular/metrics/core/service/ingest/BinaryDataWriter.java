@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.ingest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Encodes metrics in the binary ingestion format, see {@link BinaryDataReader} for the layout. Data point tags are
+ * not encoded.
+ *
+ * @author agent
+ */
+public class BinaryDataWriter {
+
+    // Largest encoding of a data point: a varint timestamp delta and an int64 or float64 value
+    private static final int MAX_POINT_SIZE = 10 + 8;
+
+    private BinaryDataWriter() {
+    }
+
+    /**
+     * @return the encoded metrics, ready to be read
+     */
+    public static <T> ByteBuffer write(MetricType<T> type, List<Metric<T>> metrics) {
+        checkArgument(type == GAUGE || type == COUNTER || type == AVAILABILITY, "%s is not supported", type);
+        byte[][] ids = new byte[metrics.size()][];
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            Metric<T> metric = metrics.get(i);
+            ids[i] = metric.getMetricId().getName().getBytes(UTF_8);
+            size += 5 + ids[i].length + 5 + metric.getDataPoints().size() * MAX_POINT_SIZE;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < ids.length; i++) {
+            List<DataPoint<T>> dataPoints = metrics.get(i).getDataPoints();
+            writeVarLong(buffer, ids[i].length);
+            buffer.put(ids[i]);
+            writeVarLong(buffer, dataPoints.size());
+            long previous = 0;
+            for (int j = 0; j < dataPoints.size(); j++) {
+                DataPoint<T> dataPoint = dataPoints.get(j);
+                long timestamp = dataPoint.getTimestamp();
+                if (j == 0) {
+                    buffer.putLong(timestamp);
+                } else {
+                    long delta = timestamp - previous;
+                    writeVarLong(buffer, (delta << 1) ^ (delta >> 63));
+                }
+                previous = timestamp;
+                writeValue(buffer, type, dataPoint.getValue());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeValue(ByteBuffer buffer, MetricType<?> type, Object value) {
+        if (type == GAUGE) {
+            buffer.putDouble((Double) value);
+        } else if (type == COUNTER) {
+            buffer.putLong((Long) value);
+        } else {
+            buffer.put(((AvailabilityType) value).getCode());
+        }
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+import com.datastax.driver.core.Row;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Observable;
+
+/**
+ * The most recent data point of each gauge, counter and availability metric, maintained on write so that the latest
+ * value of a metric is a single partition read instead of a merge of the compressed and temporary data. The rows of
+ * the last_values table are written with the time of the data point as their write timestamp, so concurrent writers
+ * and late arriving data points can never replace a more recent value.
+ *
+ * Each node caches the values it has written or read. Cached values expire quickly, as other nodes may have stored
+ * more recent ones.
+ *
+ * @author agent
+ */
+public class LastValueStore {
+
+    private static final int UPDATE_CONCURRENCY = 32;
+
+    private final DataAccess dataAccess;
+    private final ToIntFunction<MetricId<?>> ttlFetcher;
+    private final Cache<MetricId<?>, DataPoint<?>> latest;
+
+    /**
+     * @param dataAccess Storage for the last values
+     * @param ttlFetcher Used to fetch the TTL (in seconds) of the metric data
+     * @param maxSize Maximum number of last values cached by this node
+     * @param expiry Time in milliseconds a cached value is used for
+     */
+    public LastValueStore(DataAccess dataAccess, ToIntFunction<MetricId<?>> ttlFetcher, long maxSize, long expiry) {
+        this.dataAccess = dataAccess;
+        this.ttlFetcher = ttlFetcher;
+        this.latest = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expiry, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static boolean isSupported(MetricType<?> type) {
+        return type == GAUGE || type == COUNTER || type == AVAILABILITY;
+    }
+
+    /**
+     * Stores the most recent data point of each metric before passing the metric on.
+     */
+    public <T> Observable.Transformer<Metric<T>, Metric<T>> update() {
+        return metrics -> metrics.flatMap(metric -> put(metric.getMetricId(), latestOf(metric.getDataPoints()))
+                .toCompletable()
+                .andThen(Observable.just(metric)), UPDATE_CONCURRENCY);
+    }
+
+    /**
+     * Stores the data point unless a more recent one is already known to this node.
+     */
+    public <T> Observable<Void> put(MetricId<T> metricId, DataPoint<T> dataPoint) {
+        if (!remember(metricId, dataPoint)) {
+            return Observable.empty();
+        }
+        return dataAccess.updateLastValue(metricId, dataPoint, ttlFetcher.applyAsInt(metricId))
+                .ignoreElements()
+                .map(r -> null);
+    }
+
+    /**
+     * @return the last data point of the metric, or nothing if it has not been stored
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Observable<DataPoint<T>> find(MetricId<T> metricId) {
+        DataPoint<T> cached = (DataPoint<T>) latest.getIfPresent(metricId);
+        if (cached != null) {
+            return Observable.just(cached);
+        }
+        return dataAccess.findLastValue(metricId)
+                .map(row -> toDataPoint(metricId.getType(), row))
+                .doOnNext(dataPoint -> remember(metricId, dataPoint));
+    }
+
+    public void invalidate(MetricId<?> metricId) {
+        latest.invalidate(metricId);
+    }
+
+    public <T> Observable<Void> remove(MetricId<T> metricId) {
+        latest.invalidate(metricId);
+        return dataAccess.deleteLastValue(metricId).map(r -> null);
+    }
+
+    /**
+     * @return false if this node already knows of a more recent data point
+     */
+    private boolean remember(MetricId<?> metricId, DataPoint<?> dataPoint) {
+        DataPoint<?> kept = latest.asMap().merge(metricId, dataPoint,
+                (previous, next) -> next.getTimestamp() >= previous.getTimestamp() ? next : previous);
+        return kept == dataPoint;
+    }
+
+    private static <T> DataPoint<T> latestOf(List<DataPoint<T>> dataPoints) {
+        DataPoint<T> latest = dataPoints.get(0);
+        for (int i = 1; i < dataPoints.size(); i++) {
+            if (dataPoints.get(i).getTimestamp() > latest.getTimestamp()) {
+                latest = dataPoints.get(i);
+            }
+        }
+        return latest;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> DataPoint<T> toDataPoint(MetricType<T> type, Row row) {
+        long timestamp = row.getTimestamp(0).getTime();
+        switch (type.getCode()) {
+            case 0: // GAUGE
+                return (DataPoint<T>) new DataPoint<>(timestamp, row.getDouble(1));
+            case 1: // AVAILABILITY
+                return (DataPoint<T>) new DataPoint<>(timestamp, AvailabilityType.fromBytes(row.getBytes(3)));
+            case 2: // COUNTER
+                return (DataPoint<T>) new DataPoint<>(timestamp, row.getLong(2));
+            default:
+                throw new IllegalArgumentException("Last values of " + type.getText() + " metrics are not stored");
+        }
+    }
+}
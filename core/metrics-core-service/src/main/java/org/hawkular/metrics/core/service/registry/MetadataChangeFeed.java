@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Observable;
+
+/**
+ * Cluster wide feed of metadata changes, used to keep the per node caches of retentions, tags and registered metric
+ * ids in sync without reloading them. Every change is a single row in the metadata_changes table, versioned with a
+ * timeuuid and partitioned by the hour. A node {@link #poll() polls} the feed by reading the rows written after its
+ * previous poll, which is a slice of at most two small partitions.
+ *
+ * Writers and readers do not share a clock, so each poll reads again {@link #CLOCK_SKEW} worth of versions that
+ * were already seen. The versions read or published recently are remembered and filtered out, which also makes a
+ * node skip the changes it published itself.
+ *
+ * @author agent
+ */
+public class MetadataChangeFeed {
+
+    public enum Kind {
+        /**
+         * The data retention of the (tenant, type) partition of the metric has changed
+         */
+        RETENTION,
+
+        /**
+         * The tags of the metric have changed
+         */
+        TAGS,
+
+        /**
+         * The metric has been deleted
+         */
+        DELETED
+    }
+
+    public static class Change {
+        private final Kind kind;
+        private final MetricId<?> metricId;
+
+        public Change(Kind kind, MetricId<?> metricId) {
+            this.kind = kind;
+            this.metricId = metricId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public MetricId<?> getMetricId() {
+            return metricId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Change change = (Change) o;
+            return kind == change.kind && Objects.equals(metricId, change.metricId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, metricId);
+        }
+
+        @Override
+        public String toString() {
+            return "Change[kind=" + kind + ", metricId=" + metricId + "]";
+        }
+    }
+
+    static final long BUCKET_SIZE = TimeUnit.HOURS.toMillis(1);
+
+    static final long CLOCK_SKEW = TimeUnit.SECONDS.toMillis(10);
+
+    private final DataAccess dataAccess;
+
+    private final Cache<UUID, Boolean> seen = CacheBuilder.newBuilder()
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private volatile long lastPoll;
+
+    public MetadataChangeFeed(DataAccess dataAccess) {
+        this(dataAccess, System.currentTimeMillis());
+    }
+
+    MetadataChangeFeed(DataAccess dataAccess, long lastPoll) {
+        this.dataAccess = dataAccess;
+        this.lastPoll = lastPoll;
+    }
+
+    /**
+     * Publishes a change to the other nodes. The caller is expected to have applied the change locally already.
+     */
+    public Observable<Void> publish(Kind kind, MetricId<?> metricId) {
+        return Observable.defer(() -> {
+            UUID version = UUIDs.timeBased();
+            seen.put(version, Boolean.TRUE);
+            return dataAccess.insertMetadataChange(bucket(UUIDs.unixTimestamp(version)), version, kind.name(),
+                    metricId);
+        }).map(r -> null);
+    }
+
+    /**
+     * Fetches the changes published by the other nodes since the previous poll. Polls must not overlap.
+     */
+    public Observable<Change> poll() {
+        return Observable.defer(() -> {
+            long now = System.currentTimeMillis();
+            long from = lastPoll - CLOCK_SKEW;
+            UUID after = UUIDs.startOf(from);
+            return Observable.range(0, (int) ((bucket(now) - bucket(from)) / BUCKET_SIZE) + 1)
+                    .concatMap(i -> dataAccess.findMetadataChanges(bucket(from) + i * BUCKET_SIZE, after))
+                    .filter(row -> seen.asMap().putIfAbsent(row.getUUID(0), Boolean.TRUE) == null)
+                    .map(MetadataChangeFeed::toChange)
+                    .filter(Objects::nonNull)
+                    .doOnCompleted(() -> lastPoll = now);
+        });
+    }
+
+    static long bucket(long timestamp) {
+        return timestamp - (timestamp % BUCKET_SIZE);
+    }
+
+    private static Change toChange(Row row) {
+        Kind kind;
+        MetricType<?> type;
+        try {
+            kind = Kind.valueOf(row.getString(1));
+            type = MetricType.fromCode(row.getByte(3));
+        } catch (IllegalArgumentException e) {
+            // Written by a newer version
+            return null;
+        }
+        return new Change(kind, new MetricId<>(row.getString(2), type, row.getString(4)));
+    }
+}
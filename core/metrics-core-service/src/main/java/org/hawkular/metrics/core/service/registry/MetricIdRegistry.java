@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.joda.time.Duration;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Completable;
+import rx.Observable;
+
+/**
+ * Tenant partitioned registry of the metrics that have received data. The registry is maintained on write, so that
+ * listing the metrics of a tenant reads only that tenant's partitions of the metric_ids table instead of scanning
+ * the data tables of every tenant.
+ *
+ * Each entry expires with the retention of the metric it represents. Writers remember the identifiers they have
+ * registered for {@link #REFRESH_INTERVAL} and register them again after that, which keeps the entries of the
+ * metrics that still receive data alive.
+ *
+ * The registry is only complete once the metrics that had data before it was enabled have been
+ * {@link #backfill(Observable) backfilled}, {@link #isReady()} must be checked before relying on it.
+ *
+ * @author agent
+ */
+public class MetricIdRegistry {
+
+    public static final Duration REFRESH_INTERVAL = Duration.standardHours(6);
+
+    private static final int REGISTER_CONCURRENCY = 32;
+
+    private final DataAccess dataAccess;
+    private final ToIntFunction<MetricId<?>> ttlFetcher;
+    private final Cache<MetricId<?>, Boolean> registered;
+
+    private volatile boolean ready;
+
+    /**
+     * @param dataAccess Storage for the registry
+     * @param ttlFetcher Used to fetch the TTL (in seconds) of the metric data
+     * @param maxSize Maximum number of registered identifiers remembered by this node
+     */
+    public MetricIdRegistry(DataAccess dataAccess, ToIntFunction<MetricId<?>> ttlFetcher, long maxSize) {
+        this.dataAccess = dataAccess;
+        this.ttlFetcher = ttlFetcher;
+        this.registered = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(REFRESH_INTERVAL.getMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Registers the identifiers of the metrics before passing them on. Metrics that this node has registered recently
+     * are passed on immediately.
+     */
+    public <T> Observable.Transformer<Metric<T>, Metric<T>> register() {
+        return metrics -> metrics.flatMap(metric -> {
+            MetricId<T> metricId = metric.getMetricId();
+            if (registered.getIfPresent(metricId) != null) {
+                return Observable.just(metric);
+            }
+            return insert(metricId).map(r -> metric);
+        }, REGISTER_CONCURRENCY);
+    }
+
+    /**
+     * Registers the given identifiers and marks the registry ready once all of them have been stored.
+     */
+    public Completable backfill(Observable<MetricId<?>> metricIds) {
+        return metricIds
+                .filter(metricId -> registered.getIfPresent(metricId) == null)
+                .flatMap(this::insert, REGISTER_CONCURRENCY)
+                .toCompletable()
+                .doOnCompleted(this::setReady);
+    }
+
+    private <T> Observable<Boolean> insert(MetricId<T> metricId) {
+        int ttl = ttlFetcher.applyAsInt(metricId) + (int) REFRESH_INTERVAL.getStandardSeconds();
+        return dataAccess.insertMetricId(metricId, ttl)
+                .map(r -> {
+                    registered.put(metricId, Boolean.TRUE);
+                    return Boolean.TRUE;
+                });
+    }
+
+    public <T> Observable<MetricId<T>> findMetricIdentifiers(String tenantId, MetricType<T> type) {
+        return dataAccess.findMetricIds(tenantId, type)
+                .map(row -> new MetricId<>(tenantId, type, row.getString(0)));
+    }
+
+    public <T> Observable<Void> remove(MetricId<T> metricId) {
+        registered.invalidate(metricId);
+        return dataAccess.deleteMetricId(metricId).map(r -> null);
+    }
+
+    /**
+     * Forgets that the metric has been registered, for example after another node has removed it.
+     */
+    public void invalidate(MetricId<?> metricId) {
+        registered.invalidate(metricId);
+    }
+
+    /**
+     * The registry has been backfilled, either by this node or by another node of the cluster.
+     */
+    public void setReady() {
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+}
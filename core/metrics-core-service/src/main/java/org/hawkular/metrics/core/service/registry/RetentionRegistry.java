@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import static org.hawkular.metrics.core.service.Functions.makeSafe;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.log.CoreLogger;
+import org.hawkular.metrics.core.service.log.CoreLogging;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import rx.Completable;
+import rx.Observable;
+import rx.observable.ListenableFutureObservable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Data retentions of the metrics, kept as TTLs in seconds. The retentions_idx table stores them in days, per metric
+ * and per (tenant, type) with the {@link org.hawkular.metrics.core.service.Functions#makeSafe(String) safe} type
+ * name as the metric name. They are converted once when loaded, so {@link #getTTL(MetricId)} is two map lookups
+ * on existing keys and does not allocate.
+ *
+ * Each (tenant, type) partition of retentions_idx is held as its own snapshot which is replaced as a whole when the
+ * partition is {@link #refresh(String, MetricType) refreshed}. Changes made by this node are applied right away and
+ * a single retention changed by another node is {@link #refresh(MetricId) refreshed} on its own, so the periodic
+ * {@link #load(Observable) reload} is only needed to catch up with changes that were missed.
+ *
+ * @author agent
+ */
+public class RetentionRegistry {
+    private static final CoreLogger log = CoreLogging.getCoreLogger(RetentionRegistry.class);
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private static final int REFRESH_CONCURRENCY = 4;
+
+    /**
+     * Type default of a partition without a tenant level retention
+     */
+    private static final int NOT_SET = -1;
+
+    private static final int TYPES = MetricType.all().stream().mapToInt(MetricType::getCode).max().orElse(0) + 1;
+
+    private final DataAccess dataAccess;
+
+    private final Map<String, AtomicReferenceArray<Partition>> tenants = new ConcurrentHashMap<>();
+
+    private volatile int defaultTTL;
+
+    /**
+     * Retentions of one (tenant, type) partition
+     */
+    private static class Partition {
+        final int ttl;
+        final Map<String, Integer> metrics;
+
+        Partition(int ttl, Map<String, Integer> metrics) {
+            this.ttl = ttl;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * @param dataAccess Used to read retentions_idx
+     * @param defaultTTL TTL in seconds of the metrics that have no retention
+     */
+    public RetentionRegistry(DataAccess dataAccess, int defaultTTL) {
+        this.dataAccess = dataAccess;
+        this.defaultTTL = defaultTTL;
+    }
+
+    public void setDefaultTTL(int defaultTTL) {
+        this.defaultTTL = defaultTTL;
+    }
+
+    /**
+     * @return The TTL in seconds of the metric's data: the retention of the metric if it has one, otherwise the
+     * retention of its tenant and type, otherwise the default TTL
+     */
+    public int getTTL(MetricId<?> metricId) {
+        AtomicReferenceArray<Partition> types = tenants.get(metricId.getTenantId());
+        if (types == null) {
+            return defaultTTL;
+        }
+        int code = metricId.getType().getCode();
+        Partition partition = code >= 0 && code < TYPES ? types.get(code) : null;
+        if (partition == null) {
+            return defaultTTL;
+        }
+        Integer ttl = partition.metrics.get(metricId.getName());
+        if (ttl != null) {
+            return ttl;
+        }
+        return partition.ttl == NOT_SET ? defaultTTL : partition.ttl;
+    }
+
+    /**
+     * Reloads the retentions of every user type of the given tenants. Tenants that are not listed anymore are
+     * dropped from the registry.
+     */
+    public Completable load(Observable<String> tenantIds) {
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        return tenantIds
+                .distinct()
+                .doOnNext(loaded::add)
+                .flatMap(tenantId -> Observable.from(MetricType.userTypes())
+                        .concatMap(type -> refresh(tenantId, type)
+                                .doOnError(t -> log.warnDataRetentionLoadingFailure(tenantId, type, t))
+                                .onErrorComplete()
+                                .toObservable()), REFRESH_CONCURRENCY)
+                .toCompletable()
+                .doOnCompleted(() -> tenants.keySet().retainAll(loaded));
+    }
+
+    /**
+     * Replaces the retentions of the (tenant, type) partition with what is currently stored in retentions_idx.
+     */
+    public Completable refresh(String tenantId, MetricType<?> type) {
+        return ListenableFutureObservable.from(dataAccess.findDataRetentions(tenantId, type), Schedulers.io())
+                .doOnNext(resultSet -> replace(tenantId, type, toDays(resultSet)))
+                .toCompletable();
+    }
+
+    /**
+     * Re-reads a single retention from retentions_idx: the retention of the metric, or the tenant level retention of
+     * its type when the metric name is the {@link org.hawkular.metrics.core.service.Functions#makeSafe(String) safe}
+     * type name. A retention that is gone is removed.
+     */
+    public Completable refresh(MetricId<?> metricId) {
+        return ListenableFutureObservable.from(dataAccess.findDataRetention(metricId), Schedulers.io())
+                .doOnNext(resultSet -> {
+                    Row row = resultSet.one();
+                    apply(metricId, row == null ? null : row.getInt(3));
+                })
+                .toCompletable();
+    }
+
+    /**
+     * Sets the retention of a single metric after it has been written to retentions_idx.
+     */
+    public void putMetric(MetricId<?> metricId, int days) {
+        Partition partition = partition(metricId.getTenantId(), metricId.getType(), true);
+        partition.metrics.put(metricId.getName(), toSeconds(days));
+    }
+
+    /**
+     * Sets the tenant level retention of a type after it has been written to retentions_idx.
+     */
+    public void putTenant(String tenantId, MetricType<?> type, int days) {
+        setTenantTTL(tenantId, type, toSeconds(days));
+    }
+
+    public void removeMetric(MetricId<?> metricId) {
+        Partition partition = partition(metricId.getTenantId(), metricId.getType(), false);
+        if (partition != null) {
+            partition.metrics.remove(metricId.getName());
+        }
+    }
+
+    public void clear() {
+        tenants.clear();
+    }
+
+    void apply(MetricId<?> metricId, Integer days) {
+        if (makeSafe(metricId.getType().getText()).equals(metricId.getName())) {
+            if (days != null) {
+                putTenant(metricId.getTenantId(), metricId.getType(), days);
+            } else if (partition(metricId.getTenantId(), metricId.getType(), false) != null) {
+                setTenantTTL(metricId.getTenantId(), metricId.getType(), NOT_SET);
+            }
+        } else if (days != null) {
+            putMetric(metricId, days);
+        } else {
+            removeMetric(metricId);
+        }
+    }
+
+    private void setTenantTTL(String tenantId, MetricType<?> type, int ttl) {
+        AtomicReferenceArray<Partition> types = types(tenantId);
+        Partition current;
+        Partition updated;
+        do {
+            current = types.get(type.getCode());
+            Map<String, Integer> metrics = current == null ? new ConcurrentHashMap<>() : current.metrics;
+            updated = new Partition(ttl, metrics);
+        } while (!types.compareAndSet(type.getCode(), current, updated));
+    }
+
+    void replace(String tenantId, MetricType<?> type, Map<String, Integer> retentions) {
+        String tenantRetention = makeSafe(type.getText());
+        Map<String, Integer> metrics = new ConcurrentHashMap<>();
+        int ttl = NOT_SET;
+        for (Map.Entry<String, Integer> entry : retentions.entrySet()) {
+            if (tenantRetention.equals(entry.getKey())) {
+                ttl = toSeconds(entry.getValue());
+            } else {
+                metrics.put(entry.getKey(), toSeconds(entry.getValue()));
+            }
+        }
+        if (ttl == NOT_SET && metrics.isEmpty() && !tenants.containsKey(tenantId)) {
+            return;
+        }
+        types(tenantId).set(type.getCode(), new Partition(ttl, metrics));
+    }
+
+    private AtomicReferenceArray<Partition> types(String tenantId) {
+        return tenants.computeIfAbsent(tenantId, t -> new AtomicReferenceArray<>(TYPES));
+    }
+
+    private Partition partition(String tenantId, MetricType<?> type, boolean create) {
+        AtomicReferenceArray<Partition> types = create ? types(tenantId) : tenants.get(tenantId);
+        if (types == null) {
+            return null;
+        }
+        Partition partition = types.get(type.getCode());
+        if (partition == null && create) {
+            types.compareAndSet(type.getCode(), null, new Partition(NOT_SET, new ConcurrentHashMap<>()));
+            partition = types.get(type.getCode());
+        }
+        return partition;
+    }
+
+    private static Map<String, Integer> toDays(ResultSet resultSet) {
+        Map<String, Integer> retentions = new HashMap<>();
+        for (Row row : resultSet) {
+            retentions.put(row.getString(2), row.getInt(3));
+        }
+        return retentions.isEmpty() ? Collections.emptyMap() : retentions;
+    }
+
+    private static int toSeconds(int days) {
+        return days * SECONDS_PER_DAY;
+    }
+}
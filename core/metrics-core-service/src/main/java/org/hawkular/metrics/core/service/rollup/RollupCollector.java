@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.rollup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.PercentileSketch;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+
+import com.datastax.driver.core.Row;
+
+/**
+ * Accumulates numeric data points or stored rollups to a single rollup. Rollups are mergeable, the percentiles are
+ * estimated from a {@link PercentileSketch}.
+ *
+ * @author agent
+ */
+public final class RollupCollector {
+
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private double sum = 0;
+    private int samples = 0;
+    private PercentileSketch sketch;
+
+    public RollupCollector() {
+        this(new PercentileSketch());
+    }
+
+    private RollupCollector(PercentileSketch sketch) {
+        this.sketch = sketch;
+    }
+
+    public void increment(DataPoint<? extends Number> dataPoint) {
+        double value = dataPoint.getValue().doubleValue();
+        if (samples == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        sum += value;
+        samples++;
+        sketch.addValue(value);
+    }
+
+    public RollupCollector merge(RollupCollector other) {
+        if (other.samples == 0) {
+            return this;
+        }
+        if (samples == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        sum += other.sum;
+        samples += other.samples;
+        sketch.merge(other.sketch);
+        return this;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public ByteBuffer getSketch() {
+        return sketch.toByteBuffer();
+    }
+
+    public NumericBucketPoint toBucketPoint(long from, long to, List<Percentile> percentileList) {
+        List<Percentile> percentiles = new ArrayList<>(percentileList.size());
+        for (Percentile p : percentileList) {
+            percentiles.add(new Percentile(p.getOriginalQuantile(), sketch.getResult(p.getQuantile())));
+        }
+
+        return new NumericBucketPoint.Builder(from, to)
+                .setMin(min)
+                .setAvg(sum / samples)
+                .setMedian(sketch.getResult(50.0))
+                .setMax(max)
+                .setSum(sum)
+                .setSamples(samples)
+                .setPercentiles(percentiles)
+                .build();
+    }
+
+    /**
+     * Reads a row of the rollups table
+     */
+    public static RollupCollector fromRow(Row row) {
+        RollupCollector collector = new RollupCollector(PercentileSketch.fromByteBuffer(row.getBytes("sketch")));
+        collector.min = row.getDouble("min");
+        collector.max = row.getDouble("max");
+        collector.sum = row.getDouble("sum");
+        collector.samples = row.getInt("samples");
+        return collector;
+    }
+}
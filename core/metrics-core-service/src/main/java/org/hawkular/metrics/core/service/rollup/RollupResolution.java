@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.rollup;
+
+import org.hawkular.metrics.model.Buckets;
+import org.joda.time.Duration;
+
+/**
+ * The resolutions at which the rollups are materialized. Finer resolutions are computed from the compressed blocks,
+ * the daily rollups are merged from the hourly ones.
+ *
+ * @author agent
+ */
+public enum RollupResolution {
+
+    FIVE_MINUTES(Duration.standardMinutes(5), Duration.standardDays(14)),
+    ONE_HOUR(Duration.standardHours(1), Duration.standardDays(90)),
+    ONE_DAY(Duration.standardDays(1), Duration.standardDays(365));
+
+    private final Duration duration;
+    private final Duration defaultRetention;
+
+    RollupResolution(Duration duration, Duration defaultRetention) {
+        this.duration = duration;
+        this.defaultRetention = defaultRetention;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Value stored in the resolution column of the rollups table
+     */
+    public int getSeconds() {
+        return duration.toStandardSeconds().getSeconds();
+    }
+
+    /**
+     * Minimum TTL of the rollups in seconds, metrics with longer retention keep their rollups as long as their data.
+     */
+    public int getDefaultTTL() {
+        return defaultRetention.toStandardSeconds().getSeconds();
+    }
+
+    /**
+     * Finds the coarsest resolution that can answer the bucketed query, that is, whose duration divides both the
+     * bucket size and the start of the buckets.
+     *
+     * @return matching resolution or null if the buckets are not aligned with any of the resolutions
+     */
+    public static RollupResolution forBuckets(Buckets buckets) {
+        RollupResolution[] resolutions = values();
+        for (int i = resolutions.length - 1; i >= 0; i--) {
+            long millis = resolutions[i].duration.getMillis();
+            if (buckets.getStep() % millis == 0 && buckets.getStart() % millis == 0) {
+                return resolutions[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Set of metric ordinals. Sparse sets are stored as a sorted array and converted to a bitmap once the array would
+ * take more memory than the bitmap.
+ *
+ * Not thread safe.
+ *
+ * @author agent
+ */
+class OrdinalSet {
+
+    private static final int MIN_BITMAP_SIZE = 64;
+
+    private int[] values = new int[4];
+    private int size;
+    private BitSet bits;
+
+    void add(int ordinal) {
+        if (bits != null) {
+            bits.set(ordinal);
+            return;
+        }
+        int index = Arrays.binarySearch(values, 0, size, ordinal);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = ordinal;
+        size++;
+
+        // An int takes 32 bits, the bitmap one bit per ordinal up to the largest one
+        if (size > MIN_BITMAP_SIZE && size > (values[size - 1] + 1) / 32) {
+            bits = new BitSet(values[size - 1] + 1);
+            for (int i = 0; i < size; i++) {
+                bits.set(values[i]);
+            }
+            values = null;
+            size = 0;
+        }
+    }
+
+    void remove(int ordinal) {
+        if (bits != null) {
+            bits.clear(ordinal);
+            return;
+        }
+        int index = Arrays.binarySearch(values, 0, size, ordinal);
+        if (index >= 0) {
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+        }
+    }
+
+    boolean isEmpty() {
+        return bits != null ? bits.isEmpty() : size == 0;
+    }
+
+    /**
+     * Adds the ordinals of this set to the target
+     */
+    void orInto(BitSet target) {
+        if (bits != null) {
+            target.or(bits);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            target.set(values[i]);
+        }
+    }
+}
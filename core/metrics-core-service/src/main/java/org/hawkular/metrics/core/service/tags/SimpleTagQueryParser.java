@@ -62,6 +62,7 @@ public class SimpleTagQueryParser {
     private boolean enableACostQueries;
     private int pageSize;
     private int pageThreshold;
+    private TagIndex tagIndex;
 
     public SimpleTagQueryParser(DataAccess dataAccess, MetricsService metricsService, boolean disableACostQueries,
             int pageSize, int pageThreshold) {
@@ -72,6 +73,14 @@ public class SimpleTagQueryParser {
         this.pageThreshold = pageThreshold;
     }
 
+    /**
+     * @param tagIndex In-memory index used to resolve the queries once it has been loaded, null to always query
+     *                 Cassandra
+     */
+    public void setTagIndex(TagIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
     static class Query {
         private String tagName;
         private String tagValueMatcher;
@@ -236,6 +245,10 @@ public class SimpleTagQueryParser {
         logger.debugf("Preparing to optimize and execute %s for tenant %s and for metric type %s", tagsQueries,
                 tenantId, metricType);
 
+        if (tagIndex != null && tagIndex.isReady()) {
+            return findMetricIdentifiersFromIndex(tenantId, metricType, tagsQueries);
+        }
+
         Map<Long, List<Query>> costSortedMap =
                 QueryOptimizer.reOrderTagsQuery(tagsQueries, enableACostQueries);
 
@@ -417,9 +430,8 @@ public class SimpleTagQueryParser {
                     .compose(new TagsIndexRowTransformerFilter<>(metricType))
                     .filter(mId -> mId.getTenantId().equals(tenantId));
 
-            Observable<MetricId<?>> dataMetrics = metricsService.findAllMetricIdentifiers()
-                    .filter(m -> m.getTenantId().equals(tenantId))
-                    .filter(metricTypeFilter(metricType));
+            Observable<MetricId<?>> dataMetrics = metricsService.findMetrics(tenantId, metricType)
+                    .<MetricId<?>>map(Metric::getMetricId);
 
             AtomicLong count = new AtomicLong();
             groupMetrics = applyCFilters(
@@ -438,6 +450,23 @@ public class SimpleTagQueryParser {
         return groupMetrics;
     }
 
+    private Observable<MetricId<?>> findMetricIdentifiersFromIndex(String tenantId, MetricType<?> metricType,
+                                                                   Map<String, String> tagsQueries) {
+        Set<MetricId<?>> metricIds = tagIndex.findMetricIdentifiers(tenantId, metricType, tagsQueries,
+                enableACostQueries);
+        logger.debugf("Tag index returned %d metrics for %s", metricIds.size(), tagsQueries);
+
+        if (!tagsQueries.keySet().stream().allMatch(tagName -> tagName.startsWith("!"))) {
+            return Observable.from(metricIds);
+        }
+
+        // Option C also matches the metrics that have data but no definition
+        Observable<MetricId<?>> dataMetrics = metricsService.findMetrics(tenantId, metricType)
+                .<MetricId<?>>map(Metric::getMetricId)
+                .filter(m -> !tagIndex.contains(m));
+        return Observable.from(metricIds).concatWith(dataMetrics).distinct();
+    }
+
     private void logQuery(String tenantId, Query query, String queryType, Set<? extends MetricId<?>> metricIds) {
         // If debug is enabled, then always log the query info; otherwise, only log query info if the page threshold
         // is exceeded so as to avoid spamming the log file. The page threshold is a simple mechanism to let us know
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.hawkular.metrics.core.service.PatternUtil;
+import org.hawkular.metrics.core.service.tags.SimpleTagQueryParser.QueryOptimizer;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.jboss.logging.Logger;
+
+import rx.Completable;
+import rx.Observable;
+
+/**
+ * In-memory inverted index of the metric tags, partitioned by tenant. Each tenant maps tag name -> tag value -> set
+ * of metric ordinals, which allows the tag queries to be resolved with set operations instead of Cassandra queries.
+ *
+ * The index is loaded from metrics_idx and kept up to date by the tag updates of this node. Updates made by other
+ * nodes are seen after the next reload.
+ *
+ * @author agent
+ */
+public class TagIndex {
+
+    private static final Logger logger = Logger.getLogger(TagIndex.class);
+
+    private volatile ConcurrentMap<String, TenantTags> tenants = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    /**
+     * Updates received while the index is being loaded, replayed to the loaded index. Guarded by this.
+     */
+    private List<Consumer<ConcurrentMap<String, TenantTags>>> pendingUpdates;
+
+    /**
+     * @return true once the index has been loaded
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Replaces the index with the given metric definitions
+     */
+    public Completable load(Observable<? extends Metric<?>> metrics) {
+        return Completable.defer(() -> {
+            synchronized (this) {
+                if (pendingUpdates != null) {
+                    logger.debug("Tag index is already being loaded");
+                    return Completable.complete();
+                }
+                pendingUpdates = new ArrayList<>();
+            }
+            return metrics
+                    .collect(ConcurrentHashMap<String, TenantTags>::new,
+                            (loaded, metric) -> tenant(loaded, metric.getMetricId().getTenantId())
+                                    .put(metric.getMetricId(), metric.getTags()))
+                    .doOnNext(loaded -> {
+                        synchronized (this) {
+                            pendingUpdates.forEach(update -> update.accept(loaded));
+                            pendingUpdates = null;
+                            tenants = loaded;
+                            ready = true;
+                        }
+                        logger.debugf("Loaded tags of %d tenants", loaded.size());
+                    })
+                    .doOnError(t -> {
+                        synchronized (this) {
+                            pendingUpdates = null;
+                        }
+                    })
+                    .toCompletable();
+        });
+    }
+
+    /**
+     * Replaces the tags of the metric
+     */
+    public void put(MetricId<?> id, Map<String, String> tags) {
+        update(index -> tenant(index, id.getTenantId()).put(id, tags));
+    }
+
+    public void addTags(MetricId<?> id, Map<String, String> tags) {
+        update(index -> tenant(index, id.getTenantId()).addTags(id, tags));
+    }
+
+    public void deleteTags(MetricId<?> id, Set<String> tagNames) {
+        update(index -> tenant(index, id.getTenantId()).deleteTags(id, tagNames));
+    }
+
+    public void remove(MetricId<?> id) {
+        update(index -> tenant(index, id.getTenantId()).remove(id));
+    }
+
+    public boolean contains(MetricId<?> id) {
+        TenantTags tenantTags = tenants.get(id.getTenantId());
+        return tenantTags != null && tenantTags.contains(id);
+    }
+
+    /**
+     * Finds the metrics matching all the tag queries, with the same semantics as
+     * {@link SimpleTagQueryParser#findMetricIdentifiersWithFilters(String, MetricType, Map)}. Metrics without a
+     * definition in metrics_idx are not known by the index.
+     */
+    public Set<MetricId<?>> findMetricIdentifiers(String tenantId, MetricType<?> metricType,
+                                                  Map<String, String> tagsQueries, boolean enableACostQueries) {
+        TenantTags tenantTags = tenants.get(tenantId);
+        if (tenantTags == null) {
+            return new HashSet<>();
+        }
+        return tenantTags.find(metricType, tagsQueries, enableACostQueries);
+    }
+
+    private synchronized void update(Consumer<ConcurrentMap<String, TenantTags>> update) {
+        update.accept(tenants);
+        if (pendingUpdates != null) {
+            pendingUpdates.add(update);
+        }
+    }
+
+    private static TenantTags tenant(ConcurrentMap<String, TenantTags> index, String tenantId) {
+        return index.computeIfAbsent(tenantId, id -> new TenantTags());
+    }
+
+    private static class TenantTags {
+        private final List<MetricId<?>> ids = new ArrayList<>();
+        private final List<Map<String, String>> tags = new ArrayList<>();
+        private final Map<MetricId<?>, Integer> ordinals = new HashMap<>();
+        private final Map<String, Map<String, OrdinalSet>> index = new HashMap<>();
+        private final BitSet live = new BitSet();
+
+        synchronized void put(MetricId<?> id, Map<String, String> newTags) {
+            int ordinal = ordinal(id);
+            Map<String, String> current = tags.get(ordinal);
+            current.forEach((name, value) -> unindex(ordinal, name, value));
+            current.clear();
+            if (newTags != null) {
+                newTags.forEach((name, value) -> {
+                    current.put(name, value);
+                    index(ordinal, name, value);
+                });
+            }
+        }
+
+        synchronized void addTags(MetricId<?> id, Map<String, String> added) {
+            int ordinal = ordinal(id);
+            Map<String, String> current = tags.get(ordinal);
+            added.forEach((name, value) -> {
+                String previous = current.put(name, value);
+                if (previous != null) {
+                    unindex(ordinal, name, previous);
+                }
+                index(ordinal, name, value);
+            });
+        }
+
+        synchronized void deleteTags(MetricId<?> id, Set<String> names) {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal == null) {
+                return;
+            }
+            Map<String, String> current = tags.get(ordinal);
+            for (String name : names) {
+                String value = current.remove(name);
+                if (value != null) {
+                    unindex(ordinal, name, value);
+                }
+            }
+        }
+
+        synchronized void remove(MetricId<?> id) {
+            Integer ordinal = ordinals.remove(id);
+            if (ordinal == null) {
+                return;
+            }
+            tags.get(ordinal).forEach((name, value) -> unindex(ordinal, name, value));
+            ids.set(ordinal, null);
+            tags.set(ordinal, null);
+            live.clear(ordinal);
+        }
+
+        synchronized boolean contains(MetricId<?> id) {
+            return ordinals.containsKey(id);
+        }
+
+        synchronized Set<MetricId<?>> find(MetricType<?> metricType, Map<String, String> tagsQueries,
+                                           boolean enableACostQueries) {
+            BitSet result = (BitSet) live.clone();
+            for (Map.Entry<String, String> query : tagsQueries.entrySet()) {
+                if (result.isEmpty()) {
+                    break;
+                }
+                String tagName = query.getKey();
+                String tagValues = query.getValue();
+                if (tagName.startsWith("!")) {
+                    // Metrics must not have the tag
+                    BitSet tagged = new BitSet();
+                    index.getOrDefault(tagName.substring(1), new HashMap<>())
+                            .values()
+                            .forEach(ordinals -> ordinals.orInto(tagged));
+                    result.andNot(tagged);
+                    continue;
+                }
+
+                BitSet matching = new BitSet();
+                Map<String, OrdinalSet> values = index.getOrDefault(tagName, new HashMap<>());
+                if (enableACostQueries && !QueryOptimizer.isRegExp(tagValues)) {
+                    orInto(values.get(tagValues), matching);
+                } else if (QueryOptimizer.optimalStrategy(tagValues) == QueryOptimizer.RegExpOptimizer
+                        .OR_SINGLE_SEEK) {
+                    for (String tagValue : tagValues.split("\\|")) {
+                        orInto(values.get(tagValue), matching);
+                    }
+                } else {
+                    boolean positive = (!tagValues.startsWith("!"));
+                    Pattern p = PatternUtil.filterPattern(tagValues);
+                    values.forEach((tagValue, ordinals) -> {
+                        if (positive == p.matcher(tagValue).matches()) { // XNOR
+                            ordinals.orInto(matching);
+                        }
+                    });
+                }
+                result.and(matching);
+            }
+
+            Set<MetricId<?>> metricIds = new HashSet<>();
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                MetricId<?> id = ids.get(i);
+                MetricType<?> type = id.getType();
+                if ((metricType == null && type.isUserType()) || type == metricType) {
+                    metricIds.add(id);
+                }
+            }
+            return metricIds;
+        }
+
+        private int ordinal(MetricId<?> id) {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal == null) {
+                ordinal = ids.size();
+                ids.add(id);
+                tags.add(new HashMap<>());
+                ordinals.put(id, ordinal);
+                live.set(ordinal);
+            }
+            return ordinal;
+        }
+
+        private void index(int ordinal, String name, String value) {
+            index.computeIfAbsent(name, n -> new HashMap<>())
+                    .computeIfAbsent(value, v -> new OrdinalSet())
+                    .add(ordinal);
+        }
+
+        private void unindex(int ordinal, String name, String value) {
+            Map<String, OrdinalSet> values = index.get(name);
+            if (values == null) {
+                return;
+            }
+            OrdinalSet ordinals = values.get(value);
+            if (ordinals != null) {
+                ordinals.remove(ordinal);
+                if (ordinals.isEmpty()) {
+                    values.remove(value);
+                    if (values.isEmpty()) {
+                        index.remove(name);
+                    }
+                }
+            }
+        }
+
+        private static void orInto(OrdinalSet ordinals, BitSet target) {
+            if (ordinals != null) {
+                ordinals.orInto(target);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.PercentileSketch;
+import org.hawkular.metrics.core.service.PercentileWrapper;
+import org.hawkular.metrics.model.Percentile;
+
+/**
+ * Percentiles and the median of a single bucket. By default one {@link PercentileSketch} answers all of them, separate
+ * estimators per percentile are only used when the {@link NumericDataPointCollector#createPercentile} test hook has
+ * been replaced.
+ *
+ * @author agent
+ */
+final class BucketPercentiles {
+
+    private final List<Percentile> percentileList;
+    private final PercentileSketch sketch;
+    private final PercentileWrapper[] wrappers;
+
+    BucketPercentiles(List<Percentile> percentileList) {
+        this.percentileList = percentileList;
+        if (NumericDataPointCollector.createPercentile == NumericDataPointCollector.SKETCH_PERCENTILE) {
+            sketch = new PercentileSketch();
+            wrappers = null;
+        } else {
+            sketch = null;
+            wrappers = new PercentileWrapper[percentileList.size() + 1];
+            for (int i = 0; i < percentileList.size(); i++) {
+                wrappers[i] = NumericDataPointCollector.createPercentile.apply(percentileList.get(i).getQuantile());
+            }
+            // Median is the last one
+            wrappers[percentileList.size()] = NumericDataPointCollector.createPercentile.apply(50.0);
+        }
+    }
+
+    void addValue(double value) {
+        if (sketch != null) {
+            sketch.addValue(value);
+        } else {
+            for (PercentileWrapper wrapper : wrappers) {
+                wrapper.addValue(value);
+            }
+        }
+    }
+
+    double getMedian() {
+        return sketch != null ? sketch.getResult(50.0) : wrappers[wrappers.length - 1].getResult();
+    }
+
+    /**
+     * @return New percentile instances with the results, the original percentile list is not modified as it is
+     * shared with other buckets
+     */
+    List<Percentile> getPercentiles() {
+        List<Percentile> percentileReturns = new ArrayList<>(percentileList.size());
+        for (int i = 0; i < percentileList.size(); i++) {
+            Percentile p = percentileList.get(i);
+            double result = sketch != null ? sketch.getResult(p.getQuantile()) : wrappers[i].getResult();
+            percentileReturns.add(new Percentile(p.getOriginalQuantile(), result));
+        }
+        return percentileReturns;
+    }
+}
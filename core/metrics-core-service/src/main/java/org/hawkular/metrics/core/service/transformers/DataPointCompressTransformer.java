@@ -19,6 +19,7 @@ package org.hawkular.metrics.core.service.transformers;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
 
+import org.hawkular.metrics.core.service.compress.BlockSummary;
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
 import org.hawkular.metrics.core.service.compress.CompressorHeader;
 import org.hawkular.metrics.core.service.compress.TagsSerializer;
@@ -42,15 +43,19 @@ public class DataPointCompressTransformer<T> implements Observable.Transformer<D
     private MetricType<T> metricType;
     private Compressor compressor;
     private TagsSerializer tagsSerializer;
+    private BlockSummary summary;
 
     public DataPointCompressTransformer(MetricType<T> metricType, long timeslice) {
         out = new ByteBufferBitOutput();
         this.metricType = metricType;
 
-        // Write the appropriate header, at first we're stuck to Gorilla only
-        byte gorillaHeader = CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA, EnumSet.noneOf
-                (CompressorHeader.GorillaSettings.class));
+        // Write the appropriate header, at first we're stuck to Gorilla only. The block summary is only known once
+        // the block closes, reserve its space before the compressed stream.
+        byte gorillaHeader = CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.of(CompressorHeader.GorillaSettings.BLOCK_SUMMARY));
         out.getByteBuffer().put(gorillaHeader);
+        out.getByteBuffer().put(new byte[BlockSummary.SIZE]);
+        this.summary = new BlockSummary();
 
         this.sliceTimestamp = timeslice;
         this.compressor = new Compressor(timeslice, out);
@@ -61,22 +66,24 @@ public class DataPointCompressTransformer<T> implements Observable.Transformer<D
     public Observable<CompressedPointContainer> call(Observable<DataPoint<T>> datapoints) {
         return datapoints.collect(CompressedPointContainer::new,
                 (container, d) -> {
+                    double value;
                     switch(metricType.getCode()) {
                         case 0: // GAUGE
-                            compressor.addValue(d.getTimestamp(), (Double) d.getValue());
+                            value = (Double) d.getValue();
                             break;
                         case 1: // AVAILABILITY
-                            compressor.addValue(d.getTimestamp(), ((Byte) ((AvailabilityType) d.getValue()).getCode())
-                                    .doubleValue());
+                            value = ((Byte) ((AvailabilityType) d.getValue()).getCode()).doubleValue();
                             break;
                         case 2: // COUNTER
-                            compressor.addValue(d.getTimestamp(), ((Long) d.getValue()).doubleValue());
+                            value = ((Long) d.getValue()).doubleValue();
                             break;
                         default:
                             // Not supported yet
                             throw new RuntimeException("Metric of type " + metricType.getText() + " is not supported " +
                                     "in compression");
                     }
+                    compressor.addValue(d.getTimestamp(), value);
+                    summary.add(d.getTimestamp(), value);
 
                     if(d.getTags() != null && !d.getTags().isEmpty()) {
                         tagsSerializer.addDataPointTags(d.getTimestamp(), d.getTags());
@@ -85,6 +92,13 @@ public class DataPointCompressTransformer<T> implements Observable.Transformer<D
                 .doOnNext(cpc -> {
                     compressor.close();
                     ByteBuffer valueBuffer = (ByteBuffer) out.getByteBuffer().flip();
+                    summary.writeTo(valueBuffer, 1);
+                    if (summary.isAscending()) {
+                        // Readers can then stop at the end of a range instead of sorting the block
+                        valueBuffer.put(0, CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                                EnumSet.of(CompressorHeader.GorillaSettings.BLOCK_SUMMARY,
+                                        CompressorHeader.GorillaSettings.TIME_ASCENDING)));
+                    }
                     ByteBuffer tagsBuffer = (ByteBuffer) tagsSerializer.getByteBuffer().flip();
                     cpc.setValueBuffer(valueBuffer);
                     if(tagsBuffer.limit() > 1) {
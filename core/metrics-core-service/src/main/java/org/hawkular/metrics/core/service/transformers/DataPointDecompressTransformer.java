@@ -19,26 +19,26 @@ package org.hawkular.metrics.core.service.transformers;
 import static org.hawkular.metrics.core.service.Order.ASC;
 
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.NoSuchElementException;
 
 import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.BlockCursor;
 import org.hawkular.metrics.core.service.compress.TagsDeserializer;
+import org.hawkular.metrics.core.service.compress.TagsView;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.MetricType;
 
 import com.datastax.driver.core.Row;
 
-import fi.iki.yak.ts.compression.gorilla.BitInput;
-import fi.iki.yak.ts.compression.gorilla.ByteBufferBitInput;
-import fi.iki.yak.ts.compression.gorilla.Decompressor;
-import fi.iki.yak.ts.compression.gorilla.Pair;
 import rx.Observable;
 
 /**
- * Transforms input rows from compressed format back to DataPoints.
+ * Transforms input rows from compressed format back to DataPoints. The rows must be in the requested order. Blocks
+ * are decoded lazily one at a time, so once the limit has been reached the rest of the block and the following
+ * blocks are not decoded.
  *
  * @author Michael Burman
  */
@@ -49,87 +49,35 @@ public class DataPointDecompressTransformer<T> implements Observable.Transformer
     private long start;
     private long end;
     private MetricType<T> metricType;
+    private boolean withTags;
 
     public DataPointDecompressTransformer(MetricType<T> metricType, Order order, int limit, long start, long end) {
+        this(metricType, order, limit, start, end, true);
+    }
+
+    /**
+     * @param withTags false if the caller does not use the tags of the data points, they are then not read at all
+     */
+    public DataPointDecompressTransformer(MetricType<T> metricType, Order order, int limit, long start, long end,
+                                          boolean withTags) {
         this.order = order;
         this.limit = limit;
         this.start = start;
         this.end = end;
         this.metricType = metricType;
+        this.withTags = withTags;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Observable<DataPoint<T>> call(Observable<Row> rows) {
 
         Observable<DataPoint<T>> datapoints =
-                rows.flatMap(r -> {
-                    Stream.Builder<DataPoint<T>> dataPointStreamBuilder = Stream.builder();
-
-                    ByteBuffer tagsBuffer = r.getBytes("tags");
+                rows.concatMap(r -> {
                     ByteBuffer compressedValue = r.getBytes("c_value");
-
-                    if (compressedValue != null) {
-                        // Read the HWKMETRICS internal header here, but don't process as of now
-                        compressedValue.get();
-
-                        BitInput in = new ByteBufferBitInput(compressedValue);
-
-                        Map<Long, Map<String, String>> tagMap = null;
-                        if(tagsBuffer != null) {
-                            long blockStart = r.getTimestamp("time").toInstant().toEpochMilli();
-                            TagsDeserializer deserializer = new TagsDeserializer(blockStart);
-                            tagMap = deserializer.deserialize(tagsBuffer);
-                        }
-
-                        Decompressor d = new Decompressor(in);
-                        Pair pair;
-                        while ((pair = d.readPair()) != null) {
-                            if (pair.getTimestamp() >= start && pair.getTimestamp() < end) {
-                                DataPoint<T> dataPoint = null;
-
-                                switch(metricType.getCode()) {
-                                    case 0: // GAUGE
-                                        dataPoint = new DataPoint(pair.getTimestamp(), pair.getDoubleValue());
-                                        break;
-                                    case 1: // AVAILABILITY
-                                        dataPoint = new DataPoint(pair.getTimestamp(), AvailabilityType.fromByte(
-                                                ((Double) pair.getDoubleValue()).byteValue()));
-                                        break;
-                                    case 2: // COUNTER
-                                        dataPoint = new DataPoint(pair.getTimestamp(), ((Double) pair.getDoubleValue
-                                                ()).longValue());
-                                        break;
-                                    default:
-                                        // Not supported yet
-                                        throw new RuntimeException(
-                                                "Metric of type " + metricType.getText() + " is not supported " +
-                                                        "in decompression");
-                                }
-
-                                // Add tags from the serialized tags
-                                if(tagMap != null) {
-                                    Long key = pair.getTimestamp();
-
-                                    if (tagMap.containsKey(key)) {
-                                        Map<String, String> dpTags = tagMap.get(key);
-                                        dataPoint = new DataPoint(dataPoint.getTimestamp(), dataPoint
-                                                .getValue(), dpTags);
-                                    }
-                                }
-
-                                dataPointStreamBuilder.add(dataPoint);
-                            }
-                        }
+                    if (compressedValue == null) {
+                        return Observable.empty();
                     }
-                    return Observable.from(dataPointStreamBuilder.build()
-                            .sorted((d1, d2) -> {
-                                if (order == ASC) {
-                                    return (d1.getTimestamp() > d2.getTimestamp()) ? 1 : -1;
-                                }
-                                return (d1.getTimestamp() < d2.getTimestamp()) ? 1 : -1;
-                            })
-                            .collect(Collectors.toList()));
+                    return Observable.from(() -> new BlockIterator(r, compressedValue));
                 });
         if(limit > 0) {
             // TODO What about the min-max timestamp case when requesting metric info (MiQ)? Should we store it on
@@ -139,4 +87,68 @@ public class DataPointDecompressTransformer<T> implements Observable.Transformer
 
         return datapoints;
     }
+
+    @SuppressWarnings("unchecked")
+    private DataPoint<T> toDataPoint(long timestamp, double value) {
+        switch(metricType.getCode()) {
+            case 0: // GAUGE
+                return new DataPoint(timestamp, value);
+            case 1: // AVAILABILITY
+                return new DataPoint(timestamp, AvailabilityType.fromByte((byte) value));
+            case 2: // COUNTER
+                return new DataPoint(timestamp, (long) value);
+            default:
+                // Not supported yet
+                throw new RuntimeException("Metric of type " + metricType.getText() + " is not supported " +
+                        "in decompression");
+        }
+    }
+
+    /**
+     * Data points of a single block, decoded when iterated.
+     */
+    private class BlockIterator implements Iterator<DataPoint<T>> {
+        private final BlockCursor cursor;
+        private final TagsView tags;
+        private boolean hasNext;
+
+        private BlockIterator(Row row, ByteBuffer compressedValue) {
+            ByteBuffer tagsBuffer = withTags ? row.getBytes("tags") : null;
+            if (tagsBuffer != null) {
+                long blockStart = row.getTimestamp("time").toInstant().toEpochMilli();
+                tags = new TagsDeserializer(blockStart).view(tagsBuffer);
+            } else {
+                tags = TagsView.EMPTY;
+            }
+            if (order == ASC) {
+                cursor = BlockCursor.ascending(compressedValue, start, end);
+            } else {
+                cursor = BlockCursor.descending(compressedValue, start, end, limit);
+            }
+            hasNext = cursor.next();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public DataPoint<T> next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            DataPoint<T> dataPoint = toDataPoint(cursor.getTimestamp(), cursor.getValue());
+
+            // Add tags from the serialized tags
+            Map<String, String> dpTags = tags.get(dataPoint.getTimestamp());
+            if (dpTags != null) {
+                dataPoint = new DataPoint(dataPoint.getTimestamp(), dataPoint.getValue(), dpTags);
+            }
+
+            hasNext = cursor.next();
+            return dataPoint;
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.compress.NumericPointSink;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+
+/**
+ * Accumulates numeric values to fixed buckets, using an array of {@link NumericDataPointCollector} indexed by bucket.
+ * Values can be added either as data points or as primitives.
+ *
+ * @author agent
+ */
+public final class NumericBucketCollector implements NumericPointSink {
+
+    private final Buckets buckets;
+    private final List<Percentile> percentiles;
+    private final NumericDataPointCollector[] collectors;
+
+    public NumericBucketCollector(Buckets buckets, List<Percentile> percentiles) {
+        this.buckets = buckets;
+        this.percentiles = percentiles;
+        this.collectors = new NumericDataPointCollector[buckets.getCount()];
+    }
+
+    public void increment(DataPoint<? extends Number> dataPoint) {
+        accept(dataPoint.getTimestamp(), dataPoint.getValue().doubleValue());
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        int index = buckets.getIndex(timestamp);
+        NumericDataPointCollector collector = collectors[index];
+        if (collector == null) {
+            collector = new NumericDataPointCollector(buckets, index, percentiles);
+            collectors[index] = collector;
+        }
+        collector.increment(value);
+    }
+
+    public List<NumericBucketPoint> toBucketPoints() {
+        List<NumericBucketPoint> result = new ArrayList<>(collectors.length);
+        for (int i = 0; i < collectors.length; i++) {
+            if (collectors[i] != null) {
+                result.add(collectors[i].toBucketPoint());
+            } else {
+                long from = buckets.getBucketStart(i);
+                result.add(new NumericBucketPoint.Builder(from, from + buckets.getStep()).build());
+            }
+        }
+        return result;
+    }
+}
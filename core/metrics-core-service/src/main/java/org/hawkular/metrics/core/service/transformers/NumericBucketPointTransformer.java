@@ -43,13 +43,9 @@ public class NumericBucketPointTransformer
 
     @Override
     public Observable<List<NumericBucketPoint>> call(Observable<DataPoint<? extends Number>> dataPoints) {
+        // Single subscriber and a plain array of collectors instead of a group per bucket
         return dataPoints
-                .groupBy(dataPoint -> buckets.getIndex(dataPoint.getTimestamp()))
-                .flatMap(group -> group.collect(()
-                                -> new NumericDataPointCollector(buckets, group.getKey(), percentiles),
-                        NumericDataPointCollector::increment))
-                .map(NumericDataPointCollector::toBucketPoint)
-                .toMap(NumericBucketPoint::getStart)
-                .map(pointMap -> NumericBucketPoint.toList(pointMap, buckets));
+                .collect(() -> new NumericBucketCollector(buckets, percentiles), NumericBucketCollector::increment)
+                .map(NumericBucketCollector::toBucketPoints);
     }
 }
@@ -17,15 +17,14 @@
 
 package org.hawkular.metrics.core.service.transformers;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
 
 import org.apache.commons.math3.stat.descriptive.moment.Mean;
 import org.apache.commons.math3.stat.descriptive.rank.Max;
 import org.apache.commons.math3.stat.descriptive.rank.Min;
-import org.apache.commons.math3.stat.descriptive.rank.PSquarePercentile;
 import org.apache.commons.math3.stat.descriptive.summary.Sum;
+import org.hawkular.metrics.core.service.PercentileSketch;
 import org.hawkular.metrics.core.service.PercentileWrapper;
 import org.hawkular.metrics.model.Buckets;
 import org.hawkular.metrics.model.DataPoint;
@@ -39,27 +38,27 @@ import org.hawkular.metrics.model.Percentile;
  */
 public final class NumericDataPointCollector {
 
-    /**
-     * This is a test hook. See {@link Percentile} for details.
-     */
-    public static Function<Double, PercentileWrapper> createPercentile = p -> new PercentileWrapper() {
-
-        PSquarePercentile percentile = new PSquarePercentile(p);
+    static final Function<Double, PercentileWrapper> SKETCH_PERCENTILE = p -> new PercentileWrapper() {
 
-        // Note that these methods need to be synchronized because PSquarePecentile is not synchronized and we need to
-        // support concurrent access.
+        PercentileSketch sketch = new PercentileSketch();
 
         @Override
-        public synchronized void addValue(double value) {
-            percentile.increment(value);
+        public void addValue(double value) {
+            sketch.addValue(value);
         }
 
         @Override
-        public synchronized double getResult() {
-            return percentile.getResult();
+        public double getResult() {
+            return sketch.getResult(p);
         }
     };
 
+    /**
+     * This is a test hook. See {@link Percentile} for details. With the default value all the percentiles of a bucket
+     * are computed from a single {@link PercentileSketch}.
+     */
+    public static Function<Double, PercentileWrapper> createPercentile = SKETCH_PERCENTILE;
+
     private final Buckets buckets;
     private final int bucketIndex;
 
@@ -68,51 +67,39 @@ public final class NumericDataPointCollector {
     private Mean average = new Mean();
     private Max max = new Max();
     private Sum sum = new Sum();
-    private List<PercentileWrapper> percentiles;
-    private List<Percentile> percentileList;
+    private BucketPercentiles percentiles;
 
     public NumericDataPointCollector(Buckets buckets, int bucketIndex, List<Percentile> percentilesList) {
         this.buckets = buckets;
         this.bucketIndex = bucketIndex;
-        this.percentiles = new ArrayList<>(percentilesList.size() + 1);
-        this.percentileList = percentilesList;
-        percentilesList.stream().forEach(d -> percentiles.add(createPercentile.apply(d.getQuantile())));
-        percentiles.add(createPercentile.apply(50.0)); // Important to be the last one
+        this.percentiles = new BucketPercentiles(percentilesList);
     }
 
     public void increment(DataPoint<? extends Number> dataPoint) {
-        Number value = dataPoint.getValue();
-        min.increment(value.doubleValue());
-        average.increment(value.doubleValue());
-        max.increment(value.doubleValue());
-        sum.increment(value.doubleValue());
+        increment(dataPoint.getValue().doubleValue());
+    }
+
+    public void increment(double value) {
+        min.increment(value);
+        average.increment(value);
+        max.increment(value);
+        sum.increment(value);
         samples++;
-        percentiles.stream().forEach(p -> p.addValue(value.doubleValue()));
+        percentiles.addValue(value);
     }
 
     public NumericBucketPoint toBucketPoint() {
         long from = buckets.getBucketStart(bucketIndex);
         long to = from + buckets.getStep();
 
-        // Original percentilesList can't be modified as it is used elsewhere
-        List<Percentile> percentileReturns = new ArrayList<>(percentileList.size());
-
-        if(percentileList.size() > 0) {
-            for(int i = 0; i < percentileList.size(); i++) {
-                Percentile p = percentileList.get(i);
-                PercentileWrapper pw = percentiles.get(i);
-                percentileReturns.add(new Percentile(p.getOriginalQuantile(), pw.getResult()));
-            }
-        }
-
         return new NumericBucketPoint.Builder(from, to)
                 .setMin(min.getResult())
                 .setAvg(average.getResult())
-                .setMedian(this.percentiles.get(this.percentiles.size() - 1).getResult())
+                .setMedian(percentiles.getMedian())
                 .setMax(max.getResult())
                 .setSum(sum.getResult())
                 .setSamples(samples)
-                .setPercentiles(percentileReturns)
+                .setPercentiles(percentiles.getPercentiles())
                 .build();
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.hawkular.metrics.core.service.compress.NumericPointSink;
+
+/**
+ * State machine detecting the periods during which a predicate holds for the values of a gauge. Values must be given
+ * in time ascending order. Periods are handed out as soon as they close, so the data does not have to be
+ * materialized before the first period is known.
+ *
+ * @author agent
+ */
+public final class PeriodDetector implements NumericPointSink {
+
+    private final Predicate<Double> predicate;
+
+    private List<long[]> closed = new ArrayList<>();
+
+    private boolean inPeriod;
+    private long periodStart;
+    private long previous;
+
+    public PeriodDetector(Predicate<Double> predicate) {
+        this.predicate = predicate;
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        if (predicate.test(value)) {
+            if (!inPeriod) {
+                inPeriod = true;
+                periodStart = timestamp;
+            }
+            previous = timestamp;
+        } else if (inPeriod) {
+            closed.add(new long[]{periodStart, previous});
+            inPeriod = false;
+        }
+    }
+
+    /**
+     * Accepts a run of values without looking at them, when it is known that either all or none of them match.
+     *
+     * @param first Timestamp of the first value of the run
+     * @param last Timestamp of the last value of the run
+     */
+    public void acceptRun(long first, long last, boolean matches) {
+        if (matches) {
+            if (!inPeriod) {
+                inPeriod = true;
+                periodStart = first;
+            }
+            previous = last;
+        } else if (inPeriod) {
+            closed.add(new long[]{periodStart, previous});
+            inPeriod = false;
+        }
+    }
+
+    /**
+     * @return The periods closed since the previous call, in time ascending order
+     */
+    public List<long[]> drain() {
+        if (closed.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<long[]> periods = closed;
+        closed = new ArrayList<>();
+        return periods;
+    }
+
+    /**
+     * Closes the period that is still open at the end of the data.
+     *
+     * @return The remaining periods, in time ascending order
+     */
+    public List<long[]> finish() {
+        if (inPeriod) {
+            closed.add(new long[]{periodStart, previous});
+            inPeriod = false;
+        }
+        return drain();
+    }
+}
@@ -17,9 +17,6 @@
 
 package org.hawkular.metrics.core.service.transformers;
 
-import static org.hawkular.metrics.core.service.transformers.NumericDataPointCollector.createPercentile;
-
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -27,7 +24,6 @@ import org.apache.commons.math3.stat.descriptive.moment.Mean;
 import org.apache.commons.math3.stat.descriptive.rank.Max;
 import org.apache.commons.math3.stat.descriptive.rank.Min;
 import org.apache.commons.math3.stat.descriptive.summary.Sum;
-import org.hawkular.metrics.core.service.PercentileWrapper;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Percentile;
 import org.hawkular.metrics.model.TaggedBucketPoint;
@@ -45,15 +41,11 @@ public class TaggedDataPointCollector {
     private Mean average = new Mean();
     private Max max = new Max();
     private Sum sum = new Sum();
-    private List<PercentileWrapper> percentiles;
-    private List<Percentile> percentileList;
+    private BucketPercentiles percentiles;
 
     public TaggedDataPointCollector(Map<String, String> tags, List<Percentile> percentilesList) {
         this.tags = tags;
-        this.percentiles = new ArrayList<>(percentilesList.size() + 1);
-        this.percentileList = percentilesList;
-        percentilesList.stream().forEach(d -> percentiles.add(createPercentile.apply(d.getQuantile())));
-        percentiles.add(createPercentile.apply(50.0)); // Important to be the last one
+        this.percentiles = new BucketPercentiles(percentilesList);
     }
 
     public void increment(DataPoint<? extends Number> dataPoint) {
@@ -63,24 +55,12 @@ public class TaggedDataPointCollector {
         max.increment(value.doubleValue());
         sum.increment(value.doubleValue());
         samples++;
-        percentiles.stream().forEach(p -> p.addValue(value.doubleValue()));
+        percentiles.addValue(value.doubleValue());
     }
 
     public TaggedBucketPoint toBucketPoint() {
-
-        List<Percentile> percentileReturns = new ArrayList<>(percentileList.size());
-
-        if(percentileList.size() > 0) {
-            for(int i = 0; i < percentileList.size(); i++) {
-                Percentile p = percentileList.get(i);
-                PercentileWrapper pw = percentiles.get(i);
-                percentileReturns.add(new Percentile(p.getOriginalQuantile(), pw.getResult()));
-            }
-        }
-
-        return new TaggedBucketPoint(tags, min.getResult(), average.getResult(),
-                this.percentiles.get(this.percentiles.size() - 1).getResult(), max.getResult(), sum.getResult(),
-                samples, percentileReturns);
+        return new TaggedBucketPoint(tags, min.getResult(), average.getResult(), percentiles.getMedian(),
+                max.getResult(), sum.getResult(), samples, percentiles.getPercentiles());
     }
 
 }
@@ -20,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.util.EnumSet;
 import java.util.Map;
 
+import org.hawkular.metrics.core.service.compress.BlockSummary;
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
 import org.hawkular.metrics.core.service.compress.CompressorHeader;
 import org.hawkular.metrics.core.service.compress.TagsSerializer;
@@ -48,35 +49,43 @@ public class TempTableCompressTransformer implements Observable.Transformer<Row,
     public Observable<CompressedPointContainer> call(Observable<Row> dataRow) {
         ByteBufferBitOutput out = new ByteBufferBitOutput();
 
-        byte gorillaHeader = CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA, EnumSet.noneOf
-                (CompressorHeader.GorillaSettings.class));
+        // The block summary is only known once the block closes, reserve its space before the compressed stream
+        byte gorillaHeader = CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.of(CompressorHeader.GorillaSettings.BLOCK_SUMMARY));
         out.getByteBuffer().put(gorillaHeader);
+        out.getByteBuffer().put(new byte[BlockSummary.SIZE]);
+        BlockSummary summary = new BlockSummary();
 
         Compressor compressor = new Compressor(timeslice, out);
         TagsSerializer tagsSerializer = new TagsSerializer(timeslice);
 
-        return dataRow.collect(CompressedPointContainer::new,
+        // The temp tables are clustered newest first, Gorilla blocks are read oldest first
+        return dataRow.toSortedList((r1, r2) -> r1.getTimestamp(3).compareTo(r2.getTimestamp(3)))
+                .concatMapIterable(rows -> rows)
+                .collect(CompressedPointContainer::new,
                 (container, r) -> {
                     // "SELECT tenant_id, type, metric, time, n_value, availability, l_value, tags FROM %s " +
                     long timestamp = r.getTimestamp(3).getTime(); // Check validity
+                    double value;
                     switch(r.getByte(1)) {
                         case 0: // GAUGE
-                            compressor.addValue(timestamp, r.getDouble(4));
+                            value = r.getDouble(4);
                             break;
                         case 1: // AVAILABILITY
                             // TODO Update to GORILLA_V2 to fix these - no point storing as FP
-                            compressor.addValue(timestamp, ((Byte) (AvailabilityType.fromBytes(r.getBytes(5))
-                                    .getCode())).doubleValue());
+                            value = ((Byte) (AvailabilityType.fromBytes(r.getBytes(5)).getCode())).doubleValue();
                             break;
                         case 2: // COUNTER
                             // TODO Update to GORILLA_V2 to fix these - no point storing as FP
-                            compressor.addValue(timestamp, ((Long) r.getLong(6)).doubleValue());
+                            value = ((Long) r.getLong(6)).doubleValue();
                             break;
                         default:
                             // Not supported yet
                             throw new RuntimeException("Metric of type " + r.getByte(1) + " is not supported" +
                                     " in compression");
                     }
+                    compressor.addValue(timestamp, value);
+                    summary.add(timestamp, value);
                     Map<String, String> tags = r.getMap(7, String.class, String.class);
                     if(tags != null && !tags.isEmpty()) {
                         tagsSerializer.addDataPointTags(timestamp, tags);
@@ -86,6 +95,13 @@ public class TempTableCompressTransformer implements Observable.Transformer<Row,
                     compressor.close();
                     // Update to use long words
                     ByteBuffer valueBuffer = (ByteBuffer) out.getByteBuffer().flip();
+                    summary.writeTo(valueBuffer, 1);
+                    if (summary.isAscending()) {
+                        // Readers can then stop at the end of a range instead of sorting the block
+                        valueBuffer.put(0, CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                                EnumSet.of(CompressorHeader.GorillaSettings.BLOCK_SUMMARY,
+                                        CompressorHeader.GorillaSettings.TIME_ASCENDING)));
+                    }
                     ByteBuffer tagsBuffer = (ByteBuffer) tagsSerializer.getByteBuffer().flip();
                     cpc.setValueBuffer(valueBuffer);
                     if(tagsBuffer.limit() > 1) {
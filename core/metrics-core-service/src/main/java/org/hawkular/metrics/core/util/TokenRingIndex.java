@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.Token;
+import com.datastax.driver.core.TokenRange;
+
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * <p>
+ * A lookup index of the token ring used to group writes by the token range that owns them. The range ends are kept
+ * in a sorted primitive array, which makes finding the owning range of a routing key a binary search instead of a
+ * linear scan over every (virtual node) token range of the cluster.
+ * </p>
+ * <p>
+ * The index is rebuilt when nodes are added to or removed from the cluster. Only the Murmur3Partitioner has long
+ * tokens, for other partitioners the index falls back to scanning the token ranges.
+ * </p>
+ *
+ * @author agent
+ */
+public class TokenRingIndex implements Host.StateListener {
+
+    private static Logger logger = Logger.getLogger(TokenRingIndex.class);
+
+    private final Cluster cluster;
+
+    private final Metadata metadata;
+
+    /**
+     * Sorted ends of the token ranges, null if the partitioner does not use long tokens.
+     */
+    private volatile long[] rangeEnds = new long[0];
+
+    private volatile TokenRange[] ranges = new TokenRange[0];
+
+    private final long refreshDelay;
+
+    public TokenRingIndex(Cluster cluster) {
+        this.cluster = cluster;
+        this.metadata = cluster.getMetadata();
+        this.refreshDelay = Long.getLong("hawkular.metrics.cassandra.schema.refresh-delay", 5000);
+        refresh();
+        cluster.register(this);
+    }
+
+    /**
+     * Stops following the host events of the cluster.
+     */
+    public void shutdown() {
+        cluster.unregister(this);
+    }
+
+    /**
+     * Finds the index of the token range that owns the given routing key. Ranges are (start, end], so the owner is
+     * the first range end equal or larger than the token, wrapping around to the first range.
+     */
+    public int indexOf(ByteBuffer routingKey) {
+        Token token = metadata.newToken(routingKey);
+        long[] ends = rangeEnds;
+        if (ends == null) {
+            return scan(token);
+        }
+        if (ends.length == 0) {
+            logger.warnf("Unable to find any Cassandra node to insert token %s", token);
+            return 0;
+        }
+        return indexOf(ends, (Long) token.getValue());
+    }
+
+    static int indexOf(long[] ends, long token) {
+        int i = Arrays.binarySearch(ends, token);
+        if (i >= 0) {
+            return i;
+        }
+        int insertionPoint = -(i + 1);
+        return insertionPoint == ends.length ? 0 : insertionPoint;
+    }
+
+    private int scan(Token token) {
+        TokenRange[] tokenRanges = ranges;
+        for (int i = 0; i < tokenRanges.length; i++) {
+            if (tokenRanges[i].contains(token)) {
+                return i;
+            }
+        }
+        logger.warnf("Unable to find any Cassandra node to insert token %s", token);
+        return 0;
+    }
+
+    synchronized void refresh() {
+        Set<TokenRange> tokenRanges = metadata.getTokenRanges();
+        TokenRange[] newRanges = tokenRanges.toArray(new TokenRange[tokenRanges.size()]);
+        long[] newEnds = new long[newRanges.length];
+
+        for (int i = 0; i < newRanges.length; i++) {
+            Object end = newRanges[i].getEnd().getValue();
+            if (!(end instanceof Long)) {
+                newEnds = null;
+                break;
+            }
+            newEnds[i] = (Long) end;
+        }
+        if (newEnds != null) {
+            Arrays.sort(newEnds);
+        }
+
+        ranges = newRanges;
+        rangeEnds = newEnds;
+        logger.debugf("Token ring index refreshed with %d token ranges", newRanges.length);
+    }
+
+    private void scheduleRefresh() {
+        refresh();
+        // The token map might be rebuilt after the host event, so refresh once more after the metadata has settled
+        Observable.timer(refreshDelay, TimeUnit.MILLISECONDS, Schedulers.io())
+                .subscribe(t -> refresh(), t -> logger.warn("Failed to refresh the token ring index", t));
+    }
+
+    @Override
+    public void onAdd(Host host) {
+        scheduleRefresh();
+    }
+
+    @Override
+    public void onUp(Host host) {
+    }
+
+    @Override
+    public void onDown(Host host) {
+    }
+
+    @Override
+    public void onRemove(Host host) {
+        scheduleRefresh();
+    }
+
+    @Override
+    public void onRegister(Cluster cluster) {
+    }
+
+    @Override
+    public void onUnregister(Cluster cluster) {
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.compress;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.compress.BlockCursor;
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.CompressorHeader;
+import org.junit.Test;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitOutput;
+import fi.iki.yak.ts.compression.gorilla.Compressor;
+
+/**
+ * @author agent
+ */
+public class BlockCursorTest {
+
+    private static final long BLOCK_START = 1476000000000L;
+
+    @Test
+    public void ascendingStopsAtTheEndOfTheRange() {
+        BlockCursor cursor = BlockCursor.ascending(ordered(10, true), BLOCK_START + 2000, BLOCK_START + 5000);
+
+        assertEquals(timestamps(2, 3, 4), timestamps(cursor));
+    }
+
+    @Test
+    public void descendingReturnsTheLatestValuesFirst() {
+        ByteBuffer block = ordered(10, true);
+
+        BlockCursor latest = BlockCursor.descending(block, BLOCK_START, BLOCK_START + 8000, 1);
+        assertEquals(true, latest.next());
+        assertEquals(BLOCK_START + 7000, latest.getTimestamp());
+        assertEquals(7.5, latest.getValue(), 0.0);
+        assertFalse(latest.next());
+
+        assertEquals(timestamps(7, 6, 5), timestamps(BlockCursor.descending(block, BLOCK_START, BLOCK_START + 8000,
+                3)));
+        assertEquals(timestamps(9, 8, 7, 6, 5, 4, 3, 2, 1, 0),
+                timestamps(BlockCursor.descending(block, BLOCK_START, Long.MAX_VALUE, 0)));
+    }
+
+    @Test
+    public void skipsBlocksOutsideTheRangeUsingTheSummary() {
+        ByteBuffer block = ordered(100, true);
+
+        assertFalse(BlockCursor.ascending(block, BLOCK_START + 100_000, Long.MAX_VALUE).next());
+        assertFalse(BlockCursor.descending(block, 0, BLOCK_START, 1).next());
+        assertEquals(100, timestamps(BlockCursor.descending(block, BLOCK_START, Long.MAX_VALUE, 0)).size());
+    }
+
+    @Test
+    public void sortsNewestFirstBlocks() {
+        for (ByteBuffer block : asList(newestFirst(10, true), newestFirst(10, false))) {
+            assertEquals(timestamps(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+                    timestamps(BlockCursor.ascending(block, 0, Long.MAX_VALUE)));
+            assertEquals(timestamps(0, 1, 2, 3, 4), timestamps(BlockCursor.ascending(block, 0, BLOCK_START + 5000)));
+            assertEquals(timestamps(5, 6, 7, 8, 9),
+                    timestamps(BlockCursor.ascending(block, BLOCK_START + 5000, BLOCK_START + 120_000)));
+
+            BlockCursor latest = BlockCursor.descending(block, 0, Long.MAX_VALUE, 1);
+            assertTrue(latest.next());
+            assertEquals(BLOCK_START + 9000, latest.getTimestamp());
+            assertEquals(9.5, latest.getValue(), 0.0);
+            assertEquals(timestamps(7, 6, 5, 4), timestamps(BlockCursor.descending(block, BLOCK_START + 4000,
+                    BLOCK_START + 8000, 0)));
+        }
+    }
+
+    @Test
+    public void descendingOnlyBuffersTheValuesFound() {
+        // The limit comes straight from the request
+        assertFalse(BlockCursor.descending(ordered(0, true), 0, Long.MAX_VALUE, Integer.MAX_VALUE).next());
+        assertEquals(100, timestamps(BlockCursor.descending(ordered(100, false), 0, Long.MAX_VALUE,
+                Integer.MAX_VALUE)).size());
+        assertEquals(100, timestamps(BlockCursor.descending(newestFirst(100, false), 0, Long.MAX_VALUE,
+                Integer.MAX_VALUE)).size());
+    }
+
+    private static List<Long> timestamps(long... offsets) {
+        List<Long> timestamps = new ArrayList<>();
+        for (long offset : offsets) {
+            timestamps.add(BLOCK_START + offset * 1000);
+        }
+        return timestamps;
+    }
+
+    private static List<Long> timestamps(BlockCursor cursor) {
+        List<Long> timestamps = new ArrayList<>();
+        while (cursor.next()) {
+            timestamps.add(cursor.getTimestamp());
+        }
+        return timestamps;
+    }
+
+    /**
+     * A block stored in time ascending order, as it is written now.
+     */
+    private ByteBuffer ordered(int count, boolean withSummary) {
+        EnumSet<CompressorHeader.GorillaSettings> settings =
+                EnumSet.of(CompressorHeader.GorillaSettings.TIME_ASCENDING);
+        if (withSummary) {
+            settings.add(CompressorHeader.GorillaSettings.BLOCK_SUMMARY);
+        }
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            offsets.add(i);
+        }
+        return compress(offsets, settings);
+    }
+
+    /**
+     * A block compressed from the rows of a temp table by earlier versions, the summary stores the latest timestamp
+     * first.
+     */
+    private ByteBuffer newestFirst(int count, boolean withSummary) {
+        EnumSet<CompressorHeader.GorillaSettings> settings = EnumSet.noneOf(CompressorHeader.GorillaSettings.class);
+        if (withSummary) {
+            settings.add(CompressorHeader.GorillaSettings.BLOCK_SUMMARY);
+        }
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = count - 1; i >= 0; i--) {
+            offsets.add(i);
+        }
+        ByteBuffer block = compress(offsets, settings);
+        if (withSummary && count > 0) {
+            block.putLong(1 + 28, BLOCK_START + (count - 1) * 1000);
+            block.putLong(1 + 36, BLOCK_START);
+        }
+        return block;
+    }
+
+    private ByteBuffer compress(List<Integer> offsets, EnumSet<CompressorHeader.GorillaSettings> settings) {
+        boolean withSummary = settings.contains(CompressorHeader.GorillaSettings.BLOCK_SUMMARY);
+        ByteBufferBitOutput out = new ByteBufferBitOutput();
+        out.getByteBuffer().put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA, settings));
+        if (withSummary) {
+            out.getByteBuffer().put(new byte[BlockSummary.SIZE]);
+        }
+        BlockSummary summary = new BlockSummary();
+        Compressor compressor = new Compressor(BLOCK_START, out);
+        for (int i : offsets) {
+            compressor.addValue(BLOCK_START + i * 1000, i + 0.5);
+            summary.add(BLOCK_START + i * 1000, i + 0.5);
+        }
+        compressor.close();
+        ByteBuffer block = (ByteBuffer) out.getByteBuffer().flip();
+        if (withSummary) {
+            summary.writeTo(block, 1);
+        }
+        return block;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.compress;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.ThresholdPredicate;
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.compress.CompressorHeader;
+import org.hawkular.metrics.core.service.compress.NumericBlockDecoder;
+import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
+import org.hawkular.metrics.model.DataPoint;
+import org.junit.Test;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class BlockSummaryTest {
+
+    private static final long BLOCK_START = 1476000000000L;
+
+    @Test
+    public void summaryIsWrittenBeforeTheCompressedStream() {
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            dataPoints.add(new DataPoint<>(BLOCK_START + i * 1000, i + 0.5));
+        }
+        CompressedPointContainer cpc = Observable.from(dataPoints)
+                .compose(new DataPointCompressTransformer<>(GAUGE, BLOCK_START))
+                .toBlocking().single();
+        ByteBuffer block = cpc.getValueBuffer();
+
+        BlockSummary summary = BlockSummary.fromBlock(block);
+        assertEquals(100, summary.getCount());
+        assertEquals(0.5, summary.getMin(), 0.0);
+        assertEquals(99.5, summary.getMax(), 0.0);
+        assertEquals(5000.0, summary.getSum(), 0.0);
+        assertEquals(BLOCK_START, summary.getMinTimestamp());
+        assertEquals(BLOCK_START + 99000, summary.getMaxTimestamp());
+
+        List<Double> values = new ArrayList<>();
+        NumericBlockDecoder.decode(block, BLOCK_START, Long.MAX_VALUE, (timestamp, value) -> values.add(value));
+        assertEquals(100, values.size());
+        assertEquals(99.5, values.get(99), 0.0);
+    }
+
+    @Test
+    public void summaryKeepsTheTimestampRangeOfUnorderedInput() {
+        BlockSummary summary = new BlockSummary();
+        for (int i = 99; i >= 0; i--) {
+            summary.add(BLOCK_START + i * 1000, i + 0.5);
+        }
+        summary.add(BLOCK_START + 50500, 1.0);
+
+        assertEquals(101, summary.getCount());
+        assertEquals(BLOCK_START, summary.getMinTimestamp());
+        assertEquals(BLOCK_START + 99000, summary.getMaxTimestamp());
+    }
+
+    @Test
+    public void readsTheTimestampsOfNewestFirstSummaries() {
+        // Blocks compressed from the temp tables used to store the latest timestamp first
+        ByteBuffer block = ByteBuffer.allocate(1 + BlockSummary.SIZE);
+        block.put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.of(CompressorHeader.GorillaSettings.BLOCK_SUMMARY)));
+        block.putInt(2).putDouble(1.0).putDouble(2.0).putDouble(3.0).putLong(BLOCK_START + 1000).putLong(BLOCK_START);
+        block.flip();
+
+        BlockSummary summary = BlockSummary.fromBlock(block);
+        assertEquals(BLOCK_START, summary.getMinTimestamp());
+        assertEquals(BLOCK_START + 1000, summary.getMaxTimestamp());
+    }
+
+    @Test
+    public void blocksWithoutSummary() {
+        assertNull(BlockSummary.fromBlock(null));
+        assertNull(BlockSummary.fromBlock(ByteBuffer.wrap(new byte[]{0x10, 0, 0})));
+    }
+
+    @Test
+    public void thresholdOverSummaryRange() {
+        ThresholdPredicate gt = new ThresholdPredicate(ThresholdPredicate.Operator.GT, 10);
+        assertTrue(gt.testAll(11, 20));
+        assertFalse(gt.testAll(10, 20));
+        assertTrue(gt.testNone(1, 10));
+        assertFalse(gt.testNone(1, 11));
+
+        ThresholdPredicate eq = new ThresholdPredicate(ThresholdPredicate.Operator.EQ, 10);
+        assertTrue(eq.testAll(10, 10));
+        assertTrue(eq.testNone(11, 20));
+        assertFalse(eq.testNone(5, 20));
+
+        assertFalse(gt.testAll(Double.NaN, Double.NaN));
+        assertFalse(gt.testNone(Double.NaN, Double.NaN));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.compress;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.CompressedBlockCache;
+import org.hawkular.metrics.model.MetricId;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+import com.google.common.base.Ticker;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class CompressedBlockCacheTest {
+
+    private static final long BLOCK = Duration.standardHours(2).getMillis();
+    private static final long START = 1476000000000L / BLOCK * BLOCK;
+
+    private DataAccess dataAccess;
+    private CompressedBlockCache cache;
+    private MetricId<Double> metricId;
+    private AtomicLong nanos;
+
+    @Before
+    public void setUp() {
+        dataAccess = mock(DataAccess.class);
+        nanos = new AtomicLong();
+        cache = new CompressedBlockCache(dataAccess, 1024 * 1024, 60000, new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
+        metricId = new MetricId<>("t1", GAUGE, "m1");
+    }
+
+    @Test
+    public void cachedBlocksAreNotFetchedAgain() {
+        Observable<Row> rows = Observable.just(row(START), row(START + BLOCK), row(START + 2 * BLOCK));
+        when(dataAccess.findCompressedData(metricId, START, START + 3 * BLOCK, 0, Order.ASC)).thenReturn(rows);
+
+        assertEquals(blockStarts(START, START + 3 * BLOCK, Order.ASC),
+                asList(START, START + BLOCK, START + 2 * BLOCK));
+        assertEquals(blockStarts(START, START + 3 * BLOCK, Order.DESC),
+                asList(START + 2 * BLOCK, START + BLOCK, START));
+
+        verify(dataAccess, times(1)).findCompressedData(eq(metricId), anyLong(), anyLong(), anyInt(),
+                eq(Order.ASC));
+        verify(dataAccess, times(0)).findCompressedData(eq(metricId), anyLong(), anyLong(), anyInt(),
+                eq(Order.DESC));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void onlyMissingBlocksAreFetched() {
+        Observable<Row> rows = Observable.just(row(START), row(START + BLOCK));
+        when(dataAccess.findCompressedData(metricId, START, START + 2 * BLOCK, 0, Order.ASC)).thenReturn(rows);
+        blockStarts(START, START + 2 * BLOCK, Order.ASC);
+
+        // The current block has not been compressed yet
+        when(dataAccess.findCompressedData(metricId, START + 2 * BLOCK, START + 3 * BLOCK + 1000, 0, Order.ASC))
+                .thenReturn(Observable.empty());
+        assertEquals(blockStarts(START, START + 3 * BLOCK + 1000, Order.ASC), asList(START, START + BLOCK));
+    }
+
+    @Test
+    public void invalidatedBlockIsFetchedAgain() {
+        Observable<Row> rows = Observable.just(row(START), row(START + BLOCK));
+        when(dataAccess.findCompressedData(metricId, START, START + 2 * BLOCK, 0, Order.ASC)).thenReturn(rows);
+        blockStarts(START, START + 2 * BLOCK, Order.ASC);
+
+        cache.invalidate(metricId, START + BLOCK);
+        Observable<Row> refetched = Observable.just(row(START + BLOCK));
+        when(dataAccess.findCompressedData(metricId, START + BLOCK, START + 2 * BLOCK, 0, Order.ASC))
+                .thenReturn(refetched);
+        assertEquals(blockStarts(START, START + 2 * BLOCK, Order.ASC), asList(START, START + BLOCK));
+        verify(dataAccess).findCompressedData(metricId, START + BLOCK, START + 2 * BLOCK, 0, Order.ASC);
+
+        cache.invalidate(metricId);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiredBlockIsFetchedAgain() {
+        Observable<Row> rows = Observable.just(row(START));
+        when(dataAccess.findCompressedData(metricId, START, START + BLOCK, 0, Order.ASC)).thenReturn(rows);
+        blockStarts(START, START + BLOCK, Order.ASC);
+        blockStarts(START, START + BLOCK, Order.ASC);
+        verify(dataAccess, times(1)).findCompressedData(metricId, START, START + BLOCK, 0, Order.ASC);
+
+        // Blocks rewritten by other nodes are not invalidated locally
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(blockStarts(START, START + BLOCK, Order.ASC), asList(START));
+        verify(dataAccess, times(2)).findCompressedData(metricId, START, START + BLOCK, 0, Order.ASC);
+    }
+
+    private List<Long> blockStarts(long start, long end, Order order) {
+        return cache.findCompressedData(metricId, start, end, 0, order)
+                .map(row -> row.getTimestamp("time").getTime())
+                .toList().toBlocking().single();
+    }
+
+    private static Row row(long blockStart) {
+        Row row = mock(Row.class);
+        when(row.getTimestamp("time")).thenReturn(new Date(blockStart));
+        when(row.getBytes("c_value")).thenReturn(ByteBuffer.allocate(16));
+        return row;
+    }
+}
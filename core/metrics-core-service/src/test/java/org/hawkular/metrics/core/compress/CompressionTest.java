@@ -28,13 +28,18 @@ import java.lang.reflect.Method;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.hawkular.metrics.core.service.DataAccessImpl;
+import org.hawkular.metrics.core.service.MetricsServiceImpl;
 import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.CompressionCoordinator;
 import org.hawkular.metrics.core.service.metrics.BaseMetricsITest;
+import org.hawkular.metrics.datetime.DateTimeService;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
+import org.joda.time.Duration;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -158,6 +163,52 @@ public class CompressionTest extends BaseMetricsITest {
         }
     }
 
+    @Test
+    public void resumeFromCheckpoints() throws Exception {
+        long start = now().getMillis();
+        long startSlice = DateTimeService.getTimeSlice(start, Duration.standardHours(2));
+        String checkpointId = MetricsServiceImpl.COMPRESSION_CHECKPOINTS_PREFIX + startSlice;
+        createAndInsertMetrics(start, 100, 1);
+
+        // Another node holds the first range, the table must be kept
+        AtomicBoolean refused = new AtomicBoolean();
+        CompressionCoordinator coordinator = new CompressionCoordinator() {
+            @Override
+            public Observable<Boolean> acquire(String rangeName) {
+                return Observable.just(!refused.compareAndSet(false, true));
+            }
+
+            @Override
+            public Observable<Boolean> release(String rangeName) {
+                return Observable.just(true);
+            }
+        };
+        metricsService.compressBlock(start, 2000, 2, coordinator).await(100, TimeUnit.SECONDS);
+
+        List<Row> checkpoints = rxSession.executeAndFetch(
+                String.format("SELECT name FROM sys_config WHERE config_id = '%s'", checkpointId))
+                .toList().toBlocking().single();
+        assertTrue(refused.get());
+        assertTrue(checkpoints.size() > 0);
+
+        // The remaining range is compressed and the checkpoints removed with the table
+        compressData(start);
+
+        checkpoints = rxSession.executeAndFetch(
+                String.format("SELECT name FROM sys_config WHERE config_id = '%s'", checkpointId))
+                .toList().toBlocking().single();
+        assertEquals(checkpoints.size(), 0);
+
+        TestSubscriber<Long> ts = new TestSubscriber<>();
+        rxSession.executeAndFetch(String.format("SELECT COUNT(*) FROM data_compressed WHERE tenant_id = '%s' " +
+                "ALLOW FILTERING", tenantId))
+                .map(r -> r.getLong(0))
+                .subscribe(ts);
+        ts.awaitTerminalEvent(2, TimeUnit.SECONDS);
+        ts.assertNoErrors();
+        assertEquals(ts.getOnNextEvents().get(0).longValue(), 100);
+    }
+
     @Test
     public void testNonExistantCompression() throws Exception {
         // Write to past .. should go to data_0 table
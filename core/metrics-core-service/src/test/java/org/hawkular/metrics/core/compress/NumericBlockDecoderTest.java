@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.compress;
+
+import static java.util.Collections.emptyList;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.CompressorHeader;
+import org.hawkular.metrics.core.service.compress.NumericBlockDecoder;
+import org.hawkular.metrics.core.service.transformers.NumericBucketCollector;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.junit.Test;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitOutput;
+import fi.iki.yak.ts.compression.gorilla.Compressor;
+
+/**
+ * @author agent
+ */
+public class NumericBlockDecoderTest {
+
+    private static final long BLOCK_START = 1476000000000L;
+
+    @Test
+    public void decodesOnlyTheRequestedRange() {
+        ByteBuffer block = compress(10);
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        NumericBlockDecoder.decode(block, BLOCK_START + 2000, BLOCK_START + 5000, (timestamp, value) -> {
+            timestamps.add(timestamp);
+            values.add(value);
+        });
+
+        assertEquals(3, timestamps.size());
+        assertEquals(BLOCK_START + 2000, timestamps.get(0).longValue());
+        assertEquals(BLOCK_START + 4000, timestamps.get(2).longValue());
+        assertEquals(2.5, values.get(0), 0.0);
+        assertEquals(4.5, values.get(2), 0.0);
+    }
+
+    @Test
+    public void doesNotModifyTheBuffer() {
+        ByteBuffer block = compress(5);
+        int position = block.position();
+
+        List<Long> first = new ArrayList<>();
+        NumericBlockDecoder.decode(block, BLOCK_START, Long.MAX_VALUE, (timestamp, value) -> first.add(timestamp));
+        List<Long> second = new ArrayList<>();
+        NumericBlockDecoder.decode(block, BLOCK_START, Long.MAX_VALUE, (timestamp, value) -> second.add(timestamp));
+
+        assertEquals(position, block.position());
+        assertEquals(5, first.size());
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void bucketStatsOverNewestFirstBlock() {
+        // Compressed from the temp table rows by earlier versions, the summary stores the latest timestamp first
+        ByteBufferBitOutput out = new ByteBufferBitOutput();
+        out.getByteBuffer().put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.of(CompressorHeader.GorillaSettings.BLOCK_SUMMARY)));
+        out.getByteBuffer().put(new byte[BlockSummary.SIZE]);
+        Compressor compressor = new Compressor(BLOCK_START, out);
+        for (int i = 9; i >= 0; i--) {
+            compressor.addValue(BLOCK_START + i * 1000, i + 0.5);
+        }
+        compressor.close();
+        ByteBuffer block = (ByteBuffer) out.getByteBuffer().flip();
+        block.putInt(1, 10).putDouble(5, 0.5).putDouble(13, 9.5).putDouble(21, 50.0)
+                .putLong(29, BLOCK_START + 9000).putLong(37, BLOCK_START);
+
+        // Neither end of the range is aligned with the block
+        Buckets buckets = new Buckets(BLOCK_START + 2500, 2500, 2);
+        NumericBucketCollector collector = new NumericBucketCollector(buckets, emptyList());
+        NumericBlockDecoder.decode(block, BLOCK_START + 2500, BLOCK_START + 7500, collector);
+        List<NumericBucketPoint> bucketPoints = collector.toBucketPoints();
+
+        assertEquals(2, bucketPoints.get(0).getSamples().intValue());
+        assertEquals(3.5, bucketPoints.get(0).getMin(), 0.0);
+        assertEquals(4.5, bucketPoints.get(0).getMax(), 0.0);
+        assertEquals(3, bucketPoints.get(1).getSamples().intValue());
+        assertEquals(5.5, bucketPoints.get(1).getMin(), 0.0);
+        assertEquals(7.5, bucketPoints.get(1).getMax(), 0.0);
+    }
+
+    @Test
+    public void ignoresMissingValue() {
+        NumericBlockDecoder.decode(null, BLOCK_START, Long.MAX_VALUE, (timestamp, value) -> {
+            throw new AssertionError("No values expected");
+        });
+    }
+
+    private ByteBuffer compress(int count) {
+        ByteBufferBitOutput out = new ByteBufferBitOutput();
+        out.getByteBuffer().put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.noneOf(CompressorHeader.GorillaSettings.class)));
+        Compressor compressor = new Compressor(BLOCK_START, out);
+        for (int i = 0; i < count; i++) {
+            compressor.addValue(BLOCK_START + i * 1000, i + 0.5);
+        }
+        compressor.close();
+        return (ByteBuffer) out.getByteBuffer().flip();
+    }
+}
@@ -17,12 +17,14 @@
 package org.hawkular.metrics.core.compress;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.nio.ByteBuffer;
 import java.util.Map;
 
 import org.hawkular.metrics.core.service.compress.TagsDeserializer;
 import org.hawkular.metrics.core.service.compress.TagsSerializer;
+import org.hawkular.metrics.core.service.compress.TagsView;
 import org.hawkular.metrics.datetime.DateTimeService;
 import org.joda.time.Duration;
 import org.testng.annotations.Test;
@@ -86,4 +88,29 @@ public class TagsMapSerializingTest {
         assertEquals("b", abMap.get("a"));
         assertEquals("d", abMap.get("c"));
     }
+
+    @Test
+    public void viewDecodesOnlyTheRequestedTags() {
+        long timeSlice = DateTimeService.getTimeSlice(DateTimeService.now.get().getMillis(), Duration.standardHours(2));
+
+        TagsSerializer serializer = new TagsSerializer(timeSlice);
+
+        serializer.addDataPointTags(timeSlice + 20, ImmutableMap.of("a", "b", "c", "d"));
+        serializer.addDataPointTags(timeSlice + 32, ImmutableMap.of("a2", "b2"));
+        serializer.addDataPointTags(timeSlice + 40, ImmutableMap.of("ä", "ö"));
+
+        ByteBuffer serializedTags = serializer.getByteBuffer();
+
+        serializedTags.flip();
+        int position = serializedTags.position();
+
+        TagsView view = new TagsDeserializer(timeSlice).view(serializedTags);
+
+        assertEquals(ImmutableMap.of("a2", "b2"), view.get(timeSlice + 32));
+        assertEquals(ImmutableMap.of("a", "b", "c", "d"), view.get(timeSlice + 20));
+        assertEquals(ImmutableMap.of("ä", "ö"), view.get(timeSlice + 40));
+        assertNull(view.get(timeSlice + 21));
+        assertNull(view.get(timeSlice - 1));
+        assertEquals(position, serializedTags.position());
+    }
 }
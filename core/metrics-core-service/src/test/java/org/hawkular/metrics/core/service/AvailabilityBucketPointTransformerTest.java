@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.AvailabilityBucketPointMatcher.matchesAvailabilityBucketPoint;
+import static org.hawkular.metrics.model.AvailabilityType.DOWN;
+import static org.hawkular.metrics.model.AvailabilityType.UP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.hawkular.metrics.model.AvailabilityBucketPoint;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.junit.Test;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class AvailabilityBucketPointTransformerTest {
+
+    @Test
+    public void collectToBuckets() {
+        Buckets buckets = new Buckets(10, 10, 3);
+
+        List<AvailabilityBucketPoint> bucketPoints = Observable.just(
+                new DataPoint<>(12L, DOWN),
+                new DataPoint<>(18L, UP),
+                // First timestamp of the last bucket
+                new DataPoint<>(30L, UP))
+                .compose(new AvailabilityBucketPointTransformer(buckets))
+                .toBlocking().single();
+
+        assertEquals(3, bucketPoints.size());
+
+        assertThat(bucketPoints.get(0), matchesAvailabilityBucketPoint(new AvailabilityBucketPoint.Builder(10, 20)
+                .setNotUptimeCount(1)
+                .setUpDuration(2)
+                .setDownDuration(8)
+                .setLastNotUptime(18)
+                .setUptimeRatio(0.2)
+                .build()));
+
+        assertEquals(20, bucketPoints.get(1).getStart());
+        assertEquals(30, bucketPoints.get(1).getEnd());
+        assertTrue(bucketPoints.get(1).isEmpty());
+
+        assertThat(bucketPoints.get(2), matchesAvailabilityBucketPoint(new AvailabilityBucketPoint.Builder(30, 40)
+                .setUpDuration(10)
+                .setUptimeRatio(1.0)
+                .build()));
+    }
+
+    @Test
+    public void emptyBuckets() {
+        Buckets buckets = new Buckets(10, 10, 3);
+
+        List<AvailabilityBucketPoint> bucketPoints = Observable.<DataPoint<AvailabilityType>>empty()
+                .compose(new AvailabilityBucketPointTransformer(buckets))
+                .toBlocking().single();
+
+        assertEquals(3, bucketPoints.size());
+        for (int i = 0; i < bucketPoints.size(); i++) {
+            assertEquals(10 + i * 10, bucketPoints.get(i).getStart());
+            assertEquals(20 + i * 10, bucketPoints.get(i).getEnd());
+            assertTrue(bucketPoints.get(i).isEmpty());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectPointAtEndOfLastBucket() {
+        Buckets buckets = new Buckets(10, 10, 3);
+
+        Observable.just(new DataPoint<>(40L, UP))
+                .compose(new AvailabilityBucketPointTransformer(buckets))
+                .toBlocking().single();
+    }
+}
@@ -16,11 +16,16 @@
  */
 package org.hawkular.metrics.core.service;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
 
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.rollup.RollupCollector;
+import org.hawkular.metrics.core.service.rollup.RollupResolution;
+import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
@@ -29,6 +34,7 @@ import org.hawkular.metrics.model.Tenant;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TokenRange;
 
 import rx.Observable;
 
@@ -124,6 +130,16 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findAllDataFromBucket(timestamp, pageSize, maxConcurrency);
     }
 
+    @Override
+    public Observable<Row> findDataFromBucket(long timestamp, TokenRange tokenRange, int pageSize) {
+        return delegate.findDataFromBucket(timestamp, tokenRange, pageSize);
+    }
+
+    @Override
+    public List<TokenRange> findTokenRanges() {
+        return delegate.findTokenRanges();
+    }
+
     @Override public Observable<ResultSet> dropTempTable(long timestamp) {
         return delegate.dropTempTable(timestamp);
     }
@@ -142,9 +158,14 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.insertData(metrics);
     }
 
+    @Override
+    public Observable<Integer> insertGaugeData(String tenantId, GaugeDataReader reader) {
+        return delegate.insertGaugeData(tenantId, reader);
+    }
+
     @Override
     public Observable<Integer> insertStringDatas(Observable<Metric<String>> strings,
-            Function<MetricId<String>, Integer> ttlFetcher, int maxSize) {
+            ToIntFunction<MetricId<String>> ttlFetcher, int maxSize) {
         return delegate.insertStringDatas(strings, ttlFetcher, maxSize);
     }
 
@@ -195,11 +216,56 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.deleteMetricFromMetricsIndex(id);
     }
 
+    @Override
+    public <T> Observable<ResultSet> insertMetricId(MetricId<T> id, int ttl) {
+        return delegate.insertMetricId(id, ttl);
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricIds(String tenantId, MetricType<T> type) {
+        return delegate.findMetricIds(tenantId, type);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteMetricId(MetricId<T> id) {
+        return delegate.deleteMetricId(id);
+    }
+
+    @Override
+    public Observable<ResultSet> insertMetadataChange(long bucket, UUID version, String kind, MetricId<?> id) {
+        return delegate.insertMetadataChange(bucket, version, kind, id);
+    }
+
+    @Override
+    public Observable<Row> findMetadataChanges(long bucket, UUID after) {
+        return delegate.findMetadataChanges(bucket, after);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> updateLastValue(MetricId<T> id, DataPoint<T> dataPoint, int ttl) {
+        return delegate.updateLastValue(id, dataPoint, ttl);
+    }
+
+    @Override
+    public <T> Observable<Row> findLastValue(MetricId<T> id) {
+        return delegate.findLastValue(id);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteLastValue(MetricId<T> id) {
+        return delegate.deleteLastValue(id);
+    }
+
     @Override
     public <T> ResultSetFuture findDataRetentions(String tenantId, MetricType<T> type) {
         return delegate.findDataRetentions(tenantId, type);
     }
 
+    @Override
+    public <T> ResultSetFuture findDataRetention(MetricId<T> id) {
+        return delegate.findDataRetention(id);
+    }
+
     @Override
     public <T> Observable<ResultSet> updateRetentionsIndex(String tenantId, MetricType<T> type,
             Map<String, Integer> retentions) {
@@ -249,6 +315,48 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.insertCompressedData(id, timeslice, cpc, ttl);
     }
 
+    @Override
+    public <T> Observable<ResultSet> insertWalData(MetricId<T> id, long blockStart, CompressedPointContainer cpc,
+                                                   int count) {
+        return delegate.insertWalData(id, blockStart, cpc, count);
+    }
+
+    @Override
+    public <T> Observable<Row> findWalData(MetricId<T> id, long blockStart) {
+        return delegate.findWalData(id, blockStart);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> insertWalIndex(String node, MetricId<T> id, long blockStart) {
+        return delegate.insertWalIndex(node, id, blockStart);
+    }
+
+    @Override
+    public Observable<Row> findWalIndex(String node, long blockStart) {
+        return delegate.findWalIndex(node, blockStart);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteWalIndex(String node, MetricId<T> id, long blockStart) {
+        return delegate.deleteWalIndex(node, id, blockStart);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteWalData(MetricId<T> id, long blockStart) {
+        return delegate.deleteWalData(id, blockStart);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> insertRollup(MetricId<T> id, RollupResolution resolution, long time,
+                                                  RollupCollector rollup, int ttl) {
+        return delegate.insertRollup(id, resolution, time, rollup, ttl);
+    }
+
+    @Override
+    public <T> Observable<Row> findRollups(MetricId<T> id, RollupResolution resolution, long start, long end) {
+        return delegate.findRollups(id, resolution, start, end);
+    }
+
     @Override public void shutdown() {
         delegate.shutdown();
     }
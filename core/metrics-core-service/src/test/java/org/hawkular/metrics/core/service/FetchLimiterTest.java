@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+
+/**
+ * @author agent
+ */
+public class FetchLimiterTest {
+
+    @Test
+    public void resultsKeepTheOrderOfTheIds() {
+        FetchLimiter limiter = new FetchLimiter(4, 16);
+
+        // Later ids finish first
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        limiter.fetch(Observable.range(0, 8), i -> Observable.range(0, 3)
+                .delay(80 - i * 10, TimeUnit.MILLISECONDS, Schedulers.io())
+                .map(j -> i + "-" + j))
+                .subscribe(subscriber);
+        subscriber.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 3; j++) {
+                expected.add(i + "-" + j);
+            }
+        }
+        assertEquals(expected, subscriber.getOnNextEvents());
+        assertEquals(0, limiter.getActive());
+    }
+
+    @Test
+    public void nodeConcurrencyIsSharedByRequests() {
+        FetchLimiter limiter = new FetchLimiter(4, 3);
+        List<PublishSubject<Integer>> fetches = new ArrayList<>();
+        AtomicInteger subscribed = new AtomicInteger();
+
+        TestSubscriber<Integer> first = new TestSubscriber<>();
+        TestSubscriber<Integer> second = new TestSubscriber<>();
+        for (TestSubscriber<Integer> subscriber : asList(first, second)) {
+            limiter.fetch(Observable.range(0, 2), i -> {
+                PublishSubject<Integer> fetch = PublishSubject.create();
+                fetches.add(fetch);
+                return fetch.doOnSubscribe(subscribed::incrementAndGet);
+            }).subscribe(subscriber);
+        }
+
+        assertEquals(3, subscribed.get());
+        assertEquals(3, limiter.getActive());
+
+        fetches.get(0).onNext(1);
+        fetches.get(0).onCompleted();
+        assertEquals(4, subscribed.get());
+        assertEquals(3, limiter.getActive());
+
+        second.unsubscribe();
+        assertTrue(limiter.getActive() <= 1);
+        fetches.get(1).onCompleted();
+        first.assertValues(1);
+        first.assertCompleted();
+        assertEquals(0, limiter.getActive());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Collections.emptyIterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.CompressorHeader;
+import org.hawkular.metrics.core.service.transformers.PeriodDetector;
+import org.junit.Test;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitOutput;
+import fi.iki.yak.ts.compression.gorilla.Compressor;
+
+/**
+ * @author agent
+ */
+public class FindPeriodsTest {
+
+    private static final long BLOCK_START = 1476000000000L;
+
+    @Test
+    public void acceptsNewestFirstBlockFromItsSummary() {
+        ThresholdPredicate threshold = new ThresholdPredicate(ThresholdPredicate.Operator.GT, 0);
+        PeriodDetector detector = new PeriodDetector(threshold);
+
+        assertEquals(0, MetricsServiceImpl.acceptBlock(newestFirstBlock(), threshold, BLOCK_START,
+                BLOCK_START + 120_000, noUncompressedPoints(), detector).size());
+        List<long[]> periods = detector.finish();
+
+        assertEquals(1, periods.size());
+        assertArrayEquals(new long[]{BLOCK_START, BLOCK_START + 9000}, periods.get(0));
+    }
+
+    @Test
+    public void decodesNewestFirstBlockPartlyInTheRange() {
+        ThresholdPredicate threshold = new ThresholdPredicate(ThresholdPredicate.Operator.GT, 4);
+        PeriodDetector detector = new PeriodDetector(threshold);
+
+        MetricsServiceImpl.acceptBlock(newestFirstBlock(), threshold, BLOCK_START + 2500, BLOCK_START + 8500,
+                noUncompressedPoints(), detector);
+        List<long[]> periods = detector.finish();
+
+        assertEquals(1, periods.size());
+        assertArrayEquals(new long[]{BLOCK_START + 4000, BLOCK_START + 8000}, periods.get(0));
+    }
+
+    private static PeekingIterator<Map.Entry<Long, Double>> noUncompressedPoints() {
+        return Iterators.peekingIterator(emptyIterator());
+    }
+
+    /**
+     * Compressed from the temp table rows by earlier versions, the summary stores the latest timestamp first.
+     */
+    private static ByteBuffer newestFirstBlock() {
+        ByteBufferBitOutput out = new ByteBufferBitOutput();
+        out.getByteBuffer().put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.of(CompressorHeader.GorillaSettings.BLOCK_SUMMARY)));
+        out.getByteBuffer().put(new byte[BlockSummary.SIZE]);
+        Compressor compressor = new Compressor(BLOCK_START, out);
+        for (int i = 9; i >= 0; i--) {
+            compressor.addValue(BLOCK_START + i * 1000, i + 0.5);
+        }
+        compressor.close();
+        ByteBuffer block = (ByteBuffer) out.getByteBuffer().flip();
+        block.putInt(1, 10).putDouble(5, 0.5).putDouble(13, 9.5).putDouble(21, 50.0)
+                .putLong(29, BLOCK_START + 9000).putLong(37, BLOCK_START);
+        return block;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.ingest.BinaryDataReader;
+import org.hawkular.metrics.core.service.ingest.BinaryDataWriter;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+import rx.observers.TestSubscriber;
+
+/**
+ * @author agent
+ */
+public class GaugeDataTrackerTest {
+
+    private static final long NOW = 1476000000000L;
+
+    @Test
+    public void groupsConsecutiveDataPointsOfTheSameMetric() {
+        List<Metric<Double>> metrics = asList(
+                gauge("a", new DataPoint<>(NOW, 1.0), new DataPoint<>(NOW + 10, 2.0)),
+                gauge("b", new DataPoint<>(NOW, 3.0)),
+                gauge("a", new DataPoint<>(NOW + 20, 4.0)));
+        GaugeDataReader reader = new BinaryDataReader(BinaryDataWriter.write(GAUGE, metrics), GAUGE);
+
+        List<Metric<Double>> read = GaugeDataTracker.readMetrics("t", reader).toList().toBlocking().single();
+
+        assertEquals(metrics, read);
+        assertEquals(metrics.get(0).getDataPoints(), read.get(0).getDataPoints());
+        assertEquals(metrics.get(2).getDataPoints(), read.get(2).getDataPoints());
+    }
+
+    @Test
+    public void readsOnlyTheRequestedMetrics() {
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < GaugeDataTracker.MAX_METRIC_DATA_POINTS * 2 + 1; i++) {
+            dataPoints.add(new DataPoint<>(NOW + i, (double) i));
+        }
+        CountingReader reader = new CountingReader(new BinaryDataReader(
+                BinaryDataWriter.write(GAUGE, asList(new Metric<>(new MetricId<>("t", GAUGE, "a"), dataPoints))),
+                GAUGE));
+
+        TestSubscriber<Metric<Double>> subscriber = new TestSubscriber<>(1);
+        GaugeDataTracker.readMetrics("t", reader).subscribe(subscriber);
+
+        subscriber.assertValueCount(1);
+        assertEquals(dataPoints.subList(0, GaugeDataTracker.MAX_METRIC_DATA_POINTS),
+                subscriber.getOnNextEvents().get(0).getDataPoints());
+        assertEquals(GaugeDataTracker.MAX_METRIC_DATA_POINTS, reader.count);
+
+        subscriber.requestMore(Long.MAX_VALUE);
+        subscriber.assertCompleted();
+        subscriber.assertValueCount(3);
+        assertEquals(1, subscriber.getOnNextEvents().get(2).getDataPoints().size());
+    }
+
+    @SafeVarargs
+    private static Metric<Double> gauge(String name, DataPoint<Double>... dataPoints) {
+        return new Metric<>(new MetricId<>("t", GAUGE, name), asList(dataPoints));
+    }
+
+    private static class CountingReader implements GaugeDataReader {
+
+        private final GaugeDataReader reader;
+        int count;
+
+        CountingReader(GaugeDataReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean next() {
+            if (reader.next()) {
+                count++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String getMetricName() {
+            return reader.getMetricName();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return reader.getTimestamp();
+        }
+
+        @Override
+        public double getValue() {
+            return reader.getValue();
+        }
+
+        @Override
+        public Map<String, String> getTags() {
+            return reader.getTags();
+        }
+    }
+}
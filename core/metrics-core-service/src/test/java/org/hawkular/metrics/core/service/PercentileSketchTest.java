@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class PercentileSketchTest {
+
+    private static void assertRelativeError(double expected, double actual) {
+        double error = Math.abs(expected - actual) / Math.abs(expected);
+        assertTrue("Expected " + expected + " but was " + actual,
+                error <= PercentileSketch.DEFAULT_RELATIVE_ACCURACY + 1e-9);
+    }
+
+    private static double exact(double[] sorted, double percentile) {
+        return sorted[(int) Math.floor(percentile / 100 * (sorted.length - 1))];
+    }
+
+    @Test
+    public void percentilesWithinRelativeAccuracy() {
+        Random random = new Random(42);
+        double[] values = new double[10000];
+        PercentileSketch sketch = new PercentileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 1000 - 100;
+            sketch.addValue(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[]{1, 25, 50, 75, 90, 99, 99.9}) {
+            assertRelativeError(exact(values, p), sketch.getResult(p));
+        }
+        assertEquals(values[0], sketch.getResult(0), 0);
+        assertEquals(values[values.length - 1], sketch.getResult(100), 0);
+    }
+
+    @Test
+    public void mergeEqualsSingleSketch() {
+        PercentileSketch all = new PercentileSketch();
+        PercentileSketch first = new PercentileSketch();
+        PercentileSketch second = new PercentileSketch();
+        for (int i = 0; i < 1000; i++) {
+            all.addValue(i);
+            if (i % 2 == 0) {
+                first.addValue(i);
+            } else {
+                second.addValue(i);
+            }
+        }
+        first.merge(second);
+
+        assertEquals(all.getCount(), first.getCount());
+        for (double p : new double[]{0, 10, 50, 95, 100}) {
+            assertEquals(all.getResult(p), first.getResult(p), 0);
+        }
+    }
+
+    @Test
+    public void serializationRoundTrip() {
+        PercentileSketch sketch = new PercentileSketch();
+        for (double value : new double[]{-5.5, 0, 0, 0.25, 3, 1e6, 42, 42, 42}) {
+            sketch.addValue(value);
+        }
+
+        PercentileSketch copy = PercentileSketch.fromByteBuffer(sketch.toByteBuffer());
+
+        assertEquals(sketch.getCount(), copy.getCount());
+        for (double p : new double[]{0, 10, 30, 50, 75, 95, 100}) {
+            assertEquals(sketch.getResult(p), copy.getResult(p), 0);
+        }
+    }
+
+    @Test
+    public void emptySketch() {
+        PercentileSketch sketch = new PercentileSketch();
+        assertTrue(Double.isNaN(sketch.getResult(50)));
+        assertTrue(Double.isNaN(PercentileSketch.fromByteBuffer(sketch.toByteBuffer()).getResult(50)));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.exception.QueryTimeoutException;
+import org.junit.Test;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+/**
+ * @author agent
+ */
+public class QueryContextTest {
+
+    @Test
+    public void completedQueryIsNotPartial() {
+        QueryContext context = QueryContext.withTimeout(10_000, true);
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        Observable.range(0, 10).compose(context.<Integer>bounded()).subscribe(subscriber);
+        subscriber.assertValueCount(10);
+        subscriber.assertCompleted();
+        assertFalse(context.isPartial());
+        context.close();
+    }
+
+    @Test
+    public void deadlineFailsTheQuery() {
+        QueryContext context = QueryContext.withTimeout(50, false);
+        TestSubscriber<Long> subscriber = new TestSubscriber<>();
+        Observable.interval(10, TimeUnit.MILLISECONDS).compose(context.<Long>bounded()).subscribe(subscriber);
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertError(QueryTimeoutException.class);
+        assertFalse(context.isPartial());
+    }
+
+    @Test
+    public void deadlineReturnsPartialResults() {
+        QueryContext context = QueryContext.withTimeout(50, true);
+        TestSubscriber<Long> subscriber = new TestSubscriber<>();
+        Observable.interval(10, TimeUnit.MILLISECONDS).compose(context.<Long>bounded()).subscribe(subscriber);
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+        subscriber.assertCompleted();
+        assertTrue(subscriber.getOnNextEvents().size() > 0);
+        assertTrue(context.isPartial());
+    }
+
+    @Test
+    public void cancelStopsTheQuery() {
+        QueryContext context = QueryContext.unbounded();
+        TestSubscriber<Long> subscriber = new TestSubscriber<>();
+        Observable.interval(10, TimeUnit.MILLISECONDS).compose(context.<Long>bounded()).subscribe(subscriber);
+        context.cancel();
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+        subscriber.assertCompleted();
+        assertTrue(context.isCancelled());
+    }
+}
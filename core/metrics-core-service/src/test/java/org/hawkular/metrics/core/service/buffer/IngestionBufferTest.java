@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.buffer;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
+import org.hawkular.metrics.datetime.DateTimeService;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.scheduler.impl.Lock;
+import org.hawkular.metrics.scheduler.impl.LockManager;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class IngestionBufferTest {
+
+    private static final String NODE = "node1";
+
+    private DataAccess dataAccess;
+    private LockManager lockManager;
+    private IngestionBuffer buffer;
+    private long blockStart;
+
+    /**
+     * The journal rows per metric and block
+     */
+    private Map<MetricId<?>, Map<Long, List<Row>>> journal;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        blockStart = DateTimeService.getTimeSlice(DateTime.now().getMillis(), IngestionBuffer.BLOCK_SIZE);
+        DateTimeService.now = () -> new DateTime(blockStart + 1000);
+
+        journal = new HashMap<>();
+
+        dataAccess = mock(DataAccess.class);
+        when(dataAccess.insertWalData(any(), anyLong(), any(), anyInt())).thenAnswer(invocation -> {
+            CompressedPointContainer cpc = (CompressedPointContainer) invocation.getArguments()[2];
+            journalRows((MetricId<?>) invocation.getArguments()[0], (Long) invocation.getArguments()[1]).add(row(cpc));
+            return Observable.just(mock(ResultSet.class));
+        });
+        when(dataAccess.findWalData(any(), anyLong())).thenAnswer(invocation -> Observable.from(
+                journalRows((MetricId<?>) invocation.getArguments()[0], (Long) invocation.getArguments()[1])));
+        when(dataAccess.deleteWalData(any(), anyLong())).thenAnswer(invocation -> {
+            journalRows((MetricId<?>) invocation.getArguments()[0], (Long) invocation.getArguments()[1]).clear();
+            return Observable.just(mock(ResultSet.class));
+        });
+        when(dataAccess.insertWalIndex(anyString(), any(), anyLong()))
+                .thenReturn(Observable.just(mock(ResultSet.class)));
+        when(dataAccess.deleteWalIndex(anyString(), any(), anyLong()))
+                .thenReturn(Observable.just(mock(ResultSet.class)));
+        when(dataAccess.findWalIndex(anyString(), anyLong())).thenReturn(Observable.empty());
+        when(dataAccess.findCompressedData(any(), anyLong(), anyLong(), anyInt(), any()))
+                .thenReturn(Observable.empty());
+        when(dataAccess.insertCompressedData(any(), anyLong(), any(), anyInt()))
+                .thenReturn(Observable.just(mock(ResultSet.class)));
+        when(dataAccess.insertData(any())).thenReturn(Observable.just(1));
+
+        lockManager = mock(LockManager.class);
+        lockAvailable(true);
+        when(lockManager.releaseLock(anyString(), anyString())).thenReturn(Observable.just(true));
+
+        buffer = new IngestionBuffer(dataAccess, lockManager, NODE, id -> 3600, 0);
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeService.now = DateTime::now;
+    }
+
+    private List<Row> journalRows(MetricId<?> metricId, long blockStart) {
+        return journal.computeIfAbsent(metricId, id -> new HashMap<>()).computeIfAbsent(blockStart,
+                b -> new ArrayList<>());
+    }
+
+    private static Row row(CompressedPointContainer cpc) {
+        Row row = mock(Row.class);
+        when(row.getBytes(0)).thenReturn(cpc.getValueBuffer());
+        when(row.getBytes(1)).thenReturn(cpc.getTagsBuffer());
+        return row;
+    }
+
+    private void lockAvailable(boolean locked) {
+        when(lockManager.acquireLock(anyString(), anyString(), anyInt(), anyBoolean())).thenAnswer(invocation ->
+                Observable.just(new Lock((String) invocation.getArguments()[0],
+                        (String) invocation.getArguments()[1], Long.MAX_VALUE, 30, locked)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bufferCurrentBlockAndWriteOlderToTempTables() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        long old = blockStart - Duration.standardHours(3).getMillis();
+
+        Metric<Double> metric = new Metric<>(metricId, asList(
+                new DataPoint<>(blockStart + 200, 2.0),
+                new DataPoint<>(old, 10.0),
+                new DataPoint<>(blockStart + 100, 1.0)));
+
+        int written = buffer.insertData(Observable.just(metric))
+                .reduce(0, (a, b) -> a + b)
+                .toBlocking().single();
+        assertEquals(3, written);
+
+        verify(dataAccess).insertWalIndex(NODE, metricId, blockStart);
+        verify(dataAccess).insertWalData(eq(metricId), eq(blockStart), any(CompressedPointContainer.class), eq(2));
+
+        ArgumentCaptor<Observable> captor = ArgumentCaptor.forClass(Observable.class);
+        verify(dataAccess).insertData(captor.capture());
+        Metric<Double> outOfOrder = (Metric<Double>) captor.getValue().toBlocking().single();
+        assertEquals(asList(new DataPoint<>(old, 10.0)), outOfOrder.getDataPoints());
+
+        List<DataPoint<Double>> asc = buffer.findDataPoints(metricId, blockStart, blockStart + 1000, Order.ASC)
+                .toList().toBlocking().single();
+        assertEquals(asList(new DataPoint<>(blockStart + 100, 1.0), new DataPoint<>(blockStart + 200, 2.0)), asc);
+
+        List<DataPoint<Double>> desc = buffer.findDataPoints(metricId, blockStart, blockStart + 150, Order.DESC)
+                .toList().toBlocking().single();
+        assertEquals(asList(new DataPoint<>(blockStart + 100, 1.0)), desc);
+
+        // The index is written only for the first write of the block
+        buffer.insertData(Observable.just(new Metric<>(metricId, asList(new DataPoint<>(blockStart + 300, 3.0)))))
+                .toBlocking().last();
+        verify(dataAccess).insertWalIndex(NODE, metricId, blockStart);
+    }
+
+    @Test
+    public void journalRoundTrip() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            dataPoints.add(new DataPoint<>(blockStart + i * 1000, (double) i));
+        }
+
+        buffer.insertData(Observable.just(new Metric<>(metricId, dataPoints))).toBlocking().last();
+
+        ArgumentCaptor<CompressedPointContainer> captor = ArgumentCaptor.forClass(CompressedPointContainer.class);
+        verify(dataAccess).insertWalData(eq(metricId), eq(blockStart), captor.capture(), eq(100));
+
+        List<DataPoint<Double>> decoded = IngestionBuffer.decode(GAUGE, blockStart,
+                captor.getValue().getValueBuffer(), captor.getValue().getTagsBuffer());
+        assertEquals(dataPoints, decoded);
+    }
+
+    @Test
+    public void readPointsJournaledByOtherNodes() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        journalRows(metricId, blockStart).add(row(compress(asList(new DataPoint<>(blockStart + 10, 1.0),
+                new DataPoint<>(blockStart + 20, 2.0)))));
+
+        buffer.insertData(Observable.just(new Metric<>(metricId, asList(new DataPoint<>(blockStart + 20, 3.0)))))
+                .toBlocking().last();
+
+        List<DataPoint<Double>> dataPoints = buffer.findDataPoints(metricId, blockStart, blockStart + 1000,
+                Order.ASC).toList().toBlocking().single();
+        assertEquals(asList(new DataPoint<>(blockStart + 10, 1.0), new DataPoint<>(blockStart + 20, 3.0)),
+                dataPoints);
+    }
+
+    @Test
+    public void flushClosedBlockUnderLock() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        buffer.insertData(Observable.just(new Metric<>(metricId, asList(new DataPoint<>(blockStart + 10, 1.0)))))
+                .toBlocking().last();
+        // Another node has journaled points to the same block
+        journalRows(metricId, blockStart).add(row(compress(asList(new DataPoint<>(blockStart + 20, 2.0)))));
+
+        // The open block is not flushed
+        buffer.flush().await();
+        verify(dataAccess, never()).insertCompressedData(any(), anyLong(), any(), anyInt());
+
+        DateTimeService.now = () -> new DateTime(blockStart + IngestionBuffer.BLOCK_SIZE.getMillis() + 1000);
+        buffer.flush().await();
+
+        ArgumentCaptor<CompressedPointContainer> captor = ArgumentCaptor.forClass(CompressedPointContainer.class);
+        verify(dataAccess).insertCompressedData(eq(metricId), eq(blockStart), captor.capture(), eq(3600));
+        assertEquals(asList(new DataPoint<>(blockStart + 10, 1.0), new DataPoint<>(blockStart + 20, 2.0)),
+                IngestionBuffer.decode(GAUGE, blockStart, captor.getValue().getValueBuffer(), null));
+        verify(dataAccess).deleteWalData(metricId, blockStart);
+        verify(dataAccess).deleteWalIndex(NODE, metricId, blockStart);
+        verify(lockManager).releaseLock(anyString(), anyString());
+
+        // Flushed blocks are forgotten
+        buffer.flush().await();
+        verify(dataAccess).deleteWalIndex(NODE, metricId, blockStart);
+    }
+
+    @Test
+    public void retryBlockLockedByAnotherNode() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        buffer.insertData(Observable.just(new Metric<>(metricId, asList(new DataPoint<>(blockStart + 10, 1.0)))))
+                .toBlocking().last();
+        DateTimeService.now = () -> new DateTime(blockStart + IngestionBuffer.BLOCK_SIZE.getMillis() + 1000);
+
+        lockAvailable(false);
+        buffer.flush().await();
+        verify(dataAccess, never()).findWalData(metricId, blockStart);
+        verify(lockManager, never()).releaseLock(anyString(), anyString());
+
+        lockAvailable(true);
+        buffer.flush().await();
+        verify(dataAccess).insertCompressedData(eq(metricId), eq(blockStart), any(), eq(3600));
+    }
+
+    @Test
+    public void restoreBlocksJournaledByThisNode() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        long previousBlock = blockStart - IngestionBuffer.BLOCK_SIZE.getMillis();
+        journalRows(metricId, previousBlock).add(row(compress(previousBlock, asList(
+                new DataPoint<>(previousBlock + 10, 1.0)))));
+
+        Row indexRow = mock(Row.class);
+        when(indexRow.getString(0)).thenReturn("t1");
+        when(indexRow.getByte(1)).thenReturn(GAUGE.getCode());
+        when(indexRow.getString(2)).thenReturn("m1");
+        when(dataAccess.findWalIndex(NODE, previousBlock)).thenReturn(Observable.just(indexRow));
+
+        buffer.start(Duration.standardDays(1).getMillis());
+        try {
+            buffer.flush().await();
+        } finally {
+            buffer.shutdown();
+        }
+
+        verify(dataAccess, times(1)).insertCompressedData(eq(metricId), eq(previousBlock), any(), eq(3600));
+        verify(dataAccess).deleteWalIndex(NODE, metricId, previousBlock);
+    }
+
+    @Test
+    public void deleteMetricDropsBufferedData() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+
+        buffer.insertData(Observable.just(new Metric<>(metricId, asList(new DataPoint<>(blockStart + 1, 1.0)))))
+                .toBlocking().last();
+        buffer.deleteMetric(metricId).toBlocking().last();
+
+        verify(dataAccess).deleteWalData(metricId, blockStart);
+        verify(dataAccess).deleteWalIndex(NODE, metricId, blockStart);
+        assertTrue(buffer.findDataPoints(metricId, blockStart, blockStart + 1000, Order.ASC)
+                .isEmpty().toBlocking().single());
+    }
+
+    private CompressedPointContainer compress(List<DataPoint<Double>> dataPoints) {
+        return compress(blockStart, dataPoints);
+    }
+
+    private static CompressedPointContainer compress(long blockStart, List<DataPoint<Double>> dataPoints) {
+        return Observable.from(dataPoints)
+                .compose(new DataPointCompressTransformer<>(GAUGE, blockStart))
+                .toBlocking().single();
+    }
+}
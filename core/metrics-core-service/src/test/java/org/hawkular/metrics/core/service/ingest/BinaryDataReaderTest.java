@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.ingest;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.AvailabilityType.DOWN;
+import static org.hawkular.metrics.model.AvailabilityType.UP;
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class BinaryDataReaderTest {
+
+    private static final long NOW = 1476000000000L;
+
+    @Test
+    public void readsGaugeDataPointsAsPrimitives() {
+        List<Metric<Double>> metrics = asList(
+                new Metric<>(new MetricId<>("", GAUGE, "gauge-ä"), asList(new DataPoint<>(NOW, 1.5),
+                        new DataPoint<>(NOW + 1000, 2.5), new DataPoint<>(NOW - 500, -3.0))),
+                new Metric<>(new MetricId<>("", GAUGE, "empty"), Collections.emptyList()),
+                new Metric<>(new MetricId<>("", GAUGE, "other"), asList(new DataPoint<>(NOW, Double.NaN))));
+        ByteBuffer payload = BinaryDataWriter.write(GAUGE, metrics);
+
+        BinaryDataReader reader = new BinaryDataReader(payload, GAUGE);
+        assertTrue(reader.next());
+        assertEquals("gauge-ä", reader.getMetricName());
+        assertEquals(NOW, reader.getTimestamp());
+        assertEquals(1.5, reader.getValue(), 0.0);
+        assertTrue(reader.next());
+        assertEquals(NOW + 1000, reader.getTimestamp());
+        assertTrue(reader.next());
+        assertEquals(NOW - 500, reader.getTimestamp());
+        assertEquals(-3.0, reader.getValue(), 0.0);
+        assertTrue(reader.next());
+        assertEquals("other", reader.getMetricName());
+        assertTrue(Double.isNaN(reader.getValue()));
+        assertFalse(reader.next());
+        assertEquals(0, payload.position());
+    }
+
+    @Test
+    public void readsCounterAndAvailabilityMetrics() {
+        List<Metric<Long>> counters = asList(
+                new Metric<>(new MetricId<>("t", COUNTER, "a"), asList(new DataPoint<>(NOW, 1L),
+                        new DataPoint<>(NOW + 10, Long.MAX_VALUE))),
+                new Metric<>(new MetricId<>("t", COUNTER, "b"), asList(new DataPoint<>(NOW, -1L))));
+        assertEquals(counters,
+                new BinaryDataReader(BinaryDataWriter.write(COUNTER, counters), COUNTER).readMetrics("t"));
+
+        List<Metric<AvailabilityType>> availabilities = asList(
+                new Metric<>(new MetricId<>("t", AVAILABILITY, "a"), asList(new DataPoint<>(NOW, UP),
+                        new DataPoint<>(NOW + 10, DOWN))));
+        assertEquals(availabilities, new BinaryDataReader(BinaryDataWriter.write(AVAILABILITY, availabilities),
+                AVAILABILITY).readMetrics("t"));
+    }
+
+    @Test
+    public void rejectsInvalidPayloads() {
+        ByteBuffer payload = BinaryDataWriter.write(GAUGE, asList(
+                new Metric<>(new MetricId<>("", GAUGE, "a"), asList(new DataPoint<>(NOW, 1.0)))));
+
+        assertInvalid(ByteBuffer.allocate(0), "Payload is empty");
+        assertInvalid(ByteBuffer.wrap(new byte[] {0}), "Metric id is empty");
+        assertInvalid((ByteBuffer) payload.duplicate().limit(payload.limit() - 1), "Truncated payload");
+    }
+
+    @Test
+    public void validatesTheWholePayloadBeforeReading() {
+        List<Metric<Double>> metrics = asList(
+                new Metric<>(new MetricId<>("", GAUGE, "a"), asList(new DataPoint<>(NOW, 1.0))),
+                new Metric<>(new MetricId<>("", GAUGE, "b"), asList(new DataPoint<>(NOW, 2.0))));
+        ByteBuffer payload = BinaryDataWriter.write(GAUGE, metrics);
+
+        BinaryDataReader reader = new BinaryDataReader(payload, GAUGE);
+        reader.validate();
+        assertTrue(reader.next());
+        assertEquals("a", reader.getMetricName());
+
+        // The first metric is complete, only the second one is truncated
+        BinaryDataReader truncated = new BinaryDataReader((ByteBuffer) payload.duplicate()
+                .limit(payload.limit() - 1), GAUGE);
+        try {
+            truncated.validate();
+            fail("Expected the payload to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Truncated payload", e.getMessage());
+        }
+    }
+
+    private void assertInvalid(ByteBuffer payload, String message) {
+        try {
+            new BinaryDataReader(payload, GAUGE).validate();
+            fail("Expected the payload to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+        BinaryDataReader reader = new BinaryDataReader(payload, GAUGE);
+        try {
+            while (reader.next()) {
+                // Read everything
+            }
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+            return;
+        }
+        fail("Expected the payload to be rejected");
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSet;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class LastValueStoreTest {
+
+    private DataAccess dataAccess;
+
+    private LastValueStore store;
+
+    @Before
+    public void setUp() {
+        dataAccess = mock(DataAccess.class);
+        when(dataAccess.updateLastValue(any(MetricId.class), any(DataPoint.class), anyInt()))
+                .thenReturn(Observable.just(mock(ResultSet.class)));
+        store = new LastValueStore(dataAccess, id -> 3600, 100, 60_000);
+    }
+
+    @Test
+    public void storesTheMostRecentDataPoint() {
+        MetricId<Double> id = new MetricId<>("t1", GAUGE, "g1");
+        DataPoint<Double> latest = new DataPoint<>(3000L, 3.0);
+        Metric<Double> metric = new Metric<>(id, asList(new DataPoint<>(1000L, 1.0), latest,
+                new DataPoint<>(2000L, 2.0)));
+
+        Metric<Double> passed = Observable.just(metric).compose(store.update()).toBlocking().single();
+
+        assertEquals(metric, passed);
+        verify(dataAccess).updateLastValue(id, latest, 3600);
+        assertEquals(latest, store.find(id).toBlocking().single());
+        verify(dataAccess, never()).findLastValue(id);
+    }
+
+    @Test
+    public void olderDataPointsAreNotWritten() {
+        MetricId<Double> id = new MetricId<>("t1", GAUGE, "g1");
+        DataPoint<Double> latest = new DataPoint<>(3000L, 3.0);
+        store.put(id, latest).toBlocking().lastOrDefault(null);
+
+        Metric<Double> late = new Metric<>(id, Collections.singletonList(new DataPoint<>(1000L, 1.0)));
+        Observable.just(late).compose(store.update()).toBlocking().single();
+
+        verify(dataAccess, times(1)).updateLastValue(any(MetricId.class), any(DataPoint.class), anyInt());
+        assertEquals(latest, store.find(id).toBlocking().single());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.registry.MetadataChangeFeed.Change;
+import org.hawkular.metrics.core.service.registry.MetadataChangeFeed.Kind;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class MetadataChangeFeedTest {
+
+    private DataAccess dataAccess;
+
+    private MetadataChangeFeed feed;
+
+    @Before
+    public void setUp() {
+        dataAccess = mock(DataAccess.class);
+        when(dataAccess.insertMetadataChange(anyLong(), any(UUID.class), anyString(), any(MetricId.class)))
+                .thenReturn(Observable.just(mock(ResultSet.class)));
+        feed = new MetadataChangeFeed(dataAccess, System.currentTimeMillis());
+    }
+
+    @Test
+    public void changesAreReadOnlyOnce() {
+        MetricId<Double> own = new MetricId<>("t1", GAUGE, "g1");
+        MetricId<Double> other = new MetricId<>("t1", GAUGE, "g2");
+
+        feed.publish(Kind.TAGS, own).toBlocking().lastOrDefault(null);
+        ArgumentCaptor<UUID> published = ArgumentCaptor.forClass(UUID.class);
+        verify(dataAccess).insertMetadataChange(anyLong(), published.capture(), eq("TAGS"), eq(own));
+
+        Row ownRow = row(published.getValue(), "TAGS", own);
+        Row otherRow = row(UUIDs.timeBased(), "DELETED", other);
+        Row unknownRow = row(UUIDs.timeBased(), "SOMETHING_NEW", other);
+        when(dataAccess.findMetadataChanges(anyLong(), any(UUID.class)))
+                .thenReturn(Observable.just(ownRow, otherRow, unknownRow));
+
+        List<Change> changes = feed.poll().toList().toBlocking().single();
+        assertEquals(1, changes.size());
+        assertEquals(new Change(Kind.DELETED, other), changes.get(0));
+
+        // The next poll overlaps with the previous one
+        assertEquals(0, feed.poll().count().toBlocking().single().intValue());
+    }
+
+    @Test
+    public void bucketsAreAligned() {
+        long hour = MetadataChangeFeed.BUCKET_SIZE;
+        assertEquals(3 * hour, MetadataChangeFeed.bucket(3 * hour));
+        assertEquals(3 * hour, MetadataChangeFeed.bucket(4 * hour - 1));
+    }
+
+    private static Row row(UUID version, String kind, MetricId<?> id) {
+        Row row = mock(Row.class);
+        when(row.getUUID(0)).thenReturn(version);
+        when(row.getString(1)).thenReturn(kind);
+        when(row.getString(2)).thenReturn(id.getTenantId());
+        when(row.getByte(3)).thenReturn(id.getType().getCode());
+        when(row.getString(4)).thenReturn(id.getName());
+        return row;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSet;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class MetricIdRegistryTest {
+
+    private DataAccess dataAccess;
+    private MetricIdRegistry registry;
+
+    @Before
+    public void setUp() {
+        ResultSet resultSet = mock(ResultSet.class);
+        dataAccess = mock(DataAccess.class);
+        when(dataAccess.insertMetricId(any(), anyInt())).thenReturn(Observable.just(resultSet));
+        when(dataAccess.deleteMetricId(any())).thenReturn(Observable.just(resultSet));
+
+        registry = new MetricIdRegistry(dataAccess, id -> 3600, 1000);
+    }
+
+    @Test
+    public void registerOnlyOncePerRefreshInterval() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        Metric<Double> metric = new Metric<>(metricId, asList(new DataPoint<>(1L, 1.0)));
+
+        List<Metric<Double>> passed = Observable.just(metric, metric)
+                .compose(registry.<Double>register())
+                .toList().toBlocking().single();
+        assertEquals(2, passed.size());
+
+        Observable.just(metric).compose(registry.<Double>register()).toBlocking().single();
+
+        int ttl = 3600 + (int) MetricIdRegistry.REFRESH_INTERVAL.getStandardSeconds();
+        verify(dataAccess, times(1)).insertMetricId(eq(metricId), eq(ttl));
+    }
+
+    @Test
+    public void readyOnlyAfterBackfill() {
+        MetricId<Double> m1 = new MetricId<>("t1", GAUGE, "m1");
+        MetricId<Double> m2 = new MetricId<>("t2", GAUGE, "m2");
+
+        assertFalse(registry.isReady());
+        registry.backfill(Observable.just(m1, m2)).await();
+        assertTrue(registry.isReady());
+
+        verify(dataAccess).insertMetricId(eq(m1), anyInt());
+        verify(dataAccess).insertMetricId(eq(m2), anyInt());
+    }
+
+    @Test
+    public void registerAgainAfterRemove() {
+        MetricId<Double> metricId = new MetricId<>("t1", GAUGE, "m1");
+        Metric<Double> metric = new Metric<>(metricId, asList(new DataPoint<>(1L, 1.0)));
+
+        Observable.just(metric).compose(registry.<Double>register()).toBlocking().single();
+        registry.remove(metricId).toBlocking().subscribe();
+        Observable.just(metric).compose(registry.<Double>register()).toBlocking().single();
+
+        verify(dataAccess).deleteMetricId(metricId);
+        verify(dataAccess, times(2)).insertMetricId(eq(metricId), anyInt());
+    }
+}
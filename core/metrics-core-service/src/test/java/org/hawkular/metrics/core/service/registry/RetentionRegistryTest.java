@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.registry;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * @author agent
+ */
+public class RetentionRegistryTest {
+
+    private static final int DAY = 24 * 60 * 60;
+
+    private RetentionRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new RetentionRegistry(mock(DataAccess.class), 7 * DAY);
+    }
+
+    @Test
+    public void metricRetentionOverridesTenantRetention() {
+        registry.replace("t1", GAUGE, ImmutableMap.of("$gauge", 14, "g1", 30));
+
+        assertEquals(30 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g1")));
+        assertEquals(14 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g2")));
+        assertEquals(7 * DAY, registry.getTTL(new MetricId<>("t1", COUNTER, "g1")));
+        assertEquals(7 * DAY, registry.getTTL(new MetricId<>("t2", GAUGE, "g1")));
+    }
+
+    @Test
+    public void refreshReplacesThePartition() {
+        registry.replace("t1", GAUGE, ImmutableMap.of("g1", 30, "g2", 2));
+        registry.putMetric(new MetricId<>("t1", GAUGE, "g3"), 3);
+        registry.putTenant("t1", GAUGE, 10);
+        assertEquals(3 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g3")));
+        assertEquals(10 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g4")));
+
+        registry.replace("t1", GAUGE, ImmutableMap.of("g1", 1));
+        assertEquals(DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g1")));
+        assertEquals(7 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g2")));
+
+        registry.removeMetric(new MetricId<>("t1", GAUGE, "g1"));
+        registry.setDefaultTTL(DAY);
+        assertEquals(DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g1")));
+    }
+
+    @Test
+    public void applySingleRetentionChanges() {
+        registry.replace("t1", GAUGE, ImmutableMap.of("$gauge", 14, "g1", 30));
+
+        registry.apply(new MetricId<>("t1", GAUGE, "g2"), 2);
+        registry.apply(new MetricId<>("t1", GAUGE, "g1"), null);
+        assertEquals(2 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g2")));
+        assertEquals(14 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g1")));
+
+        registry.apply(new MetricId<>("t1", GAUGE, "$gauge"), 3);
+        assertEquals(3 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g1")));
+        assertEquals(2 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g2")));
+
+        registry.apply(new MetricId<>("t1", GAUGE, "$gauge"), null);
+        assertEquals(7 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g1")));
+        assertEquals(2 * DAY, registry.getTTL(new MetricId<>("t1", GAUGE, "g2")));
+
+        registry.apply(new MetricId<>("t2", COUNTER, "$counter"), 5);
+        assertEquals(5 * DAY, registry.getTTL(new MetricId<>("t2", COUNTER, "c1")));
+    }
+}
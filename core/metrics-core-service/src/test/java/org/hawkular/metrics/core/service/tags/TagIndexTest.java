@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import static java.util.Collections.singleton;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+/**
+ * @author agent
+ */
+public class TagIndexTest {
+
+    private static final String TENANT = "t1";
+
+    private TagIndex index;
+    private MetricId<Double> m1;
+    private MetricId<Double> m2;
+    private MetricId<Long> c1;
+
+    @Before
+    public void setUp() {
+        index = new TagIndex();
+        m1 = new MetricId<>(TENANT, GAUGE, "m1");
+        m2 = new MetricId<>(TENANT, GAUGE, "m2");
+        c1 = new MetricId<>(TENANT, COUNTER, "c1");
+        index.put(m1, ImmutableMap.of("host", "a", "env", "prod"));
+        index.put(m2, ImmutableMap.of("host", "b", "env", "test"));
+        index.put(c1, ImmutableMap.of("host", "a"));
+        index.put(new MetricId<>("t2", GAUGE, "m1"), ImmutableMap.of("host", "a"));
+    }
+
+    @Test
+    public void exactAndOrQueries() {
+        assertEquals(ImmutableSet.of(m1, c1), find(null, ImmutableMap.of("host", "a")));
+        assertEquals(ImmutableSet.of(m1), find(GAUGE, ImmutableMap.of("host", "a")));
+        assertEquals(ImmutableSet.of(m1, m2), find(GAUGE, ImmutableMap.of("host", "a|b")));
+        assertEquals(ImmutableSet.of(m2), find(GAUGE, ImmutableMap.of("host", "a|b", "env", "test")));
+        assertEquals(ImmutableSet.of(), find(GAUGE, ImmutableMap.of("host", "c")));
+    }
+
+    @Test
+    public void regExpAndExclusionQueries() {
+        assertEquals(ImmutableSet.of(m1, m2), find(GAUGE, ImmutableMap.of("env", "*")));
+        assertEquals(ImmutableSet.of(m2), find(GAUGE, ImmutableMap.of("env", "!prod")));
+        assertEquals(ImmutableSet.of(m1), find(GAUGE, ImmutableMap.of("env", "pr.*")));
+        assertEquals(ImmutableSet.of(c1), find(null, ImmutableMap.of("!env", "*")));
+        assertEquals(ImmutableSet.of(m1, m2, c1), find(null, ImmutableMap.of("!unknown", "*")));
+    }
+
+    @Test
+    public void updatesAreIndexed() {
+        index.addTags(m2, ImmutableMap.of("host", "a"));
+        assertEquals(ImmutableSet.of(m1, m2), find(GAUGE, ImmutableMap.of("host", "a")));
+        assertEquals(ImmutableSet.of(), find(GAUGE, ImmutableMap.of("host", "b")));
+
+        index.deleteTags(m1, singleton("env"));
+        assertEquals(ImmutableSet.of(m2), find(GAUGE, ImmutableMap.of("env", "*")));
+
+        index.remove(m2);
+        assertFalse(index.contains(m2));
+        assertEquals(ImmutableSet.of(m1), find(GAUGE, ImmutableMap.of("host", "a")));
+
+        index.put(m1, ImmutableMap.of("zone", "z1"));
+        assertEquals(ImmutableSet.of(), find(GAUGE, ImmutableMap.of("host", "a")));
+        assertEquals(ImmutableSet.of(m1), find(GAUGE, ImmutableMap.of("zone", "z1")));
+    }
+
+    @Test
+    public void updatesDuringLoadAreKept() {
+        PublishSubject<Metric<?>> metrics = PublishSubject.create();
+        index = new TagIndex();
+        Observable<Void> loaded = index.load(metrics).toObservable();
+        loaded.subscribe();
+        assertFalse(index.isReady());
+
+        metrics.onNext(new Metric<>(m1, ImmutableMap.of("host", "a")));
+        index.addTags(m2, ImmutableMap.of("host", "a"));
+        metrics.onCompleted();
+
+        assertTrue(index.isReady());
+        assertEquals(ImmutableSet.of(m1, m2), find(GAUGE, ImmutableMap.of("host", "a")));
+    }
+
+    @Test
+    public void denseValues() {
+        index = new TagIndex();
+        Set<MetricId<?>> expected = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            MetricId<Double> id = new MetricId<>(TENANT, GAUGE, "m" + i);
+            index.put(id, ImmutableMap.of("parity", i % 2 == 0 ? "even" : "odd", "id", Integer.toString(i)));
+            if (i % 2 == 0) {
+                expected.add(id);
+            }
+        }
+        for (int i = 0; i < 10000; i += 4) {
+            MetricId<Double> id = new MetricId<>(TENANT, GAUGE, "m" + i);
+            index.remove(id);
+            expected.remove(id);
+        }
+        assertEquals(expected, find(GAUGE, ImmutableMap.of("parity", "even")));
+        assertEquals(ImmutableSet.of(new MetricId<>(TENANT, GAUGE, "m2")),
+                find(GAUGE, ImmutableMap.of("parity", "even", "id", "2|4")));
+    }
+
+    private Set<MetricId<?>> find(MetricType<?> type, Map<String, String> query) {
+        return index.findMetricIdentifiers(TENANT, type, query, true);
+    }
+}
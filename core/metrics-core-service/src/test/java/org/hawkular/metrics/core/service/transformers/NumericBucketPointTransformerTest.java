@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.junit.Test;
+
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class NumericBucketPointTransformerTest {
+
+    @Test
+    public void collectToBuckets() {
+        Buckets buckets = new Buckets(100, 10, 3);
+
+        List<NumericBucketPoint> bucketPoints = Observable.<DataPoint<? extends Number>>from(asList(
+                new DataPoint<>(100L, 1.0),
+                new DataPoint<>(105L, 3.0),
+                new DataPoint<>(129L, 5L)))
+                .compose(new NumericBucketPointTransformer(buckets, emptyList()))
+                .toBlocking().single();
+
+        assertEquals(3, bucketPoints.size());
+
+        NumericBucketPoint first = bucketPoints.get(0);
+        assertEquals(100, first.getStart());
+        assertEquals(110, first.getEnd());
+        assertEquals(1.0, first.getMin(), 0);
+        assertEquals(3.0, first.getMax(), 0);
+        assertEquals(4.0, first.getSum(), 0);
+        assertEquals(2, first.getSamples().intValue());
+
+        NumericBucketPoint second = bucketPoints.get(1);
+        assertEquals(110, second.getStart());
+        assertTrue(second.isEmpty());
+
+        NumericBucketPoint third = bucketPoints.get(2);
+        assertEquals(120, third.getStart());
+        assertEquals(5.0, third.getAvg(), 0);
+        assertEquals(1, third.getSamples().intValue());
+    }
+
+    @Test
+    public void emptyBuckets() {
+        Buckets buckets = new Buckets(100, 10, 3);
+
+        List<NumericBucketPoint> bucketPoints = Observable.<DataPoint<? extends Number>>empty()
+                .compose(new NumericBucketPointTransformer(buckets, emptyList()))
+                .toBlocking().single();
+
+        assertEquals(3, bucketPoints.size());
+        for (int i = 0; i < bucketPoints.size(); i++) {
+            assertEquals(100 + i * 10, bucketPoints.get(i).getStart());
+            assertEquals(110 + i * 10, bucketPoints.get(i).getEnd());
+            assertTrue(bucketPoints.get(i).isEmpty());
+        }
+    }
+
+    @Test
+    public void pointsOnBucketBoundaries() {
+        Buckets buckets = new Buckets(100, 10, 3);
+
+        List<NumericBucketPoint> bucketPoints = Observable.<DataPoint<? extends Number>>from(asList(
+                new DataPoint<>(109L, 1.0),
+                new DataPoint<>(110L, 2.0),
+                new DataPoint<>(129L, 3.0)))
+                .compose(new NumericBucketPointTransformer(buckets, emptyList()))
+                .toBlocking().single();
+
+        // Buckets are [start, end)
+        assertEquals(1.0, bucketPoints.get(0).getMax(), 0);
+        assertEquals(1, bucketPoints.get(0).getSamples().intValue());
+        assertEquals(2.0, bucketPoints.get(1).getMin(), 0);
+        assertEquals(1, bucketPoints.get(1).getSamples().intValue());
+        assertEquals(3.0, bucketPoints.get(2).getMin(), 0);
+        assertEquals(1, bucketPoints.get(2).getSamples().intValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectPointAtEndOfLastBucket() {
+        Buckets buckets = new Buckets(100, 10, 3);
+
+        Observable.<DataPoint<? extends Number>>just(new DataPoint<>(130L, 1.0))
+                .compose(new NumericBucketPointTransformer(buckets, emptyList()))
+                .toBlocking().single();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class PeriodDetectorTest {
+
+    @Test
+    public void emitPeriodsAsTheyClose() {
+        PeriodDetector detector = new PeriodDetector(d -> d > 10);
+
+        detector.accept(1, 5);
+        detector.accept(2, 11);
+        detector.accept(3, 12);
+        assertTrue(detector.drain().isEmpty());
+
+        detector.accept(4, 5);
+        List<long[]> periods = detector.drain();
+        assertEquals(1, periods.size());
+        assertArrayEquals(new long[]{2, 3}, periods.get(0));
+        assertTrue(detector.drain().isEmpty());
+
+        detector.accept(5, 15);
+        detector.accept(6, 5);
+        detector.accept(7, 20);
+        periods = detector.drain();
+        assertEquals(1, periods.size());
+        assertArrayEquals(new long[]{5, 5}, periods.get(0));
+
+        periods = detector.finish();
+        assertEquals(1, periods.size());
+        assertArrayEquals(new long[]{7, 7}, periods.get(0));
+    }
+
+    @Test
+    public void noPeriods() {
+        PeriodDetector detector = new PeriodDetector(d -> d > 10);
+        detector.accept(1, 5);
+        detector.accept(2, 6);
+        assertTrue(detector.finish().isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+import static org.hawkular.metrics.core.service.Order.DESC;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.CompressorHeader;
+import org.hawkular.metrics.model.DataPoint;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitOutput;
+import fi.iki.yak.ts.compression.gorilla.Compressor;
+import rx.Observable;
+
+/**
+ * @author agent
+ */
+public class TempTableCompressTransformerTest {
+
+    private static final long BLOCK_START = 1476000000000L;
+
+    @Test
+    public void compressesNewestFirstRowsInTimeOrder() {
+        // The temp tables are clustered newest first
+        List<Row> rows = new ArrayList<>();
+        for (int i = 9; i >= 0; i--) {
+            rows.add(tempRow(BLOCK_START + i * 1000, i + 0.5));
+        }
+        ByteBuffer block = Observable.from(rows)
+                .compose(new TempTableCompressTransformer(BLOCK_START))
+                .toBlocking().single()
+                .getValueBuffer();
+
+        byte flag = CompressorHeader.GorillaSettings.TIME_ASCENDING.getByteValue();
+        assertTrue((block.get(0) & flag) == flag);
+        BlockSummary summary = BlockSummary.fromBlock(block);
+        assertEquals(BLOCK_START, summary.getMinTimestamp());
+        assertEquals(BLOCK_START + 9000, summary.getMaxTimestamp());
+
+        assertEquals(timestamps(5, 6, 7, 8, 9), decompress(block, ASC, 0, BLOCK_START + 5000, BLOCK_START + 120_000));
+        assertEquals(timestamps(9), decompress(block, DESC, 1, BLOCK_START, BLOCK_START + 120_000));
+    }
+
+    @Test
+    public void decompressesNewestFirstBlocksOfEarlierVersions() {
+        ByteBufferBitOutput out = new ByteBufferBitOutput();
+        out.getByteBuffer().put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.noneOf(CompressorHeader.GorillaSettings.class)));
+        Compressor compressor = new Compressor(BLOCK_START, out);
+        for (int i = 9; i >= 0; i--) {
+            compressor.addValue(BLOCK_START + i * 1000, i + 0.5);
+        }
+        compressor.close();
+        ByteBuffer block = (ByteBuffer) out.getByteBuffer().flip();
+
+        assertEquals(timestamps(0, 1, 2, 3, 4), decompress(block, ASC, 0, BLOCK_START, BLOCK_START + 5000));
+        assertEquals(timestamps(5, 6, 7, 8, 9), decompress(block, ASC, 0, BLOCK_START + 5000, BLOCK_START + 120_000));
+        assertEquals(timestamps(9), decompress(block, DESC, 1, BLOCK_START, BLOCK_START + 120_000));
+    }
+
+    private static List<Long> timestamps(long... offsets) {
+        List<Long> timestamps = new ArrayList<>();
+        for (long offset : offsets) {
+            timestamps.add(BLOCK_START + offset * 1000);
+        }
+        return timestamps;
+    }
+
+    private static List<Long> decompress(ByteBuffer block, Order order, int limit, long start, long end) {
+        Row row = mock(Row.class);
+        when(row.getBytes("c_value")).thenReturn(block);
+        return Observable.just(row)
+                .compose(new DataPointDecompressTransformer<>(GAUGE, order, limit, start, end, false))
+                .map(DataPoint::getTimestamp)
+                .toList()
+                .toBlocking().single();
+    }
+
+    private static Row tempRow(long timestamp, double value) {
+        Row row = mock(Row.class);
+        when(row.getByte(1)).thenReturn(GAUGE.getCode());
+        when(row.getTimestamp(3)).thenReturn(new Date(timestamp));
+        when(row.getDouble(4)).thenReturn(value);
+        return row;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Metadata;
+
+/**
+ * @author agent
+ */
+public class TokenRingIndexTest {
+
+    @Test
+    public void findOwningRange() {
+        long[] ends = new long[]{-100, 0, 100};
+
+        assertEquals(0, TokenRingIndex.indexOf(ends, -200));
+        assertEquals(0, TokenRingIndex.indexOf(ends, -100));
+        assertEquals(1, TokenRingIndex.indexOf(ends, -99));
+        assertEquals(1, TokenRingIndex.indexOf(ends, 0));
+        assertEquals(2, TokenRingIndex.indexOf(ends, 1));
+        assertEquals(2, TokenRingIndex.indexOf(ends, 100));
+        // Wraps around to the first range
+        assertEquals(0, TokenRingIndex.indexOf(ends, 101));
+        assertEquals(0, TokenRingIndex.indexOf(ends, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void singleTokenOwnsTheRing() {
+        long[] ends = new long[]{42};
+
+        assertEquals(0, TokenRingIndex.indexOf(ends, Long.MIN_VALUE));
+        assertEquals(0, TokenRingIndex.indexOf(ends, 42));
+        assertEquals(0, TokenRingIndex.indexOf(ends, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void unregisterOnShutdown() {
+        Metadata metadata = mock(Metadata.class);
+        when(metadata.getTokenRanges()).thenReturn(Collections.emptySet());
+        Cluster cluster = mock(Cluster.class);
+        when(cluster.getMetadata()).thenReturn(metadata);
+
+        TokenRingIndex index = new TokenRingIndex(cluster);
+        verify(cluster).register(index);
+
+        index.shutdown();
+        verify(cluster).unregister(index);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.model.exception;
+
+/**
+ * Signals that a query did not finish before its deadline and partial results were not requested.
+ *
+ * @author agent
+ */
+@SuppressWarnings("serial")
+public class QueryTimeoutException extends RuntimeException {
+
+    private final long timeout;
+
+    public QueryTimeoutException(long timeout) {
+        super("Query did not complete within " + timeout + " ms");
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The time budget of the query in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
@@ -29,3 +29,4 @@ include '/org/hawkular/schema/updates/schema-0.23.0.groovy'
 include '/org/hawkular/schema/updates/schema-0.26.0.groovy'
 include '/org/hawkular/schema/updates/schema-0.27.0.groovy'
 include '/org/hawkular/schema/updates/schema-0.30.0.groovy'
+include '/org/hawkular/schema/updates/schema-0.32.0.groovy'
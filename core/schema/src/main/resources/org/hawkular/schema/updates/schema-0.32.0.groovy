@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+schemaChange {
+  version '10.0'
+  author 'agent'
+  tags '0.32.x'
+  cql """
+CREATE TABLE data_wal (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    dpart bigint,
+    time timeuuid,
+    count int,
+    value blob,
+    tags blob,
+    PRIMARY KEY ((tenant_id, type, metric, dpart), time)
+) WITH default_time_to_live = 604800
+"""
+  verify { tableExists(keyspace, 'data_wal') }
+}
+
+schemaChange {
+  version '10.1'
+  author 'agent'
+  tags '0.32.x'
+  cql """
+CREATE TABLE rollups (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    resolution int,
+    time timestamp,
+    min double,
+    max double,
+    sum double,
+    samples int,
+    sketch blob,
+    PRIMARY KEY ((tenant_id, type, metric, resolution), time)
+) WITH compaction = {
+  'class': 'TimeWindowCompactionStrategy',
+  'compaction_window_unit': 'DAYS',
+  'compaction_window_size': '1'
+}
+"""
+  verify { tableExists(keyspace, 'rollups') }
+}
+
+schemaChange {
+  version '10.2'
+  author 'agent'
+  tags '0.32.x'
+  cql """
+CREATE TABLE metric_ids (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    PRIMARY KEY ((tenant_id, type), metric)
+) WITH compaction = { 'class': 'LeveledCompactionStrategy' }
+"""
+  verify { tableExists(keyspace, 'metric_ids') }
+}
+
+schemaChange {
+  version '10.3'
+  author 'agent'
+  tags '0.32.x'
+  cql """
+CREATE TABLE metadata_changes (
+    bucket bigint,
+    version timeuuid,
+    kind text,
+    tenant_id text,
+    type tinyint,
+    metric text,
+    PRIMARY KEY (bucket, version)
+) WITH default_time_to_live = 86400 AND compaction = {
+  'class': 'TimeWindowCompactionStrategy',
+  'compaction_window_unit': 'HOURS',
+  'compaction_window_size': '1'
+}
+"""
+  verify { tableExists(keyspace, 'metadata_changes') }
+}
+
+schemaChange {
+  version '10.4'
+  author 'agent'
+  tags '0.32.x'
+  cql """
+CREATE TABLE last_values (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    time timestamp,
+    n_value double,
+    availability blob,
+    l_value bigint,
+    PRIMARY KEY ((tenant_id, type, metric))
+)
+"""
+  verify { tableExists(keyspace, 'last_values') }
+}
+
+schemaChange {
+  version '10.5'
+  author 'agent'
+  tags '0.32.x'
+  cql """
+CREATE TABLE data_wal_idx (
+    node text,
+    dpart bigint,
+    tenant_id text,
+    type tinyint,
+    metric text,
+    PRIMARY KEY ((node, dpart), tenant_id, type, metric)
+) WITH default_time_to_live = 604800
+"""
+  verify { tableExists(keyspace, 'data_wal_idx') }
+}
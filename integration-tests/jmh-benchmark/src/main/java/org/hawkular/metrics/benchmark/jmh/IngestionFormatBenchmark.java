@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.benchmark.jmh;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.ingest.BinaryDataReader;
+import org.hawkular.metrics.core.service.ingest.BinaryDataWriter;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares decoding the same gauge payload from JSON into metric objects, as the REST endpoints do, with reading it
+ * from the binary ingestion format. No Cassandra is needed.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IngestionFormatBenchmark {
+
+    private static final TypeReference<List<Metric<Double>>> GAUGE_LIST = new TypeReference<List<Metric<Double>>>() {
+    };
+
+    @State(Scope.Benchmark)
+    public static class Payload {
+
+        @Param({"10000"})
+        public int size;
+
+        @Param({"1", "10"})
+        public int datapointsPerMetric;
+
+        private final ObjectMapper mapper = new ObjectMapper();
+
+        private byte[] json;
+        private byte[] binary;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final long timestamp = System.currentTimeMillis();
+
+            List<Metric<Double>> metrics = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                List<DataPoint<Double>> points = new ArrayList<>(datapointsPerMetric);
+                for (int j = 0; j < datapointsPerMetric; j++) {
+                    points.add(new DataPoint<>(timestamp + j * 10000, i + j * 0.5));
+                }
+                metrics.add(new Metric<>(new MetricId<>("b", GAUGE, "ingestion.format.test." + i), points));
+            }
+
+            json = mapper.writeValueAsBytes(metrics);
+            ByteBuffer buffer = BinaryDataWriter.write(GAUGE, metrics);
+            binary = new byte[buffer.remaining()];
+            buffer.get(binary);
+        }
+    }
+
+    @Benchmark
+    public void decodeJson(Payload payload, Blackhole bh) throws IOException {
+        bh.consume(payload.mapper.readValue(payload.json, GAUGE_LIST));
+    }
+
+    @Benchmark
+    public void decodeBinary(Payload payload, Blackhole bh) {
+        BinaryDataReader reader = new BinaryDataReader(ByteBuffer.wrap(payload.binary), GAUGE);
+        while (reader.next()) {
+            bh.consume(reader.getMetricName());
+            bh.consume(reader.getTimestamp());
+            bh.consume(reader.getValue());
+        }
+    }
+
+    @Benchmark
+    public void decodeBinaryToMetrics(Payload payload, Blackhole bh) {
+        bh.consume(new BinaryDataReader(ByteBuffer.wrap(payload.binary), GAUGE).readMetrics("b"));
+    }
+}
@@ -19,6 +19,7 @@ package org.hawkular.metrics.benchmark.jmh;
 import static org.hawkular.metrics.core.service.TimeUUIDUtils.getTimeUUID;
 import static org.hawkular.metrics.model.MetricType.GAUGE;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -26,6 +27,8 @@ import java.util.concurrent.TimeUnit;
 import org.hawkular.metrics.benchmark.jmh.util.LiveCassandraManager;
 import org.hawkular.metrics.benchmark.jmh.util.MetricServiceManager;
 import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.core.service.ingest.BinaryDataReader;
+import org.hawkular.metrics.core.service.ingest.BinaryDataWriter;
 import org.hawkular.metrics.core.service.transformers.BatchStatementTransformer;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
@@ -147,6 +150,7 @@ public class InsertBenchmark {
         public int datapointsPerMetric;
 
         private List<Metric<Double>> metricList;
+        private ByteBuffer binaryPayload;
 
         @Setup(Level.Trial)
         public void setup() {
@@ -166,11 +170,16 @@ public class InsertBenchmark {
             }
 
             this.metricList = metrics;
+            this.binaryPayload = BinaryDataWriter.write(GAUGE, metrics);
         }
 
         public Observable<Metric<Double>> getMetricObservable() {
             return Observable.from(metricList);
         }
+
+        public ByteBuffer getBinaryPayload() {
+            return binaryPayload;
+        }
     }
 
     // Equivalent to REST-tests for inserting size-amount of metrics in one call
@@ -181,6 +190,15 @@ public class InsertBenchmark {
                 .toBlocking().lastOrDefault(null));
     }
 
+    // Equivalent to REST-tests for inserting size-amount of metrics in one call with the binary format
+//    @Benchmark
+    @OperationsPerInvocation(100000) // Note, this is metric amount from param size, not datapoints
+    public void insertBenchmarkBinary(GaugeMetricCreator creator, ServiceCreator service, Blackhole bh) {
+        bh.consume(service.getMetricsService()
+                .addGaugeData("b", new BinaryDataReader(creator.getBinaryPayload(), GAUGE))
+                .toBlocking().lastOrDefault(null));
+    }
+
     // Equivalent of REST-test for inserting for single-metric id one call
 //    @Benchmark
     @OperationsPerInvocation(100000) // Note, this is metric amount from param size, not datapoints
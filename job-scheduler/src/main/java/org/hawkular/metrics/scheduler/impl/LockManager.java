@@ -56,7 +56,7 @@ import rx.Observable;
  *
  * @author jsanda
  */
-class LockManager {
+public class LockManager {
 
     private static Logger logger = Logger.getLogger(LockManager.class);
 